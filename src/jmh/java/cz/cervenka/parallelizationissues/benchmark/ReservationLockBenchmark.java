@@ -0,0 +1,127 @@
+package cz.cervenka.parallelizationissues.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the throughput of the reservation critical section of the starvation scenario under the
+ * different {@link ReservationLockType locking strategies}. The number of threads is chosen by the runner
+ * ({@code -t}), see {@link ReservationLockBenchmarkRunner}.
+ * <p>
+ * Besides the operations per second, every trial records how many reservations each thread made, so that
+ * the throughput of a strategy can be weighed against how evenly it shares the lock. The counts of a trial,
+ * warm-up included, are appended as one line to the file named by the {@value #DISTRIBUTION_FILE_PROPERTY}
+ * system property, or printed if the property is not set.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservationLockBenchmark {
+
+    public static final String DISTRIBUTION_FILE_PROPERTY = "reservation.distribution.file";
+
+    /**
+     * The reservation system shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Reservation {
+
+        @Param({"SYNCHRONIZED", "REENTRANT_UNFAIR", "REENTRANT_FAIR", "STAMPED", "SEMAPHORE", "TICKET"})
+        public ReservationLockType lockType;
+
+        /**
+         * The work done while holding the lock, in {@link Blackhole#consumeCPU(long)} tokens.
+         */
+        @Param("100")
+        public int criticalTokens;
+
+        /**
+         * The work done between two reservations without holding the lock.
+         */
+        @Param("0")
+        public int thinkTokens;
+
+        private final List<Reserver> reservers = new CopyOnWriteArrayList<>();
+        private final LongSupplier criticalSection = this::takeSlot;
+        private ReservationLockType.ReservationLock lock;
+        private long slots;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            lock = lockType.create();
+        }
+
+        @TearDown(Level.Trial)
+        public void recordDistribution() {
+            String counts = reservers.stream()
+                    .map(reserver -> Long.toString(reserver.reservations))
+                    .collect(Collectors.joining(";"));
+            String line = lockType + "," + reservers.size() + "," + criticalTokens + "," + thinkTokens + "," + counts;
+            String file = System.getProperty(DISTRIBUTION_FILE_PROPERTY);
+            if (file == null) {
+                System.out.println("Reservations per thread: " + line);
+                return;
+            }
+            try {
+                Files.writeString(Path.of(file), line + System.lineSeparator(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private long takeSlot() {
+            Blackhole.consumeCPU(criticalTokens);
+            return ++slots;
+        }
+    }
+
+    /**
+     * A benchmark thread, counting its own reservations.
+     */
+    @State(Scope.Thread)
+    public static class Reserver {
+
+        private long reservations;
+
+        @Setup(Level.Trial)
+        public void register(Reservation reservation) {
+            reservation.reservers.add(this);
+        }
+    }
+
+    @Benchmark
+    public long reserve(Reservation reservation, Reserver reserver) {
+        long slot = reservation.lock.reserve(reservation.criticalSection);
+        reserver.reservations++;
+        if (reservation.thinkTokens > 0) {
+            Blackhole.consumeCPU(reservation.thinkTokens);
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,111 @@
+package cz.cervenka.parallelizationissues.benchmark;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Runs {@link ReservationLockBenchmark} with 1, 2, 4, ... up to N threads and prints, for every locking
+ * strategy and thread count, the throughput together with the share of the reservations made by the least
+ * and the most successful thread, relative to an even share (100 %).
+ * <p>
+ * N is taken from the {@code benchmark.max-threads} system property and defaults to the number of processors.
+ * The raw JMH results are written to {@code target/jmh/reservation-<threads>-threads.json}, the per-thread
+ * counts to {@code target/jmh/reservation-distribution.csv}. Standard JMH options passed as arguments, e.g.
+ * {@code -f 3 -wi 5 -p criticalTokens=10,1000}, override the defaults of the benchmark.
+ */
+public class ReservationLockBenchmarkRunner {
+
+    private static final Path OUTPUT_DIRECTORY = Path.of("target", "jmh");
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        int maxThreads = Integer.getInteger("benchmark.max-threads", Runtime.getRuntime().availableProcessors());
+        Files.createDirectories(OUTPUT_DIRECTORY);
+        Path distributionFile = OUTPUT_DIRECTORY.resolve("reservation-distribution.csv").toAbsolutePath();
+        Files.deleteIfExists(distributionFile);
+
+        List<RunResult> results = new ArrayList<>();
+        for (int threads : threadCounts(maxThreads)) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(ReservationLockBenchmark.class.getName())
+                    .threads(threads)
+                    .jvmArgsAppend("-D" + ReservationLockBenchmark.DISTRIBUTION_FILE_PROPERTY + "=" + distributionFile)
+                    .result(OUTPUT_DIRECTORY.resolve("reservation-" + threads + "-threads.json").toString())
+                    .resultFormat(ResultFormatType.JSON)
+                    .build();
+            results.addAll(new Runner(options).run());
+        }
+
+        Map<String, double[]> shares = readShares(distributionFile);
+        System.out.println();
+        System.out.printf("%-17s %7s %9s %6s %16s %16s %10s %10s%n",
+                "lock", "threads", "critical", "think", "throughput", "error", "min share", "max share");
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            Result<?> primary = result.getPrimaryResult();
+            double[] share = shares.getOrDefault(key(params.getParam("lockType"), params.getThreads(),
+                    params.getParam("criticalTokens"), params.getParam("thinkTokens")), new double[]{Double.NaN, Double.NaN});
+            System.out.printf("%-17s %7d %9s %6s %16.0f %16.0f %9.1f%% %9.1f%%  %s%n",
+                    params.getParam("lockType"), params.getThreads(), params.getParam("criticalTokens"),
+                    params.getParam("thinkTokens"), primary.getScore(), primary.getScoreError(),
+                    share[0], share[1], primary.getScoreUnit());
+        }
+    }
+
+    private static TreeSet<Integer> threadCounts(int maxThreads) {
+        TreeSet<Integer> counts = new TreeSet<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(Math.max(1, maxThreads));
+        return counts;
+    }
+
+    /**
+     * Reads the per-thread reservation counts and reduces them, per configuration, to the lowest and the
+     * highest share of a single thread over all forks, in percent of an even share.
+     */
+    private static Map<String, double[]> readShares(Path distributionFile) throws Exception {
+        Map<String, double[]> shares = new LinkedHashMap<>();
+        if (!Files.exists(distributionFile)) {
+            return shares;
+        }
+        for (String line : Files.readAllLines(distributionFile)) {
+            String[] fields = line.split(",");
+            if (fields.length < 5) {
+                continue;
+            }
+            long[] counts = Arrays.stream(fields[4].split(";")).mapToLong(Long::parseLong).toArray();
+            long total = Arrays.stream(counts).sum();
+            if (total == 0) {
+                continue;
+            }
+            double even = (double) total / counts.length;
+            double min = Arrays.stream(counts).min().orElse(0) * 100 / even;
+            double max = Arrays.stream(counts).max().orElse(0) * 100 / even;
+            shares.merge(key(fields[0], Integer.parseInt(fields[1]), fields[2], fields[3]), new double[]{min, max},
+                    (a, b) -> new double[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        }
+        return shares;
+    }
+
+    private static String key(String lockType, int threads, String criticalTokens, String thinkTokens) {
+        return lockType + "," + threads + "," + criticalTokens + "," + thinkTokens;
+    }
+}
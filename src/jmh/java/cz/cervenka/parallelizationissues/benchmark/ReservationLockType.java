@@ -0,0 +1,136 @@
+package cz.cervenka.parallelizationissues.benchmark;
+
+import cz.cervenka.parallelizationissues.util.TicketLock;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The strategies guarding the reservation critical section of the starvation scenario.
+ */
+public enum ReservationLockType {
+
+    /**
+     * An intrinsic monitor, as in the original starvation problem.
+     */
+    SYNCHRONIZED {
+        @Override
+        ReservationLock create() {
+            Object monitor = new Object();
+            return criticalSection -> {
+                synchronized (monitor) {
+                    return criticalSection.getAsLong();
+                }
+            };
+        }
+    },
+
+    /**
+     * A non-fair {@link ReentrantLock}, which lets an arriving thread barge ahead of the queued ones.
+     */
+    REENTRANT_UNFAIR {
+        @Override
+        ReservationLock create() {
+            return reentrant(new ReentrantLock(false));
+        }
+    },
+
+    /**
+     * A fair {@link ReentrantLock}, as in the starvation solution.
+     */
+    REENTRANT_FAIR {
+        @Override
+        ReservationLock create() {
+            return reentrant(new ReentrantLock(true));
+        }
+    },
+
+    /**
+     * The write lock of a {@link StampedLock}.
+     */
+    STAMPED {
+        @Override
+        ReservationLock create() {
+            StampedLock lock = new StampedLock();
+            return criticalSection -> {
+                long stamp = lock.writeLock();
+                try {
+                    return criticalSection.getAsLong();
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            };
+        }
+    },
+
+    /**
+     * A non-fair binary {@link Semaphore}.
+     */
+    SEMAPHORE {
+        @Override
+        ReservationLock create() {
+            Semaphore semaphore = new Semaphore(1);
+            return criticalSection -> {
+                semaphore.acquireUninterruptibly();
+                try {
+                    return criticalSection.getAsLong();
+                } finally {
+                    semaphore.release();
+                }
+            };
+        }
+    },
+
+    /**
+     * A FIFO spin lock, see {@link TicketLock}.
+     */
+    TICKET {
+        @Override
+        ReservationLock create() {
+            TicketLock lock = new TicketLock();
+            return criticalSection -> {
+                lock.lock();
+                try {
+                    return criticalSection.getAsLong();
+                } finally {
+                    lock.unlock();
+                }
+            };
+        }
+    };
+
+    /**
+     * Runs a critical section under mutual exclusion.
+     */
+    @FunctionalInterface
+    interface ReservationLock {
+
+        /**
+         * Runs the critical section while holding the lock.
+         *
+         * @param criticalSection The critical section.
+         * @return The result of the critical section.
+         */
+        long reserve(LongSupplier criticalSection);
+    }
+
+    /**
+     * Creates a new, unlocked instance of the strategy.
+     *
+     * @return The lock.
+     */
+    abstract ReservationLock create();
+
+    private static ReservationLock reentrant(ReentrantLock lock) {
+        return criticalSection -> {
+            lock.lock();
+            try {
+                return criticalSection.getAsLong();
+            } finally {
+                lock.unlock();
+            }
+        };
+    }
+}
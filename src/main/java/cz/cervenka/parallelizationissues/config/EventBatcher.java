@@ -0,0 +1,242 @@
+package cz.cervenka.parallelizationissues.config;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batching stage between the simulation actors and the session outboxes.
+ * Messages broadcast to the same run (or endpoint) are collected for a short time window, or until a maximum
+ * number of events is reached, and then delivered as a single frame holding a JSON array of the messages.
+ * This reduces the number of WebSocket frames, and therefore of socket writes, per simulation step.
+ * The batcher collects already encoded JSON values: text messages are added as JSON strings,
+ * simulation events in their compact array encoding together with their sequence numbers.
+ * Every flushed batch is encoded once into a {@link Frame} shared by all of its subscribers.
+ * <p>
+ * The frames of a run are delivered in the order their batches were opened: a batch is retired, removed and
+ * delivered while holding the delivery lock of its run, which the flush of the next batch of the run must take too.
+ * The delivery locks are striped by run, so a run whose next batch fills up on a producer thread waits for its
+ * previous frame to be delivered instead of overtaking it.
+ */
+public class EventBatcher {
+
+    /**
+     * Receives the frames produced by the batcher.
+     */
+    @FunctionalInterface
+    public interface Delivery {
+
+        /**
+         * Delivers a frame to the subscribers of a run or endpoint.
+         *
+         * @param endpoint The endpoint path of the batch.
+         * @param runId    The ID of the run of the batch, or null for an endpoint-wide batch.
+         * @param frame    The JSON array of the batched values.
+         */
+        void deliver(String endpoint, String runId, Frame frame);
+    }
+
+    private static final int DELIVERY_LOCK_STRIPES = 64;
+
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private final Object[] deliveryLocks = new Object[DELIVERY_LOCK_STRIPES];
+    private final long windowMillis;
+    private final int maxEvents;
+    private final Delivery delivery;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param windowMillis The time a batch collects messages before it is flushed.
+     * @param maxEvents    The number of messages that flushes a batch immediately.
+     * @param delivery     The receiver of the flushed frames.
+     */
+    public EventBatcher(long windowMillis, int maxEvents, Delivery delivery) {
+        this.windowMillis = windowMillis;
+        this.maxEvents = Math.max(1, maxEvents);
+        this.delivery = delivery;
+        for (int i = 0; i < deliveryLocks.length; i++) {
+            deliveryLocks[i] = new Object();
+        }
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ws-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Adds a text message to the batch of its run, or of its endpoint if no run ID is given.
+     *
+     * @param endpoint The endpoint path.
+     * @param runId    The ID of the run, or null.
+     * @param message  The message to be batched.
+     */
+    public void add(String endpoint, String runId, String message) {
+        addEncoded(endpoint, runId, encode(message));
+    }
+
+    /**
+     * Adds an encoded JSON value to the batch of its run, or of its endpoint if no run ID is given.
+     *
+     * @param endpoint The endpoint path.
+     * @param runId    The ID of the run, or null.
+     * @param json     The JSON value to be batched.
+     */
+    public void addEncoded(String endpoint, String runId, String json) {
+        addEncoded(endpoint, runId, json, 0);
+    }
+
+    /**
+     * Adds an encoded simulation event to the batch of its run, or of its endpoint if no run ID is given.
+     *
+     * @param endpoint The endpoint path.
+     * @param runId    The ID of the run, or null.
+     * @param json     The JSON value to be batched.
+     * @param sequence The sequence number of the event, or 0 if the value is no simulation event.
+     */
+    public void addEncoded(String endpoint, String runId, String json, long sequence) {
+        String key = key(endpoint, runId);
+        while (true) {
+            Batch batch = batches.computeIfAbsent(key, k -> new Batch(k, endpoint, runId));
+            if (batch.add(json, sequence)) {
+                return;
+            }
+            // The batch has just been flushed and removed, retry with a new one.
+        }
+    }
+
+    /**
+     * Encodes a text message as a JSON string.
+     *
+     * @param message The message.
+     * @return The quoted and escaped message.
+     */
+    public static String encode(String message) {
+        StringBuilder json = new StringBuilder(message.length() + 2).append('"');
+        JsonStringEncoder.getInstance().quoteAsString(message, json);
+        return json.append('"').toString();
+    }
+
+    /**
+     * Immediately flushes the pending messages of a run.
+     *
+     * @param endpoint The endpoint path of the run.
+     * @param runId    The ID of the run, or null for the endpoint-wide batch.
+     */
+    public void flush(String endpoint, String runId) {
+        Batch batch = batches.get(key(endpoint, runId));
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Immediately flushes the pending messages of all runs.
+     */
+    public void flushAll() {
+        batches.values().forEach(Batch::flush);
+    }
+
+    /**
+     * Returns the number of batches currently collecting messages.
+     *
+     * @return The number of open batches.
+     */
+    public int getOpenBatches() {
+        return batches.size();
+    }
+
+    /**
+     * Stops the flushing thread. Pending messages are discarded.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static String key(String endpoint, String runId) {
+        return runId != null ? "run:" + runId : "endpoint:" + endpoint;
+    }
+
+    /**
+     * Returns the lock ordering the deliveries of the batches with the given key.
+     */
+    private Object deliveryLock(String key) {
+        return deliveryLocks[Math.floorMod(key.hashCode(), deliveryLocks.length)];
+    }
+
+    /**
+     * Messages collected for one run. A batch is used for a single window only: once it is flushed
+     * it is removed from the batcher and rejects further messages.
+     */
+    private final class Batch {
+        private final String key;
+        private final String endpoint;
+        private final String runId;
+        private final List<String> messages = new ArrayList<>();
+        private final List<Long> sequences = new ArrayList<>();
+        private ScheduledFuture<?> scheduledFlush;
+        private boolean flushed;
+
+        private Batch(String key, String endpoint, String runId) {
+            this.key = key;
+            this.endpoint = endpoint;
+            this.runId = runId;
+        }
+
+        private boolean add(String message, long sequence) {
+            boolean full;
+            synchronized (this) {
+                if (flushed) {
+                    return false;
+                }
+                messages.add(message);
+                if (sequence > 0) {
+                    sequences.add(sequence);
+                }
+                full = messages.size() >= maxEvents;
+                if (!full && scheduledFlush == null) {
+                    scheduledFlush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full) {
+                flush();
+            }
+            return true;
+        }
+
+        /**
+         * Retires the batch and delivers its messages. The delivery lock of the run is held from before the batch
+         * is retired until its frame has been delivered, so the next batch of the run, which can only be opened once
+         * this one is removed, cannot be delivered before it.
+         */
+        private void flush() {
+            synchronized (deliveryLock(key)) {
+                List<String> pending;
+                synchronized (this) {
+                    if (flushed) {
+                        return;
+                    }
+                    flushed = true;
+                    if (scheduledFlush != null) {
+                        scheduledFlush.cancel(false);
+                    }
+                    pending = messages;
+                }
+                batches.remove(key, this);
+                if (!pending.isEmpty()) {
+                    delivery.deliver(endpoint, runId, new Frame("[" + String.join(",", pending) + "]", pending.size(),
+                            sequences.stream().mapToLong(Long::longValue).toArray()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package cz.cervenka.parallelizationissues.config;
+
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent events of one simulation run, kept so that a WebSocket session connecting late,
+ * or reconnecting after a network blip, can be sent the events it has missed before the live ones.
+ * The events are encoded into a ring of bytes allocated outside the heap, so a history costs exactly
+ * its capacity no matter how many events pass through it and adds no garbage per event; once the ring
+ * is full, the oldest events are overwritten.
+ * <p>
+ * Every event is stored as a record {@code [length, sequence, timestamp, action, actor, resource, detail]},
+ * the strings as their UTF-8 length plus one (0 meaning null) followed by their bytes. Records may wrap
+ * around the end of the buffer. All methods are synchronized; the {@link SimulationWebSocketHandler} also
+ * holds the monitor of the history while it delivers the frames of the run, so a session can be
+ * registered and sent the history atomically with respect to the live events.
+ */
+public class EventHistory {
+
+    private static final int HEADER_BYTES = Integer.BYTES + 2 * Long.BYTES + 1;
+
+    private final String runId;
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private long head;
+    private long tail;
+    private int size;
+    private long evicted;
+    private long lastSequence;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param runId    The ID of the run whose events are kept.
+     * @param capacity The number of bytes reserved for the events.
+     */
+    public EventHistory(String runId, int capacity) {
+        if (capacity < HEADER_BYTES + 3 * Integer.BYTES) {
+            throw new IllegalArgumentException("The history capacity must be at least " + (HEADER_BYTES + 3 * Integer.BYTES) + " bytes.");
+        }
+        this.runId = runId;
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Appends an event, overwriting the oldest events if the ring is full.
+     * An event larger than the whole ring is not kept and counts as evicted.
+     *
+     * @param event The event to be kept.
+     */
+    public synchronized void append(SimulationEvent event) {
+        lastSequence = Math.max(lastSequence, event.sequence());
+        byte[] actor = utf8(event.actor());
+        byte[] resource = utf8(event.resource());
+        byte[] detail = utf8(event.detail());
+        int length = HEADER_BYTES + lengthOf(actor) + lengthOf(resource) + lengthOf(detail);
+        if (length > capacity) {
+            evicted++;
+            return;
+        }
+        while (tail + length - head > capacity) {
+            head += getInt(head);
+            size--;
+            evicted++;
+        }
+        long position = tail;
+        putInt(position, length);
+        putLong(position + 4, event.sequence());
+        putLong(position + 12, event.timestamp());
+        putByte(position + 20, (byte) event.action().getCode());
+        position += HEADER_BYTES;
+        position = putString(position, actor);
+        position = putString(position, resource);
+        putString(position, detail);
+        tail += length;
+        size++;
+    }
+
+    /**
+     * Returns the kept events with a sequence number greater than the given one, oldest first.
+     *
+     * @param sequence The last sequence number the caller has seen, or 0 for all kept events.
+     * @return The newer events.
+     */
+    public synchronized List<SimulationEvent> since(long sequence) {
+        List<SimulationEvent> events = new ArrayList<>();
+        long position = head;
+        while (position < tail) {
+            int length = getInt(position);
+            long eventSequence = getLong(position + 4);
+            if (eventSequence > sequence) {
+                long timestamp = getLong(position + 12);
+                EventAction action = EventAction.fromCode(getByte(position + 20));
+                long[] cursor = {position + HEADER_BYTES};
+                String actor = getString(cursor);
+                String resource = getString(cursor);
+                String detail = getString(cursor);
+                events.add(new SimulationEvent(runId, eventSequence, timestamp, action, actor, resource, detail));
+            }
+            position += length;
+        }
+        return events;
+    }
+
+    /**
+     * Returns how many events after the given sequence number have been overwritten, i.e. the gap
+     * a client that has seen the events up to that sequence number can no longer fill.
+     *
+     * @param sequence The last sequence number the caller has seen.
+     * @return The number of events missed for good.
+     */
+    public synchronized long missedSince(long sequence) {
+        if (evicted == 0) {
+            return 0;
+        }
+        long oldest = size > 0 ? getLong(head + 4) : lastSequence + 1;
+        return Math.max(0, oldest - 1 - sequence);
+    }
+
+    /**
+     * Returns the number of events currently kept.
+     *
+     * @return The number of events in the ring.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of events that have been overwritten or were too large to be kept.
+     *
+     * @return The number of events no longer available.
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Returns the number of bytes reserved by this history.
+     *
+     * @return The capacity of the ring.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int lengthOf(byte[] value) {
+        return Integer.BYTES + (value != null ? value.length : 0);
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+
+    private void putByte(long position, byte value) {
+        buffer.put(index(position), value);
+    }
+
+    private byte getByte(long position) {
+        return buffer.get(index(position));
+    }
+
+    private void putInt(long position, int value) {
+        for (int i = 0; i < Integer.BYTES; i++) {
+            putByte(position + i, (byte) (value >>> (8 * (Integer.BYTES - 1 - i))));
+        }
+    }
+
+    private int getInt(long position) {
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = (value << 8) | (getByte(position + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private void putLong(long position, long value) {
+        putInt(position, (int) (value >>> 32));
+        putInt(position + Integer.BYTES, (int) value);
+    }
+
+    private long getLong(long position) {
+        return ((long) getInt(position) << 32) | (getInt(position + Integer.BYTES) & 0xFFFFFFFFL);
+    }
+
+    private long putString(long position, byte[] value) {
+        putInt(position, value != null ? value.length + 1 : 0);
+        position += Integer.BYTES;
+        if (value != null) {
+            for (byte b : value) {
+                putByte(position++, b);
+            }
+        }
+        return position;
+    }
+
+    private String getString(long[] cursor) {
+        int length = getInt(cursor[0]) - 1;
+        cursor[0] += Integer.BYTES;
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = getByte(cursor[0]++);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+package cz.cervenka.parallelizationissues.config;
+
+import org.springframework.web.socket.TextMessage;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * A message published to a {@link TopicBroker} topic, encoded once and shared by all subscribers of the topic.
+ * The frame holds the text sent to the clients together with the {@link TextMessage} wrapping it, so that a
+ * frame fanned out to any number of WebSocket sessions and Server-Sent Events streams is built exactly once.
+ * Frames are immutable. Besides the text, a frame knows how many values it carries (a batched JSON array
+ * frame carries several) and the sequence numbers of the simulation events among them, which lets subscribers
+ * skip events they have already sent and label what they send.
+ */
+public final class Frame {
+
+    private static final long[] NO_SEQUENCES = new long[0];
+
+    private final String text;
+    private final TextMessage message;
+    private final int size;
+    private final long[] sequences;
+
+    /**
+     * Creates a frame.
+     *
+     * @param text      The encoded text of the frame.
+     * @param size      The number of values the frame carries.
+     * @param sequences The sequence numbers of the simulation events in the frame, in the order of the frame.
+     */
+    public Frame(String text, int size, long[] sequences) {
+        this.text = text;
+        this.message = new TextMessage(text);
+        this.size = size;
+        this.sequences = sequences.length > 0 ? sequences.clone() : NO_SEQUENCES;
+    }
+
+    /**
+     * Creates a frame carrying a single value that is no simulation event, e.g. a plain text message.
+     *
+     * @param text The encoded text of the frame.
+     * @return The frame.
+     */
+    public static Frame of(String text) {
+        return new Frame(text, 1, NO_SEQUENCES);
+    }
+
+    /**
+     * Returns the encoded text of the frame.
+     *
+     * @return The text.
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * Returns the WebSocket message of the frame, shared by all sessions it is sent to.
+     *
+     * @return The text message.
+     */
+    public TextMessage message() {
+        return message;
+    }
+
+    /**
+     * Returns the number of values the frame carries.
+     *
+     * @return The number of values, 1 for a frame that is no JSON array.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the sequence numbers of the simulation events in the frame.
+     *
+     * @return The sequence numbers, empty if the frame carries no events.
+     */
+    public LongStream sequences() {
+        return Arrays.stream(sequences);
+    }
+
+    /**
+     * Returns the highest sequence number of the simulation events in the frame.
+     *
+     * @return The sequence number, or 0 if the frame carries no events.
+     */
+    public long lastSequence() {
+        long last = 0;
+        for (long sequence : sequences) {
+            last = Math.max(last, sequence);
+        }
+        return last;
+    }
+
+    /**
+     * Checks whether the frame is a JSON array, whose values can be merged with those of other array frames.
+     *
+     * @return True for an array frame.
+     */
+    public boolean isArray() {
+        return isJsonArray(text);
+    }
+
+    /**
+     * Checks whether a text is a JSON array frame.
+     *
+     * @param text The text.
+     * @return True if the text starts and ends with square brackets.
+     */
+    public static boolean isJsonArray(String text) {
+        return text.length() >= 2 && text.charAt(0) == '[' && text.charAt(text.length() - 1) == ']';
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,188 @@
+package cz.cervenka.parallelizationissues.config;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous Logback appender backed by a lock-free ring buffer.
+ * Logging threads only claim a slot with a compare-and-set and store the event, so they never take a lock
+ * and never wait for the console; a single consumer thread hands the events to the attached appenders.
+ * When the buffer is full, new events are dropped and counted instead of blocking the simulation threads.
+ * <p>
+ * Only the thread name and the MDC are captured on the logging thread. The message is formatted on the
+ * consumer thread, so arguments passed to the logger must not be mutated after the call.
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private AtomicReferenceArray<ILoggingEvent> slots;
+    private int mask;
+    private volatile boolean running;
+    private Thread consumer;
+
+    /**
+     * Sets the number of events the buffer holds. The size is rounded up to a power of two.
+     *
+     * @param bufferSize The buffer size.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns the number of events the buffer holds.
+     *
+     * @return The buffer size.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full.
+     *
+     * @return The number of dropped events.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Starts the consumer thread.
+     */
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        running = true;
+        consumer = new Thread(this::consume, "log-ring-" + getName());
+        consumer.setDaemon(true);
+        consumer.start();
+        super.start();
+    }
+
+    /**
+     * Stops the consumer thread after it has written the events still in the buffer.
+     */
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long lost = dropped.get();
+        if (lost > 0) {
+            addWarn("Dropped " + lost + " logging events because the ring buffer was full.");
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    /**
+     * Claims a slot in the ring buffer and publishes the event to it.
+     *
+     * @param event The logging event.
+     */
+    @Override
+    protected void append(ILoggingEvent event) {
+        event.getThreadName();
+        event.getMDCPropertyMap();
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= slots.length()) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        slots.lazySet((int) (sequence & mask), event);
+    }
+
+    private void consume() {
+        long idleNanos = 0;
+        while (true) {
+            long sequence = consumed.get();
+            int index = (int) (sequence & mask);
+            ILoggingEvent event = slots.get(index);
+            if (event == null) {
+                if (!running && sequence == claimed.get()) {
+                    return;
+                }
+                // Empty, or a producer has claimed the slot but not yet published it.
+                idleNanos = Math.min(MAX_IDLE_NANOS, Math.max(1000, idleNanos * 2));
+                LockSupport.parkNanos(this, idleNanos);
+                continue;
+            }
+            idleNanos = 0;
+            slots.lazySet(index, null);
+            consumed.lazySet(sequence + 1);
+            try {
+                appenders.appendLoopOnAppenders(event);
+            } catch (RuntimeException e) {
+                addError("Failed to write logging event.", e);
+            }
+        }
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
@@ -0,0 +1,388 @@
+package cz.cervenka.parallelizationissues.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded outbound queue of a single WebSocket session.
+ * Producers only append to the queue and never touch the network; the queue is drained
+ * by a writer thread taken from the shared writer executor. When the queue is full,
+ * the configured {@link SlowConsumerPolicy} decides what happens with the new message.
+ * A send blocked for longer than the send timeout is aborted by {@link #abortTimedOutSend()}, which the owner
+ * calls periodically from a thread of its own, so that the stalled writer thread is released by closing the session.
+ * The sends, failed sends and dropped messages are recorded on the {@link Meters} shared by the outboxes of all sessions.
+ * As a {@link TopicSubscriber}, the outbox queues the shared message of every {@link Frame} it is delivered,
+ * so a frame fanned out to many sessions is wrapped into a {@link TextMessage} only once.
+ */
+public class SessionOutbox implements TopicSubscriber {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionOutbox.class);
+
+    /**
+     * The maximum length of a frame merged by the {@link SlowConsumerPolicy#COALESCE} policy, in characters.
+     */
+    public static final int MAX_COALESCED_LENGTH = 64 * 1024;
+
+    private final WebSocketSession session;
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final long sendTimeoutNanos;
+    private final Executor writer;
+    private final Meters meters;
+
+    private final Deque<TextMessage> queue = new ArrayDeque<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean sessionClosed = new AtomicBoolean();
+    private volatile CloseStatus closeStatus = CloseStatus.NORMAL;
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private volatile long sendStartedAt;
+
+    /**
+     * Creates a new outbox for the given session.
+     *
+     * @param session           The WebSocket session the messages are sent to.
+     * @param capacity          The maximum number of queued messages.
+     * @param policy            The policy applied when the queue is full.
+     * @param sendTimeoutMillis The maximum time a single send may take before the session is considered stuck.
+     * @param writer            The executor draining the queue.
+     */
+    public SessionOutbox(WebSocketSession session, int capacity, SlowConsumerPolicy policy,
+                         long sendTimeoutMillis, Executor writer) {
+        this(session, capacity, policy, sendTimeoutMillis, writer, Meters.NONE);
+    }
+
+    /**
+     * Creates a new outbox for the given session, recording its sends on the given meters.
+     *
+     * @param session           The WebSocket session the messages are sent to.
+     * @param capacity          The maximum number of queued messages.
+     * @param policy            The policy applied when the queue is full.
+     * @param sendTimeoutMillis The maximum time a single send may take before the session is considered stuck.
+     * @param writer            The executor draining the queue.
+     * @param meters            The meters recording the sends of the outbox.
+     */
+    public SessionOutbox(WebSocketSession session, int capacity, SlowConsumerPolicy policy,
+                         long sendTimeoutMillis, Executor writer, Meters meters) {
+        this.meters = meters;
+        this.session = session;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the session this outbox writes to.
+     *
+     * @return The WebSocket session.
+     */
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    /**
+     * Queues a message for sending. This method never blocks on network I/O.
+     *
+     * @param payload The text payload to be sent.
+     * @return True if the message was queued, false if the outbox is closed or the session was disconnected.
+     */
+    public boolean offer(String payload) {
+        return offer(new TextMessage(payload));
+    }
+
+    /**
+     * Queues the shared message of a frame published to a topic the session is subscribed to.
+     *
+     * @param frame The frame to be sent.
+     */
+    @Override
+    public void deliver(Frame frame) {
+        offer(frame.message());
+    }
+
+    /**
+     * Queues a message for sending. This method never blocks on network I/O.
+     * The message may be shared with other sessions, it is never modified.
+     *
+     * @param message The message to be sent.
+     * @return True if the message was queued, false if the outbox is closed or the session was disconnected.
+     */
+    public boolean offer(TextMessage message) {
+        if (closed.get()) {
+            return false;
+        }
+        if (isSendTimedOut()) {
+            log.warn("WebSocket send timed out for session {}, disconnecting.", session.getId());
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            return false;
+        }
+        synchronized (queue) {
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST -> dropOldest();
+                    case COALESCE -> coalesce();
+                    case DISCONNECT -> {
+                        close(CloseStatus.SESSION_NOT_RELIABLE);
+                        return false;
+                    }
+                }
+            }
+            queue.addLast(message);
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Returns the number of messages currently waiting to be sent.
+     *
+     * @return The queue length.
+     */
+    public int getQueuedCount() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Returns the number of messages discarded by the {@link SlowConsumerPolicy#DROP_OLDEST} policy, or by the
+     * {@link SlowConsumerPolicy#COALESCE} policy when merging frees no room.
+     *
+     * @return The number of dropped messages.
+     */
+    public long getDroppedCount() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Checks whether the outbox has been closed.
+     *
+     * @return True if no more messages are accepted.
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Stops accepting messages and closes the session on a writer thread.
+     * A normal close is graceful: messages queued so far are still sent before the session is closed.
+     * Any other status discards the queue and closes the session immediately.
+     *
+     * @param status The close status sent to the client.
+     */
+    public void close(CloseStatus status) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        closeStatus = status;
+        if (CloseStatus.NORMAL.equals(status)) {
+            scheduleDrain();
+            return;
+        }
+        synchronized (queue) {
+            queue.clear();
+        }
+        writer.execute(this::closeSession);
+    }
+
+    /**
+     * Closes the session if a send has been blocked for longer than the send timeout. Closing the session makes
+     * the blocked send fail and so releases the writer thread. The session is closed on the calling thread rather
+     * than on a writer thread, because all writer threads may be blocked by stalled sessions.
+     *
+     * @return True if the send had timed out and the session has been closed.
+     */
+    public boolean abortTimedOutSend() {
+        if (!isSendTimedOut() || sessionClosed.get()) {
+            return false;
+        }
+        log.warn("WebSocket send timed out for session {}, disconnecting.", session.getId());
+        meters.sendFailures().increment();
+        closed.set(true);
+        closeStatus = CloseStatus.SESSION_NOT_RELIABLE;
+        synchronized (queue) {
+            queue.clear();
+        }
+        closeSession();
+        return true;
+    }
+
+    /**
+     * Merges adjacent batched frames (JSON arrays of messages) of the queue into single arrays of up to
+     * {@value #MAX_COALESCED_LENGTH} characters. Any other frame, e.g. the resume frame, is never merged and keeps
+     * its place in the queue. If merging frees no room, because the queue holds no adjacent batched frames small
+     * enough to be merged, the oldest message is dropped instead, so the queue stays bounded in size as well as in
+     * length. Must be called while holding the queue monitor.
+     */
+    private void coalesce() {
+        Deque<TextMessage> merged = new ArrayDeque<>(queue.size());
+        List<TextMessage> arrays = new ArrayList<>();
+        int length = 0;
+        for (TextMessage message : queue) {
+            int payloadLength = message.getPayload().length();
+            if (!Frame.isJsonArray(message.getPayload())) {
+                merge(arrays, merged);
+                merged.addLast(message);
+                continue;
+            }
+            if (!arrays.isEmpty() && length + payloadLength - 1 > MAX_COALESCED_LENGTH) {
+                merge(arrays, merged);
+            }
+            length = arrays.isEmpty() ? payloadLength : length + payloadLength - 1;
+            arrays.add(message);
+        }
+        merge(arrays, merged);
+        queue.clear();
+        queue.addAll(merged);
+        if (queue.size() >= capacity) {
+            dropOldest();
+        }
+    }
+
+    /**
+     * Merges batched frames into one array frame appended to the target, and clears them.
+     * A single frame is appended as it is.
+     */
+    private static void merge(List<TextMessage> arrays, Deque<TextMessage> target) {
+        if (arrays.size() <= 1) {
+            target.addAll(arrays);
+            arrays.clear();
+            return;
+        }
+        StringBuilder merged = new StringBuilder().append('[');
+        for (TextMessage message : arrays) {
+            String payload = message.getPayload();
+            String items = payload.substring(1, payload.length() - 1);
+            if (!items.isBlank()) {
+                merged.append(merged.length() > 1 ? "," : "").append(items);
+            }
+        }
+        target.addLast(new TextMessage(merged.append(']').toString()));
+        arrays.clear();
+    }
+
+    /**
+     * Discards the oldest queued message. Must be called while holding the queue monitor.
+     */
+    private void dropOldest() {
+        queue.pollFirst();
+        droppedMessages.incrementAndGet();
+        meters.dropped().increment();
+    }
+
+    private boolean isSendTimedOut() {
+        long startedAt = sendStartedAt;
+        return startedAt != 0 && System.nanoTime() - startedAt > sendTimeoutNanos;
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            writer.execute(this::drain);
+        }
+    }
+
+    /**
+     * Sends queued messages until the queue is empty. Only one writer drains a given outbox at a time.
+     * Once the outbox is closed and empty, the session itself is closed.
+     */
+    private void drain() {
+        try {
+            TextMessage next;
+            while ((next = poll()) != null) {
+                long startedAt = System.nanoTime();
+                sendStartedAt = startedAt;
+                try {
+                    session.sendMessage(next);
+                    meters.send().record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                } catch (IOException | IllegalStateException e) {
+                    log.warn("WebSocket send failed for session {}: {}", session.getId(), e.getMessage());
+                    meters.sendFailures().increment();
+                    close(CloseStatus.SERVER_ERROR);
+                    synchronized (queue) {
+                        queue.clear();
+                    }
+                } finally {
+                    sendStartedAt = 0;
+                }
+            }
+        } finally {
+            draining.set(false);
+            if (getQueuedCount() > 0) {
+                scheduleDrain();
+            } else if (closed.get()) {
+                closeSession();
+            }
+        }
+    }
+
+    private void closeSession() {
+        if (!sessionClosed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (session.isOpen()) {
+                session.close(closeStatus);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close WebSocket session: {}", e.getMessage());
+        }
+    }
+
+    private TextMessage poll() {
+        synchronized (queue) {
+            return queue.pollFirst();
+        }
+    }
+
+    /**
+     * Meters shared by the outboxes of all sessions.
+     *
+     * @param send         The time a single frame takes to be written to its session.
+     * @param sendFailures The number of frames that could not be sent, each of which disconnects its session.
+     * @param dropped      The number of messages discarded from full queues.
+     */
+    public record Meters(Timer send, Counter sendFailures, Counter dropped) {
+
+        /**
+         * Meters recording nothing, used by outboxes created without meters.
+         */
+        public static final Meters NONE = of(new CompositeMeterRegistry());
+
+        /**
+         * Creates the outbox meters in the given registry.
+         *
+         * @param registry The registry of the meters.
+         * @return The meters.
+         */
+        public static Meters of(MeterRegistry registry) {
+            return new Meters(
+                    Timer.builder("simulation.websocket.send")
+                            .description("Time a single frame takes to be written to its WebSocket session")
+                            .register(registry),
+                    Counter.builder("simulation.websocket.send.failures")
+                            .description("Frames that could not be sent; every failure disconnects its session")
+                            .register(registry),
+                    Counter.builder("simulation.websocket.messages.dropped")
+                            .description("Messages discarded from full session queues")
+                            .register(registry));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package cz.cervenka.parallelizationissues.config;
+
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of WebSocket sessions indexed by the endpoint they are connected to and by the
+ * simulation run they watch. A session is registered once when its connection is established,
+ * so a broadcast only iterates over the subscribers of its own endpoint or run instead of all open sessions.
+ */
+public class SessionRegistry {
+
+    /**
+     * Name of the query parameter carrying the run ID in the WebSocket URL.
+     */
+    public static final String RUN_PARAMETER = "run";
+
+    private final Map<String, Set<SessionOutbox>> subscribersByEndpoint = new ConcurrentHashMap<>();
+    private final Map<String, Set<SessionOutbox>> subscribersByRun = new ConcurrentHashMap<>();
+    private final Map<WebSocketSession, Registration> registrationsBySession = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the outbox of a newly connected session under the session's endpoint and run.
+     *
+     * @param outbox The outbox of the session.
+     */
+    public void register(SessionOutbox outbox) {
+        register(outbox, outbox.getSession().getUri());
+    }
+
+    /**
+     * Registers the outbox of a newly connected session under the endpoint and run of the session's URL,
+     * when the caller has already read the URL.
+     *
+     * @param outbox The outbox of the session.
+     * @param uri    The URL of the session, or null.
+     */
+    public void register(SessionOutbox outbox, URI uri) {
+        WebSocketSession session = outbox.getSession();
+        String endpoint = uri != null && uri.getPath() != null ? uri.getPath() : "";
+        String runId = queryParameter(uri, RUN_PARAMETER);
+
+        registrationsBySession.put(session, new Registration(outbox, endpoint, runId));
+        add(subscribersByEndpoint, endpoint, outbox);
+        if (runId != null) {
+            add(subscribersByRun, runId, outbox);
+        }
+    }
+
+    /**
+     * Reads a query parameter of a WebSocket URL.
+     *
+     * @param uri  The URL of the session, or null.
+     * @param name The name of the parameter.
+     * @return The first value of the parameter, or null if it is missing.
+     */
+    public static String queryParameter(URI uri, String name) {
+        return uri != null ? UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst(name) : null;
+    }
+
+    /**
+     * Removes a session from the registry.
+     *
+     * @param session The session to be removed.
+     * @return The outbox of the removed session, or null if the session was not registered.
+     */
+    public SessionOutbox unregister(WebSocketSession session) {
+        Registration registration = registrationsBySession.remove(session);
+        if (registration == null) {
+            return null;
+        }
+        remove(subscribersByEndpoint, registration.endpoint(), registration.outbox());
+        if (registration.runId() != null) {
+            remove(subscribersByRun, registration.runId(), registration.outbox());
+        }
+        return registration.outbox();
+    }
+
+    /**
+     * Returns the outbox of a registered session.
+     *
+     * @param session The WebSocket session.
+     * @return The outbox, or null if the session is not registered.
+     */
+    public SessionOutbox getOutbox(WebSocketSession session) {
+        Registration registration = registrationsBySession.get(session);
+        return registration != null ? registration.outbox() : null;
+    }
+
+    /**
+     * Returns the ID of the run a registered session watches.
+     *
+     * @param session The WebSocket session.
+     * @return The run ID, or null if the session is not registered or watches no particular run.
+     */
+    public String getRunId(WebSocketSession session) {
+        Registration registration = registrationsBySession.get(session);
+        return registration != null ? registration.runId() : null;
+    }
+
+    /**
+     * Returns the outboxes of all sessions connected to the given endpoint.
+     *
+     * @param endpoint The endpoint path.
+     * @return A live view of the endpoint's subscribers, empty if there are none.
+     */
+    public Collection<SessionOutbox> subscribers(String endpoint) {
+        Set<SessionOutbox> subscribers = subscribersByEndpoint.get(endpoint);
+        return subscribers != null ? subscribers : Collections.emptySet();
+    }
+
+    /**
+     * Returns the outboxes of all sessions watching the given run.
+     *
+     * @param runId The run ID.
+     * @return A live view of the run's subscribers, empty if there are none.
+     */
+    public Collection<SessionOutbox> runSubscribers(String runId) {
+        Set<SessionOutbox> subscribers = subscribersByRun.get(runId);
+        return subscribers != null ? subscribers : Collections.emptySet();
+    }
+
+    /**
+     * Returns the outboxes of all registered sessions.
+     *
+     * @return A snapshot of all registered outboxes.
+     */
+    public Collection<SessionOutbox> all() {
+        return registrationsBySession.values().stream().map(Registration::outbox).toList();
+    }
+
+    /**
+     * Returns the number of sessions connected to the given endpoint.
+     *
+     * @param endpoint The endpoint path.
+     * @return The number of subscribers of the endpoint.
+     */
+    public int getSubscriberCount(String endpoint) {
+        return subscribers(endpoint).size();
+    }
+
+    /**
+     * Returns the number of sessions watching the given run.
+     *
+     * @param runId The run ID.
+     * @return The number of subscribers of the run.
+     */
+    public int getRunSubscriberCount(String runId) {
+        return runSubscribers(runId).size();
+    }
+
+    /**
+     * Returns the number of connected sessions for every endpoint that has at least one subscriber.
+     *
+     * @return A sorted snapshot mapping endpoint paths to subscriber counts.
+     */
+    public Map<String, Integer> getSubscriberCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        subscribersByEndpoint.forEach((endpoint, subscribers) -> counts.put(endpoint, subscribers.size()));
+        return counts;
+    }
+
+    /**
+     * Checks whether any session is registered.
+     *
+     * @return True if the registry holds no sessions.
+     */
+    public boolean isEmpty() {
+        return registrationsBySession.isEmpty();
+    }
+
+    /**
+     * Removes all sessions from the registry.
+     */
+    public void clear() {
+        registrationsBySession.clear();
+        subscribersByEndpoint.clear();
+        subscribersByRun.clear();
+    }
+
+    private static void add(Map<String, Set<SessionOutbox>> index, String key, SessionOutbox outbox) {
+        index.compute(key, (k, subscribers) -> {
+            Set<SessionOutbox> updated = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            updated.add(outbox);
+            return updated;
+        });
+    }
+
+    private static void remove(Map<String, Set<SessionOutbox>> index, String key, SessionOutbox outbox) {
+        index.computeIfPresent(key, (k, subscribers) -> {
+            subscribers.remove(outbox);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private record Registration(SessionOutbox outbox, String endpoint, String runId) {
+    }
+}
@@ -1,43 +1,262 @@
 package cz.cervenka.parallelizationissues.config;
 
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * WebSocket handler for managing WebSocket sessions and broadcasting messages.
  * This component manages the WebSocket connection and provides functionalities
  * like broadcasting messages to connected sessions and handling connection events.
+ * Every session has its own bounded {@link SessionOutbox}, so broadcasting threads
+ * never wait for a slow client. A send blocked for longer than the send timeout is found by the send watchdog,
+ * which closes its session from its own thread, so a stalled client cannot hold a writer thread for long and starve
+ * the queues of the other sessions. If batching is enabled, the messages of a run are collected by an
+ * {@link EventBatcher} and sent as one frame holding a JSON array of messages per batching window.
+ * The recent events of every run opened with {@link #openHistory(String)} are kept in an {@link EventHistory};
+ * a session connecting to such a run, e.g. {@code ?run=<id>&since=<last seen sequence>}, is first sent the
+ * events after that sequence number in a single {@code {"resumed":[...],"missed":n}} frame and then the live frames.
+ * A live frame may repeat events of the resumed frame that were still being batched when the session connected;
+ * the client skips the sequence numbers it has already received.
+ * <p>
+ * The frames are routed by a {@link TopicBroker}: every frame is encoded once and published to the topic of its
+ * run, {@code run/<runId>}, or of its endpoint, and every subscriber of the topic is handed the same {@link Frame}.
+ * A session is subscribed to the topics of its endpoint and of the run of its URL when it connects, and can
+ * subscribe to further topics over the same connection by sending {@code SUBSCRIBE <topic> [<since>]} and
+ * {@code UNSUBSCRIBE <topic>}. Other subscribers, such as Server-Sent Events streams, subscribe through
+ * {@link #subscribe(TopicSubscriber, String, long)} and count as watchers of the run like sessions do.
+ * <p>
+ * As a {@link MeterBinder}, the handler publishes the open sessions per endpoint, the queued messages, the broadcast
+ * and send latency, the failed sends and the closed sessions by close status to the application's meter registry.
  */
 @Component
-public class SimulationWebSocketHandler extends TextWebSocketHandler {
+public class SimulationWebSocketHandler extends TextWebSocketHandler implements DisposableBean, MeterBinder {
 
-    private final Map<WebSocketSession, String> sessionMap = new ConcurrentHashMap<>();
-    private final AtomicReference<Runnable> onConnectionEstablishedCallback = new AtomicReference<>();
+    private static final Logger log = LoggerFactory.getLogger(SimulationWebSocketHandler.class);
+
+    public static final int DEFAULT_SEND_QUEUE_CAPACITY = 256;
+    public static final long DEFAULT_SEND_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_WRITER_THREADS = 4;
+    public static final long DEFAULT_BATCH_WINDOW_MILLIS = 100;
+    public static final int DEFAULT_BATCH_MAX_EVENTS = 64;
+    public static final int DEFAULT_HISTORY_BYTES = 64 * 1024;
+
+    /**
+     * Name of the query parameter carrying the last sequence number a reconnecting session has received.
+     */
+    public static final String SINCE_PARAMETER = "since";
+
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
+    private final TopicBroker broker = new TopicBroker();
+    private final List<Consumer<String>> runSubscribedListeners = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Consumer<String>> onRunAbandonedCallback = new AtomicReference<>();
+    private final Map<String, EventHistory> histories = new ConcurrentHashMap<>();
+    private final CompositeMeterRegistry meters = new CompositeMeterRegistry();
+    private final SessionOutbox.Meters outboxMeters = SessionOutbox.Meters.of(meters);
+    private final Map<String, Timer> broadcastTimers = new ConcurrentHashMap<>();
+
+    private final int sendQueueCapacity;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final long sendTimeoutMillis;
+    private final ExecutorService writerExecutor;
+    private final ScheduledExecutorService sendWatchdog;
+    private final EventBatcher batcher;
+    private final int historyBytes;
+
+    /**
+     * Creates a handler.
+     *
+     * @param settings The outbound queue, batching and run history settings.
+     */
+    @Autowired
+    public SimulationWebSocketHandler(Settings settings) {
+        this.historyBytes = settings.historyBytes();
+        this.sendQueueCapacity = settings.sendQueueCapacity();
+        this.slowConsumerPolicy = settings.slowConsumerPolicy();
+        this.sendTimeoutMillis = settings.sendTimeoutMillis();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.writerExecutor = Executors.newFixedThreadPool(Math.max(1, settings.writerThreads()), runnable -> {
+            Thread thread = new Thread(runnable, "ws-writer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sendWatchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-send-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (sendTimeoutMillis > 0) {
+            long interval = Math.max(10, sendTimeoutMillis / 4);
+            sendWatchdog.scheduleWithFixedDelay(
+                    () -> sessionRegistry.all().forEach(SessionOutbox::abortTimedOutSend),
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
+        this.batcher = settings.batchWindowMillis() > 0
+                ? new EventBatcher(settings.batchWindowMillis(), settings.batchMaxEvents(), this::deliver) : null;
+        Gauge.builder("simulation.websocket.queued", sessionRegistry,
+                        registry -> registry.all().stream().mapToInt(SessionOutbox::getQueuedCount).sum())
+                .description("Messages waiting in the outbound queues of all sessions")
+                .register(meters);
+        Gauge.builder("simulation.websocket.history", this, SimulationWebSocketHandler::getHistoryBytes)
+                .description("Off-heap memory reserved by the event histories of the runs")
+                .baseUnit("bytes")
+                .register(meters);
+        Gauge.builder("simulation.broker.topics", broker, TopicBroker::getTopicCount)
+                .description("Topics with at least one subscriber")
+                .register(meters);
+        Gauge.builder("simulation.broker.subscriptions", broker, TopicBroker::getSubscriptionCount)
+                .description("Subscriptions of sessions and streams to topics")
+                .register(meters);
+        FunctionCounter.builder("simulation.broker.frames.published", broker, TopicBroker::getPublishedFrames)
+                .description("Frames encoded and published to a topic")
+                .register(meters);
+        FunctionCounter.builder("simulation.broker.frames.delivered", broker, TopicBroker::getDeliveredFrames)
+                .description("Frames handed to topic subscribers, once per subscriber")
+                .register(meters);
+    }
+
+    /**
+     * Publishes the meters of the handler to the given registry.
+     * The meters are kept in a composite registry, so they exist (and record nothing) until they are bound.
+     *
+     * @param registry The registry the meters are published to.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        meters.add(registry);
+    }
+
+    /**
+     * Checks whether broadcast messages are batched into JSON array frames.
+     *
+     * @return True if batching is enabled.
+     */
+    public boolean isBatching() {
+        return batcher != null;
+    }
 
     /**
-     * Retrieves the session map of all active WebSocket sessions.
+     * Retrieves the registry of all active WebSocket sessions indexed by endpoint.
      *
-     * @return The map of WebSocket sessions.
+     * @return The session registry.
      */
-    public Map<WebSocketSession, String> getSessionMap() {
-        return sessionMap;
+    public SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
     }
 
     /**
-     * Sets the callback to be executed when a WebSocket connection is established.
+     * Retrieves the broker routing the frames to the subscribers of their run or endpoint.
      *
-     * @param callback The callback to be executed.
+     * @return The topic broker.
      */
-    public void setOnConnectionEstablishedCallback(Runnable callback) {
-        onConnectionEstablishedCallback.set(callback);
+    public TopicBroker getBroker() {
+        return broker;
+    }
+
+    /**
+     * Returns the number of viewers of a run: the sessions and streams subscribed to its topic.
+     *
+     * @param runId The ID of the run.
+     * @return The number of subscribers of the run.
+     */
+    public int getRunSubscriberCount(String runId) {
+        return broker.getSubscriberCount(TopicBroker.runTopic(runId));
+    }
+
+    /**
+     * Returns the number of open sessions per endpoint, for capacity planning.
+     *
+     * @return A snapshot mapping endpoint paths to subscriber counts.
+     */
+    public Map<String, Integer> getSubscriberCounts() {
+        return sessionRegistry.getSubscriberCounts();
+    }
+
+    /**
+     * Starts keeping the recent events of a run, so that sessions connecting later can catch up.
+     *
+     * @param runId The ID of the run.
+     */
+    public void openHistory(String runId) {
+        if (historyBytes > 0) {
+            histories.computeIfAbsent(runId, id -> new EventHistory(id, historyBytes));
+        }
+    }
+
+    /**
+     * Discards the history of a run and releases its memory.
+     *
+     * @param runId The ID of the run.
+     */
+    public void closeHistory(String runId) {
+        histories.remove(runId);
+    }
+
+    /**
+     * Returns the history of a run.
+     *
+     * @param runId The ID of the run.
+     * @return The history, or null if the events of the run are not kept.
+     */
+    public EventHistory getHistory(String runId) {
+        return runId != null ? histories.get(runId) : null;
+    }
+
+    /**
+     * Returns the number of off-heap bytes reserved by the histories of all runs.
+     *
+     * @return The reserved history memory.
+     */
+    public long getHistoryBytes() {
+        return (long) histories.size() * historyBytes;
+    }
+
+    /**
+     * Adds a listener notified whenever a session or stream subscribes to a run.
+     * The listeners run on the WebSocket container thread, so they must return quickly.
+     *
+     * @param listener The listener receiving the ID of the watched run.
+     */
+    public void addRunSubscribedListener(Consumer<String> listener) {
+        runSubscribedListeners.add(listener);
+    }
+
+    /**
+     * Sets the callback to be executed when the last session or stream watching a run has unsubscribed.
+     *
+     * @param callback The callback receiving the ID of the abandoned run.
+     */
+    public void setOnRunAbandonedCallback(Consumer<String> callback) {
+        onRunAbandonedCallback.set(callback);
     }
 
     /**
@@ -46,31 +265,149 @@ public class SimulationWebSocketHandler extends TextWebSocketHandler {
      * @return True if a WebSocket connection is established, otherwise false.
      */
     public boolean isConnectionEstablished() {
-        return !sessionMap.isEmpty();
+        return !sessionRegistry.isEmpty();
     }
 
     /**
      * Called when a WebSocket connection is established.
-     * Adds the session to the session map and executes the connection established callback if set.
+     * Registers the session and subscribes it to the topics of its endpoint and of the run it watches, if any.
+     * If the session watches a run whose history is kept, it is first sent the events it has not seen yet.
      *
      * @param session The WebSocket session that has been established.
      * @throws Exception if any error occurs during connection setup.
      */
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        sessionMap.put(session, "connected");
-        System.out.println("WebSocket connection established: " + session.getId());
+        SessionOutbox outbox = new SessionOutbox(session, sendQueueCapacity, slowConsumerPolicy,
+                sendTimeoutMillis, writerExecutor, outboxMeters);
+        URI uri = session.getUri();
+        meterSessions(uri != null && uri.getPath() != null ? uri.getPath() : "");
+        String runId = SessionRegistry.queryParameter(uri, SessionRegistry.RUN_PARAMETER);
+        sessionRegistry.register(outbox, uri);
+        broker.subscribe(TopicBroker.endpointTopic(uri != null && uri.getPath() != null ? uri.getPath() : ""), outbox);
+        log.info("WebSocket connection established: {}", session.getId());
+
+        if (runId != null) {
+            subscribe(outbox, TopicBroker.runTopic(runId),
+                    parseSequence(SessionRegistry.queryParameter(uri, SINCE_PARAMETER)));
+        }
+    }
+
+    /**
+     * Subscribes a session or stream to a topic. A subscriber of a run whose history is kept is first delivered
+     * the events after the given sequence number, atomically with the subscription, so it misses no event in between.
+     * The run subscribed listeners are notified of every subscription to a run.
+     *
+     * @param subscriber The subscriber.
+     * @param topic      The topic, e.g. {@code run/<runId>}.
+     * @param since      The last sequence number the subscriber has received, or 0.
+     * @return True if subscribed, false if the subscriber has reached the maximum number of subscriptions.
+     */
+    public boolean subscribe(TopicSubscriber subscriber, String topic, long since) {
+        String runId = TopicBroker.runId(topic);
+        EventHistory history = getHistory(runId);
+        boolean subscribed;
+        if (history != null) {
+            synchronized (history) {
+                subscribed = broker.subscribe(topic, subscriber);
+                Frame resumed = subscribed ? resumeFrame(history, since) : null;
+                if (resumed != null) {
+                    subscriber.deliver(resumed);
+                }
+            }
+        } else {
+            subscribed = broker.subscribe(topic, subscriber);
+        }
+        if (subscribed && runId != null) {
+            for (Consumer<String> listener : runSubscribedListeners) {
+                listener.accept(runId);
+            }
+        }
+        return subscribed;
+    }
+
+    /**
+     * Unsubscribes a session or stream from a topic, and notifies the run abandoned callback if it was the last
+     * viewer of a run.
+     *
+     * @param subscriber The subscriber.
+     * @param topic      The topic.
+     * @return True if the subscriber was subscribed to the topic.
+     */
+    public boolean unsubscribe(TopicSubscriber subscriber, String topic) {
+        if (!broker.unsubscribe(topic, subscriber)) {
+            return false;
+        }
+        unsubscribed(topic);
+        return true;
+    }
+
+    /**
+     * Notifies the run abandoned callback if a subscriber has left the topic of a run that has no subscribers left.
+     */
+    private void unsubscribed(String topic) {
+        String runId = TopicBroker.runId(topic);
+        Consumer<String> callback = onRunAbandonedCallback.get();
+        if (runId != null && callback != null && broker.getSubscriberCount(topic) == 0) {
+            callback.accept(runId);
+        }
+    }
+
+    /**
+     * Registers the gauge of the open sessions of an endpoint. The gauge of an endpoint is registered
+     * by its first session and then reports the endpoint's subscriber count, even once it drops to zero.
+     */
+    private void meterSessions(String endpoint) {
+        Gauge.builder("simulation.websocket.sessions", sessionRegistry, registry -> registry.getSubscriberCount(endpoint))
+                .description("Open WebSocket sessions per endpoint")
+                .tag("endpoint", endpoint)
+                .register(meters);
+    }
 
-        Runnable callback = onConnectionEstablishedCallback.get();
-        if (callback != null) {
-            System.out.println("Executing onConnectionEstablishedCallback...");
-            callback.run();
+    /**
+     * Builds the {@code {"resumed":[...],"missed":n}} frame catching a viewer up on the events of a run
+     * after the given sequence number.
+     *
+     * @param history The history of the run.
+     * @param since   The last sequence number the viewer has received, or 0.
+     * @return The frame, or null if there is nothing to catch up on.
+     */
+    private static Frame resumeFrame(EventHistory history, long since) {
+        List<SimulationEvent> events = history.since(since);
+        long missed = history.missedSince(since);
+        if (events.isEmpty() && missed == 0) {
+            return null;
+        }
+        StringBuilder frame = new StringBuilder(32 + 40 * events.size()).append("{\"resumed\":[");
+        long[] sequences = new long[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                frame.append(',');
+            }
+            frame.append(events.get(i).toJson());
+            sequences[i] = events.get(i).sequence();
+        }
+        return new Frame(frame.append("],\"missed\":").append(missed).append('}').toString(), 1, sequences);
+    }
+
+    /**
+     * Parses a sequence number sent by a reconnecting viewer.
+     *
+     * @param value The sequence number, or null.
+     * @return The sequence number, or 0 if none or an invalid one was given.
+     */
+    public static long parseSequence(String value) {
+        try {
+            return value != null ? Math.max(0, Long.parseLong(value)) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
     /**
      * Handles incoming text messages from WebSocket sessions.
-     * Currently, it just logs the received message.
+     * {@code SUBSCRIBE <topic> [<since>]} subscribes the session to another run or endpoint topic, e.g.
+     * {@code SUBSCRIBE run/<runId>}, and {@code UNSUBSCRIBE <topic>} ends a subscription; other messages are logged.
      *
      * @param session The WebSocket session from which the message was received.
      * @param message The text message received.
@@ -78,39 +415,113 @@ public class SimulationWebSocketHandler extends TextWebSocketHandler {
      */
     @Override
     public void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        System.out.println("Received message from session " + session.getId() + ": " + message.getPayload());
+        String[] command = message.getPayload().trim().split("\\s+");
+        SessionOutbox outbox = sessionRegistry.getOutbox(session);
+        if (outbox == null || command.length < 2 || !TopicBroker.isValid(command[1])) {
+            log.debug("Received message from session {}: {}", session.getId(), message.getPayload());
+            return;
+        }
+        switch (command[0].toUpperCase(Locale.ROOT)) {
+            case "SUBSCRIBE" -> {
+                if (!subscribe(outbox, command[1], command.length > 2 ? parseSequence(command[2]) : 0)) {
+                    log.debug("Session {} cannot subscribe to more than {} topics.", session.getId(),
+                            TopicBroker.MAX_SUBSCRIPTIONS);
+                }
+            }
+            case "UNSUBSCRIBE" -> unsubscribe(outbox, command[1]);
+            default -> log.debug("Received message from session {}: {}", session.getId(), message.getPayload());
+        }
     }
 
     /**
      * Broadcasts a message to all active WebSocket sessions.
-     * The message is sent only to the sessions whose URI path matches the given endpoint.
+     * The message is queued only for the sessions registered under the given endpoint;
+     * the actual sending happens on the writer threads, so this method never blocks on network I/O.
      *
      * @param endpoint The endpoint path to which the message should be sent.
      * @param message  The message to be broadcasted.
      */
-    public synchronized void broadcast(String endpoint, String message) {
+    public void broadcast(String endpoint, String message) {
+        broadcast(endpoint, null, message);
+    }
+
+    /**
+     * Broadcasts a message to the sessions watching a single simulation run.
+     * If no run ID is given, the message is broadcast to all subscribers of the endpoint.
+     *
+     * @param endpoint The endpoint path of the run.
+     * @param runId    The ID of the run, or null.
+     * @param message  The message to be broadcasted.
+     */
+    public void broadcast(String endpoint, String runId, String message) {
         if (Thread.currentThread().isInterrupted()) {
             return;
         }
-        sessionMap.forEach((session, status) -> {
-            if (session.isOpen() && session.getUri().getPath().equals(endpoint)) {
-                try {
-                    session.sendMessage(new TextMessage(message));
-                } catch (IOException e) {
-                    System.err.println("WebSocket send failed for session " + session.getId() + ": " + e.getMessage());
-                    try {
-                        session.close(CloseStatus.SERVER_ERROR);
-                    } catch (IOException closeEx) {
-                        System.err.println("Failed to close WebSocket session: " + closeEx.getMessage());
-                    }
-                }
+        if (batcher != null) {
+            batcher.add(endpoint, runId, message);
+        } else {
+            deliver(endpoint, runId, Frame.of(message));
+        }
+    }
+
+    /**
+     * Publishes a simulation event to the subscribers of its run, or to all subscribers of the endpoint
+     * if the event belongs to no run. The event is sent in its compact JSON encoding, wrapped in an array
+     * frame, either alone or together with the other events of its batching window.
+     *
+     * @param endpoint The endpoint path of the run.
+     * @param event    The event to be published.
+     */
+    public void publish(String endpoint, SimulationEvent event) {
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        EventHistory history = getHistory(event.runId());
+        if (history != null) {
+            history.append(event);
+        }
+        if (batcher != null) {
+            batcher.addEncoded(endpoint, event.runId(), event.toJson(), event.sequence());
+        } else {
+            deliver(endpoint, event.runId(), new Frame("[" + event.toJson() + "]", 1, new long[]{event.sequence()}));
+        }
+    }
+
+    /**
+     * Publishes a frame to the topic of its run, or of its endpoint if no run ID is given.
+     *
+     * @param endpoint The endpoint path.
+     * @param runId    The ID of the run, or null.
+     * @param frame    The frame to be sent.
+     */
+    private void deliver(String endpoint, String runId, Frame frame) {
+        long startedAt = System.nanoTime();
+        String topic = runId != null ? TopicBroker.runTopic(runId) : TopicBroker.endpointTopic(endpoint);
+        EventHistory history = getHistory(runId);
+        if (history == null) {
+            broker.publish(topic, frame);
+        } else {
+            synchronized (history) {
+                broker.publish(topic, frame);
             }
-        });
+        }
+        broadcastTimer(endpoint).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the timer of the frames fanned out to the subscribers of an endpoint.
+     */
+    private Timer broadcastTimer(String endpoint) {
+        return broadcastTimers.computeIfAbsent(endpoint != null ? endpoint : "",
+                path -> Timer.builder("simulation.websocket.broadcast")
+                        .description("Time a frame takes to be queued for all sessions watching its run or endpoint")
+                        .tag("endpoint", path)
+                        .register(meters));
     }
 
     /**
      * Called when a WebSocket connection is closed.
-     * Removes the session from the session map.
+     * Removes the session from the session registry and from all of its topics.
      *
      * @param session The WebSocket session that has been closed.
      * @param status  The status of the connection closure.
@@ -118,24 +529,115 @@ public class SimulationWebSocketHandler extends TextWebSocketHandler {
      */
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        sessionMap.remove(session);
-        System.out.println("WebSocket connection closed: " + session.getId());
+        SessionOutbox outbox = sessionRegistry.unregister(session);
+        List<String> topics = List.of();
+        if (outbox != null) {
+            outbox.close(status);
+            topics = broker.unsubscribeAll(outbox);
+        }
+        Counter.builder("simulation.websocket.sessions.closed")
+                .description("Closed WebSocket sessions by close status")
+                .tag("status", statusName(status))
+                .register(meters)
+                .increment();
+        log.info("WebSocket connection closed: {}", session.getId());
+
+        topics.forEach(this::unsubscribed);
+    }
+
+    /**
+     * Names a close status for the closed sessions counter, e.g. {@code SERVER_ERROR} for code 1011.
+     * Codes without a constant in {@link CloseStatus} are named by their number.
+     */
+    private static String statusName(CloseStatus status) {
+        return switch (status.getCode()) {
+            case 1000 -> "NORMAL";
+            case 1001 -> "GOING_AWAY";
+            case 1002 -> "PROTOCOL_ERROR";
+            case 1003 -> "NOT_ACCEPTABLE";
+            case 1005 -> "NO_STATUS_CODE";
+            case 1006 -> "NO_CLOSE_FRAME";
+            case 1007 -> "BAD_DATA";
+            case 1008 -> "POLICY_VIOLATION";
+            case 1009 -> "TOO_BIG_TO_PROCESS";
+            case 1010 -> "REQUIRED_EXTENSION";
+            case 1011 -> "SERVER_ERROR";
+            case 1012 -> "SERVICE_RESTARTED";
+            case 1013 -> "SERVICE_OVERLOAD";
+            case 1015 -> "TLS_HANDSHAKE_FAILURE";
+            case 4500 -> "SESSION_NOT_RELIABLE";
+            default -> String.valueOf(status.getCode());
+        };
+    }
+
+    /**
+     * Gracefully closes all sessions watching the given run and closes the topic of the run, ending the streams
+     * and the subscriptions of the sessions that subscribed to it over a connection watching something else.
+     * Messages already queued or batched for the subscribers are still delivered.
+     *
+     * @param runId The ID of the run.
+     */
+    public void closeRunSessions(String runId) {
+        if (batcher != null) {
+            batcher.flush(null, runId);
+        }
+        sessionRegistry.runSubscribers(runId).forEach(outbox -> outbox.close(CloseStatus.NORMAL));
+        broker.close(TopicBroker.runTopic(runId));
     }
 
     /**
      * Clears all active WebSocket sessions by closing them.
-     * This is a synchronized operation to ensure that sessions are closed in a thread-safe manner.
+     * The sessions are closed on the writer threads after their queues are discarded.
      */
-    public synchronized void clearAllSessions() {
-        sessionMap.forEach((session, status) -> {
-            try {
-                if (session.isOpen()) {
-                    session.close(CloseStatus.NORMAL);
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to close WebSocket session: " + e.getMessage());
-            }
+    public void clearAllSessions() {
+        if (batcher != null) {
+            batcher.flushAll();
+        }
+        sessionRegistry.all().forEach(outbox -> {
+            outbox.close(CloseStatus.NORMAL);
+            broker.unsubscribeAll(outbox);
         });
-        sessionMap.clear();
+        sessionRegistry.clear();
+    }
+
+    /**
+     * Stops the batching, writer and send watchdog threads when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        sendWatchdog.shutdownNow();
+        writerExecutor.shutdownNow();
+    }
+
+    /**
+     * The settings of the handler, read from the {@code simulation.websocket.*} properties.
+     *
+     * @param sendQueueCapacity  The maximum number of messages queued per session.
+     * @param slowConsumerPolicy The policy applied when a session's queue is full.
+     * @param sendTimeoutMillis  The maximum duration of a single send before the session is disconnected.
+     * @param writerThreads      The number of threads draining the session queues.
+     * @param batchWindowMillis  The time messages of a run are collected into one frame, or 0 to disable batching.
+     * @param batchMaxEvents     The number of messages that completes a frame before the window elapses.
+     * @param historyBytes       The off-heap bytes reserved for the recent events of every run, or 0 to keep no history.
+     */
+    @Component
+    public record Settings(
+            @Value("${simulation.websocket.send-queue-capacity:" + DEFAULT_SEND_QUEUE_CAPACITY + "}") int sendQueueCapacity,
+            @Value("${simulation.websocket.slow-consumer-policy:DROP_OLDEST}") SlowConsumerPolicy slowConsumerPolicy,
+            @Value("${simulation.websocket.send-timeout-ms:" + DEFAULT_SEND_TIMEOUT_MILLIS + "}") long sendTimeoutMillis,
+            @Value("${simulation.websocket.writer-threads:" + DEFAULT_WRITER_THREADS + "}") int writerThreads,
+            @Value("${simulation.websocket.batch-window-ms:" + DEFAULT_BATCH_WINDOW_MILLIS + "}") long batchWindowMillis,
+            @Value("${simulation.websocket.batch-max-events:" + DEFAULT_BATCH_MAX_EVENTS + "}") int batchMaxEvents,
+            @Value("${simulation.websocket.history-bytes:" + DEFAULT_HISTORY_BYTES + "}") int historyBytes) {
+
+        /**
+         * The default outbound queue and run history settings without batching:
+         * every broadcast message is sent as its own plain text frame.
+         */
+        public static final Settings UNBATCHED = new Settings(DEFAULT_SEND_QUEUE_CAPACITY, SlowConsumerPolicy.DROP_OLDEST,
+                DEFAULT_SEND_TIMEOUT_MILLIS, DEFAULT_WRITER_THREADS, 0, 1, DEFAULT_HISTORY_BYTES);
     }
-}
\ No newline at end of file
+}
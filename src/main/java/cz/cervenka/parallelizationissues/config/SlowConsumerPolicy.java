@@ -0,0 +1,25 @@
+package cz.cervenka.parallelizationissues.config;
+
+/**
+ * Policy applied by a {@link SessionOutbox} when its bounded queue is full,
+ * i.e. when a WebSocket client reads slower than the simulation produces messages.
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * Discards the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Merges adjacent queued batched frames (JSON arrays) into single arrays of a bounded size, so that nothing
+     * is lost while there is room, only the number of frames sent to the client is reduced. Other frames are never
+     * merged. Once merging frees no room, the oldest message is discarded as with {@link #DROP_OLDEST}.
+     */
+    COALESCE,
+
+    /**
+     * Closes the session of the slow client.
+     */
+    DISCONNECT
+}
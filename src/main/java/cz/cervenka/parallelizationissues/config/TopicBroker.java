@@ -0,0 +1,310 @@
+package cz.cervenka.parallelizationissues.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process publish/subscribe broker fanning the frames of the simulations out to their viewers.
+ * A run publishes to the topic {@code run/<runId>}, endpoint-wide broadcasts go to {@code endpoint/<path>}, e.g.
+ * {@code endpoint/ws/problems/deadlock}. A frame is encoded once by its publisher and the same immutable
+ * {@link Frame} is handed to every subscriber, whatever kind of subscriber it is, so the fan-out costs one
+ * hand-over per subscriber and no copies. A subscriber can be subscribed to up to {@value #MAX_SUBSCRIPTIONS}
+ * topics, e.g. a WebSocket session watching several runs over one connection.
+ * <p>
+ * A topic exists while it has subscribers: frames published to a topic nobody subscribes to are discarded.
+ * The broker counts the frames published to and delivered by every topic and reports the subscribers and frame rate
+ * of each topic in {@link #getStatistics()}.
+ */
+public class TopicBroker {
+
+    /**
+     * Prefix of the topics of simulation runs.
+     */
+    public static final String RUN_PREFIX = "run/";
+
+    /**
+     * Prefix of the topics of WebSocket endpoints, followed by the endpoint path.
+     */
+    public static final String ENDPOINT_PREFIX = "endpoint/";
+
+    /**
+     * The maximum number of topics a single subscriber can be subscribed to.
+     */
+    public static final int MAX_SUBSCRIPTIONS = 32;
+
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+    private final Map<TopicSubscriber, Set<String>> subscriptions = new ConcurrentHashMap<>();
+    private final LongAdder publishedFrames = new LongAdder();
+    private final LongAdder deliveredFrames = new LongAdder();
+
+    /**
+     * Returns the topic of a simulation run.
+     *
+     * @param runId The ID of the run.
+     * @return The topic name.
+     */
+    public static String runTopic(String runId) {
+        return RUN_PREFIX + runId;
+    }
+
+    /**
+     * Returns the topic of a WebSocket endpoint.
+     *
+     * @param endpoint The endpoint path, e.g. {@code /ws/problems/deadlock}.
+     * @return The topic name.
+     */
+    public static String endpointTopic(String endpoint) {
+        return ENDPOINT_PREFIX + (endpoint.startsWith("/") ? endpoint.substring(1) : endpoint);
+    }
+
+    /**
+     * Returns the ID of the run a topic belongs to.
+     *
+     * @param topic The topic name.
+     * @return The run ID, or null if the topic is no run topic.
+     */
+    public static String runId(String topic) {
+        return topic.startsWith(RUN_PREFIX) && topic.length() > RUN_PREFIX.length()
+                ? topic.substring(RUN_PREFIX.length()) : null;
+    }
+
+    /**
+     * Checks whether a topic name requested by a client is a run or endpoint topic.
+     *
+     * @param topic The topic name.
+     * @return True if clients may subscribe to the topic.
+     */
+    public static boolean isValid(String topic) {
+        return topic != null && (runId(topic) != null
+                || (topic.startsWith(ENDPOINT_PREFIX) && topic.length() > ENDPOINT_PREFIX.length()));
+    }
+
+    /**
+     * Subscribes a subscriber to a topic. Subscribing to a topic twice has no effect.
+     *
+     * @param topic      The topic name.
+     * @param subscriber The subscriber.
+     * @return True if the subscriber is subscribed to the topic, false if it already has the maximum of subscriptions.
+     */
+    public boolean subscribe(String topic, TopicSubscriber subscriber) {
+        Set<String> subscribed = subscriptions.computeIfAbsent(subscriber, s -> ConcurrentHashMap.newKeySet());
+        if (!subscribed.contains(topic) && subscribed.size() >= MAX_SUBSCRIPTIONS) {
+            return false;
+        }
+        subscribed.add(topic);
+        topics.compute(topic, (name, existing) -> {
+            Topic updated = existing != null ? existing : new Topic();
+            updated.subscribers.add(subscriber);
+            return updated;
+        });
+        return true;
+    }
+
+    /**
+     * Unsubscribes a subscriber from a topic. The topic is removed once it has no subscribers left.
+     *
+     * @param topic      The topic name.
+     * @param subscriber The subscriber.
+     * @return True if the subscriber was subscribed to the topic.
+     */
+    public boolean unsubscribe(String topic, TopicSubscriber subscriber) {
+        Set<String> subscribed = subscriptions.get(subscriber);
+        if (subscribed != null) {
+            subscribed.remove(topic);
+            if (subscribed.isEmpty()) {
+                subscriptions.remove(subscriber, subscribed);
+            }
+        }
+        return removeSubscriber(topic, subscriber);
+    }
+
+    /**
+     * Unsubscribes a subscriber from all of its topics, e.g. when its connection is closed.
+     *
+     * @param subscriber The subscriber.
+     * @return The topics the subscriber was subscribed to.
+     */
+    public List<String> unsubscribeAll(TopicSubscriber subscriber) {
+        Set<String> subscribed = subscriptions.remove(subscriber);
+        if (subscribed == null) {
+            return List.of();
+        }
+        List<String> unsubscribed = new ArrayList<>(subscribed.size());
+        for (String topic : subscribed) {
+            if (removeSubscriber(topic, subscriber)) {
+                unsubscribed.add(topic);
+            }
+        }
+        return unsubscribed;
+    }
+
+    private boolean removeSubscriber(String topic, TopicSubscriber subscriber) {
+        boolean[] removed = new boolean[1];
+        topics.computeIfPresent(topic, (name, existing) -> {
+            removed[0] = existing.subscribers.remove(subscriber);
+            return existing.subscribers.isEmpty() ? null : existing;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Publishes a frame to the subscribers of a topic. The frame is handed to every subscriber as it is.
+     *
+     * @param topic The topic name.
+     * @param frame The encoded frame.
+     * @return The number of subscribers the frame has been delivered to.
+     */
+    public int publish(String topic, Frame frame) {
+        publishedFrames.increment();
+        Topic target = topics.get(topic);
+        if (target == null) {
+            return 0;
+        }
+        target.frames.increment();
+        int delivered = 0;
+        for (TopicSubscriber subscriber : target.subscribers) {
+            subscriber.deliver(frame);
+            delivered++;
+        }
+        deliveredFrames.add(delivered);
+        return delivered;
+    }
+
+    /**
+     * Closes a topic: removes it and tells its subscribers, which receive no more frames of it.
+     *
+     * @param topic The topic name.
+     * @return The number of subscribers the topic had.
+     */
+    public int close(String topic) {
+        Topic closed = topics.remove(topic);
+        if (closed == null) {
+            return 0;
+        }
+        for (TopicSubscriber subscriber : closed.subscribers) {
+            Set<String> subscribed = subscriptions.get(subscriber);
+            if (subscribed != null) {
+                subscribed.remove(topic);
+            }
+            subscriber.closed(topic);
+        }
+        return closed.subscribers.size();
+    }
+
+    /**
+     * Returns the subscribers of a topic.
+     *
+     * @param topic The topic name.
+     * @return A live view of the subscribers, empty if the topic does not exist.
+     */
+    public Collection<TopicSubscriber> subscribers(String topic) {
+        Topic existing = topics.get(topic);
+        return existing != null ? Collections.unmodifiableSet(existing.subscribers) : Collections.emptySet();
+    }
+
+    /**
+     * Returns the number of subscribers of a topic.
+     *
+     * @param topic The topic name.
+     * @return The number of subscribers.
+     */
+    public int getSubscriberCount(String topic) {
+        Topic existing = topics.get(topic);
+        return existing != null ? existing.subscribers.size() : 0;
+    }
+
+    /**
+     * Returns the number of topics that have subscribers.
+     *
+     * @return The number of topics.
+     */
+    public int getTopicCount() {
+        return topics.size();
+    }
+
+    /**
+     * Returns the number of subscriptions of all subscribers to all topics.
+     *
+     * @return The number of subscriptions.
+     */
+    public int getSubscriptionCount() {
+        return topics.values().stream().mapToInt(topic -> topic.subscribers.size()).sum();
+    }
+
+    /**
+     * Returns the number of frames published so far, including those to topics without subscribers.
+     *
+     * @return The number of published frames.
+     */
+    public long getPublishedFrames() {
+        return publishedFrames.sum();
+    }
+
+    /**
+     * Returns the number of frames handed to subscribers so far, i.e. every published frame once per subscriber.
+     *
+     * @return The number of delivered frames.
+     */
+    public long getDeliveredFrames() {
+        return deliveredFrames.sum();
+    }
+
+    /**
+     * Returns the broker statistics: the totals, and per topic the subscribers, the frames published since the topic
+     * got its first subscriber and the frames per second since the previous statistics, measured over at least
+     * a second.
+     *
+     * @return The broker statistics.
+     */
+    public Map<String, Object> getStatistics() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> byTopic = new TreeMap<>();
+        topics.forEach((name, topic) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("subscribers", topic.subscribers.size());
+            entry.put("frames", topic.frames.sum());
+            entry.put("framesPerSecond", topic.framesPerSecond(now));
+            byTopic.put(name, entry);
+        });
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("topics", byTopic.size());
+        statistics.put("subscriptions", getSubscriptionCount());
+        statistics.put("publishedFrames", getPublishedFrames());
+        statistics.put("deliveredFrames", getDeliveredFrames());
+        statistics.put("byTopic", byTopic);
+        return statistics;
+    }
+
+    /**
+     * The subscribers and frame counts of one topic.
+     */
+    private static final class Topic {
+        private final Set<TopicSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+        private final LongAdder frames = new LongAdder();
+        private long sampledAt = System.currentTimeMillis();
+        private long sampledFrames;
+        private double framesPerSecond;
+
+        /**
+         * Returns the frame rate between the last two samples, taking a new sample if the last one is
+         * at least a second old.
+         */
+        private synchronized double framesPerSecond(long now) {
+            if (now - sampledAt >= 1000) {
+                long total = frames.sum();
+                framesPerSecond = Math.round((total - sampledFrames) * 10000.0 / (now - sampledAt)) / 10.0;
+                sampledFrames = total;
+                sampledAt = now;
+            }
+            return framesPerSecond;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package cz.cervenka.parallelizationissues.config;
+
+/**
+ * Subscriber of {@link TopicBroker} topics, e.g. the outbox of a WebSocket session or a Server-Sent Events stream.
+ * The frames are delivered on the publishing thread, typically a simulation actor, so a subscriber only hands
+ * them over to its own queue and never blocks.
+ */
+public interface TopicSubscriber {
+
+    /**
+     * Delivers a frame published to a topic the subscriber is subscribed to. Must not block.
+     *
+     * @param frame The shared frame.
+     */
+    void deliver(Frame frame);
+
+    /**
+     * Called once a topic the subscriber is subscribed to has been closed by its publisher, after its last frame.
+     * The subscription has already been removed.
+     *
+     * @param topic The closed topic.
+     */
+    default void closed(String topic) {
+    }
+}
@@ -1,6 +1,5 @@
 package cz.cervenka.parallelizationissues.config;
 
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
@@ -15,6 +14,20 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    private final SimulationWebSocketHandler simulationWebSocketHandler;
+
+    /**
+     * Constructs a new WebSocketConfig registering the given handler for all simulation endpoints.
+     * The outbound queue of every session is sized and policed according to the {@code simulation.websocket.*}
+     * properties, as are the batching of the messages and the event history of every run, see
+     * {@link SimulationWebSocketHandler.Settings}.
+     *
+     * @param simulationWebSocketHandler The handler of the WebSocket connections.
+     */
+    public WebSocketConfig(SimulationWebSocketHandler simulationWebSocketHandler) {
+        this.simulationWebSocketHandler = simulationWebSocketHandler;
+    }
+
     /**
      * Registers the WebSocket handlers for the simulation problem and solution endpoints.
      * Each endpoint is mapped to a corresponding handler and allows connections from any origin.
@@ -23,27 +36,18 @@ public class WebSocketConfig implements WebSocketConfigurer {
      */
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(simulationWebSocketHandler(), "/ws/problems/deadlock")
+        registry.addHandler(simulationWebSocketHandler, "/ws/problems/deadlock")
                 .setAllowedOrigins("*");
-        registry.addHandler(simulationWebSocketHandler(), "/ws/problems/livelock")
+        registry.addHandler(simulationWebSocketHandler, "/ws/problems/livelock")
                 .setAllowedOrigins("*");
-        registry.addHandler(simulationWebSocketHandler(), "/ws/problems/starvation")
+        registry.addHandler(simulationWebSocketHandler, "/ws/problems/starvation")
                 .setAllowedOrigins("*");
-        registry.addHandler(simulationWebSocketHandler(), "/ws/solutions/deadlock")
+        registry.addHandler(simulationWebSocketHandler, "/ws/solutions/deadlock")
                 .setAllowedOrigins("*");
-        registry.addHandler(simulationWebSocketHandler(), "/ws/solutions/livelock")
+        registry.addHandler(simulationWebSocketHandler, "/ws/solutions/livelock")
                 .setAllowedOrigins("*");
-        registry.addHandler(simulationWebSocketHandler(), "/ws/solutions/starvation")
+        registry.addHandler(simulationWebSocketHandler, "/ws/solutions/starvation")
                 .setAllowedOrigins("*");
     }
 
-    /**
-     * Creates a bean for the SimulationWebSocketHandler to be used for handling WebSocket connections.
-     *
-     * @return A new instance of the SimulationWebSocketHandler.
-     */
-    @Bean
-    public SimulationWebSocketHandler simulationWebSocketHandler() {
-        return new SimulationWebSocketHandler();
-    }
 }
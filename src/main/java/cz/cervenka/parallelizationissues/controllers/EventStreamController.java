@@ -0,0 +1,51 @@
+package cz.cervenka.parallelizationissues.controllers;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.services.EventStreamService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * REST controller streaming the events of a run as Server-Sent Events, an alternative to the WebSocket endpoints
+ * for viewers whose network does not let WebSockets through. The frames are the same as on the WebSocket endpoints.
+ */
+@RestController
+@RequestMapping("/api/runs")
+public class EventStreamController {
+
+    private final EventStreamService eventStreamService;
+
+    /**
+     * Constructs a new EventStreamController.
+     *
+     * @param eventStreamService The EventStreamService streaming the events of the runs.
+     */
+    public EventStreamController(EventStreamService eventStreamService) {
+        this.eventStreamService = eventStreamService;
+    }
+
+    /**
+     * Handles GET requests for the event stream of a run. A reconnecting browser sends the ID of the last message
+     * it received and is first sent the events it has missed.
+     *
+     * @param runId       The ID of the run.
+     * @param lastEventId The sequence number of the last event received before a reconnect, if any.
+     * @param since       The sequence number of the last event received, for clients that cannot set the header.
+     * @return The event stream, or 204 if no such run is alive, which tells the browser not to reconnect.
+     */
+    @GetMapping(value = "/{runId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> events(@PathVariable String runId,
+                                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                             @RequestParam(value = "since", required = false) String since) {
+        SseEmitter emitter = eventStreamService.open(runId,
+                SimulationWebSocketHandler.parseSequence(lastEventId != null ? lastEventId : since));
+        return emitter != null ? ResponseEntity.ok(emitter) : ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,100 @@
+package cz.cervenka.parallelizationissues.controllers;
+
+import cz.cervenka.parallelizationissues.services.ExperimentScenario;
+import cz.cervenka.parallelizationissues.services.ExperimentService;
+import cz.cervenka.parallelizationissues.services.ScenarioVariant;
+import cz.cervenka.parallelizationissues.util.AcquisitionPattern;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.ExperimentStats;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * REST controller launching batch experiments: K independent, headless runs of a scenario executed in parallel
+ * in virtual time, answered with their aggregated statistics.
+ */
+@RestController
+@RequestMapping("/api/experiments")
+public class ExperimentController {
+
+    private final ExperimentService experimentService;
+
+    /**
+     * Constructs a new ExperimentController.
+     *
+     * @param experimentService The ExperimentService executing the runs.
+     */
+    public ExperimentController(ExperimentService experimentService) {
+        this.experimentService = experimentService;
+    }
+
+    /**
+     * Handles POST requests running an experiment. The request returns once all runs have ended.
+     *
+     * @param scenario  The scenario to be run.
+     * @param variant   Whether the problem or the solution of the scenario runs.
+     * @param runs      The number of runs.
+     * @param duration  The virtual time in milliseconds after which a run that has not ended is halted.
+     * @param seed      The seed of the first run, random if not given; run i uses the seed plus i.
+     * @param actors    The number of actors of the dining deadlock scenario.
+     * @param resources The number of resources of the dining deadlock scenario, by default as many as actors.
+     * @param pattern   Which resources an actor of the dining deadlock scenario locks in each round.
+     * @param locks     The number of resources an actor locks in each round of the random pattern.
+     * @param hold      The pause between two acquisitions in milliseconds.
+     * @return The parameters of the experiment and the aggregated statistics of its runs.
+     */
+    @PostMapping
+    public Map<String, Object> runExperiment(@RequestParam ExperimentScenario scenario,
+                                             @RequestParam(defaultValue = "PROBLEM") ScenarioVariant variant,
+                                             @RequestParam(defaultValue = "10") int runs,
+                                             @RequestParam(defaultValue = "60000") long duration,
+                                             @RequestParam(required = false) Long seed,
+                                             @RequestParam(defaultValue = "5") int actors,
+                                             @RequestParam(required = false) Integer resources,
+                                             @RequestParam(defaultValue = "RING") AcquisitionPattern pattern,
+                                             @RequestParam(defaultValue = "2") int locks,
+                                             @RequestParam(defaultValue = "100") long hold) {
+        DiningScenario dining = scenario == ExperimentScenario.DINING_DEADLOCK
+                ? new DiningScenario(actors, resources != null ? resources : actors, pattern, locks, hold)
+                : null;
+        long experimentSeed = seed != null ? seed : ThreadLocalRandom.current().nextLong();
+
+        long start = System.nanoTime();
+        ExperimentStats stats = experimentService.run(scenario, variant, dining, runs, duration, experimentSeed);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("scenario", scenario);
+        result.put("variant", variant);
+        if (dining != null) {
+            result.put("configuration", dining.describe());
+        }
+        result.put("seed", experimentSeed);
+        result.put("durationMillis", duration);
+        result.put("parallelism", experimentService.getParallelism());
+        result.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        result.putAll(stats.toSummary());
+        return result;
+    }
+
+    /**
+     * Handles invalid parameters of an experiment, e.g. an out-of-range number of runs.
+     *
+     * @param e The exception describing the invalid parameter.
+     * @return The error message as a JSON object.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public Map<String, Object> handleInvalidParameters(IllegalArgumentException e) {
+        return Map.of("error", e.getMessage());
+    }
+}
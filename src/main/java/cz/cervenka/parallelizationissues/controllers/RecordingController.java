@@ -0,0 +1,56 @@
+package cz.cervenka.parallelizationissues.controllers;
+
+import cz.cervenka.parallelizationissues.services.RunJournal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * REST controller listing the runs recorded in the {@link RunJournal}, with the address of the page replaying each.
+ */
+@RestController
+@RequestMapping("/api/recordings")
+public class RecordingController {
+
+    private final RunJournal journal;
+
+    /**
+     * Constructs a new RecordingController.
+     *
+     * @param journal The RunJournal holding the recorded runs.
+     */
+    public RecordingController(RunJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Handles GET requests for the recorded runs.
+     *
+     * @return The recordings, the most recent first.
+     */
+    @GetMapping
+    public List<Map<String, Object>> recordings() {
+        return journal.getRecordings().stream().map(recording -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("runId", recording.runId());
+            entry.put("endpoint", recording.endpoint());
+            entry.put("createdAt", recording.createdAt());
+            entry.put("events", recording.events());
+            entry.put("replay", replayPath(recording.endpoint()) + "?recording=" + recording.runId());
+            return entry;
+        }).toList();
+    }
+
+    /**
+     * Maps the WebSocket endpoint of a run to the page replaying it, e.g. {@code /ws/problems/deadlock}
+     * to {@code /simulate-problems/replay/deadlock-page}.
+     */
+    private static String replayPath(String endpoint) {
+        String[] parts = endpoint.split("/");
+        return "/simulate-" + parts[parts.length - 2] + "/replay/" + parts[parts.length - 1] + "-page";
+    }
+}
@@ -1,16 +1,33 @@
 package cz.cervenka.parallelizationissues.controllers;
 
-import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.util.AcquisitionPattern;
+import cz.cervenka.parallelizationissues.util.ClockMode;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
 import cz.cervenka.parallelizationissues.util.SimulationTask;
+import cz.cervenka.parallelizationissues.services.ReplayService;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
 import cz.cervenka.parallelizationissues.services.SimulationService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller class for handling simulation-related HTTP requests.
@@ -18,36 +35,96 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 @Controller
 @RequestMapping("/simulate-problems")
-public class SimulationController {
+public class SimulationController implements MeterBinder {
 
-    private final ConcurrentHashMap<String, SimulationTask> currentTasks = new ConcurrentHashMap<>();
     private final SimulationService service;
-    private final SimulationWebSocketHandler webSocketHandler;
+    private final RunRegistry runRegistry;
+    private final ReplayService replayService;
+    private final SimulationExecutor executor;
+    private final CompositeMeterRegistry meters = new CompositeMeterRegistry();
 
     /**
      * Constructs a new SimulationController with the given SimulationService.
      *
      * @param service The SimulationService to be used for running simulations.
+     * @param runRegistry The RunRegistry holding the simulation runs of all visitors.
+     * @param replayService The ReplayService replaying recorded runs.
+     * @param executor The SimulationExecutor running the actors of all runs, checked for room for large scenarios.
      */
-    public SimulationController(SimulationService service, SimulationWebSocketHandler webSocketHandler) {
+    public SimulationController(SimulationService service, RunRegistry runRegistry, ReplayService replayService,
+                                SimulationExecutor executor) {
         this.service = service;
-        this.webSocketHandler = webSocketHandler;
+        this.runRegistry = runRegistry;
+        this.replayService = replayService;
+        this.executor = executor;
+    }
+
+    /**
+     * Publishes the counts of the opened pages to the given registry.
+     *
+     * @param registry The meter registry the meters are published to.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        meters.add(registry);
+    }
+
+    /**
+     * Provides the text templates of the simulation events, indexed by their wire code,
+     * so the page can render the compact events it receives over the WebSocket.
+     *
+     * @return The event templates.
+     */
+    @ModelAttribute("eventTemplates")
+    public List<String> eventTemplates() {
+        return EventAction.templates();
     }
 
     /**
      * Handles GET requests for the deadlock simulation page.
      * Initiates a deadlock simulation and prepares the model for view rendering.
+     * Without parameters the classic two-thread scenario runs; with {@code actors} the scalable scenario
+     * of N actors competing for M resources runs instead, see {@link DiningScenario}.
      *
-     * @param model The Model object to be populated with attributes for the view.
+     * @param actors    The number of actors of the scalable scenario, or null for the classic scenario.
+     * @param resources The number of resources, by default as many as actors.
+     * @param pattern   Which resources an actor locks in each round.
+     * @param locks     The number of resources an actor locks in each round of the random pattern.
+     * @param hold      The pause between two acquisitions in milliseconds.
+     * @param clock     How the actors of the run are paced, in real time or deterministically in virtual time.
+     * @param seed      The seed of a deterministic run, random if not given.
+     * @param model     The Model object to be populated with attributes for the view.
      * @return A String representing the name of the view to be rendered.
      */
     @GetMapping("/deadlock-page")
-    public String simulateDeadlockPage(Model model) {
-        SimulationTask task = new SimulationTask();
-        currentTasks.put("current", task);
-
-        service.runSimulateDeadlock(task);
+    public String simulateDeadlockPage(@RequestParam(required = false) Integer actors,
+                                       @RequestParam(required = false) Integer resources,
+                                       @RequestParam(defaultValue = "RING") AcquisitionPattern pattern,
+                                       @RequestParam(defaultValue = "2") int locks,
+                                       @RequestParam(defaultValue = "100") long hold,
+                                       @RequestParam(defaultValue = "REAL_TIME") ClockMode clock,
+                                       @RequestParam(required = false) Long seed,
+                                       Model model) {
+        DiningScenario scenario = actors != null
+                ? new DiningScenario(actors, resources != null ? resources : actors, pattern, locks, hold)
+                : null;
+        if (scenario != null) {
+            executor.checkCapacity(scenario.getThreads());
+        }
+        SimulationTask task = runRegistry.openShared(
+                RunRegistry.scenario("/ws/problems/deadlock", actors, resources, pattern, locks, hold, clock, seed), () -> {
+                    SimulationTask opened = runRegistry.open("/ws/problems/deadlock", clock, seed);
+                    if (scenario != null) {
+                        service.simulateDiningDeadlock(opened, scenario);
+                    } else {
+                        service.simulateDeadlock(opened);
+                    }
+                    return opened;
+                });
+        countPage("/ws/problems/deadlock", scenario != null ? pattern.name() : "CLASSIC", clock);
 
+        model.addAttribute("runId", task.getRunId());
+        model.addAttribute("seed", task.getClock() instanceof DeterministicClock deterministic ? deterministic.getSeed() : null);
         model.addAttribute("simulation", "Deadlock simulation is running. Please observe the behavior...");
         return "problem_simulation";
     }
@@ -56,16 +133,24 @@ public class SimulationController {
      * Handles GET requests for the starvation simulation page.
      * Initiates a starvation simulation and prepares the model for view rendering.
      *
+     * @param clock How the actors of the run are paced, in real time or deterministically in virtual time.
+     * @param seed  The seed of a deterministic run, random if not given.
      * @param model The Model object to be populated with attributes for the view.
      * @return A String representing the name of the view to be rendered.
      */
     @GetMapping("/starvation-page")
-    public String simulateStarvationPage(Model model) {
-        SimulationTask task = new SimulationTask();
-        currentTasks.put("current", task);
-
-        service.runSimulateStarvation(task);
+    public String simulateStarvationPage(@RequestParam(defaultValue = "REAL_TIME") ClockMode clock,
+                                         @RequestParam(required = false) Long seed,
+                                         Model model) {
+        SimulationTask task = runRegistry.openShared(RunRegistry.scenario("/ws/problems/starvation", clock, seed), () -> {
+            SimulationTask opened = runRegistry.open("/ws/problems/starvation", clock, seed);
+            service.simulateStarvation(opened);
+            return opened;
+        });
+        countPage("/ws/problems/starvation", "CLASSIC", clock);
 
+        model.addAttribute("runId", task.getRunId());
+        model.addAttribute("seed", task.getClock() instanceof DeterministicClock deterministic ? deterministic.getSeed() : null);
         model.addAttribute("simulation", "Starvation simulation is running. Please observe the behavior...");
         return "problem_simulation";
     }
@@ -74,48 +159,107 @@ public class SimulationController {
      * Handles GET requests for the livelock simulation page.
      * Initiates a livelock simulation and prepares the model for view rendering.
      *
+     * @param clock How the actors of the run are paced, in real time or deterministically in virtual time.
+     * @param seed  The seed of a deterministic run, random if not given.
      * @param model The Model object to be populated with attributes for the view.
      * @return A String representing the name of the view to be rendered.
      */
     @GetMapping("/livelock-page")
-    public String simulateLivelockPage(Model model) {
-        SimulationTask task = new SimulationTask();
-        currentTasks.put("current", task);
-
-        service.runSimulateLivelock(task);
+    public String simulateLivelockPage(@RequestParam(defaultValue = "REAL_TIME") ClockMode clock,
+                                       @RequestParam(required = false) Long seed,
+                                       Model model) {
+        SimulationTask task = runRegistry.openShared(RunRegistry.scenario("/ws/problems/livelock", clock, seed), () -> {
+            SimulationTask opened = runRegistry.open("/ws/problems/livelock", clock, seed);
+            service.simulateLivelock(opened);
+            return opened;
+        });
+        countPage("/ws/problems/livelock", "CLASSIC", clock);
 
+        model.addAttribute("runId", task.getRunId());
+        model.addAttribute("seed", task.getClock() instanceof DeterministicClock deterministic ? deterministic.getSeed() : null);
         model.addAttribute("simulation", "Livelock simulation is running. Please observe the behavior...");
         return "problem_simulation";
     }
 
     /**
-     * Handles GET requests to stop the current simulation.
-     * Interrupts the current simulation task and redirects to the problems page.
+     * Handles GET requests to stop a simulation run.
+     * Interrupts the run's threads, or stops the replay, closes the sessions watching it and redirects to the problems page.
+     * A shared run still watched by other spectators is only left.
      *
+     * @param runId The ID of the run to be stopped.
      * @param response The HttpServletResponse object used for redirection.
      * @throws IOException If an input or output exception occurs during redirection.
      */
     @GetMapping("/stop")
-    public void stopSimulation(HttpServletResponse response) throws IOException {
+    public void stopSimulation(@RequestParam(name = "run", required = false) String runId,
+                               HttpServletResponse response) throws IOException {
         response.sendRedirect("/problems");
-        SimulationTask task = currentTasks.get("current");
-        if (task != null) {
-            task.interruptAll();
-            currentTasks.remove("current");
-            webSocketHandler.broadcast("/ws/problems/starvation", "Simulation stopped.");
-            closeAllWebSocketSessions();
+        if (!runRegistry.leave(runId)) {
+            replayService.stop(runId);
         }
     }
 
-    private void closeAllWebSocketSessions() {
-        webSocketHandler.getSessionMap().forEach((session, status) -> {
-            try {
-                if (session.isOpen()) {
-                    session.close(CloseStatus.NORMAL);
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to close WebSocket session: " + e.getMessage());
-            }
-        });
+    /**
+     * Handles GET requests replaying a recorded run on its page, e.g. {@code /replay/deadlock-page?recording=...}.
+     * The recorded events are streamed over the endpoint of the page without starting any simulation threads.
+     *
+     * @param simulation The simulation of the page, e.g. {@code deadlock}; it must be the one of the recorded run.
+     * @param recording  The ID of the recorded run.
+     * @param speed      How many times faster than the original the events are replayed.
+     * @param model      The Model object to be populated with attributes for the view.
+     * @return A String representing the name of the view to be rendered.
+     */
+    @GetMapping("/replay/{simulation}-page")
+    public String replayPage(@PathVariable String simulation,
+                             @RequestParam String recording,
+                             @RequestParam(defaultValue = "1") double speed,
+                             Model model) {
+        String replayId = replayService.open(recording, "/ws/problems/" + simulation, speed);
+
+        model.addAttribute("runId", replayId);
+        model.addAttribute("simulation", "Replaying run " + recording + " at " + speed + "x speed...");
+        return "problem_simulation";
+    }
+
+    /**
+     * Counts a page that has opened a run, tagged with the endpoint of the run, the variant of the simulation
+     * (e.g. the strategy of a solution) and the clock mode.
+     */
+    private void countPage(String endpoint, String variant, ClockMode clock) {
+        Counter.builder("simulation.pages")
+                .description("Simulation pages that have opened a run")
+                .tag("endpoint", endpoint)
+                .tag("variant", variant)
+                .tag("clock", clock.name())
+                .register(meters)
+                .increment();
+    }
+
+    /**
+     * Handles invalid parameters of a simulation, e.g. an out-of-range number of actors.
+     *
+     * @param e     The exception describing the invalid parameter.
+     * @param model The Model object to be populated with attributes for the view.
+     * @return A String representing the name of the view to be rendered.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String handleInvalidParameters(IllegalArgumentException e, Model model) {
+        model.addAttribute("simulation", e.getMessage());
+        return "problem_simulation";
+    }
+
+    /**
+     * Handles the rejection of a new run when the node already serves the maximum number of runs.
+     *
+     * @param e     The exception describing the rejection.
+     * @param model The Model object to be populated with attributes for the view.
+     * @return A String representing the name of the view to be rendered.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleRejectedRun(RejectedExecutionException e, Model model) {
+        model.addAttribute("simulation", "Too many simulations are running right now. Please try again later.");
+        return "problem_simulation";
     }
 }
\ No newline at end of file
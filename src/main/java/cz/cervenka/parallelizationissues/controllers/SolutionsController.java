@@ -1,17 +1,38 @@
 package cz.cervenka.parallelizationissues.controllers;
 
-import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.util.AcquisitionPattern;
+import cz.cervenka.parallelizationissues.util.ClockMode;
+import cz.cervenka.parallelizationissues.util.CoordinationMode;
+import cz.cervenka.parallelizationissues.util.DeadlockStrategy;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
 import cz.cervenka.parallelizationissues.util.SimulationTask;
+import cz.cervenka.parallelizationissues.util.StarvationScenario;
+import cz.cervenka.parallelizationissues.util.StarvationStrategy;
+import cz.cervenka.parallelizationissues.services.ReplayService;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
 import cz.cervenka.parallelizationissues.services.SolutionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller class for handling solution-related HTTP requests.
@@ -19,37 +40,102 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 @Controller
 @RequestMapping("/simulate-solutions")
-public class SolutionsController {
+public class SolutionsController implements MeterBinder {
 
-    private final ConcurrentHashMap<String, SimulationTask> currentTasks = new ConcurrentHashMap<>();
     private final SolutionService service;
-    private final SimulationWebSocketHandler webSocketHandler;
+    private final RunRegistry runRegistry;
+    private final ReplayService replayService;
+    private final SimulationExecutor executor;
+    private final CompositeMeterRegistry meters = new CompositeMeterRegistry();
 
     /**
      * Constructs a new SolutionsController with the given SolutionService.
      *
      * @param service The SolutionService to be used for running solutions.
-     * @param webSocketHandler The SimulationWebSocketHandler for managing WebSocket interactions.
+     * @param runRegistry The RunRegistry holding the simulation runs of all visitors.
+     * @param replayService The ReplayService replaying recorded runs.
+     * @param executor The SimulationExecutor running the actors of all runs, checked for room for large scenarios.
      */
-    public SolutionsController(SolutionService service, SimulationWebSocketHandler webSocketHandler) {
+    public SolutionsController(SolutionService service, RunRegistry runRegistry, ReplayService replayService,
+                               SimulationExecutor executor) {
         this.service = service;
-        this.webSocketHandler = webSocketHandler;
+        this.runRegistry = runRegistry;
+        this.replayService = replayService;
+        this.executor = executor;
+    }
+
+    /**
+     * Publishes the counts of the opened pages to the given registry.
+     *
+     * @param registry The meter registry the meters are published to.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        meters.add(registry);
+    }
+
+    /**
+     * Provides the text templates of the simulation events, indexed by their wire code,
+     * so the page can render the compact events it receives over the WebSocket.
+     *
+     * @return The event templates.
+     */
+    @ModelAttribute("eventTemplates")
+    public List<String> eventTemplates() {
+        return EventAction.templates();
     }
 
     /**
      * Handles GET requests for the deadlock solution page.
      * Initiates a solution for the deadlock problem and prepares the model for view rendering.
+     * Without parameters the classic two-thread solution runs; with {@code actors} the scalable scenario
+     * of N actors competing for M resources runs, see {@link DiningScenario}. Either way the threads avoid
+     * the deadlock with the chosen strategy, by default global lock ordering.
      *
-     * @param model The Model object to be populated with attributes for the view.
+     * @param strategy  How the threads avoid the deadlock; {@link DeadlockStrategy#NONE} is rejected.
+     * @param actors    The number of actors of the scalable scenario, or null for the classic solution.
+     * @param resources The number of resources, by default as many as actors.
+     * @param pattern   Which resources an actor locks in each round.
+     * @param locks     The number of resources an actor locks in each round of the random pattern.
+     * @param hold      The pause between two acquisitions in milliseconds.
+     * @param clock     How the actors of the run are paced, in real time or deterministically in virtual time.
+     * @param seed      The seed of a deterministic run, random if not given.
+     * @param model     The Model object to be populated with attributes for the view.
      * @return A String representing the name of the view to be rendered.
      */
     @GetMapping("/deadlock-page")
-    public String solveDeadlockPage(Model model) {
-        SimulationTask task = new SimulationTask();
-        currentTasks.put("current", task);
-
-        service.solveDeadlock(task);
+    public String solveDeadlockPage(@RequestParam(defaultValue = "RESOURCE_HIERARCHY") DeadlockStrategy strategy,
+                                    @RequestParam(required = false) Integer actors,
+                                    @RequestParam(required = false) Integer resources,
+                                    @RequestParam(defaultValue = "RING") AcquisitionPattern pattern,
+                                    @RequestParam(defaultValue = "2") int locks,
+                                    @RequestParam(defaultValue = "100") long hold,
+                                    @RequestParam(defaultValue = "REAL_TIME") ClockMode clock,
+                                    @RequestParam(required = false) Long seed,
+                                    Model model) {
+        if (strategy == DeadlockStrategy.NONE) {
+            throw new IllegalArgumentException("The deadlock solution needs a strategy avoiding the deadlock.");
+        }
+        DiningScenario scenario = actors != null
+                ? new DiningScenario(actors, resources != null ? resources : actors, pattern, locks, hold)
+                : null;
+        if (scenario != null) {
+            executor.checkCapacity(scenario.getThreads());
+        }
+        SimulationTask task = runRegistry.openShared(RunRegistry.scenario("/ws/solutions/deadlock", strategy,
+                actors, resources, pattern, locks, hold, clock, seed), () -> {
+            SimulationTask opened = runRegistry.open("/ws/solutions/deadlock", clock, seed);
+            if (scenario != null) {
+                service.solveDiningDeadlock(opened, scenario, strategy);
+            } else {
+                service.solveDeadlock(opened, strategy);
+            }
+            return opened;
+        });
+        countPage("/ws/solutions/deadlock", strategy.name(), clock);
 
+        model.addAttribute("runId", task.getRunId());
+        model.addAttribute("seed", task.getClock() instanceof DeterministicClock deterministic ? deterministic.getSeed() : null);
         model.addAttribute("simulation", "Deadlock solution is running. Please observe the behavior...");
         return "solution_simulation";
     }
@@ -57,17 +143,36 @@ public class SolutionsController {
     /**
      * Handles GET requests for the starvation solution page.
      * Initiates a solution for the starvation problem and prepares the model for view rendering.
+     * Any number of high-priority and low-priority users compete for the slot, see {@link StarvationScenario};
+     * the fairness of their reservations is reported on the run stream.
      *
-     * @param model The Model object to be populated with attributes for the view.
+     * @param strategy The strategy keeping the low-priority users from being starved.
+     * @param high     The number of high-priority users.
+     * @param low      The number of low-priority users.
+     * @param clock    How the actors of the run are paced, in real time or deterministically in virtual time.
+     * @param seed     The seed of a deterministic run, random if not given.
+     * @param model    The Model object to be populated with attributes for the view.
      * @return A String representing the name of the view to be rendered.
      */
     @GetMapping("/starvation-page")
-    public String solveStarvationPage(Model model) {
-        SimulationTask task = new SimulationTask();
-        currentTasks.put("current", task);
-
-        service.solveStarvation(task);
+    public String solveStarvationPage(@RequestParam(defaultValue = "FAIR_LOCK") StarvationStrategy strategy,
+                                      @RequestParam(defaultValue = "1") int high,
+                                      @RequestParam(defaultValue = "1") int low,
+                                      @RequestParam(defaultValue = "REAL_TIME") ClockMode clock,
+                                      @RequestParam(required = false) Long seed,
+                                      Model model) {
+        StarvationScenario scenario = new StarvationScenario(high, low, strategy);
+        executor.checkCapacity(scenario.getThreads());
+        SimulationTask task = runRegistry.openShared(
+                RunRegistry.scenario("/ws/solutions/starvation", strategy, high, low, clock, seed), () -> {
+                    SimulationTask opened = runRegistry.open("/ws/solutions/starvation", clock, seed);
+                    service.solveStarvation(opened, scenario);
+                    return opened;
+                });
+        countPage("/ws/solutions/starvation", strategy.name(), clock);
 
+        model.addAttribute("runId", task.getRunId());
+        model.addAttribute("seed", task.getClock() instanceof DeterministicClock deterministic ? deterministic.getSeed() : null);
         model.addAttribute("simulation", "Starvation solution is running. Please observe the behavior...");
         return "solution_simulation";
     }
@@ -75,53 +180,112 @@ public class SolutionsController {
     /**
      * Handles GET requests for the livelock solution page.
      * Initiates a solution for the livelock problem and prepares the model for view rendering.
+     * The threads wait for each other in the chosen coordination mode, whose CPU cost is reported on the run stream.
      *
-     * @param model The Model object to be populated with attributes for the view.
+     * @param coordination How a thread waits while the other agent is acting.
+     * @param clock        How the actors of the run are paced, in real time or deterministically in virtual time.
+     * @param seed         The seed of a deterministic run, random if not given.
+     * @param model        The Model object to be populated with attributes for the view.
      * @return A String representing the name of the view to be rendered.
      */
     @GetMapping("/livelock-page")
-    public String solveLivelockPage(Model model) {
-        SimulationTask task = new SimulationTask();
-        currentTasks.put("current", task);
-
-        service.solveLivelock(task);
+    public String solveLivelockPage(@RequestParam(defaultValue = "SPIN") CoordinationMode coordination,
+                                    @RequestParam(defaultValue = "REAL_TIME") ClockMode clock,
+                                    @RequestParam(required = false) Long seed,
+                                    Model model) {
+        SimulationTask task = runRegistry.openShared(
+                RunRegistry.scenario("/ws/solutions/livelock", coordination, clock, seed), () -> {
+                    SimulationTask opened = runRegistry.open("/ws/solutions/livelock", clock, seed);
+                    service.solveLivelock(opened, coordination);
+                    return opened;
+                });
+        countPage("/ws/solutions/livelock", coordination.name(), clock);
 
+        model.addAttribute("runId", task.getRunId());
+        model.addAttribute("seed", task.getClock() instanceof DeterministicClock deterministic ? deterministic.getSeed() : null);
         model.addAttribute("simulation", "Livelock solution is running. Please observe the behavior...");
         return "solution_simulation";
     }
 
     /**
-     * Handles GET requests to stop the current solution.
-     * Interrupts the current solution task and redirects to the solutions page.
+     * Handles GET requests to stop a solution run.
+     * Interrupts the run's threads, or stops the replay, closes the sessions watching it and redirects to the solutions page.
+     * A shared run still watched by other spectators is only left.
      *
+     * @param runId The ID of the run to be stopped.
      * @param response The HttpServletResponse object used for redirection.
      * @throws IOException If an input or output exception occurs during redirection.
      */
     @GetMapping("/stop")
-    public void stopSimulation(HttpServletResponse response) throws IOException {
+    public void stopSimulation(@RequestParam(name = "run", required = false) String runId,
+                               HttpServletResponse response) throws IOException {
         response.sendRedirect("/solutions");
-        SimulationTask task = currentTasks.get("current");
-        if (task != null) {
-            task.interruptAll();
-            currentTasks.remove("current");
-            webSocketHandler.broadcast("/ws/solutions/starvation", "Simulation stopped.");
-            closeAllWebSocketSessions();
+        if (!runRegistry.leave(runId)) {
+            replayService.stop(runId);
         }
     }
 
     /**
-     * Closes all active WebSocket sessions gracefully.
-     * Iterates through the session map and closes each session if open.
+     * Handles GET requests replaying a recorded run on its page, e.g. {@code /replay/deadlock-page?recording=...}.
+     * The recorded events are streamed over the endpoint of the page without starting any simulation threads.
+     *
+     * @param simulation The simulation of the page, e.g. {@code deadlock}; it must be the one of the recorded run.
+     * @param recording  The ID of the recorded run.
+     * @param speed      How many times faster than the original the events are replayed.
+     * @param model      The Model object to be populated with attributes for the view.
+     * @return A String representing the name of the view to be rendered.
      */
-    private void closeAllWebSocketSessions() {
-        webSocketHandler.getSessionMap().forEach((session, status) -> {
-            try {
-                if (session.isOpen()) {
-                    session.close(CloseStatus.NORMAL);
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to close WebSocket session: " + e.getMessage());
-            }
-        });
+    @GetMapping("/replay/{simulation}-page")
+    public String replayPage(@PathVariable String simulation,
+                             @RequestParam String recording,
+                             @RequestParam(defaultValue = "1") double speed,
+                             Model model) {
+        String replayId = replayService.open(recording, "/ws/solutions/" + simulation, speed);
+
+        model.addAttribute("runId", replayId);
+        model.addAttribute("simulation", "Replaying run " + recording + " at " + speed + "x speed...");
+        return "solution_simulation";
+    }
+
+    /**
+     * Counts a page that has opened a run, tagged with the endpoint of the run, the variant of the simulation
+     * (e.g. the strategy of a solution) and the clock mode.
+     */
+    private void countPage(String endpoint, String variant, ClockMode clock) {
+        Counter.builder("simulation.pages")
+                .description("Simulation pages that have opened a run")
+                .tag("endpoint", endpoint)
+                .tag("variant", variant)
+                .tag("clock", clock.name())
+                .register(meters)
+                .increment();
+    }
+
+    /**
+     * Handles invalid parameters of a simulation, e.g. an out-of-range number of actors.
+     *
+     * @param e     The exception describing the invalid parameter.
+     * @param model The Model object to be populated with attributes for the view.
+     * @return A String representing the name of the view to be rendered.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String handleInvalidParameters(IllegalArgumentException e, Model model) {
+        model.addAttribute("simulation", e.getMessage());
+        return "solution_simulation";
+    }
+
+    /**
+     * Handles the rejection of a new run when the node already serves the maximum number of runs.
+     *
+     * @param e     The exception describing the rejection.
+     * @param model The Model object to be populated with attributes for the view.
+     * @return A String representing the name of the view to be rendered.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleRejectedRun(RejectedExecutionException e, Model model) {
+        model.addAttribute("simulation", "Too many simulations are running right now. Please try again later.");
+        return "solution_simulation";
     }
 }
@@ -0,0 +1,108 @@
+package cz.cervenka.parallelizationissues.controllers;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.services.ContentionReporter;
+import cz.cervenka.parallelizationissues.services.DeadlockDetector;
+import cz.cervenka.parallelizationissues.services.PinningMonitor;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.RunWatchdog;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * REST controller exposing the current load of the node: runs, shared runs with their spectators, simulation threads
+ * and WebSocket subscribers, the topics of the frame broker with their subscribers and frame rates, the threads
+ * outliving their runs, and the lock contention measured in the running simulations.
+ */
+@RestController
+@RequestMapping("/api/stats")
+public class StatsController {
+
+    private final RunRegistry runRegistry;
+    private final SimulationExecutor executor;
+    private final SimulationWebSocketHandler webSocketHandler;
+    private final PinningMonitor pinningMonitor;
+    private final DeadlockDetector deadlockDetector;
+    private final ContentionReporter contentionReporter;
+    private final RunWatchdog runWatchdog;
+
+    /**
+     * Constructs a new StatsController.
+     *
+     * @param runRegistry        The RunRegistry holding the simulation runs.
+     * @param executor           The SimulationExecutor running the simulation actors.
+     * @param webSocketHandler   The SimulationWebSocketHandler managing the WebSocket sessions.
+     * @param pinningMonitor     The PinningMonitor reporting virtual threads pinned to their carrier.
+     * @param deadlockDetector   The DeadlockDetector watching the simulation actors.
+     * @param contentionReporter The ContentionReporter summarizing the lock contention of the runs.
+     * @param runWatchdog        The RunWatchdog reporting the threads that outlive their runs.
+     */
+    public StatsController(RunRegistry runRegistry, SimulationExecutor executor,
+                           SimulationWebSocketHandler webSocketHandler, PinningMonitor pinningMonitor,
+                           DeadlockDetector deadlockDetector, ContentionReporter contentionReporter,
+                           RunWatchdog runWatchdog) {
+        this.runRegistry = runRegistry;
+        this.executor = executor;
+        this.webSocketHandler = webSocketHandler;
+        this.pinningMonitor = pinningMonitor;
+        this.deadlockDetector = deadlockDetector;
+        this.contentionReporter = contentionReporter;
+        this.runWatchdog = runWatchdog;
+    }
+
+    /**
+     * Handles GET requests for the node statistics.
+     *
+     * @return The statistics as a JSON object.
+     */
+    @GetMapping
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("executionMode", executor.getMode());
+        stats.put("openRuns", runRegistry.getRuns().size());
+        stats.put("pendingRuns", runRegistry.getPendingRuns());
+        stats.put("sharedRuns", runRegistry.getSharedRuns());
+        stats.put("queuedRuns", executor.getQueuedRuns());
+        stats.put("activeRuns", executor.getActiveRuns());
+        stats.put("rejectedRuns", executor.getRejectedRuns());
+        stats.put("activeThreads", executor.getActiveThreads());
+        stats.put("maxThreads", executor.getMaxThreads());
+        stats.put("subscribers", webSocketHandler.getSubscriberCounts());
+        stats.put("broker", webSocketHandler.getBroker().getStatistics());
+        stats.put("pinning", pinningMonitor.getReport());
+        stats.put("deadlockDetector", deadlockDetector.getReport());
+        stats.put("watchdog", runWatchdog.getReport());
+        return stats;
+    }
+
+    /**
+     * Returns the lock contention of all running simulations: per run and resource, the number of acquisitions,
+     * the number of contended acquisitions and the wait and hold time percentiles.
+     *
+     * @return The contention statistics by run ID.
+     */
+    @GetMapping("/contention")
+    public Map<String, Object> contention() {
+        return contentionReporter.getContention();
+    }
+
+    /**
+     * Returns the lock contention of one running simulation.
+     *
+     * @param runId The ID of the run.
+     * @return The contention statistics of the run, or 404 if no such run is alive.
+     */
+    @GetMapping("/contention/{runId}")
+    public ResponseEntity<Map<String, Object>> contention(@PathVariable String runId) {
+        SimulationTask task = runRegistry.get(runId);
+        return task != null ? ResponseEntity.ok(contentionReporter.getContention(task)) : ResponseEntity.notFound().build();
+    }
+}
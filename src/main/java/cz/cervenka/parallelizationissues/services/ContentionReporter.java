@@ -0,0 +1,150 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.LockStats;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the lock contention statistics of the running simulations.
+ * At a configurable interval, every resource of a run that has been acquired since the last report is summarized
+ * on the run's event stream as a {@link EventAction#CONTENTION} event; the full percentiles are available over HTTP.
+ * Along with them, the CPU time the actors of a run consumed since the last report and the rate at which the run
+ * completed units of work are published as a {@link EventAction#CPU_USAGE} event, which shows what busy-waiting
+ * costs compared with actors that wait off the CPU.
+ */
+@Service
+public class ContentionReporter implements DisposableBean {
+
+    private final RunRegistry runRegistry;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Map<String, Long>> reportedAcquisitions = new ConcurrentHashMap<>();
+    private final Map<String, CpuSample> reportedCpu = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new ContentionReporter.
+     *
+     * @param runRegistry    The RunRegistry holding the runs whose contention is reported.
+     * @param intervalMillis The time between two reports, or 0 to publish no reports on the event streams.
+     */
+    public ContentionReporter(RunRegistry runRegistry,
+                              @Value("${simulation.contention.report-interval-ms:5000}") long intervalMillis) {
+        this.runRegistry = runRegistry;
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "contention-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Publishes a contention event for every resource acquired since the previous report.
+     */
+    public void report() {
+        reportedAcquisitions.keySet().removeIf(runId -> runRegistry.get(runId) == null);
+        reportedCpu.keySet().removeIf(runId -> runRegistry.get(runId) == null);
+        for (SimulationTask task : runRegistry.getRuns()) {
+            reportCpu(task);
+            Map<String, Long> reported = reportedAcquisitions.computeIfAbsent(task.getRunId(), runId -> new ConcurrentHashMap<>());
+            task.getLockStats().forEach((resource, stats) -> {
+                long acquisitions = stats.getAcquisitions();
+                Long previous = reported.put(resource, acquisitions);
+                if (previous == null || previous != acquisitions) {
+                    task.emit(EventAction.CONTENTION, null, resource, stats.describe());
+                }
+            });
+        }
+    }
+
+    /**
+     * Publishes the CPU time the actors of a run consumed since the previous report, if they consumed any,
+     * together with the units of work the run completed per second in that time.
+     */
+    private void reportCpu(SimulationTask task) {
+        long cpuNanos = task.getCpuTimeNanos();
+        if (cpuNanos < 0) {
+            return;
+        }
+        CpuSample sample = new CpuSample(System.currentTimeMillis(), cpuNanos, task.getCompletions());
+        CpuSample previous = reportedCpu.put(task.getRunId(), sample);
+        if (previous == null) {
+            previous = new CpuSample(task.getCreatedAt(), 0, 0);
+        }
+        if (sample.cpuNanos() == previous.cpuNanos()) {
+            return;
+        }
+        long elapsedMillis = Math.max(1, sample.at() - previous.at());
+        long cpuMillis = TimeUnit.NANOSECONDS.toMillis(sample.cpuNanos() - previous.cpuNanos());
+        task.emit(EventAction.CPU_USAGE, null, null, String.format(Locale.ROOT,
+                "%d ms of CPU time in the last %d ms (%.0f%% of a core), %.2f completions/s",
+                cpuMillis, elapsedMillis, 100.0 * cpuMillis / elapsedMillis,
+                1000.0 * (sample.completions() - previous.completions()) / elapsedMillis));
+    }
+
+    /**
+     * Returns the contention statistics of all running simulations.
+     *
+     * @return A map from run IDs to the contention statistics of the run.
+     */
+    public Map<String, Object> getContention() {
+        Map<String, Object> contention = new LinkedHashMap<>();
+        for (SimulationTask task : runRegistry.getRuns()) {
+            contention.put(task.getRunId(), getContention(task));
+        }
+        return contention;
+    }
+
+    /**
+     * Returns the contention statistics of one run: its endpoint, the CPU time of its actors, its rate of completed
+     * units of work and the wait and hold time percentiles of its resources.
+     *
+     * @param task The task of the run.
+     * @return The contention statistics of the run.
+     */
+    public Map<String, Object> getContention(SimulationTask task) {
+        Map<String, Object> resources = new LinkedHashMap<>();
+        for (Map.Entry<String, LockStats> entry : task.getLockStats().entrySet()) {
+            resources.put(entry.getKey(), entry.getValue().toSummary());
+        }
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("endpoint", task.getEndpoint());
+        long cpuNanos = task.getCpuTimeNanos();
+        run.put("cpuTimeMillis", cpuNanos >= 0 ? TimeUnit.NANOSECONDS.toMillis(cpuNanos) : null);
+        run.put("completions", task.getCompletions());
+        run.put("completionsPerSecond",
+                1000.0 * task.getCompletions() / Math.max(1, System.currentTimeMillis() - task.getCreatedAt()));
+        run.put("resources", resources);
+        return run;
+    }
+
+    /**
+     * The CPU time and completions of a run at the time of a report.
+     */
+    private record CpuSample(long at, long cpuNanos, long completions) {
+    }
+
+    /**
+     * Stops the reporting thread when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background service detecting deadlocks among the actors of the running simulations.
+ * At a configurable interval it asks the JVM for deadlocked threads, keeps those executing simulation actors,
+ * reconstructs the wait-for cycle of every affected run and publishes it to the run's event stream, one
+ * {@link EventAction#DEADLOCK_DETECTED} event per edge of the cycle (up to {@value #MAX_REPORTED_EDGES} edges,
+ * longer cycles are only logged in full). Afterwards the configured
+ * {@link DeadlockRecovery} policy is applied.
+ * <p>
+ * The cost of a sample is bounded: nothing is inspected while no actor is running, and only the deadlocked
+ * threads are inspected, without stack traces. The JVM does not report deadlocks of virtual threads,
+ * so in virtual-thread execution mode only deadlocks of platform threads are detected.
+ */
+@Service
+public class DeadlockDetector implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DeadlockDetector.class);
+
+    /**
+     * The number of edges of a cycle published to the run's stream; the full cycle is logged.
+     */
+    static final int MAX_REPORTED_EDGES = 16;
+
+    private final RunRegistry runRegistry;
+    private final DeadlockRecovery recovery;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final ScheduledExecutorService scheduler;
+    /**
+     * The deadlocks reported so far and still present, keyed by run ID and the sorted IDs of the deadlocked threads.
+     */
+    private final Set<String> reportedDeadlocks = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong detectedDeadlocks = new AtomicLong();
+    private final AtomicLong totalSampleNanos = new AtomicLong();
+    private volatile long lastSampleNanos;
+
+    /**
+     * Constructs a new DeadlockDetector.
+     *
+     * @param runRegistry    The RunRegistry holding the runs whose actors are inspected.
+     * @param intervalMillis The time between two samples, or 0 to disable periodic sampling.
+     * @param recovery       The recovery policy applied to a detected deadlock.
+     */
+    public DeadlockDetector(RunRegistry runRegistry,
+                            @Value("${simulation.deadlock-detector.interval-ms:2000}") long intervalMillis,
+                            @Value("${simulation.deadlock-detector.recovery:NONE}") DeadlockRecovery recovery) {
+        this.runRegistry = runRegistry;
+        this.recovery = recovery;
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "deadlock-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::sampleSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Inspects the running simulations once and reports and recovers new deadlocks. A deadlock is reported once
+     * while it lasts; once it has cleared, e.g. after recovery, a later deadlock of the same run is reported again.
+     *
+     * @return The number of deadlocks found for the first time.
+     */
+    public int sample() {
+        Map<Long, SimulationTask> tasksByThread = new HashMap<>();
+        Map<Long, Thread> threads = new HashMap<>();
+        for (SimulationTask task : runRegistry.getRuns()) {
+            for (Thread thread : task.getActorThreads()) {
+                if (!thread.isVirtual()) {
+                    tasksByThread.put(thread.threadId(), task);
+                    threads.put(thread.threadId(), thread);
+                }
+            }
+        }
+        if (tasksByThread.isEmpty()) {
+            reportedDeadlocks.clear();
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        samples.incrementAndGet();
+        long[] deadlockedIds = threadMXBean.findDeadlockedThreads();
+        int detected = 0;
+        Set<String> present = new HashSet<>();
+        if (deadlockedIds != null) {
+            Map<SimulationTask, Map<Long, ThreadInfo>> deadlockedByTask = new LinkedHashMap<>();
+            for (ThreadInfo info : threadMXBean.getThreadInfo(deadlockedIds)) {
+                SimulationTask task = info != null ? tasksByThread.get(info.getThreadId()) : null;
+                if (task != null) {
+                    deadlockedByTask.computeIfAbsent(task, t -> new LinkedHashMap<>()).put(info.getThreadId(), info);
+                }
+            }
+            for (Map.Entry<SimulationTask, Map<Long, ThreadInfo>> entry : deadlockedByTask.entrySet()) {
+                SimulationTask task = entry.getKey();
+                String deadlock = task.getRunId() + entry.getValue().keySet().stream().sorted().toList();
+                present.add(deadlock);
+                if (reportedDeadlocks.add(deadlock)) {
+                    detected++;
+                    detectedDeadlocks.incrementAndGet();
+                    List<ThreadInfo> cycle = findCycle(entry.getValue());
+                    report(task, cycle, threads);
+                    recover(task, cycle);
+                }
+            }
+        }
+        reportedDeadlocks.retainAll(present);
+        lastSampleNanos = System.nanoTime() - start;
+        totalSampleNanos.addAndGet(lastSampleNanos);
+        return detected;
+    }
+
+    /**
+     * Returns the detector statistics: the recovery policy, the number of samples and detected deadlocks,
+     * and the cost of the samples.
+     *
+     * @return The detector statistics.
+     */
+    public Map<String, Object> getReport() {
+        long sampleCount = samples.get();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("enabled", scheduler != null);
+        report.put("recovery", recovery);
+        report.put("samples", sampleCount);
+        report.put("detectedDeadlocks", detectedDeadlocks.get());
+        report.put("lastSampleMicros", TimeUnit.NANOSECONDS.toMicros(lastSampleNanos));
+        report.put("averageSampleMicros", sampleCount > 0 ? TimeUnit.NANOSECONDS.toMicros(totalSampleNanos.get() / sampleCount) : 0);
+        return report;
+    }
+
+    /**
+     * Follows the lock owners from the first deadlocked thread until a thread repeats.
+     * Threads that are blocked behind the cycle without being part of it are left out.
+     *
+     * @param deadlocked The deadlocked threads of one run.
+     * @return The threads of the cycle in wait-for order.
+     */
+    private static List<ThreadInfo> findCycle(Map<Long, ThreadInfo> deadlocked) {
+        Set<Long> visited = new LinkedHashSet<>();
+        ThreadInfo current = deadlocked.values().iterator().next();
+        while (current != null && visited.add(current.getThreadId())) {
+            current = deadlocked.get(current.getLockOwnerId());
+        }
+        List<ThreadInfo> cycle = new ArrayList<>();
+        boolean inCycle = false;
+        for (Long threadId : visited) {
+            inCycle |= current != null && threadId == current.getThreadId();
+            if (inCycle) {
+                cycle.add(deadlocked.get(threadId));
+            }
+        }
+        return cycle.isEmpty() ? new ArrayList<>(deadlocked.values()) : cycle;
+    }
+
+    private void report(SimulationTask task, List<ThreadInfo> cycle, Map<Long, Thread> threads) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < cycle.size(); i++) {
+            ThreadInfo info = cycle.get(i);
+            String actor = actorName(task, info.getThreadName());
+            String owner = actorName(task, info.getLockOwnerName());
+            if (i < MAX_REPORTED_EDGES) {
+                task.emit(EventAction.DEADLOCK_DETECTED, actor, resourceName(task, threads.get(info.getThreadId()), info), owner);
+            }
+            description.append(description.isEmpty() ? "" : ", ").append(actor).append(" -> ").append(owner);
+        }
+        log.warn("Deadlock of {} actors detected in run {}: {}", cycle.size(), task.getRunId(), description);
+    }
+
+    private void recover(SimulationTask task, List<ThreadInfo> cycle) {
+        switch (recovery) {
+            case INTERRUPT_VICTIM -> {
+                ThreadInfo victim = cycle.stream()
+                        .max((a, b) -> Long.compare(a.getThreadId(), b.getThreadId()))
+                        .orElseThrow();
+                String actor = actorName(task, victim.getThreadName());
+                task.emit(EventAction.DEADLOCK_RECOVERED, actor, null, "interrupting " + actor);
+                task.interruptActor(victim.getThreadId());
+            }
+            case STOP_RUN -> {
+                task.emit(EventAction.DEADLOCK_RECOVERED, null, null, "stopping the run");
+                runRegistry.stop(task.getRunId());
+            }
+            case NONE -> {
+            }
+        }
+    }
+
+    /**
+     * Shortens the name of an actor thread ("sim-&lt;runId&gt;-actor-1") to the actor name ("actor-1").
+     */
+    private static String actorName(SimulationTask task, String threadName) {
+        String prefix = "sim-" + task.getRunId() + "-";
+        return threadName != null && threadName.startsWith(prefix) ? threadName.substring(prefix.length()) : threadName;
+    }
+
+    /**
+     * Names the resource a deadlocked thread waits for. The JVM reports only the internal synchronizer of the lock,
+     * so the locks of the run are asked which of them the thread is queued on; for a lock not created by the run,
+     * the reported lock name is shortened instead.
+     */
+    private static String resourceName(SimulationTask task, Thread thread, ThreadInfo info) {
+        String resource = thread != null ? task.getAwaitedResource(thread) : null;
+        return resource != null ? resource : lockName(info.getLockName());
+    }
+
+    /**
+     * Shortens a lock name to its simple class name and identity hash code.
+     */
+    private static String lockName(String lockName) {
+        if (lockName == null) {
+            return null;
+        }
+        int packageEnd = lockName.lastIndexOf('.', lockName.indexOf('@') >= 0 ? lockName.indexOf('@') : lockName.length());
+        return lockName.substring(packageEnd + 1);
+    }
+
+    private void sampleSafely() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            log.error("Deadlock detection failed.", e);
+        }
+    }
+
+    /**
+     * Stops the sampling thread when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
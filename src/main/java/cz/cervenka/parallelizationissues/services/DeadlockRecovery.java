@@ -0,0 +1,19 @@
+package cz.cervenka.parallelizationissues.services;
+
+/**
+ * What the {@link DeadlockDetector} does after it has reported a deadlock.
+ */
+public enum DeadlockRecovery {
+    /**
+     * Only report the deadlock and leave the threads blocked.
+     */
+    NONE,
+    /**
+     * Interrupt one thread of the cycle, so it gives up its locks and the others can proceed.
+     */
+    INTERRUPT_VICTIM,
+    /**
+     * Stop the whole run.
+     */
+    STOP_RUN
+}
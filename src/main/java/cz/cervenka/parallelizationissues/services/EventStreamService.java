@@ -0,0 +1,394 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.config.Frame;
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.config.TopicBroker;
+import cz.cervenka.parallelizationissues.config.TopicSubscriber;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the events of the runs to Server-Sent Events readers, for viewers behind proxies that break WebSockets.
+ * Every reader subscribes to the topic of its run in the {@link TopicBroker} of the {@link SimulationWebSocketHandler},
+ * so it receives the very frames the WebSocket sessions of the run receive, encoded once. The frames are offered to a
+ * {@link SubmissionPublisher} of the reader with a bounded buffer, and the reader requests the next frame only once it
+ * has written the previous one, so a slow reader only fills its own buffer; the {@link StreamOverflowPolicy} decides
+ * what happens then. Offering a frame never blocks the actor producing it, and the readers are written to on virtual
+ * threads, so a stalled connection only holds its own thread.
+ * <p>
+ * Every message carries a frame in the format of the WebSocket frames and the highest sequence number of its events
+ * as its ID, so a reconnecting browser sends it back as {@code Last-Event-ID} and is first sent the events it has
+ * missed from the run's history. Readers count as watchers of their run: they start a pending run and keep it alive
+ * like WebSocket sessions do.
+ */
+@Service
+public class EventStreamService implements DisposableBean, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(EventStreamService.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    /**
+     * A coalescing reader is disconnected once it has collected this many buffers worth of overflowing frames.
+     */
+    static final int COALESCE_LIMIT_BUFFERS = 4;
+
+    private final RunRegistry runRegistry;
+    private final SimulationWebSocketHandler webSocketHandler;
+    private final int bufferSize;
+    private final StreamOverflowPolicy overflowPolicy;
+    private final ExecutorService writerExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sse-writer-", 1).factory());
+    private final Set<Reader> readers = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong coalescedEvents = new AtomicLong();
+    private final AtomicLong disconnectedReaders = new AtomicLong();
+
+    /**
+     * Constructs a new EventStreamService with the default buffer size, coalescing the frames of slow readers.
+     *
+     * @param runRegistry      The RunRegistry whose runs are streamed.
+     * @param webSocketHandler The SimulationWebSocketHandler publishing the frames of the runs.
+     */
+    public EventStreamService(RunRegistry runRegistry, SimulationWebSocketHandler webSocketHandler) {
+        this(runRegistry, webSocketHandler, DEFAULT_BUFFER_SIZE, StreamOverflowPolicy.COALESCE);
+    }
+
+    /**
+     * Constructs a new EventStreamService.
+     *
+     * @param runRegistry      The RunRegistry whose runs are streamed.
+     * @param webSocketHandler The SimulationWebSocketHandler publishing the frames of the runs.
+     * @param bufferSize       The maximum number of frames buffered per reader, rounded up to a power of two.
+     * @param overflowPolicy   The policy applied when the buffer of a reader is full.
+     */
+    @Autowired
+    public EventStreamService(RunRegistry runRegistry, SimulationWebSocketHandler webSocketHandler,
+                              @Value("${simulation.sse.buffer-size:" + DEFAULT_BUFFER_SIZE + "}") int bufferSize,
+                              @Value("${simulation.sse.overflow-policy:COALESCE}") StreamOverflowPolicy overflowPolicy) {
+        this.runRegistry = runRegistry;
+        this.webSocketHandler = webSocketHandler;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Publishes the readers and the events they dropped or had coalesced to the given registry.
+     *
+     * @param registry The meter registry the meters are published to.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("simulation.sse.readers", this, EventStreamService::getReaderCount)
+                .description("Open Server-Sent Events streams")
+                .register(registry);
+        FunctionCounter.builder("simulation.sse.events.dropped", droppedEvents, AtomicLong::get)
+                .description("Events dropped because the buffer of their reader was full")
+                .register(registry);
+        FunctionCounter.builder("simulation.sse.events.coalesced", coalescedEvents, AtomicLong::get)
+                .description("Events sent in a coalesced frame because the buffer of their reader was full")
+                .register(registry);
+        FunctionCounter.builder("simulation.sse.readers.disconnected", disconnectedReaders, AtomicLong::get)
+                .description("Readers disconnected because they fell too far behind")
+                .register(registry);
+    }
+
+    /**
+     * Opens a stream of the events of a run, starting after the given sequence number.
+     *
+     * @param runId The ID of the run.
+     * @param since The last sequence number the reader has received, or 0 to receive the whole history first.
+     * @return The emitter of the stream, or null if no such run is alive.
+     */
+    public SseEmitter open(String runId, long since) {
+        if (runRegistry.get(runId) == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(0L);
+        Reader reader = new Reader(runId, emitter);
+        emitter.onCompletion(reader::cancel);
+        emitter.onTimeout(reader::cancel);
+        emitter.onError(e -> reader.cancel());
+        readers.add(reader);
+        webSocketHandler.subscribe(reader, reader.topic, since);
+        if (runRegistry.get(runId) == null) {
+            // The run was stopped, and its topic closed, while the reader subscribed.
+            reader.cancel();
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * Returns the number of open streams of a run.
+     *
+     * @param runId The ID of the run.
+     * @return The number of readers.
+     */
+    public int getReaderCount(String runId) {
+        return (int) readers.stream().filter(reader -> reader.runId.equals(runId)).count();
+    }
+
+    /**
+     * Returns the number of open streams of all runs.
+     *
+     * @return The number of readers.
+     */
+    public int getReaderCount() {
+        return readers.size();
+    }
+
+    /**
+     * Completes all streams and stops the writer threads when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        readers.forEach(reader -> reader.closed(reader.topic));
+        writerExecutor.shutdown();
+    }
+
+    /**
+     * A single Server-Sent Events stream: a subscriber of the topic of its run that hands the frames over to its own
+     * publisher, and the subscriber of that publisher writing them to the stream.
+     */
+    private final class Reader implements TopicSubscriber, Flow.Subscriber<Frame> {
+
+        private final String runId;
+        private final String topic;
+        private final SseEmitter emitter;
+        private final SubmissionPublisher<Frame> publisher = new SubmissionPublisher<>(writerExecutor, bufferSize);
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final Set<Long> resumed = new HashSet<>();
+        private final List<Frame> overflow = new ArrayList<>();
+        private long offered;
+        private long overflowed;
+        private long dropped;
+        private long received;
+        private volatile Flow.Subscription subscription;
+
+        private Reader(String runId, SseEmitter emitter) {
+            this.runId = runId;
+            this.topic = TopicBroker.runTopic(runId);
+            this.emitter = emitter;
+            publisher.subscribe(this);
+        }
+
+        /**
+         * Offers a frame of the run to the buffer of the reader without blocking. While frames overflow, the following
+         * frames join them rather than the buffer, so the frames are sent in the order they were published.
+         */
+        @Override
+        public synchronized void deliver(Frame frame) {
+            if (cancelled.get()) {
+                return;
+            }
+            offered++;
+            if (!overflow.isEmpty()) {
+                overflow(frame);
+                return;
+            }
+            try {
+                publisher.offer(frame, (subscriber, rejected) -> overflow(rejected));
+            } catch (IllegalStateException e) {
+                // The stream has just been closed.
+            }
+        }
+
+        /**
+         * Completes the stream once the run has been stopped and the buffered frames have been sent.
+         */
+        @Override
+        public void closed(String closedTopic) {
+            readers.remove(this);
+            publisher.close();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled.get()) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(1);
+        }
+
+        /**
+         * Sends the frame, unless all its events were already sent from the history, together with the number of
+         * dropped events and, once the buffer is empty, the overflowing frames, and requests the next frame once
+         * the message has been written.
+         */
+        @Override
+        public void onNext(Frame frame) {
+            received++;
+            List<Frame> frames = new ArrayList<>();
+            if (frame.text().startsWith("{")) {
+                frame.sequences().forEach(resumed::add);
+                frames.add(frame);
+            } else if (resumed.isEmpty() || !frame.sequences().allMatch(resumed::contains)) {
+                frames.add(frame);
+            } else {
+                frame.sequences().forEach(resumed::remove);
+            }
+            long missed;
+            synchronized (this) {
+                if (offered == received + overflowed) {
+                    frames.addAll(overflow);
+                    overflow.clear();
+                }
+                missed = dropped;
+                dropped = 0;
+            }
+            if (send(frames, missed)) {
+                subscription.request(1);
+            }
+        }
+
+        /**
+         * Handles a frame the reader's buffer has no room for. Never blocks, the frame is never retried.
+         * Called while holding the reader's monitor.
+         *
+         * @return Always false.
+         */
+        private boolean overflow(Frame frame) {
+            overflowed++;
+            switch (overflowPolicy) {
+                case DROP -> {
+                    dropped += frame.size();
+                    droppedEvents.addAndGet(frame.size());
+                    return false;
+                }
+                case COALESCE -> {
+                    if (overflow.size() < bufferSize * COALESCE_LIMIT_BUFFERS) {
+                        overflow.add(frame);
+                        coalescedEvents.addAndGet(frame.size());
+                        return false;
+                    }
+                }
+                case DISCONNECT -> {
+                }
+            }
+            if (!cancelled.get()) {
+                log.warn("Server-Sent Events reader of run {} cannot keep up, disconnecting.", runId);
+                disconnectedReaders.incrementAndGet();
+                // Unsubscribing and completing must not happen on the producing actor's thread.
+                writerExecutor.execute(() -> {
+                    cancel();
+                    emitter.complete();
+                });
+            }
+            return false;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            emitter.completeWithError(throwable);
+        }
+
+        /**
+         * Sends the frames still collected as overflow and completes the stream once the run has been stopped.
+         */
+        @Override
+        public void onComplete() {
+            List<Frame> remaining;
+            long missed;
+            synchronized (this) {
+                remaining = new ArrayList<>(overflow);
+                overflow.clear();
+                missed = dropped;
+            }
+            if (send(remaining, missed)) {
+                emitter.complete();
+            }
+        }
+
+        /**
+         * Unsubscribes the reader from its run, which is stopped after the grace period if it was the last viewer.
+         */
+        private void cancel() {
+            if (!cancelled.compareAndSet(false, true)) {
+                return;
+            }
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            publisher.close();
+            readers.remove(this);
+            webSocketHandler.unsubscribe(this, topic);
+        }
+
+        /**
+         * Writes frames: a frame that is no array, such as the resumed frame, as a message of its own, and the array
+         * frames as one message, merged into a single array preceded by a notice of the dropped events if there
+         * were any. A single array frame is sent as it is, in its shared encoding. The ID of a message is the highest
+         * sequence number of its events.
+         *
+         * @return True if the frames have been written, false if the reader is gone.
+         */
+        private boolean send(List<Frame> frames, long missed) {
+            List<Frame> arrays = new ArrayList<>(frames.size());
+            for (Frame frame : frames) {
+                if (frame.isArray()) {
+                    arrays.add(frame);
+                } else if (!send(frame.text(), frame.lastSequence())) {
+                    return false;
+                }
+            }
+            if (missed == 0 && arrays.size() <= 1) {
+                return arrays.isEmpty() || send(arrays.get(0).text(), arrays.get(0).lastSequence());
+            }
+            StringBuilder merged = new StringBuilder().append('[');
+            if (missed > 0) {
+                merged.append('"').append(missed).append(" events were dropped because the stream could not keep up.\"");
+            }
+            long last = 0;
+            for (Frame frame : arrays) {
+                String items = frame.text().substring(1, frame.text().length() - 1);
+                if (!items.isBlank()) {
+                    merged.append(merged.length() > 1 ? "," : "").append(items);
+                }
+                last = Math.max(last, frame.lastSequence());
+            }
+            return send(merged.append(']').toString(), last);
+        }
+
+        private boolean send(String text, long lastSequence) {
+            SseEmitter.SseEventBuilder message = SseEmitter.event().data(text);
+            if (lastSequence > 0) {
+                message.id(String.valueOf(lastSequence));
+            }
+            try {
+                emitter.send(message);
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Server-Sent Events reader of run {} is gone: {}", runId, e.getMessage());
+                cancel();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package cz.cervenka.parallelizationissues.services;
+
+/**
+ * Kind of threads the {@link SimulationExecutor} runs simulation actors on.
+ */
+public enum ExecutionMode {
+
+    /**
+     * A bounded pool of platform threads, each with its own native stack.
+     */
+    PLATFORM,
+
+    /**
+     * One virtual thread per actor; blocked or sleeping actors release their carrier thread.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,27 @@
+package cz.cervenka.parallelizationissues.services;
+
+/**
+ * The scenarios the {@link ExperimentService} can run in batches.
+ */
+public enum ExperimentScenario {
+
+    /**
+     * Two threads locking two resources, in opposite orders in the problem variant.
+     */
+    DEADLOCK,
+
+    /**
+     * N actors locking resources of a shared pool, with global lock ordering in the solution variant.
+     */
+    DINING_DEADLOCK,
+
+    /**
+     * A high- and a low-priority user competing for reservations, with a fair lock in the solution variant.
+     */
+    STARVATION,
+
+    /**
+     * Two agents yielding to each other, with a retry limit in the solution variant.
+     */
+    LIVELOCK
+}
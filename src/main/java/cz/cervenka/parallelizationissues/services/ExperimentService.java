@@ -0,0 +1,235 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.ExperimentStats;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs batches of independent, headless runs of a scenario and aggregates their outcome into {@link ExperimentStats}.
+ * No WebSocket session is involved: every run is paced by its own {@link DeterministicClock} with the seed of the
+ * experiment plus the index of the run, so a run spanning minutes of virtual time completes in milliseconds and
+ * the whole experiment can be repeated with the same seed.
+ * <p>
+ * The runs are split over a {@link ForkJoinPool} sized to the available processors: the range of runs is halved
+ * recursively, every leaf executes one run and the partial statistics are merged on the way back. Since a
+ * deterministic run executes one actor at a time, the pool keeps as many runs in flight as it has workers,
+ * which keeps every core busy. The actors themselves run on virtual threads of a dedicated
+ * {@link SimulationExecutor}, so experiments never take threads away from the runs watched in the UI.
+ */
+@Service
+public class ExperimentService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ExperimentService.class);
+
+    private final SimulationService simulationService;
+    private final SolutionService solutionService;
+    private final ForkJoinPool pool;
+    private final SimulationExecutor executor;
+    private final int maxRuns;
+    private final long maxDurationMillis;
+    private final long runTimeoutMillis;
+
+    /**
+     * Constructs a new ExperimentService.
+     *
+     * @param simulationService The SimulationService running the problem variants of the scenarios.
+     * @param solutionService   The SolutionService running the solution variants of the scenarios.
+     * @param parallelism       The number of runs executed at the same time, 0 for the number of processors.
+     * @param maxRuns           The maximum number of runs of one experiment.
+     * @param maxDurationMillis The maximum virtual duration of a run.
+     * @param maxVirtualThreads The maximum number of actors of all runs in flight.
+     * @param runTimeoutMillis  The wall-clock time after which a run is given up.
+     */
+    public ExperimentService(SimulationService simulationService, SolutionService solutionService,
+                             @Value("${simulation.experiments.parallelism:0}") int parallelism,
+                             @Value("${simulation.experiments.max-runs:1000}") int maxRuns,
+                             @Value("${simulation.clock.virtual-time-limit-ms:600000}") long maxDurationMillis,
+                             @Value("${simulation.executor.max-virtual-threads:100000}") int maxVirtualThreads,
+                             @Value("${simulation.experiments.run-timeout-ms:60000}") long runTimeoutMillis) {
+        this.simulationService = simulationService;
+        this.solutionService = solutionService;
+        int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        // The runs block their worker, so the pool must not add compensating threads beyond its parallelism.
+        this.pool = new ForkJoinPool(workers, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("experiment-worker-" + thread.getPoolIndex());
+            return thread;
+        }, null, false, 0, workers, 1, forkJoinPool -> true, 60, TimeUnit.SECONDS);
+        this.executor = new SimulationExecutor(ExecutionMode.VIRTUAL, workers, maxVirtualThreads, workers);
+        this.maxRuns = maxRuns;
+        this.maxDurationMillis = maxDurationMillis;
+        this.runTimeoutMillis = runTimeoutMillis;
+        log.info("Experiment runner executing up to {} runs at a time.", workers);
+    }
+
+    /**
+     * Returns the number of runs executed at the same time.
+     *
+     * @return The parallelism of the pool.
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Runs an experiment and waits for all of its runs.
+     *
+     * @param scenario       The scenario to be run.
+     * @param variant        Whether the problem or the solution of the scenario runs.
+     * @param dining         The size of the {@link ExperimentScenario#DINING_DEADLOCK} scenario, ignored by the others.
+     * @param runs           The number of runs.
+     * @param durationMillis The virtual time after which a run that has not ended is halted.
+     * @param seed           The seed of the first run; run i uses the seed plus i.
+     * @return The aggregated statistics of the runs.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     */
+    public ExperimentStats run(ExperimentScenario scenario, ScenarioVariant variant, DiningScenario dining,
+                               int runs, long durationMillis, long seed) {
+        if (runs < 1 || runs > maxRuns) {
+            throw new IllegalArgumentException("The number of runs must be between 1 and " + maxRuns + ".");
+        }
+        if (durationMillis < 1 || durationMillis > maxDurationMillis) {
+            throw new IllegalArgumentException("The duration must be between 1 and " + maxDurationMillis + " ms.");
+        }
+        if (scenario == ExperimentScenario.DINING_DEADLOCK && dining == null) {
+            throw new IllegalArgumentException("The dining deadlock scenario needs its number of actors and resources.");
+        }
+        Experiment experiment = new Experiment(UUID.randomUUID().toString(), scenario, variant, dining, durationMillis, seed);
+        long start = System.nanoTime();
+        ExperimentStats stats = pool.invoke(new Batch(experiment, 0, runs));
+        log.info("Experiment {} ({} {}, {} runs, seed {}) finished in {} ms.", experiment.id(), scenario, variant, runs,
+                seed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return stats;
+    }
+
+    /**
+     * Executes one run of an experiment on the calling worker and waits until it ends.
+     */
+    private ExperimentStats execute(Experiment experiment, int index) {
+        ExperimentStats stats = new ExperimentStats();
+        DeterministicClock clock = new DeterministicClock(experiment.seed() + index, experiment.durationMillis());
+        SimulationTask task = new SimulationTask(experiment.id() + "-" + (index + 1), null, executor, clock);
+        AtomicLong deadlockedAt = new AtomicLong(-1);
+        AtomicBoolean timeLimited = new AtomicBoolean();
+        task.setEventSink(event -> {
+            if (event.action() == EventAction.DEADLOCKED) {
+                deadlockedAt.compareAndSet(-1, event.timestamp());
+            } else if (event.action() == EventAction.TIME_LIMIT) {
+                timeLimited.set(true);
+            }
+        });
+        try {
+            start(experiment, task);
+            if (task.awaitFinished(runTimeoutMillis)) {
+                stats.recordRun(task, deadlockedAt.get(), timeLimited.get());
+                return stats;
+            }
+            log.warn("Run {} did not end within {} ms and is stopped.", task.getRunId(), runTimeoutMillis);
+        } catch (RejectedExecutionException e) {
+            log.warn("Run {} was rejected: {}", task.getRunId(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        task.interruptAll();
+        stats.recordFailure();
+        return stats;
+    }
+
+    /**
+     * Sets up the actors of the scenario and starts them.
+     */
+    private void start(Experiment experiment, SimulationTask task) {
+        boolean solution = experiment.variant() == ScenarioVariant.SOLUTION;
+        switch (experiment.scenario()) {
+            case DEADLOCK -> {
+                if (solution) {
+                    solutionService.runSolveDeadlock(task);
+                } else {
+                    simulationService.runSimulateDeadlock(task);
+                }
+            }
+            case DINING_DEADLOCK -> {
+                if (solution) {
+                    solutionService.runSolveDiningDeadlock(task, experiment.dining());
+                } else {
+                    simulationService.runSimulateDiningDeadlock(task, experiment.dining());
+                }
+            }
+            case STARVATION -> {
+                if (solution) {
+                    solutionService.runSolveStarvation(task);
+                } else {
+                    simulationService.runSimulateStarvation(task);
+                }
+            }
+            case LIVELOCK -> {
+                if (solution) {
+                    solutionService.runSolveLivelock(task);
+                } else {
+                    simulationService.runSimulateLivelock(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the workers and the actors of all experiments when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+        executor.destroy();
+    }
+
+    /**
+     * The parameters shared by all runs of an experiment.
+     */
+    private record Experiment(String id, ExperimentScenario scenario, ScenarioVariant variant, DiningScenario dining,
+                              long durationMillis, long seed) {
+    }
+
+    /**
+     * Executes the runs with indexes from {@code from} (inclusive) to {@code to} (exclusive), splitting the range
+     * until a single run is left.
+     */
+    private final class Batch extends RecursiveTask<ExperimentStats> {
+
+        private final Experiment experiment;
+        private final int from;
+        private final int to;
+
+        private Batch(Experiment experiment, int from, int to) {
+            this.experiment = experiment;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ExperimentStats compute() {
+            if (to - from == 1) {
+                return execute(experiment, from);
+            }
+            int middle = (from + to) >>> 1;
+            Batch left = new Batch(experiment, from, middle);
+            left.fork();
+            ExperimentStats stats = new Batch(experiment, middle, to).compute();
+            return stats.merge(left.join());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cz.cervenka.parallelizationissues.services;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports carrier-thread pinning of virtual simulation threads.
+ * When the {@link SimulationExecutor} runs in {@link ExecutionMode#VIRTUAL} mode, this service listens to the
+ * JFR {@code jdk.VirtualThreadPinned} event, which the JVM emits when a virtual thread blocks while it cannot
+ * unmount from its carrier (typically inside a {@code synchronized} block), and keeps a count and the most recent events.
+ */
+@Service
+public class PinningMonitor implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PinningMonitor.class);
+
+    private static final int RECENT_EVENTS = 20;
+
+    private final AtomicLong pinnedCount = new AtomicLong();
+    private final AtomicLong pinnedNanos = new AtomicLong();
+    private final Deque<Map<String, Object>> recentEvents = new ArrayDeque<>();
+    private final RecordingStream stream;
+
+    /**
+     * Constructs a new PinningMonitor and starts listening for pinning events in virtual-thread mode.
+     *
+     * @param executor        The SimulationExecutor whose mode decides whether pinning is monitored.
+     * @param thresholdMillis The minimal pinned duration reported by the JVM.
+     */
+    public PinningMonitor(SimulationExecutor executor,
+                          @Value("${simulation.pinning-monitor.threshold-ms:20}") long thresholdMillis) {
+        if (executor.getMode() != ExecutionMode.VIRTUAL) {
+            this.stream = null;
+            return;
+        }
+        this.stream = new RecordingStream();
+        this.stream.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+        this.stream.onEvent("jdk.VirtualThreadPinned", this::record);
+        this.stream.startAsync();
+    }
+
+    /**
+     * Checks whether pinning events are being recorded.
+     *
+     * @return True if the monitor is listening for pinning events.
+     */
+    public boolean isEnabled() {
+        return stream != null;
+    }
+
+    /**
+     * Returns the number of pinning events since startup.
+     *
+     * @return The number of pinning events.
+     */
+    public long getPinnedCount() {
+        return pinnedCount.get();
+    }
+
+    /**
+     * Returns a report of the pinning events: their count, total pinned time and the most recent events.
+     *
+     * @return The pinning report.
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("enabled", isEnabled());
+        report.put("count", pinnedCount.get());
+        report.put("totalPinnedMillis", Duration.ofNanos(pinnedNanos.get()).toMillis());
+        synchronized (recentEvents) {
+            report.put("recent", List.copyOf(recentEvents));
+        }
+        return report;
+    }
+
+    private void record(RecordedEvent event) {
+        pinnedCount.incrementAndGet();
+        pinnedNanos.addAndGet(event.getDuration().toNanos());
+
+        Map<String, Object> entry = new LinkedHashMap<>();
+        RecordedThread thread = event.getThread();
+        entry.put("thread", thread != null ? thread.getJavaName() : null);
+        entry.put("durationMillis", event.getDuration().toMillis());
+        if (event.getStackTrace() != null && !event.getStackTrace().getFrames().isEmpty()) {
+            RecordedFrame frame = event.getStackTrace().getFrames().get(0);
+            entry.put("frame", frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                    + ":" + frame.getLineNumber());
+        }
+        synchronized (recentEvents) {
+            if (recentEvents.size() == RECENT_EVENTS) {
+                recentEvents.pollFirst();
+            }
+            recentEvents.addLast(entry);
+        }
+        log.warn("Virtual thread pinned: {}", entry);
+    }
+
+    /**
+     * Stops the event stream when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
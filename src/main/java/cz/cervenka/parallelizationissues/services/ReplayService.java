@@ -0,0 +1,188 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays runs recorded in the {@link RunJournal} over the WebSocket endpoint they were watched on.
+ * A replay gets its own run ID, so every viewer watches at their own pace, and no simulation thread is started:
+ * a single scheduler thread publishes the recorded events of all replays, each at its original time
+ * divided by the speed of the replay. A replay waits for its first WebSocket session before it starts,
+ * and it is stopped once all of its events have been published, once its last session is closed or when nobody
+ * connects within the connect timeout; stopping it closes the sessions still watching it.
+ */
+@Service
+public class ReplayService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayService.class);
+
+    public static final double MAX_SPEED = 1000;
+    private static final long SUBSCRIBER_POLL_MILLIS = 50;
+
+    private final RunJournal journal;
+    private final SimulationWebSocketHandler webSocketHandler;
+    private final int maxReplays;
+    private final long connectTimeoutMillis;
+    private final Map<String, Replay> replays = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a new ReplayService.
+     *
+     * @param journal              The RunJournal holding the recorded runs.
+     * @param webSocketHandler     The SimulationWebSocketHandler publishing the replayed events.
+     * @param maxReplays           The maximum number of replays running at the same time.
+     * @param connectTimeoutMillis The time a replay waits for its first WebSocket session.
+     */
+    public ReplayService(RunJournal journal, SimulationWebSocketHandler webSocketHandler,
+                         @Value("${simulation.journal.max-replays:100}") int maxReplays,
+                         @Value("${simulation.runs.connect-timeout-ms:30000}") long connectTimeoutMillis) {
+        this.journal = journal;
+        this.webSocketHandler = webSocketHandler;
+        this.maxReplays = maxReplays;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens a replay of a recorded run. The replay starts once a WebSocket session connects with its run ID.
+     *
+     * @param recordedRunId The ID of the recorded run.
+     * @param endpoint      The endpoint the replay is watched on; it must be the endpoint of the recorded run.
+     * @param speed         How many times faster than the original the events are replayed.
+     * @return The run ID of the replay.
+     * @throws IllegalArgumentException   if the run has not been recorded on that endpoint or the speed is out of range.
+     * @throws RejectedExecutionException if the maximum number of replays has been reached.
+     */
+    public String open(String recordedRunId, String endpoint, double speed) {
+        if (!(speed > 0 && speed <= MAX_SPEED)) {
+            throw new IllegalArgumentException("The replay speed must be greater than 0 and at most " + MAX_SPEED + ".");
+        }
+        RunJournal.Recording recording = journal.getRecording(recordedRunId);
+        if (recording == null || !recording.endpoint().equals(endpoint)) {
+            throw new IllegalArgumentException("No recording of run " + recordedRunId + " exists for " + endpoint + ".");
+        }
+        if (replays.size() >= maxReplays) {
+            throw new RejectedExecutionException("Maximum of " + maxReplays + " concurrent replays reached.");
+        }
+        Replay replay = new Replay(UUID.randomUUID().toString(), endpoint, journal.read(recordedRunId), speed);
+        replays.put(replay.id, replay);
+        scheduler.schedule(replay::step, SUBSCRIBER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("Replay {} of run {} opened at {}x speed, {} events.", replay.id, recordedRunId, speed, replay.events.size());
+        return replay.id;
+    }
+
+    /**
+     * Stops a replay: notifies its subscribers and closes their sessions.
+     *
+     * @param replayId The run ID of the replay.
+     * @return True if the replay was running and has been stopped.
+     */
+    public boolean stop(String replayId) {
+        Replay replay = replayId != null ? replays.remove(replayId) : null;
+        if (replay == null) {
+            return false;
+        }
+        webSocketHandler.publish(replay.endpoint, new SimulationEvent(replay.id, replay.events.size() + 1L, 0,
+                EventAction.STOPPED, null, null, null));
+        webSocketHandler.closeRunSessions(replay.id);
+        log.info("Replay {} stopped.", replay.id);
+        return true;
+    }
+
+    /**
+     * Returns the number of replays running.
+     *
+     * @return The number of open replays.
+     */
+    public int getReplayCount() {
+        return replays.size();
+    }
+
+    /**
+     * Stops the scheduler thread when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * A replay in progress. Its steps run on the scheduler thread only.
+     */
+    private final class Replay {
+        private final String id;
+        private final String endpoint;
+        private final List<SimulationEvent> events;
+        private final double speed;
+        private final long openedAt = System.currentTimeMillis();
+        private boolean started;
+        private int next;
+
+        private Replay(String id, String endpoint, List<SimulationEvent> events, double speed) {
+            this.id = id;
+            this.endpoint = endpoint;
+            this.events = events;
+            this.speed = speed;
+        }
+
+        /**
+         * Publishes the events due at the current position and schedules the next step,
+         * or waits for the first subscriber.
+         */
+        private void step() {
+            if (replays.get(id) != this) {
+                return;
+            }
+            boolean subscribed = webSocketHandler.getRunSubscriberCount(id) > 0;
+            if (!started) {
+                if (subscribed) {
+                    started = true;
+                } else if (System.currentTimeMillis() - openedAt > connectTimeoutMillis) {
+                    stop(id);
+                    return;
+                } else {
+                    scheduler.schedule(this::step, SUBSCRIBER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            } else if (!subscribed) {
+                stop(id);
+                return;
+            }
+            if (next < events.size()) {
+                long timestamp = events.get(next).timestamp();
+                while (next < events.size() && events.get(next).timestamp() == timestamp) {
+                    SimulationEvent event = events.get(next++);
+                    webSocketHandler.publish(endpoint, new SimulationEvent(id, event.sequence(), event.timestamp(),
+                            event.action(), event.actor(), event.resource(), event.detail()));
+                }
+            }
+            if (next < events.size()) {
+                long delay = Math.round((events.get(next).timestamp() - events.get(next - 1).timestamp()) / speed);
+                scheduler.schedule(this::step, Math.max(0, delay), TimeUnit.MILLISECONDS);
+            } else {
+                log.debug("Replay {} finished.", id);
+                stop(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,567 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of the events of all simulation runs, kept in memory-mapped segment files.
+ * A recorded run can be replayed after its threads have ended, even after a restart of the node.
+ * <p>
+ * Every record starts with the length of its payload, followed by the record type and the run ID as a UUID.
+ * A run record holds the WebSocket endpoint of the run and the time it was opened; an event record holds the
+ * sequence number and the timestamp as variable-length integers, the action code as one byte and the actor,
+ * resource and detail as length-prefixed UTF-8 strings. Records are aligned to four bytes. The length is written
+ * after the payload, and the unused rest of a segment is zero-filled, so a length of 0 marks the end of the data
+ * even after a crash.
+ * <p>
+ * Appending takes no lock: a writer reserves the space of its record by advancing the reserved position of the active
+ * segment with a CAS, encodes the record directly into the mapped segment and publishes it by writing its length
+ * last. A reader stops at the first record whose length has not been published yet. Only starting a new segment,
+ * when the active one is full, takes the journal monitor; once the segments exceed the configured size,
+ * the oldest ones are deleted together with the recordings that started in them.
+ */
+@Service
+public class RunJournal implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RunJournal.class);
+
+    private static final byte RUN_RECORD = 0;
+    private static final byte EVENT_RECORD = 1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int ALIGNMENT = Integer.BYTES;
+
+    /**
+     * Reads and writes the length of a record with acquire and release semantics, which publishes its payload.
+     */
+    private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile Segment active;
+    private long nextSegmentNumber = 1;
+    private volatile boolean enabled;
+
+    /**
+     * Opens the journal and recovers the recordings of the segments already present in its directory.
+     * If the directory cannot be used, the journal is disabled and runs are not recorded.
+     *
+     * @param enabled     Whether runs are recorded at all.
+     * @param directory   The directory holding the segment files.
+     * @param segmentSize The size of one segment file in bytes.
+     * @param maxBytes    The maximum size of all segment files in bytes.
+     */
+    public RunJournal(@Value("${simulation.journal.enabled:true}") boolean enabled,
+                      @Value("${simulation.journal.directory:${java.io.tmpdir}/parallelization-issues/journal}") Path directory,
+                      @Value("${simulation.journal.segment-size-bytes:8388608}") int segmentSize,
+                      @Value("${simulation.journal.max-bytes:134217728}") long maxBytes) {
+        this.directory = directory;
+        this.segmentSize = Math.max(4096, segmentSize);
+        this.maxBytes = maxBytes;
+        if (enabled) {
+            try {
+                Files.createDirectories(directory);
+                recover();
+                this.enabled = true;
+                log.info("Run journal in {} holds {} recordings in {} segments.", directory, entries.size(), segments.size());
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Run journal disabled, {} cannot be used: {}", directory, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns whether runs are recorded.
+     *
+     * @return True if the journal is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts the recording of a run. Only the events of runs started this way are recorded.
+     *
+     * @param runId    The ID of the run, a UUID.
+     * @param endpoint The WebSocket endpoint the run is watched on.
+     */
+    public void recordRun(String runId, String endpoint) {
+        if (!enabled) {
+            return;
+        }
+        UUID id;
+        try {
+            id = UUID.fromString(runId);
+        } catch (IllegalArgumentException e) {
+            log.debug("Run {} is not recorded, its ID is not a UUID.", runId);
+            return;
+        }
+        byte[] endpointBytes = utf8(endpoint);
+        long createdAt = System.currentTimeMillis();
+        Segment segment = write(1 + 16 + sizeOf(endpointBytes) + Long.BYTES, (buffer, index) -> {
+            index = putUuid(buffer, index, RUN_RECORD, id);
+            index = putString(buffer, index, endpointBytes);
+            buffer.putLong(index, createdAt);
+        });
+        if (segment != null) {
+            Entry entry = new Entry(runId, id, endpoint, createdAt);
+            entry.firstSegment = segment.number;
+            entry.lastSegment.set(segment.number);
+            entries.put(runId, entry);
+        }
+    }
+
+    /**
+     * Appends an event of a recorded run. Events of runs not recorded are ignored.
+     * The event is encoded directly into the active segment, without taking a lock.
+     *
+     * @param event The event to be appended.
+     */
+    public void append(SimulationEvent event) {
+        Entry entry = enabled && event.runId() != null ? entries.get(event.runId()) : null;
+        if (entry == null) {
+            return;
+        }
+        byte[] actor = utf8(event.actor());
+        byte[] resource = utf8(event.resource());
+        byte[] detail = utf8(event.detail());
+        int length = 1 + 16 + sizeOf(event.sequence()) + sizeOf(event.timestamp()) + 1
+                + sizeOf(actor) + sizeOf(resource) + sizeOf(detail);
+        Segment segment = write(length, (buffer, index) -> {
+            index = putUuid(buffer, index, EVENT_RECORD, entry.id);
+            index = putVarLong(buffer, index, event.sequence());
+            index = putVarLong(buffer, index, event.timestamp());
+            buffer.put(index++, (byte) event.action().getCode());
+            index = putString(buffer, index, actor);
+            index = putString(buffer, index, resource);
+            putString(buffer, index, detail);
+        });
+        if (segment != null) {
+            if (entry.lastSegment.get() < segment.number) {
+                entry.lastSegment.accumulateAndGet(segment.number, Math::max);
+            }
+            entry.events.increment();
+        }
+    }
+
+    /**
+     * Returns the recording of a run.
+     *
+     * @param runId The ID of the run.
+     * @return The recording, or null if the run has not been recorded or its recording has been deleted.
+     */
+    public Recording getRecording(String runId) {
+        Entry entry = runId != null ? entries.get(runId) : null;
+        if (entry == null) {
+            return null;
+        }
+        return entry.toRecording();
+    }
+
+    /**
+     * Returns all recordings held by the journal.
+     *
+     * @return The recordings, the most recent first.
+     */
+    public List<Recording> getRecordings() {
+        return entries.values().stream()
+                .map(Entry::toRecording)
+                .sorted(Comparator.comparingLong(Recording::createdAt).reversed())
+                .toList();
+    }
+
+    /**
+     * Reads the recorded events of a run, up to the last event appended so far.
+     *
+     * @param runId The ID of the run.
+     * @return The events in the order they were recorded, empty if the run has not been recorded.
+     */
+    public List<SimulationEvent> read(String runId) {
+        Entry entry = runId != null ? entries.get(runId) : null;
+        List<SimulationEvent> events = new ArrayList<>();
+        if (entry == null) {
+            return events;
+        }
+        List<Segment> covered = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                if (segment.number >= entry.firstSegment && segment.number <= entry.lastSegment.get()) {
+                    covered.add(segment);
+                }
+            }
+        }
+        long msb = entry.id.getMostSignificantBits();
+        long lsb = entry.id.getLeastSignificantBits();
+        for (Segment segment : covered) {
+            ByteBuffer buffer = segment.buffer.duplicate().limit(segment.reserved.get());
+            int position = 0;
+            while (position + Integer.BYTES <= buffer.limit()) {
+                int length = (int) LENGTH.getAcquire(buffer, position);
+                if (length <= 0) {
+                    break;
+                }
+                ByteBuffer record = buffer.slice(position + Integer.BYTES, length);
+                if (record.get() == EVENT_RECORD && record.getLong() == msb && record.getLong() == lsb) {
+                    long sequence = getVarLong(record);
+                    long timestamp = getVarLong(record);
+                    EventAction action = EventAction.fromCode(record.get());
+                    events.add(new SimulationEvent(runId, sequence, timestamp, action,
+                            getString(record), getString(record), getString(record)));
+                }
+                position += align(Integer.BYTES + length);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Writes a record to the active segment, starting a new segment if it does not fit.
+     *
+     * @param length  The length of the record payload.
+     * @param encoder Encodes the payload at the given index of the segment.
+     * @return The segment the record has been written to, or null if it has not been written.
+     */
+    private Segment write(int length, RecordEncoder encoder) {
+        int size = align(Integer.BYTES + length);
+        Segment segment = active;
+        if (!enabled || segment == null || size > segmentSize) {
+            return null;
+        }
+        int position;
+        while ((position = segment.reserve(size)) < 0) {
+            segment = roll(segment);
+            if (segment == null) {
+                return null;
+            }
+        }
+        encoder.encode(segment.buffer, position + Integer.BYTES);
+        LENGTH.setRelease(segment.buffer, position, length);
+        return segment;
+    }
+
+    /**
+     * Starts a new active segment once the given one is full, unless another writer already did,
+     * and deletes the oldest segments beyond the size limit.
+     *
+     * @param full The segment that has no room for a record.
+     * @return The active segment, or null if the journal has been disabled.
+     */
+    private synchronized Segment roll(Segment full) {
+        if (!enabled) {
+            return null;
+        }
+        if (active == full) {
+            try {
+                full.buffer.force();
+                Segment next = map(segmentFile(nextSegmentNumber), nextSegmentNumber, segmentSize);
+                nextSegmentNumber++;
+                segments.addLast(next);
+                active = next;
+                enforceRetention();
+            } catch (IOException | UncheckedIOException e) {
+                enabled = false;
+                log.error("Run journal disabled, a new segment cannot be created in {}.", directory, e);
+                return null;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Deletes the oldest segments while the segments exceed the size limit, together with the recordings
+     * that started in them. The active segment is never deleted.
+     */
+    private void enforceRetention() {
+        long total = segments.stream().mapToLong(segment -> segment.buffer.capacity()).sum();
+        while (total > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.pollFirst();
+            total -= oldest.buffer.capacity();
+            entries.values().removeIf(entry -> entry.firstSegment <= oldest.number);
+            try {
+                Files.deleteIfExists(oldest.file);
+                log.debug("Run journal segment {} deleted.", oldest.file);
+            } catch (IOException e) {
+                log.warn("Run journal segment {} cannot be deleted: {}", oldest.file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Maps the segments found in the directory and rebuilds the recordings from their records.
+     */
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        Map<UUID, Entry> byId = new HashMap<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long number;
+            try {
+                number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = map(file, number, (int) Math.min(Integer.MAX_VALUE, Files.size(file)));
+            scan(segment, byId);
+            segments.addLast(segment);
+            nextSegmentNumber = number + 1;
+        }
+        byId.values().forEach(entry -> entries.put(entry.runId, entry));
+        if (segments.isEmpty()) {
+            segments.addLast(map(segmentFile(nextSegmentNumber), nextSegmentNumber, segmentSize));
+            nextSegmentNumber++;
+        }
+        active = segments.peekLast();
+        enforceRetention();
+    }
+
+    /**
+     * Reads the records of a recovered segment up to the end of its data.
+     */
+    private static void scan(Segment segment, Map<UUID, Entry> byId) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + Integer.BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + align(Integer.BYTES + length) > buffer.capacity()) {
+                break;
+            }
+            ByteBuffer record = buffer.slice(position + Integer.BYTES, length);
+            byte type = record.get();
+            UUID id = new UUID(record.getLong(), record.getLong());
+            if (type == RUN_RECORD) {
+                String endpoint = getString(record);
+                Entry entry = new Entry(id.toString(), id, endpoint, record.getLong());
+                entry.firstSegment = segment.number;
+                entry.lastSegment.set(segment.number);
+                byId.put(id, entry);
+            } else if (type == EVENT_RECORD) {
+                Entry entry = byId.get(id);
+                if (entry != null) {
+                    entry.lastSegment.set(segment.number);
+                    entry.events.increment();
+                }
+            }
+            position += align(Integer.BYTES + length);
+        }
+        segment.reserved.set(position);
+    }
+
+    private Path segmentFile(long number) {
+        return directory.resolve(SEGMENT_PREFIX + String.format(Locale.ROOT, "%010d", number) + SEGMENT_SUFFIX);
+    }
+
+    private static Segment map(Path file, long number, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new Segment(file, number, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Flushes the active segment when the application context is closed.
+     */
+    @Override
+    public synchronized void destroy() {
+        if (active != null) {
+            active.buffer.force();
+        }
+        enabled = false;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Returns the number of bytes of a string written by {@link #putString(ByteBuffer, int, byte[])}.
+     */
+    private static int sizeOf(byte[] value) {
+        return value != null ? sizeOf(value.length + 1L) + value.length : 1;
+    }
+
+    /**
+     * Returns the number of bytes of a variable-length integer written by {@link #putVarLong(ByteBuffer, int, long)}.
+     */
+    private static int sizeOf(long value) {
+        return Math.max(1, (70 - Long.numberOfLeadingZeros(value)) / 7);
+    }
+
+    private static int putUuid(ByteBuffer buffer, int index, byte type, UUID id) {
+        buffer.put(index, type);
+        buffer.putLong(index + 1, id.getMostSignificantBits());
+        buffer.putLong(index + 9, id.getLeastSignificantBits());
+        return index + 17;
+    }
+
+    /**
+     * Writes a string as its length plus one (0 for null) followed by its UTF-8 bytes.
+     *
+     * @return The index after the string.
+     */
+    private static int putString(ByteBuffer buffer, int index, byte[] value) {
+        if (value == null) {
+            return putVarLong(buffer, index, 0);
+        }
+        index = putVarLong(buffer, index, value.length + 1L);
+        buffer.put(index, value);
+        return index + value.length;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = (int) getVarLong(buffer);
+        if (length == 0) {
+            return null;
+        }
+        byte[] value = new byte[length - 1];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, seven bits per byte, least significant first.
+     *
+     * @return The index after the integer.
+     */
+    private static int putVarLong(ByteBuffer buffer, int index, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put(index++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(index++, (byte) value);
+        return index;
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Encodes the payload of a record into a segment.
+     */
+    @FunctionalInterface
+    private interface RecordEncoder {
+        void encode(ByteBuffer buffer, int index);
+    }
+
+    /**
+     * A recorded run.
+     *
+     * @param runId     The ID of the run.
+     * @param endpoint  The WebSocket endpoint the run was watched on.
+     * @param createdAt The time the run was opened, in milliseconds since the epoch.
+     * @param events    The number of recorded events.
+     */
+    public record Recording(String runId, String endpoint, long createdAt, long events) {
+    }
+
+    /**
+     * A mapped segment file. The reserved position is the end of the space claimed by writers so far;
+     * the records up to it may still be written, readers stop at the first one whose length is not yet published.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final long number;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger reserved = new AtomicInteger();
+
+        private Segment(Path file, long number, MappedByteBuffer buffer) {
+            this.file = file;
+            this.number = number;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reserves space for a record.
+         *
+         * @param size The aligned size of the record including its length.
+         * @return The position of the record, or -1 if the segment has no room for it.
+         */
+        private int reserve(int size) {
+            int position;
+            do {
+                position = reserved.get();
+                if (buffer.capacity() - position < size) {
+                    return -1;
+                }
+            } while (!reserved.compareAndSet(position, position + size));
+            return position;
+        }
+    }
+
+    /**
+     * The index entry of a recorded run: the range of segments holding its records.
+     */
+    private static final class Entry {
+        private final String runId;
+        private final UUID id;
+        private final String endpoint;
+        private final long createdAt;
+        private final AtomicLong lastSegment = new AtomicLong();
+        private final LongAdder events = new LongAdder();
+        private volatile long firstSegment;
+
+        private Entry(String runId, UUID id, String endpoint, long createdAt) {
+            this.runId = runId;
+            this.id = id;
+            this.endpoint = endpoint;
+            this.createdAt = createdAt;
+        }
+
+        private Recording toRecording() {
+            return new Recording(runId, endpoint, createdAt, events.sum());
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.util.ClockMode;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.RealTimeClock;
+import cz.cervenka.parallelizationissues.util.SimulationClock;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registry of all simulation runs currently alive on this node.
+ * Every page load opens its own run identified by a generated run ID, so visitors no longer share
+ * a single "current" simulation. A run is stopped when it is stopped explicitly, when the last
+ * WebSocket session watching it is closed and no session reconnects within the reconnect grace period,
+ * or when nobody connects to it within the connect timeout. The recent events of every run are kept by the
+ * WebSocket handler, so a session reconnecting within the grace period catches up on what it has missed.
+ * The events of every run are recorded in the {@link RunJournal}, so the run can be replayed after it has ended.
+ * A simulation handed over with {@link #startWhenWatched(SimulationTask, Runnable)} is held back until the first
+ * WebSocket session watching its run connects, and is then set up on the starter thread of the {@link SimulationExecutor}.
+ * The watchers of a run are the subscribers of its topic: WebSocket sessions, whether they watch the run from
+ * their URL or subscribed to it over another connection, and Server-Sent Events streams alike.
+ * <p>
+ * With a share window configured, page loads requesting the same scenario with the same parameters within the window
+ * after a run has been opened join that run as spectators instead of opening their own, see
+ * {@link #openShared(String, Supplier)}, so the simulation threads scale with the distinct scenarios being watched
+ * rather than with the visitors. A spectator stopping a shared run only leaves it, counted down from the number of
+ * spectators that joined; the run is stopped once all of them have stopped it, or once all sessions watching it have
+ * been closed and no spectator has joined within the connect timeout.
+ * <p>
+ * As a {@link MeterBinder}, the registry publishes the active, pending and shared runs, their spectators, the opened,
+ * joined, rejected, started and stopped runs and the time the simulations of the runs take to set up their actors.
+ */
+@Service
+public class RunRegistry implements DisposableBean, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(RunRegistry.class);
+
+    /**
+     * Logger tracing every simulation event at DEBUG level. Disable it to keep per-step logging off the hot path.
+     */
+    private static final Logger eventLog = LoggerFactory.getLogger("cz.cervenka.parallelizationissues.events");
+
+    /**
+     * The time the threads of all runs stopped at shutdown are given to end.
+     */
+    static final long SHUTDOWN_JOIN_MILLIS = 2000;
+
+    private final Map<String, SimulationTask> runs = new ConcurrentHashMap<>();
+    private final Map<String, Runnable> pendingSimulations = new ConcurrentHashMap<>();
+    private final Map<String, SharedRun> sharedRuns = new ConcurrentHashMap<>();
+    /**
+     * The shared runs still accepting spectators, by scenario. Guarded by itself.
+     */
+    private final Map<String, SharedRun> joinableRuns = new HashMap<>();
+    private final List<Consumer<SimulationTask>> runStoppedListeners = new CopyOnWriteArrayList<>();
+    private final SimulationWebSocketHandler webSocketHandler;
+    private final SimulationExecutor executor;
+    private final RunJournal journal;
+    private final int maxConcurrentRuns;
+    private final long connectTimeoutMillis;
+    private final long virtualTimeLimitMillis;
+    private final long reconnectGraceMillis;
+    private final long shareWindowMillis;
+    private final ScheduledExecutorService sweeper;
+    private final CompositeMeterRegistry meters = new CompositeMeterRegistry();
+    private final Counter openedRuns = Counter.builder("simulation.runs.opened")
+            .description("Runs opened by page loads")
+            .register(meters);
+    private final Counter rejectedRuns = Counter.builder("simulation.runs.rejected")
+            .description("Runs rejected because the maximum of concurrent runs was reached")
+            .register(meters);
+    private final Counter stoppedRuns = Counter.builder("simulation.runs.stopped")
+            .description("Runs stopped explicitly, after their last session was closed or after the connect timeout")
+            .register(meters);
+    private final Counter joinedSpectators = Counter.builder("simulation.runs.spectators.joined")
+            .description("Page loads that joined a shared run as spectators instead of opening a run")
+            .register(meters);
+
+    /**
+     * Constructs a new RunRegistry.
+     *
+     * @param webSocketHandler The SimulationWebSocketHandler used to notify and disconnect run subscribers.
+     * @param executor         The SimulationExecutor running the actors of all runs.
+     * @param journal          The RunJournal recording the events of the runs, or null to record nothing.
+     * @param settings         The limits and timeouts of the runs.
+     */
+    @Autowired
+    public RunRegistry(SimulationWebSocketHandler webSocketHandler, SimulationExecutor executor, RunJournal journal,
+                       Settings settings) {
+        this.shareWindowMillis = Math.max(0, settings.shareWindowMillis());
+        this.webSocketHandler = webSocketHandler;
+        this.journal = journal;
+        this.executor = executor;
+        this.maxConcurrentRuns = settings.maxConcurrentRuns();
+        this.connectTimeoutMillis = settings.connectTimeoutMillis();
+        this.virtualTimeLimitMillis = settings.virtualTimeLimitMillis();
+        this.reconnectGraceMillis = settings.reconnectGraceMillis();
+        this.webSocketHandler.setOnRunAbandonedCallback(this::abandoned);
+        this.webSocketHandler.addRunSubscribedListener(this::subscribed);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, 5, 5, TimeUnit.SECONDS);
+        Gauge.builder("simulation.runs.active", runs, Map::size)
+                .description("Runs alive on this node, including the runs waiting for their first session")
+                .register(meters);
+        Gauge.builder("simulation.runs.pending", pendingSimulations, Map::size)
+                .description("Runs waiting for their first WebSocket session")
+                .register(meters);
+        Gauge.builder("simulation.runs.shared", sharedRuns, Map::size)
+                .description("Shared runs watched by spectators")
+                .register(meters);
+        Gauge.builder("simulation.runs.spectators", this, RunRegistry::getSpectatorCount)
+                .description("Page loads watching the shared runs")
+                .register(meters);
+    }
+
+    /**
+     * Publishes the meters of the registry to the given registry.
+     *
+     * @param registry The meter registry the meters are published to.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        meters.add(registry);
+    }
+
+    /**
+     * Opens a new run watched on the given WebSocket endpoint, paced in real time.
+     *
+     * @param endpoint The WebSocket endpoint of the simulation.
+     * @return The task of the new run.
+     * @throws RejectedExecutionException if the maximum number of concurrent runs has been reached.
+     */
+    public SimulationTask open(String endpoint) {
+        return open(endpoint, new RealTimeClock());
+    }
+
+    /**
+     * Opens a new run watched on the given WebSocket endpoint, paced by a clock of the given mode.
+     *
+     * @param endpoint  The WebSocket endpoint of the simulation.
+     * @param clockMode How the actors of the run are paced.
+     * @param seed      The seed of a deterministic run, or null for a random seed.
+     * @return The task of the new run.
+     * @throws RejectedExecutionException if the maximum number of concurrent runs has been reached.
+     */
+    public SimulationTask open(String endpoint, ClockMode clockMode, Long seed) {
+        if (clockMode != ClockMode.DETERMINISTIC) {
+            return open(endpoint);
+        }
+        long runSeed = seed != null ? seed : ThreadLocalRandom.current().nextLong();
+        SimulationTask task = open(endpoint, new DeterministicClock(runSeed, virtualTimeLimitMillis));
+        log.info("Run {} is deterministic with seed {}.", task.getRunId(), runSeed);
+        return task;
+    }
+
+    /**
+     * Opens a new run watched on the given WebSocket endpoint.
+     *
+     * @param endpoint The WebSocket endpoint of the simulation.
+     * @param clock    The clock pacing the actors of the run.
+     * @return The task of the new run.
+     * @throws RejectedExecutionException if the maximum number of concurrent runs has been reached.
+     */
+    public SimulationTask open(String endpoint, SimulationClock clock) {
+        synchronized (runs) {
+            if (runs.size() >= maxConcurrentRuns) {
+                sweep();
+            }
+            if (runs.size() >= maxConcurrentRuns) {
+                rejectedRuns.increment();
+                throw new RejectedExecutionException("Maximum of " + maxConcurrentRuns + " concurrent runs reached.");
+            }
+            SimulationTask task = new SimulationTask(UUID.randomUUID().toString(), endpoint, executor, clock);
+            if (journal != null) {
+                journal.recordRun(task.getRunId(), endpoint);
+            }
+            webSocketHandler.openHistory(task.getRunId());
+            task.setEventSink(event -> {
+                eventLog.debug("Run {} {}", event.runId(), event);
+                if (journal != null) {
+                    journal.append(event);
+                }
+                webSocketHandler.publish(endpoint, event);
+            });
+            runs.put(task.getRunId(), task);
+            openedRuns.increment();
+            return task;
+        }
+    }
+
+    /**
+     * Returns the key of a scenario: the endpoint together with every parameter the simulation depends on.
+     * Page loads with equal keys watch identical simulations and may share a run.
+     *
+     * @param endpoint   The WebSocket endpoint of the simulation.
+     * @param parameters The parameters of the simulation, null for the parameters not given.
+     * @return The scenario key.
+     */
+    public static String scenario(String endpoint, Object... parameters) {
+        return Stream.of(parameters).map(String::valueOf).collect(Collectors.joining(",", endpoint + "(", ")"));
+    }
+
+    /**
+     * Opens a run of a scenario, or joins a shared run of the same scenario as a spectator. A run is joinable within
+     * the share window after it has been opened, as long as it is alive; afterwards the next page load of the scenario
+     * opens a new run, joinable in turn. Without a share window, every call opens a run.
+     *
+     * @param scenario The scenario key, see {@link #scenario(String, Object...)}.
+     * @param opener   Opens the run and hands its simulation over, called only if no run is joined.
+     * @return The task of the joined or newly opened run.
+     * @throws RejectedExecutionException if a new run is needed and the maximum number of concurrent runs has been reached.
+     */
+    public SimulationTask openShared(String scenario, Supplier<SimulationTask> opener) {
+        if (shareWindowMillis <= 0) {
+            return opener.get();
+        }
+        synchronized (joinableRuns) {
+            SharedRun joinable = joinableRuns.get(scenario);
+            SimulationTask task = joinable != null ? runs.get(joinable.runId) : null;
+            if (task != null && !task.isFinished() && joinable.spectators.get() > 0
+                    && System.currentTimeMillis() - joinable.openedAt < shareWindowMillis) {
+                int spectators = joinable.spectators.incrementAndGet();
+                joinable.lastJoinedAt = System.currentTimeMillis();
+                joinedSpectators.increment();
+                log.debug("Spectator {} joined shared run {} of {}.", spectators, task.getRunId(), scenario);
+                return task;
+            }
+            task = opener.get();
+            SharedRun shared = new SharedRun(scenario, task.getRunId());
+            sharedRuns.put(task.getRunId(), shared);
+            joinableRuns.put(scenario, shared);
+            return task;
+        }
+    }
+
+    /**
+     * Leaves a run on behalf of one of its viewers. A shared run that other spectators have joined and not left
+     * only loses the spectator, whether or not they have connected yet; any other run is stopped.
+     * The last spectator leaves under the same monitor {@link #openShared(String, Supplier)} joins under, and the run
+     * stops being joinable right away, so no page load joins a run that is about to be stopped.
+     *
+     * @param runId The ID of the run to be left.
+     * @return True if the run was alive and has been left or stopped.
+     */
+    public boolean leave(String runId) {
+        SharedRun shared = runId != null ? sharedRuns.get(runId) : null;
+        if (shared != null) {
+            synchronized (joinableRuns) {
+                int remaining = shared.spectators.decrementAndGet();
+                if (remaining > 0) {
+                    log.info("Spectator left shared run {}, {} spectators remaining.", runId, remaining);
+                    return true;
+                }
+                joinableRuns.remove(shared.scenario, shared);
+            }
+        }
+        return stop(runId);
+    }
+
+    /**
+     * Returns the number of page loads watching a shared run.
+     *
+     * @param runId The ID of the run.
+     * @return The number of spectators, or 0 if the run is not shared.
+     */
+    public int getSpectatorCount(String runId) {
+        SharedRun shared = runId != null ? sharedRuns.get(runId) : null;
+        return shared != null ? Math.max(0, shared.spectators.get()) : 0;
+    }
+
+    /**
+     * Returns the number of page loads watching all shared runs.
+     *
+     * @return The number of spectators.
+     */
+    public int getSpectatorCount() {
+        return sharedRuns.values().stream().mapToInt(shared -> Math.max(0, shared.spectators.get())).sum();
+    }
+
+    /**
+     * Returns the shared runs: per run ID the scenario, the spectators, the subscribers and whether the run
+     * still accepts spectators.
+     *
+     * @return The shared runs by run ID.
+     */
+    public Map<String, Object> getSharedRuns() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> shared = new LinkedHashMap<>();
+        sharedRuns.forEach((runId, run) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("scenario", run.scenario);
+            entry.put("spectators", Math.max(0, run.spectators.get()));
+            entry.put("subscribers", webSocketHandler.getRunSubscriberCount(runId));
+            entry.put("joinable", now - run.openedAt < shareWindowMillis);
+            shared.put(runId, entry);
+        });
+        return shared;
+    }
+
+    /**
+     * Starts the simulation of a run once a WebSocket session watches the run, or right away if one already does.
+     * The simulation, which builds the actors of the run and starts them, runs on the starter thread of the
+     * executor; if the executor rejects the run, its subscribers are notified and the run is stopped.
+     * The started runs and their setup time are counted per endpoint.
+     *
+     * @param task       The task of the run.
+     * @param simulation The simulation setting up and starting the actors of the run.
+     */
+    public void startWhenWatched(SimulationTask task, Runnable simulation) {
+        String runId = task.getRunId();
+        String endpoint = Objects.requireNonNullElse(task.getEndpoint(), "none");
+        Counter startedRuns = Counter.builder("simulation.runs.started")
+                .description("Simulation runs whose actors are being set up")
+                .tag("endpoint", endpoint)
+                .register(meters);
+        Timer setup = Timer.builder("simulation.setup")
+                .description("Time a simulation takes to set up its actors and hand them to the executor")
+                .tag("endpoint", endpoint)
+                .register(meters);
+        pendingSimulations.put(runId, () -> {
+            try {
+                startedRuns.increment();
+                setup.record(simulation);
+            } catch (RejectedExecutionException e) {
+                log.warn("Run {} rejected: {}", runId, e.getMessage());
+                task.emit(EventAction.REJECTED, null, null);
+                stop(runId);
+            } catch (RuntimeException e) {
+                log.error("Run {} could not be started.", runId, e);
+                stop(runId);
+            }
+        });
+        if (webSocketHandler.getRunSubscriberCount(runId) > 0) {
+            subscribed(runId);
+        }
+    }
+
+    /**
+     * Dispatches the pending simulation of a run as soon as a session watching it connects.
+     * Called on the WebSocket container thread, so it only hands the simulation over to the starter thread.
+     *
+     * @param runId The ID of the watched run.
+     */
+    private void subscribed(String runId) {
+        Runnable simulation = pendingSimulations.remove(runId);
+        if (simulation == null) {
+            return;
+        }
+        try {
+            executor.dispatch(simulation);
+        } catch (RejectedExecutionException e) {
+            stop(runId);
+        }
+    }
+
+    /**
+     * Adds a listener notified whenever a run has been stopped, after its threads have been interrupted and its
+     * sessions closed. The listeners run on the thread stopping the run, so they must return quickly.
+     *
+     * @param listener The listener receiving the task of the stopped run.
+     */
+    public void addRunStoppedListener(Consumer<SimulationTask> listener) {
+        runStoppedListeners.add(listener);
+    }
+
+    /**
+     * Returns the number of runs waiting for their first WebSocket session.
+     *
+     * @return The number of pending runs.
+     */
+    public int getPendingRuns() {
+        return pendingSimulations.size();
+    }
+
+    /**
+     * Returns the task of a run.
+     *
+     * @param runId The run ID.
+     * @return The task, or null if no such run is alive.
+     */
+    public SimulationTask get(String runId) {
+        return runId != null ? runs.get(runId) : null;
+    }
+
+    /**
+     * Returns the tasks of all runs alive on this node.
+     *
+     * @return A live view of the run tasks.
+     */
+    public Collection<SimulationTask> getRuns() {
+        return runs.values();
+    }
+
+    /**
+     * Stops a run: interrupts its threads, notifies its subscribers and closes their sessions.
+     *
+     * @param runId The ID of the run to be stopped.
+     * @return True if the run was alive and has been stopped.
+     */
+    public boolean stop(String runId) {
+        SimulationTask task = runId != null ? runs.remove(runId) : null;
+        if (task == null) {
+            return false;
+        }
+        pendingSimulations.remove(runId);
+        unshare(runId);
+        task.interruptAll();
+        task.emit(EventAction.STOPPED, null, null);
+        webSocketHandler.closeRunSessions(runId);
+        webSocketHandler.closeHistory(runId);
+        stoppedRuns.increment();
+        log.info("Run {} stopped.", runId);
+        for (Consumer<SimulationTask> listener : runStoppedListeners) {
+            listener.accept(task);
+        }
+        return true;
+    }
+
+    /**
+     * Stops a run whose last session has been closed, unless a session reconnects within the grace period.
+     *
+     * @param runId The ID of the abandoned run.
+     */
+    private void abandoned(String runId) {
+        if (reconnectGraceMillis <= 0) {
+            if (!awaitsSpectator(runId, System.currentTimeMillis())) {
+                stop(runId);
+            }
+            return;
+        }
+        try {
+            sweeper.schedule(() -> {
+                if (webSocketHandler.getRunSubscriberCount(runId) == 0
+                        && !awaitsSpectator(runId, System.currentTimeMillis())) {
+                    stop(runId);
+                }
+            }, reconnectGraceMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            stop(runId);
+        }
+    }
+
+    /**
+     * Checks whether a spectator has joined a shared run within the connect timeout and may still be about to
+     * connect. Such a run is not stopped when its sessions are closed; the sweep stops it once the connect timeout
+     * has elapsed since the last spectator joined without anybody connecting.
+     *
+     * @param runId The ID of the run.
+     * @param now   The current time in milliseconds.
+     * @return True if the run is shared and a spectator joined it recently.
+     */
+    private boolean awaitsSpectator(String runId, long now) {
+        SharedRun shared = sharedRuns.get(runId);
+        return shared != null && now - shared.lastJoinedAt <= connectTimeoutMillis;
+    }
+
+    /**
+     * Forgets the spectators of a run that has ended, so no page load joins it any more.
+     *
+     * @param runId The ID of the ended run.
+     */
+    private void unshare(String runId) {
+        SharedRun shared = sharedRuns.remove(runId);
+        if (shared != null) {
+            synchronized (joinableRuns) {
+                joinableRuns.remove(shared.scenario, shared);
+            }
+        }
+    }
+
+    /**
+     * Removes finished runs and stops runs nobody has connected to within the connect timeout, counted for a shared
+     * run from the moment its last spectator joined.
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        runs.forEach((runId, task) -> {
+            if (task.isFinished()) {
+                runs.remove(runId);
+                unshare(runId);
+                webSocketHandler.closeHistory(runId);
+            } else if (now - task.getCreatedAt() > connectTimeoutMillis && !awaitsSpectator(runId, now)
+                    && webSocketHandler.getRunSubscriberCount(runId) == 0) {
+                stop(runId);
+            }
+        });
+    }
+
+    /**
+     * Stops all runs and the sweeper when the application context is closed, and waits up to
+     * {@value #SHUTDOWN_JOIN_MILLIS} ms for the threads of the stopped runs to end.
+     */
+    @Override
+    public void destroy() {
+        sweeper.shutdownNow();
+        List<SimulationTask> stopped = List.copyOf(runs.values());
+        runs.keySet().forEach(this::stop);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_JOIN_MILLIS);
+        try {
+            for (SimulationTask task : stopped) {
+                long remaining = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                if (!task.awaitFinished(remaining)) {
+                    log.warn("Run {} still has live threads at shutdown: {}", task.getRunId(), task.getLiveThreads());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A run shared by the page loads of one scenario, with the number of page loads that have not left it yet.
+     */
+    private static final class SharedRun {
+        private final String scenario;
+        private final String runId;
+        private final long openedAt = System.currentTimeMillis();
+        private final AtomicInteger spectators = new AtomicInteger(1);
+        private volatile long lastJoinedAt = openedAt;
+
+        private SharedRun(String scenario, String runId) {
+            this.scenario = Objects.requireNonNull(scenario);
+            this.runId = runId;
+        }
+    }
+
+    /**
+     * The limits and timeouts of the runs, read from the {@code simulation.runs.*} properties.
+     *
+     * @param maxConcurrentRuns      The maximum number of runs alive at the same time.
+     * @param connectTimeoutMillis   The time a run may wait for its first WebSocket session before it is stopped.
+     * @param virtualTimeLimitMillis The virtual time after which a deterministic run is halted.
+     * @param reconnectGraceMillis   The time a run whose last session has been closed waits for a session to
+     *                               reconnect, or 0 to stop it as soon as its last session is closed.
+     * @param shareWindowMillis      The time after opening a run during which page loads of the same scenario join it
+     *                               as spectators, or 0 to give every page load its own run.
+     */
+    @Component
+    public record Settings(
+            @Value("${simulation.runs.max-concurrent:20}") int maxConcurrentRuns,
+            @Value("${simulation.runs.connect-timeout-ms:30000}") long connectTimeoutMillis,
+            @Value("${simulation.clock.virtual-time-limit-ms:600000}") long virtualTimeLimitMillis,
+            @Value("${simulation.runs.reconnect-grace-ms:5000}") long reconnectGraceMillis,
+            @Value("${simulation.runs.share-window-ms:0}") long shareWindowMillis) {
+    }
+}
@@ -0,0 +1,229 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watchdog joining the threads of stopped runs and reporting the threads that outlive their run.
+ * Every run stopped by the {@link RunRegistry} has already been interrupted; the watchdog gives its threads the
+ * join timeout to end. A run whose threads are still alive after that is torn down: its event sink is detached,
+ * so the surviving threads can no longer write into the journal or to the sessions of the run, and the threads are
+ * interrupted again at every check, in case an actor swallowed the interrupt. The surviving threads are logged with
+ * the frame they are stuck in and reported in the node statistics until they end, so a long-running node either
+ * returns to a flat thread count after any number of runs or tells which actor leaks.
+ */
+@Service
+public class RunWatchdog implements DisposableBean, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(RunWatchdog.class);
+
+    public static final long DEFAULT_JOIN_TIMEOUT_MILLIS = 2000;
+    public static final long DEFAULT_INTERVAL_MILLIS = 5000;
+
+    private final long joinTimeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Map<SimulationTask, Long> joining = new ConcurrentHashMap<>();
+    private final Map<SimulationTask, Long> orphaned = new ConcurrentHashMap<>();
+    private final AtomicLong joinedRuns = new AtomicLong();
+    private final AtomicLong orphanedRuns = new AtomicLong();
+
+    /**
+     * Constructs a new RunWatchdog with the default join timeout and check interval.
+     *
+     * @param runRegistry The RunRegistry whose stopped runs are watched.
+     */
+    public RunWatchdog(RunRegistry runRegistry) {
+        this(runRegistry, DEFAULT_JOIN_TIMEOUT_MILLIS, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Constructs a new RunWatchdog.
+     *
+     * @param runRegistry       The RunRegistry whose stopped runs are watched.
+     * @param joinTimeoutMillis The time the threads of a stopped run are given to end before they are reported.
+     * @param intervalMillis    The time between two checks of the reported threads, or 0 to disable periodic checks.
+     */
+    @Autowired
+    public RunWatchdog(RunRegistry runRegistry,
+                       @Value("${simulation.watchdog.join-timeout-ms:" + DEFAULT_JOIN_TIMEOUT_MILLIS + "}") long joinTimeoutMillis,
+                       @Value("${simulation.watchdog.interval-ms:" + DEFAULT_INTERVAL_MILLIS + "}") long intervalMillis) {
+        this.joinTimeoutMillis = joinTimeoutMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (intervalMillis > 0) {
+            this.scheduler.scheduleWithFixedDelay(this::checkSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        runRegistry.addRunStoppedListener(this::watch);
+    }
+
+    /**
+     * Publishes the runs and threads outliving their run to the given registry.
+     *
+     * @param registry The meter registry the meters are published to.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("simulation.threads.orphaned", this, RunWatchdog::getOrphanedThreads)
+                .description("Threads still alive after their run has been stopped and the join timeout has elapsed")
+                .register(registry);
+        Gauge.builder("simulation.runs.orphaned", orphaned, Map::size)
+                .description("Stopped runs whose threads have not ended within the join timeout")
+                .register(registry);
+        FunctionCounter.builder("simulation.runs.joined", joinedRuns, AtomicLong::get)
+                .description("Stopped runs whose threads all ended")
+                .register(registry);
+    }
+
+    /**
+     * Starts watching a stopped run: its threads are joined once the join timeout elapses.
+     * Called by the RunRegistry on the thread stopping the run, so the join itself never blocks that thread.
+     *
+     * @param task The task of the stopped run, already interrupted.
+     */
+    public void watch(SimulationTask task) {
+        if (task.isFinished()) {
+            joinedRuns.incrementAndGet();
+            return;
+        }
+        joining.put(task, System.currentTimeMillis());
+        try {
+            scheduler.schedule(() -> join(task), joinTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            joining.remove(task);
+        }
+    }
+
+    /**
+     * Joins the threads of a stopped run whose join timeout has elapsed, and tears the run down if some survived.
+     */
+    private void join(SimulationTask task) {
+        Long stoppedAt = joining.remove(task);
+        if (stoppedAt == null) {
+            return;
+        }
+        if (task.isFinished()) {
+            joinedRuns.incrementAndGet();
+            return;
+        }
+        task.setEventSink(null);
+        task.interruptAll();
+        orphaned.put(task, stoppedAt);
+        orphanedRuns.incrementAndGet();
+        log.warn("Run {} was stopped {} ms ago, but its threads are still alive: {}", task.getRunId(),
+                System.currentTimeMillis() - stoppedAt, describe(task.getLiveThreads()));
+    }
+
+    /**
+     * Checks the runs whose threads outlived them once: forgets the runs whose threads have ended in the meantime
+     * and interrupts the threads of the others again.
+     *
+     * @return The number of threads still alive after their run.
+     */
+    public int check() {
+        orphaned.forEach((task, stoppedAt) -> {
+            if (task.isFinished()) {
+                orphaned.remove(task);
+                joinedRuns.incrementAndGet();
+                log.info("The threads of run {} have ended {} ms after it was stopped.", task.getRunId(),
+                        System.currentTimeMillis() - stoppedAt);
+            } else {
+                task.interruptAll();
+            }
+        });
+        return getOrphanedThreads();
+    }
+
+    private void checkSafely() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            log.error("Run watchdog check failed.", e);
+        }
+    }
+
+    /**
+     * Returns the number of threads still alive after their run has been stopped and the join timeout has elapsed.
+     *
+     * @return The number of orphaned threads.
+     */
+    public int getOrphanedThreads() {
+        return orphaned.keySet().stream().mapToInt(task -> task.getLiveThreads().size()).sum();
+    }
+
+    /**
+     * Returns the watchdog statistics: the join timeout, the stopped runs being joined, joined and orphaned,
+     * and for every orphaned run the threads that are still alive with the frame they are executing.
+     *
+     * @return The watchdog statistics.
+     */
+    public Map<String, Object> getReport() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> orphans = new ArrayList<>();
+        orphaned.forEach((task, stoppedAt) -> {
+            Map<String, Object> orphan = new LinkedHashMap<>();
+            orphan.put("runId", task.getRunId());
+            orphan.put("endpoint", task.getEndpoint());
+            orphan.put("stoppedForMillis", now - stoppedAt);
+            orphan.put("threads", describe(task.getLiveThreads()));
+            orphans.add(orphan);
+        });
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("joinTimeoutMillis", joinTimeoutMillis);
+        report.put("joiningRuns", joining.size());
+        report.put("joinedRuns", joinedRuns.get());
+        report.put("orphanedRunsTotal", orphanedRuns.get());
+        report.put("orphanedThreads", orphans.stream().mapToInt(orphan -> ((List<?>) orphan.get("threads")).size()).sum());
+        report.put("orphans", orphans);
+        return report;
+    }
+
+    /**
+     * Describes threads by their name and the innermost frame outside of the JDK, i.e. the simulation code they are stuck in.
+     */
+    private static List<String> describe(List<Thread> threads) {
+        List<String> descriptions = new ArrayList<>(threads.size());
+        for (Thread thread : threads) {
+            String frame = "unknown";
+            for (StackTraceElement element : thread.getStackTrace()) {
+                String className = element.getClassName();
+                if (!className.startsWith("java.") && !className.startsWith("jdk.") && !className.startsWith("sun.")) {
+                    frame = element.toString();
+                    break;
+                }
+            }
+            descriptions.add(thread.getName() + " (" + thread.getState() + ") at " + frame);
+        }
+        return descriptions;
+    }
+
+    /**
+     * Stops the watchdog thread when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,17 @@
+package cz.cervenka.parallelizationissues.services;
+
+/**
+ * Whether a scenario runs as the concurrency problem or with its solution applied.
+ */
+public enum ScenarioVariant {
+
+    /**
+     * The scenario as run by the {@link SimulationService}.
+     */
+    PROBLEM,
+
+    /**
+     * The scenario as run by the {@link SolutionService}.
+     */
+    SOLUTION
+}
@@ -0,0 +1,284 @@
+package cz.cervenka.parallelizationissues.services;
+
+import cz.cervenka.parallelizationissues.util.RunMeters;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated, sized executor running the actors of all simulation runs.
+ * A run is admitted as a whole: it starts only if all of its actors get a thread at once, because
+ * the simulated actors (e.g. the two threads of the deadlock scenario) must run concurrently.
+ * Runs that do not fit wait in a bounded admission queue; once that queue is full, new runs are rejected.
+ * The number of simulation threads is therefore bounded by configuration rather than by the request rate.
+ * In {@link ExecutionMode#VIRTUAL} mode every actor runs on its own virtual thread, which allows
+ * far more concurrent actors because sleeping and blocked actors do not hold a carrier thread.
+ * Runs are set up, i.e. their actors built and admitted, on a dedicated starter thread, see {@link #dispatch(Runnable)},
+ * so neither the HTTP nor the WebSocket container threads ever wait for a run to be prepared.
+ * The actors of the runs are measured by the executor's {@link RunMeters}.
+ */
+@Service
+public class SimulationExecutor implements DisposableBean, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(SimulationExecutor.class);
+
+    private final ExecutionMode mode;
+    private final int maxThreads;
+    private final int queueCapacity;
+    private final ExecutorService pool;
+    private final ExecutorService starter;
+
+    private final Deque<SimulationTask> pendingRuns = new ArrayDeque<>();
+    private int usedThreads;
+    private int activeRuns;
+    private final AtomicLong rejectedRuns = new AtomicLong();
+    private final CompositeMeterRegistry meters = new CompositeMeterRegistry();
+    private final RunMeters runMeters = new RunMeters(meters);
+
+    /**
+     * Constructs a new SimulationExecutor running actors on platform threads.
+     *
+     * @param maxThreads    The maximum number of simulation actors running at the same time.
+     * @param queueCapacity The maximum number of runs waiting for free threads.
+     */
+    public SimulationExecutor(int maxThreads, int queueCapacity) {
+        this(ExecutionMode.PLATFORM, maxThreads, maxThreads, queueCapacity);
+    }
+
+    /**
+     * Constructs a new SimulationExecutor.
+     *
+     * @param mode              The kind of threads the actors run on.
+     * @param maxThreads        The maximum number of actors running at the same time on platform threads.
+     * @param maxVirtualThreads The maximum number of actors running at the same time on virtual threads.
+     * @param queueCapacity     The maximum number of runs waiting for free threads.
+     */
+    @Autowired
+    public SimulationExecutor(@Value("${simulation.executor.mode:PLATFORM}") ExecutionMode mode,
+                              @Value("${simulation.executor.max-threads:64}") int maxThreads,
+                              @Value("${simulation.executor.max-virtual-threads:100000}") int maxVirtualThreads,
+                              @Value("${simulation.executor.queue-capacity:16}") int queueCapacity) {
+        this.mode = mode;
+        this.maxThreads = Math.max(1, mode == ExecutionMode.VIRTUAL ? maxVirtualThreads : maxThreads);
+        this.queueCapacity = Math.max(0, queueCapacity);
+        if (mode == ExecutionMode.VIRTUAL) {
+            this.pool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sim-virtual-", 1).factory());
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor platformPool = new ThreadPoolExecutor(this.maxThreads, this.maxThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "sim-worker-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            platformPool.allowCoreThreadTimeOut(true);
+            this.pool = platformPool;
+        }
+        this.starter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sim-starter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Simulation executor running in {} mode with up to {} actors.", mode, this.maxThreads);
+    }
+
+    /**
+     * Publishes the meters of the runs executed by this executor to the given registry.
+     *
+     * @param registry The meter registry the meters are published to.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        meters.add(registry);
+    }
+
+    /**
+     * Returns the meters the runs executed by this executor are recorded on.
+     *
+     * @return The run meters.
+     */
+    public RunMeters getRunMeters() {
+        return runMeters;
+    }
+
+    /**
+     * Admits a run: starts its actors if enough threads are free, otherwise queues the run.
+     *
+     * @param task The task whose actors should be executed.
+     * @throws RejectedExecutionException if the run can never fit or the admission queue is full.
+     */
+    public void execute(SimulationTask task) {
+        List<Runnable> actors = task.getActors();
+        synchronized (this) {
+            if (actors.size() > maxThreads) {
+                rejectedRuns.incrementAndGet();
+                throw new RejectedExecutionException("Run needs " + actors.size() + " threads, the limit is " + maxThreads + ".");
+            }
+            if (pendingRuns.isEmpty() && usedThreads + actors.size() <= maxThreads) {
+                launch(task);
+            } else if (pendingRuns.size() < queueCapacity) {
+                pendingRuns.addLast(task);
+                log.debug("Run {} queued, waiting for free simulation threads.", task.getRunId());
+            } else {
+                rejectedRuns.incrementAndGet();
+                throw new RejectedExecutionException("Simulation executor is saturated, try again later.");
+            }
+        }
+    }
+
+    /**
+     * Checks up front that a run of the given number of actors fits into the executor at all, so that a page asking
+     * for too many actors is refused before its run is opened instead of having the run rejected once it starts.
+     *
+     * @param threads The number of actors of the run, including its monitors.
+     * @throws IllegalArgumentException if the run needs more threads than the executor ever provides.
+     */
+    public void checkCapacity(int threads) {
+        if (threads > maxThreads) {
+            throw new IllegalArgumentException("The run needs " + threads + " threads, but the simulation executor runs at most "
+                    + maxThreads + " in " + mode + " mode. Use fewer actors"
+                    + (mode == ExecutionMode.PLATFORM ? " or set simulation.executor.mode=VIRTUAL." : "."));
+        }
+    }
+
+    /**
+     * Sets up a run on the starter thread. The setup builds the actors of the run and admits it with
+     * {@link #execute(SimulationTask)}; running it here returns the calling thread immediately.
+     *
+     * @param setup The setup of the run.
+     * @throws RejectedExecutionException if the executor has been shut down.
+     */
+    public void dispatch(Runnable setup) {
+        starter.execute(setup);
+    }
+
+    /**
+     * Removes a run from the admission queue if it has not been started yet.
+     *
+     * @param task The task to be removed.
+     * @return True if the run was still queued.
+     */
+    public synchronized boolean cancel(SimulationTask task) {
+        return pendingRuns.remove(task);
+    }
+
+    /**
+     * Returns the number of runs waiting in the admission queue.
+     *
+     * @return The number of queued runs.
+     */
+    public synchronized int getQueuedRuns() {
+        return pendingRuns.size();
+    }
+
+    /**
+     * Returns the number of runs whose actors are currently executing.
+     *
+     * @return The number of active runs.
+     */
+    public synchronized int getActiveRuns() {
+        return activeRuns;
+    }
+
+    /**
+     * Returns the number of runs rejected since startup.
+     *
+     * @return The number of rejected runs.
+     */
+    public long getRejectedRuns() {
+        return rejectedRuns.get();
+    }
+
+    /**
+     * Returns the number of threads currently occupied by simulation actors.
+     *
+     * @return The number of active simulation threads.
+     */
+    public synchronized int getActiveThreads() {
+        return usedThreads;
+    }
+
+    /**
+     * Returns the kind of threads the actors run on.
+     *
+     * @return The execution mode.
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the configured maximum number of simulation threads.
+     *
+     * @return The thread limit.
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Starts all actors of a run. Must be called while holding the executor monitor.
+     */
+    private void launch(SimulationTask task) {
+        List<Runnable> actors = task.getActors();
+        usedThreads += actors.size();
+        activeRuns++;
+        AtomicInteger remaining = new AtomicInteger(actors.size());
+        for (int i = 0; i < actors.size(); i++) {
+            Runnable actor = actors.get(i);
+            String actorName = "sim-" + task.getRunId() + "-actor-" + (i + 1);
+            pool.execute(() -> {
+                try {
+                    task.runActor(actorName, actor);
+                } finally {
+                    release(remaining.decrementAndGet() == 0);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns a thread to the executor and starts queued runs that fit into the freed threads.
+     *
+     * @param runFinished Whether the finished actor was the last one of its run.
+     */
+    private synchronized void release(boolean runFinished) {
+        usedThreads--;
+        if (runFinished) {
+            activeRuns--;
+        }
+        SimulationTask next;
+        while ((next = pendingRuns.peekFirst()) != null && usedThreads + next.getActors().size() <= maxThreads) {
+            pendingRuns.pollFirst();
+            launch(next);
+        }
+    }
+
+    /**
+     * Interrupts all simulation threads when the application context is closed.
+     */
+    @Override
+    public void destroy() {
+        starter.shutdownNow();
+        pool.shutdownNow();
+    }
+}
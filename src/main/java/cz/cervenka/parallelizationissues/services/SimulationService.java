@@ -1,33 +1,36 @@
 package cz.cervenka.parallelizationissues.services;
 
-import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
 import cz.cervenka.parallelizationissues.util.SimulationTask;
 import cz.cervenka.parallelizationissues.util.Agent;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.locks.Lock;
+
 
 /**
  * Service class responsible for managing concurrency problem simulations.
- * This class handles the simulation of deadlock, starvation, and livelock issues and interacts with the WebSocketHandler
- * to broadcast simulation updates.
+ * This class handles the simulation of deadlock, starvation, and livelock issues; the simulations emit their
+ * progress as events of their run, which are broadcast to the WebSocket sessions watching it.
  */
 @Service
 @Component
 public class SimulationService {
 
-    private final SimulationWebSocketHandler webSocketHandler;
-    private Runnable currentSimulation;
+    private final RunRegistry runRegistry;
 
     /**
-     * Constructs a new SimulationService with the given SimulationWebSocketHandler.
-     * Initializes the WebSocket connection callback to start simulations when the connection is established.
+     * Constructs a new SimulationService. Its simulations are handed over to the RunRegistry, which starts each
+     * of them on the simulation executor once a WebSocket session watches its run.
      *
-     * @param webSocketHandler The SimulationWebSocketHandler for managing WebSocket interactions.
+     * @param runRegistry The RunRegistry holding the runs.
      */
-    public SimulationService(SimulationWebSocketHandler webSocketHandler) {
-        this.webSocketHandler = webSocketHandler;
-        this.webSocketHandler.setOnConnectionEstablishedCallback(this::startSimulation);
+    @Autowired
+    public SimulationService(RunRegistry runRegistry) {
+        this.runRegistry = runRegistry;
     }
 
     /**
@@ -36,66 +39,117 @@ public class SimulationService {
      * @param task The SimulationTask that manages the simulation threads.
      */
     public void simulateDeadlock(SimulationTask task) {
-        runSimulation(() -> runSimulateDeadlock(task));
+        runRegistry.startWhenWatched(task, () -> runSimulateDeadlock(task));
     }
 
     /**
      * Executes the deadlock simulation logic.
      * It creates two threads that attempt to lock two resources in a way that causes a deadlock.
+     * Both locks are acquired interruptibly, so stopping the run or a deadlock recovery can release the threads.
      *
      * @param task The SimulationTask that manages the simulation threads.
      */
     public void runSimulateDeadlock(SimulationTask task) {
-        System.out.println("Deadlock simulation started...");
-        webSocketHandler.broadcast("/ws/problems/deadlock", "Deadlock simulation started...");
+        task.emit(EventAction.STARTED, null, null, "Deadlock");
 
-        Object resourceA = new Object();
-        Object resourceB = new Object();
+        Lock resourceA = task.newLock("Resource A");
+        Lock resourceB = task.newLock("Resource B");
 
-        Thread thread1 = new Thread(() -> {
-            synchronized (resourceA) {
-                System.out.println("Thread 1: Locked Resource A.");
-                webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 1: Locked Resource A.");
+        task.addActor(() -> {
+            try {
+                resourceA.lockInterruptibly();
+            } catch (InterruptedException e) {
+                task.emit(EventAction.INTERRUPTED, "Thread 1", null);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.emit(EventAction.LOCKED, "Thread 1", "Resource A");
+                try {
+                    task.sleep(1000);
+                } catch (InterruptedException e) {
+                    task.emit(EventAction.INTERRUPTED, "Thread 1", null);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                task.emit(EventAction.WAITING, "Thread 1", "Resource B");
                 try {
-                    Thread.sleep(1000);
+                    resourceB.lockInterruptibly();
                 } catch (InterruptedException e) {
-                    System.out.println("Thread 1 interrupted.");
-                    webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 1 interrupted.");
+                    task.emit(EventAction.INTERRUPTED, "Thread 1", null);
                     Thread.currentThread().interrupt();
                     return;
                 }
-                System.out.println("Thread 1: Waiting to lock Resource B...");
-                webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 1: Waiting to lock Resource B...");
-                synchronized (resourceB) {
-                    System.out.println("Thread 1: Locked Resource B.");
-                    webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 1: Locked Resource B.");
+                try {
+                    task.emit(EventAction.LOCKED, "Thread 1", "Resource B");
+                    task.completed();
+                } finally {
+                    resourceB.unlock();
                 }
+            } finally {
+                resourceA.unlock();
             }
         });
 
-        Thread thread2 = new Thread(() -> {
-            synchronized (resourceB) {
-                System.out.println("Thread 2: Locked Resource B.");
-                webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 2: Locked Resource B.");
+        task.addActor(() -> {
+            try {
+                resourceB.lockInterruptibly();
+            } catch (InterruptedException e) {
+                task.emit(EventAction.INTERRUPTED, "Thread 2", null);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.emit(EventAction.LOCKED, "Thread 2", "Resource B");
                 try {
-                    Thread.sleep(1000);
+                    task.sleep(1000);
                 } catch (InterruptedException e) {
-                    System.out.println("Thread 2 interrupted.");
-                    webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 2 interrupted.");
+                    task.emit(EventAction.INTERRUPTED, "Thread 2", null);
                     Thread.currentThread().interrupt();
                     return;
                 }
-                System.out.println("Thread 2: Waiting to lock Resource A...");
-                webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 2: Waiting to lock Resource A...");
-                synchronized (resourceA) {
-                    System.out.println("Thread 2: Locked Resource A.");
-                    webSocketHandler.broadcast("/ws/problems/deadlock", "Thread 2: Locked Resource A.");
+                task.emit(EventAction.WAITING, "Thread 2", "Resource A");
+                try {
+                    resourceA.lockInterruptibly();
+                } catch (InterruptedException e) {
+                    task.emit(EventAction.INTERRUPTED, "Thread 2", null);
+                    Thread.currentThread().interrupt();
+                    return;
                 }
+                try {
+                    task.emit(EventAction.LOCKED, "Thread 2", "Resource A");
+                    task.completed();
+                } finally {
+                    resourceA.unlock();
+                }
+            } finally {
+                resourceB.unlock();
             }
         });
 
-        task.addThread(thread1);
-        task.addThread(thread2);
+        task.startAll();
+    }
+
+    /**
+     * Starts the scalable deadlock simulation once its run is watched.
+     *
+     * @param task     The SimulationTask that manages the simulation threads.
+     * @param scenario The number of actors and resources and the acquisition pattern.
+     */
+    public void simulateDiningDeadlock(SimulationTask task, DiningScenario scenario) {
+        runRegistry.startWhenWatched(task, () -> runSimulateDiningDeadlock(task, scenario));
+    }
+
+    /**
+     * Executes the scalable deadlock simulation: N actors lock resources of a shared pool without any ordering,
+     * so they eventually block each other in a cycle. The run reports its throughput and the time the deadlock took to form.
+     *
+     * @param task     The SimulationTask that manages the simulation threads.
+     * @param scenario The number of actors and resources and the acquisition pattern.
+     */
+    public void runSimulateDiningDeadlock(SimulationTask task, DiningScenario scenario) {
+        task.emit(EventAction.STARTED, null, null, "Deadlock (" + scenario.describe() + ")");
+        scenario.install(task, false);
         task.startAll();
     }
 
@@ -105,7 +159,7 @@ public class SimulationService {
      * @param task The SimulationTask that manages the simulation threads.
      */
     public void simulateStarvation(SimulationTask task) {
-        runSimulation(() -> runSimulateStarvation(task));
+        runRegistry.startWhenWatched(task, () -> runSimulateStarvation(task));
     }
 
     /**
@@ -116,30 +170,24 @@ public class SimulationService {
      * @param task The SimulationTask that manages the simulation threads.
      */
     public void runSimulateStarvation(SimulationTask task) {
-        System.out.println("Starvation simulation started...");
-        webSocketHandler.broadcast("/ws/problems/starvation", "Starvation simulation started...");
+        task.emit(EventAction.STARTED, null, null, "Starvation");
 
-        Runnable highPriorityTask = getRunnable(webSocketHandler);
+        Runnable highPriorityTask = getRunnable(task);
 
         Runnable lowPriorityTask = () -> {
             while (!Thread.currentThread().isInterrupted()) {
-                System.out.println("Low-priority user: Waiting for a chance to book...");
-                webSocketHandler.broadcast("/ws/problems/starvation", "Low-priority user: Waiting for a chance to book...");
+                task.emit(EventAction.WAITING_TO_BOOK, "Low-priority user", null);
                 try {
-                    Thread.sleep(1500);
+                    task.sleep(1500);
                 } catch (InterruptedException e) {
-                    System.out.println("Low-priority user interrupted.");
-                    webSocketHandler.broadcast("/ws/problems/starvation", "Low-priority user interrupted.");
+                    task.emit(EventAction.INTERRUPTED, "Low-priority user", null);
                     Thread.currentThread().interrupt();
                 }
             }
         };
 
-        Thread highPriorityThread = new Thread(highPriorityTask);
-        Thread lowPriorityThread = new Thread(lowPriorityTask);
-
-        task.addThread(highPriorityThread);
-        task.addThread(lowPriorityThread);
+        task.addActor(highPriorityTask);
+        task.addActor(lowPriorityTask);
         task.startAll();
     }
 
@@ -147,24 +195,32 @@ public class SimulationService {
      * Creates and returns a runnable task for a high-priority user.
      * The task simulates the high-priority user booking a slot periodically.
      *
-     * @param webSocketHandler The SimulationWebSocketHandler for broadcasting simulation updates.
+     * @param task The SimulationTask whose run receives the updates.
      * @return The runnable task for the high-priority user.
      */
-    private static Runnable getRunnable(SimulationWebSocketHandler webSocketHandler) {
-        Object reservationLock = new Object();
+    private static Runnable getRunnable(SimulationTask task) {
+        Lock reservationLock = task.newLock("Reservation");
 
         return () -> {
             while (!Thread.currentThread().isInterrupted()) {
-                synchronized (reservationLock) {
-                    System.out.println("High-priority user: Reserved a slot.");
-                    webSocketHandler.broadcast("/ws/problems/starvation", "High-priority user: Reserved a slot.");
+                try {
+                    reservationLock.lockInterruptibly();
+                } catch (InterruptedException e) {
+                    task.emit(EventAction.INTERRUPTED, "High-priority user", null);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    task.emit(EventAction.RESERVED, "High-priority user", "a slot");
+                    task.completed();
                     try {
-                        Thread.sleep(1000);
+                        task.sleep(1000);
                     } catch (InterruptedException e) {
-                        System.out.println("High-priority user interrupted.");
-                        webSocketHandler.broadcast("/ws/problems/starvation", "High-priority user interrupted.");
+                        task.emit(EventAction.INTERRUPTED, "High-priority user", null);
                         Thread.currentThread().interrupt();
                     }
+                } finally {
+                    reservationLock.unlock();
                 }
             }
         };
@@ -176,7 +232,7 @@ public class SimulationService {
      * @param task The SimulationTask that manages the simulation threads.
      */
     public void simulateLivelock(SimulationTask task) {
-        runSimulation(() -> runSimulateLivelock(task));
+        runRegistry.startWhenWatched(task, () -> runSimulateLivelock(task));
     }
 
     /**
@@ -187,84 +243,45 @@ public class SimulationService {
      * @param task The SimulationTask that manages the simulation threads.
      */
     public void runSimulateLivelock(SimulationTask task) {
-        System.out.println("Livelock simulation started...");
-        webSocketHandler.broadcast("/ws/problems/livelock", "Livelock simulation started...");
+        task.emit(EventAction.STARTED, null, null, "Livelock");
 
-        Agent agent1 = new Agent();
-        Agent agent2 = new Agent();
+        Agent agent1 = new Agent(task.newLock("Agent 1"));
+        Agent agent2 = new Agent(task.newLock("Agent 2"));
 
-        Thread thread1 = new Thread(() -> {
+        task.addActor(() -> {
             try {
                 while (!Thread.currentThread().isInterrupted()) {
                     if (!agent2.isActing()) {
                         agent1.act();
-                        System.out.println("Thread 1: Adjusting...");
-                        webSocketHandler.broadcast("/ws/problems/livelock", "Thread 1: Adjusting...");
-                        Thread.sleep(1000);
+                        task.emit(EventAction.ADJUSTING, "Thread 1", null);
+                        task.sleep(1000);
+                    } else {
+                        task.onSpinWait();
                     }
                 }
             } catch (InterruptedException e) {
-                System.out.println("Thread 1 interrupted.");
-                webSocketHandler.broadcast("/ws/problems/livelock", "Thread 1 interrupted.");
+                task.emit(EventAction.INTERRUPTED, "Thread 1", null);
                 Thread.currentThread().interrupt();
             }
         });
 
-        Thread thread2 = new Thread(() -> {
+        task.addActor(() -> {
             try {
                 while (!Thread.currentThread().isInterrupted()) {
                     if (!agent1.isActing()) {
                         agent2.act();
-                        System.out.println("Thread 2: Adjusting...");
-                        webSocketHandler.broadcast("/ws/problems/livelock", "Thread 2: Adjusting...");
-                        Thread.sleep(1000);
+                        task.emit(EventAction.ADJUSTING, "Thread 2", null);
+                        task.sleep(1000);
+                    } else {
+                        task.onSpinWait();
                     }
                 }
             } catch (InterruptedException e) {
-                System.out.println("Thread 2 interrupted.");
-                webSocketHandler.broadcast("/ws/problems/livelock", "Thread 2 interrupted.");
+                task.emit(EventAction.INTERRUPTED, "Thread 2", null);
                 Thread.currentThread().interrupt();
             }
         });
 
-        task.addThread(thread1);
-        task.addThread(thread2);
         task.startAll();
     }
-
-    /**
-     * Runs the provided simulation in a synchronized manner.
-     * It checks the WebSocket connection status before starting the simulation.
-     *
-     * @param simulation The simulation to be executed.
-     */
-    private void runSimulation(Runnable simulation) {
-        synchronized (this) {
-            this.currentSimulation = simulation;
-            System.out.println("Simulation set. Checking WebSocket connection status...");
-
-            if (webSocketHandler.isConnectionEstablished()) {
-                System.out.println("WebSocket connection is ready. Starting simulation immediately.");
-                startSimulation();
-            } else {
-                System.out.println("WebSocket connection not yet established. Waiting...");
-            }
-        }
-    }
-
-    /**
-     * Starts the simulation if it has been set and the WebSocket connection is established.
-     */
-    private void startSimulation() {
-        synchronized (this) {
-            System.out.println("Checking if simulation can be started...");
-            if (currentSimulation != null) {
-                System.out.println("Starting simulation...");
-                currentSimulation.run();
-                currentSimulation = null;
-            } else {
-                System.out.println("No simulation to start.");
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,12 +1,19 @@
 package cz.cervenka.parallelizationissues.services;
 
-import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
 import cz.cervenka.parallelizationissues.util.Agent;
+import cz.cervenka.parallelizationissues.util.CoordinationMode;
+import cz.cervenka.parallelizationissues.util.DeadlockStrategy;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
 import cz.cervenka.parallelizationissues.util.SimulationTask;
+import cz.cervenka.parallelizationissues.util.StarvationScenario;
+import cz.cervenka.parallelizationissues.util.StarvationStrategy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -17,17 +24,24 @@ import java.util.concurrent.locks.ReentrantLock;
 @Component
 public class SolutionService {
 
-    private final SimulationWebSocketHandler webSocketHandler;
-    private Runnable currentSimulation;
+    private static final long LIVELOCK_ROUND_MILLIS = 1000;
+    private static final int LIVELOCK_MAX_ATTEMPTS = 5;
+    private static final long DEADLOCK_HOLD_MILLIS = 1000;
+    private static final long DEADLOCK_TRY_LOCK_MILLIS = 500;
+    private static final long DEADLOCK_BACKOFF_MILLIS = 200;
+    private static final StarvationScenario STARVATION_DEFAULT = new StarvationScenario(1, 1, StarvationStrategy.FAIR_LOCK);
+
+    private final RunRegistry runRegistry;
 
     /**
-     * Constructs a new SolutionService with the given SimulationWebSocketHandler.
+     * Constructs a new SolutionService. Its simulations are handed over to the RunRegistry, which starts each
+     * of them on the simulation executor once a WebSocket session watches its run.
      *
-     * @param webSocketHandler The SimulationWebSocketHandler to be used for broadcasting simulation updates.
+     * @param runRegistry The RunRegistry holding the runs.
      */
-    public SolutionService(SimulationWebSocketHandler webSocketHandler) {
-        this.webSocketHandler = webSocketHandler;
-        this.webSocketHandler.setOnConnectionEstablishedCallback(this::startSimulation);
+    @Autowired
+    public SolutionService(RunRegistry runRegistry) {
+        this.runRegistry = runRegistry;
     }
 
     /**
@@ -37,64 +51,199 @@ public class SolutionService {
      * @param task The SimulationTask to be used for managing threads and simulation progress.
      */
     public void solveDeadlock(SimulationTask task) {
-        runSimulation(() -> runSolveDeadlock(task));
+        solveDeadlock(task, DeadlockStrategy.RESOURCE_HIERARCHY);
+    }
+
+    /**
+     * Solves the deadlock simulation with the given strategy.
+     *
+     * @param task     The SimulationTask to be used for managing threads and simulation progress.
+     * @param strategy How the threads avoid the deadlock.
+     */
+    public void solveDeadlock(SimulationTask task, DeadlockStrategy strategy) {
+        runRegistry.startWhenWatched(task, () -> runSolveDeadlock(task, strategy));
     }
 
     /**
-     * Runs the deadlock simulation by creating two threads that lock resources in conflicting orders.
-     * Simulates a deadlock scenario and broadcasts each step.
+     * Runs the deadlock simulation with a resource hierarchy: both threads lock Resource A before Resource B.
      *
      * @param task The SimulationTask to manage threads.
      */
     public void runSolveDeadlock(SimulationTask task) {
-        System.out.println("Deadlock solutions simulation started...");
-        webSocketHandler.broadcast("/ws/solutions/deadlock", "Deadlock solutions simulation started...");
+        runSolveDeadlock(task, DeadlockStrategy.RESOURCE_HIERARCHY);
+    }
+
+    /**
+     * Runs the deadlock simulation: the first thread needs Resource A and then Resource B, the second thread
+     * needs them the other way round, and the strategy keeps them from blocking each other.
+     * Simulates the scenario and broadcasts each step. With timed lock attempts, a monitor additionally reports
+     * the completed critical sections, their rate, the retries and the aborted rounds every
+     * {@value DiningScenario#REPORT_INTERVAL_MILLIS} ms, like the scalable scenario does.
+     *
+     * @param task     The SimulationTask to manage threads.
+     * @param strategy How the threads avoid the deadlock.
+     */
+    public void runSolveDeadlock(SimulationTask task, DeadlockStrategy strategy) {
+        task.emit(EventAction.STARTED, null, null, strategy == DeadlockStrategy.RESOURCE_HIERARCHY
+                ? "Deadlock solutions" : "Deadlock solutions (" + describe(strategy) + ")");
+
+        Lock coarse = strategy == DeadlockStrategy.COARSE_LOCK ? task.newLock("Resources") : null;
+        Lock resourceA = coarse != null ? coarse : task.newLock("Resource A");
+        Lock resourceB = coarse != null ? coarse : task.newLock("Resource B");
+        Retries retries = new Retries();
 
-        Object resourceA = new Object();
-        Object resourceB = new Object();
+        task.addActor(deadlockSolutionActor(task, "Thread 1", "Resource A", resourceA, "Resource B", resourceB, strategy, retries));
+        task.addActor(deadlockSolutionActor(task, "Thread 2", "Resource B", resourceB, "Resource A", resourceA, strategy, retries));
+        if (strategy == DeadlockStrategy.TRY_LOCK_BACKOFF) {
+            task.addMonitor(() -> monitorDeadlockSolution(task, 2, retries));
+        }
+
+        task.startAll();
+    }
 
-        Thread thread1 = new Thread(() -> {
+    /**
+     * Creates an actor of the deadlock solution that needs two resources in the given order. With a resource
+     * hierarchy it locks them in the order of their names instead; with timed lock attempts it releases the first
+     * resource when it cannot get the second one in time and retries after a random, growing back-off.
+     * After {@value DiningScenario#MAX_RETRIES} retries it aborts the round and starts over with the shortest back-off.
+     */
+    private static Runnable deadlockSolutionActor(SimulationTask task, String name, String firstName, Lock first,
+                                                  String secondName, Lock second, DeadlockStrategy strategy,
+                                                  Retries retries) {
+        if (strategy == DeadlockStrategy.RESOURCE_HIERARCHY && firstName.compareTo(secondName) > 0) {
+            return deadlockSolutionActor(task, name, secondName, second, firstName, first, strategy, retries);
+        }
+        return () -> {
+            int attempts = 0;
             try {
-                synchronized (resourceA) {
-                    System.out.println("Thread 1: Locked Resource A.");
-                    webSocketHandler.broadcast("/ws/solutions/deadlock", "Thread 1: Locked Resource A.");
-                    Thread.sleep(1000);
-                    synchronized (resourceB) {
-                        System.out.println("Thread 1: Locked Resource B.");
-                        webSocketHandler.broadcast("/ws/solutions/deadlock", "Thread 1: Locked Resource B.");
+                while (true) {
+                    first.lockInterruptibly();
+                    try {
+                        task.emit(EventAction.LOCKED, name, firstName);
+                        task.sleep(DEADLOCK_HOLD_MILLIS);
+                        boolean acquired = true;
+                        if (strategy == DeadlockStrategy.TRY_LOCK_BACKOFF) {
+                            acquired = second.tryLock(DEADLOCK_TRY_LOCK_MILLIS, TimeUnit.MILLISECONDS);
+                        } else {
+                            second.lockInterruptibly();
+                        }
+                        if (acquired) {
+                            try {
+                                task.emit(EventAction.LOCKED, name, secondName);
+                                task.completed();
+                                return;
+                            } finally {
+                                second.unlock();
+                            }
+                        }
+                        retries.retries.increment();
+                        task.emit(EventAction.BACKING_OFF, name, secondName);
+                    } finally {
+                        first.unlock();
+                    }
+                    long bound = DEADLOCK_BACKOFF_MILLIS << Math.min(attempts++, 4);
+                    if (attempts > DiningScenario.MAX_RETRIES) {
+                        retries.aborts.increment();
+                        task.emit(EventAction.ABORTED, name, null, String.valueOf(attempts));
+                        attempts = 0;
                     }
+                    task.sleep(task.getClock().random().nextLong(bound + 1));
                 }
             } catch (InterruptedException e) {
-                System.out.println("Thread 1 interrupted.");
-                webSocketHandler.broadcast("/ws/solutions/deadlock", "Thread 1 interrupted.");
+                task.emit(EventAction.INTERRUPTED, name, null);
                 Thread.currentThread().interrupt();
             }
-        });
+        };
+    }
 
-        Thread thread2 = new Thread(() -> {
+    /**
+     * Reports the progress of the classic deadlock solution every {@value DiningScenario#REPORT_INTERVAL_MILLIS} ms
+     * until all of its actors completed their critical section, and once more at the end.
+     */
+    private static void monitorDeadlockSolution(SimulationTask task, int actors, Retries retries) {
+        long previousTime = task.getClock().nanoTime();
+        long previousCompleted = 0;
+        while (previousCompleted < actors) {
             try {
-                synchronized (resourceA) {
-                    System.out.println("Thread 2: Locked Resource A.");
-                    webSocketHandler.broadcast("/ws/solutions/deadlock", "Thread 2: Locked Resource A.");
-                    Thread.sleep(1000);
-                    synchronized (resourceB) {
-                        System.out.println("Thread 2: Locked Resource B.");
-                        webSocketHandler.broadcast("/ws/solutions/deadlock", "Thread 2: Locked Resource B.");
-                    }
-                }
+                task.sleep(DiningScenario.REPORT_INTERVAL_MILLIS);
             } catch (InterruptedException e) {
-                System.out.println("Thread 2 interrupted.");
-                webSocketHandler.broadcast("/ws/solutions/deadlock", "Thread 2 interrupted.");
                 Thread.currentThread().interrupt();
+                return;
             }
-        });
+            long now = task.getClock().nanoTime();
+            long completed = task.getCompletions();
+            long rate = (completed - previousCompleted) * TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - previousTime);
+            task.emit(EventAction.THROUGHPUT, null, null, completed + " critical sections completed, " + rate + "/s, "
+                    + retries.retries.sum() + " retries, " + retries.aborts.sum() + " aborted rounds");
+            previousTime = now;
+            previousCompleted = completed;
+        }
+    }
 
-        task.addThread(thread1);
-        task.addThread(thread2);
+    /**
+     * Retries and aborted rounds of the timed lock attempts of a run, shared with its monitor.
+     */
+    private static final class Retries {
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder aborts = new LongAdder();
+    }
+
+    /**
+     * Solves the scalable deadlock simulation by global lock ordering: every actor locks its resources
+     * in ascending order, so no wait-for cycle can form however many actors compete.
+     * Broadcasts the throughput of the run through WebSocket.
+     *
+     * @param task     The SimulationTask to be used for managing threads and simulation progress.
+     * @param scenario The number of actors and resources and the acquisition pattern.
+     */
+    public void solveDiningDeadlock(SimulationTask task, DiningScenario scenario) {
+        solveDiningDeadlock(task, scenario, DeadlockStrategy.RESOURCE_HIERARCHY);
+    }
+
+    /**
+     * Solves the scalable deadlock simulation with the given strategy.
+     * Broadcasts the throughput of the run, and the retries of timed lock attempts, through WebSocket.
+     *
+     * @param task     The SimulationTask to be used for managing threads and simulation progress.
+     * @param scenario The number of actors and resources and the acquisition pattern.
+     * @param strategy How the actors avoid the deadlock.
+     */
+    public void solveDiningDeadlock(SimulationTask task, DiningScenario scenario, DeadlockStrategy strategy) {
+        runRegistry.startWhenWatched(task, () -> runSolveDiningDeadlock(task, scenario, strategy));
+    }
+
+    /**
+     * Runs the scalable deadlock simulation with global lock ordering.
+     *
+     * @param task     The SimulationTask to manage threads.
+     * @param scenario The number of actors and resources and the acquisition pattern.
+     */
+    public void runSolveDiningDeadlock(SimulationTask task, DiningScenario scenario) {
+        runSolveDiningDeadlock(task, scenario, DeadlockStrategy.RESOURCE_HIERARCHY);
+    }
 
+    /**
+     * Runs the scalable deadlock simulation with the given strategy.
+     *
+     * @param task     The SimulationTask to manage threads.
+     * @param scenario The number of actors and resources and the acquisition pattern.
+     * @param strategy How the actors avoid the deadlock.
+     */
+    public void runSolveDiningDeadlock(SimulationTask task, DiningScenario scenario, DeadlockStrategy strategy) {
+        task.emit(EventAction.STARTED, null, null, "Deadlock solutions (" + scenario.describe() + ", " + describe(strategy) + ")");
+        scenario.install(task, strategy);
         task.startAll();
     }
 
+    private static String describe(DeadlockStrategy strategy) {
+        return switch (strategy) {
+            case NONE -> "no deadlock avoidance";
+            case RESOURCE_HIERARCHY -> "global lock ordering";
+            case TRY_LOCK_BACKOFF -> "timed lock attempts with back-off";
+            case COARSE_LOCK -> "one coarse lock";
+        };
+    }
+
     /**
      * Solves the starvation simulation by initiating threads with different priorities.
      * The threads attempt to lock a shared resource, with one having a higher priority.
@@ -103,53 +252,39 @@ public class SolutionService {
      * @param task The SimulationTask to manage threads and simulation progress.
      */
     public void solveStarvation(SimulationTask task) {
-        runSimulation(() -> runSolveStarvation(task));
+        solveStarvation(task, STARVATION_DEFAULT);
     }
 
     /**
-     * Runs the starvation simulation by creating two threads with a fair lock mechanism.
-     * Simulates a starvation scenario where a low-priority thread waits for a high-priority thread to release a lock.
+     * Solves the scalable starvation simulation: high-priority and low-priority users reserve a shared slot
+     * and the given strategy keeps the low-priority users from being starved.
+     * Broadcasts the reservations and their fairness through WebSocket.
      *
-     * @param task The SimulationTask to manage threads.
+     * @param task     The SimulationTask to manage threads and simulation progress.
+     * @param scenario The number of users per priority class and the strategy granting the slot.
      */
-    private void runSolveStarvation(SimulationTask task) {
-        System.out.println("Starvation solutions simulation started...");
-        webSocketHandler.broadcast("/ws/solutions/starvation", "Starvation solutions simulation started...");
-
-        Lock reservationLock = new ReentrantLock(true); // Fair lock
-
-        Thread highPriorityThread = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    reservationLock.lock();
-                    System.out.println("High-priority user: Reserved a slot.");
-                    webSocketHandler.broadcast("/ws/solutions/starvation", "High-priority user: Reserved a slot.");
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                } finally {
-                    reservationLock.unlock();
-                }
-            }
-        });
+    public void solveStarvation(SimulationTask task, StarvationScenario scenario) {
+        runRegistry.startWhenWatched(task, () -> runSolveStarvation(task, scenario));
+    }
 
-        Thread lowPriorityThread = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    reservationLock.lock();
-                    System.out.println("Low-priority user: Reserved a slot.");
-                    webSocketHandler.broadcast("/ws/solutions/starvation", "Low-priority user: Reserved a slot.");
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                } finally {
-                    reservationLock.unlock();
-                }
-            }
-        });
+    /**
+     * Runs the starvation simulation with one high-priority and one low-priority thread sharing a fair lock.
+     *
+     * @param task The SimulationTask to manage threads.
+     */
+    public void runSolveStarvation(SimulationTask task) {
+        runSolveStarvation(task, STARVATION_DEFAULT);
+    }
 
-        task.addThread(highPriorityThread);
-        task.addThread(lowPriorityThread);
+    /**
+     * Runs the scalable starvation simulation.
+     *
+     * @param task     The SimulationTask to manage threads.
+     * @param scenario The number of users per priority class and the strategy granting the slot.
+     */
+    public void runSolveStarvation(SimulationTask task, StarvationScenario scenario) {
+        task.emit(EventAction.STARTED, null, null, "Starvation solutions (" + scenario.describe() + ")");
+        scenario.install(task);
         task.startAll();
     }
 
@@ -160,109 +295,78 @@ public class SolutionService {
      * @param task The SimulationTask to manage threads and simulation progress.
      */
     public void solveLivelock(SimulationTask task) {
-        runSimulation(() -> runSolveLivelock(task));
+        solveLivelock(task, CoordinationMode.SPIN);
+    }
+
+    /**
+     * Solves the livelock simulation with agents that are waited for in the given coordination mode.
+     *
+     * @param task The SimulationTask to manage threads and simulation progress.
+     * @param mode How a thread waits while the other agent is acting.
+     */
+    public void solveLivelock(SimulationTask task, CoordinationMode mode) {
+        runRegistry.startWhenWatched(task, () -> runSolveLivelock(task, mode));
+    }
+
+    /**
+     * Runs the livelock simulation by creating two agents that adjust their actions while avoiding a livelock,
+     * with spinning threads.
+     *
+     * @param task The SimulationTask to manage threads.
+     */
+    public void runSolveLivelock(SimulationTask task) {
+        runSolveLivelock(task, CoordinationMode.SPIN);
     }
 
     /**
      * Runs the livelock simulation by creating two agents that adjust their actions while avoiding a livelock.
      * The agents attempt to adjust their behavior to break the livelock after a set number of attempts.
+     * While the other agent is acting, a thread waits for it for up to a second in the given coordination mode,
+     * which decides whether the wait costs a full core (spinning) or next to no CPU time.
      *
      * @param task The SimulationTask to manage threads.
+     * @param mode How a thread waits while the other agent is acting.
      */
-    public void runSolveLivelock(SimulationTask task) {
-        System.out.println("Livelock solutions simulation started...");
-        webSocketHandler.broadcast("/ws/solutions/livelock", "Livelock solutions simulation started...");
+    public void runSolveLivelock(SimulationTask task, CoordinationMode mode) {
+        task.emit(EventAction.STARTED, null, null,
+                mode == CoordinationMode.SPIN ? "Livelock solutions" : "Livelock solutions (" + mode + " coordination)");
 
-        Agent agent1 = new Agent();
-        Agent agent2 = new Agent();
+        Agent agent1 = new Agent(task.newLock("Agent 1"), mode, task.getClock());
+        Agent agent2 = new Agent(task.newLock("Agent 2"), mode, task.getClock());
 
-        Thread thread1 = new Thread(() -> {
-            int attempts = 0;
-            while (true) {
-                if (!agent2.isActing()) {
-                    agent1.act();
-                    System.out.println("Thread 1: Adjusting...");
-                    webSocketHandler.broadcast("/ws/solutions/livelock", "Thread 1: Adjusting...");
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        System.out.println("Thread 1 interrupted.");
-                        webSocketHandler.broadcast("/ws/solutions/livelock", "Thread 1 interrupted.");
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
-                if (++attempts > 5) {
-                    System.out.println("Thread 1: Breaking livelock.");
-                    webSocketHandler.broadcast("/ws/solutions/livelock", "Thread 1: Breaking livelock.");
-                    break;
-                }
-            }
-        });
+        task.addActor(livelockSolutionActor(task, "Thread 1", agent1, agent2));
+        task.addActor(livelockSolutionActor(task, "Thread 2", agent2, agent1));
 
-        Thread thread2 = new Thread(() -> {
+        task.startAll();
+    }
+
+    /**
+     * Creates an actor of the livelock solution: it adjusts its own agent whenever the other one is not acting,
+     * waits for the other agent otherwise, and breaks the livelock after a limited number of attempts.
+     */
+    private static Runnable livelockSolutionActor(SimulationTask task, String name, Agent own, Agent other) {
+        return () -> {
             int attempts = 0;
             while (true) {
-                if (!agent1.isActing()) {
-                    agent2.act();
-                    System.out.println("Thread 2: Adjusting...");
-                    webSocketHandler.broadcast("/ws/solutions/livelock", "Thread 2: Adjusting...");
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        System.out.println("Thread 2 interrupted.");
-                        webSocketHandler.broadcast("/ws/solutions/livelock", "Thread 2 interrupted.");
-                        Thread.currentThread().interrupt();
-                        break;
+                try {
+                    if (!other.isActing()) {
+                        own.act();
+                        task.emit(EventAction.ADJUSTING, name, null);
+                        task.sleep(LIVELOCK_ROUND_MILLIS);
+                    } else {
+                        other.awaitIdle(attempts, LIVELOCK_ROUND_MILLIS);
                     }
+                } catch (InterruptedException e) {
+                    task.emit(EventAction.INTERRUPTED, name, null);
+                    Thread.currentThread().interrupt();
+                    break;
                 }
-                if (++attempts > 5) {
-                    System.out.println("Thread 2: Breaking livelock.");
-                    webSocketHandler.broadcast("/ws/solutions/livelock", "Thread 2: Breaking livelock.");
+                if (++attempts > LIVELOCK_MAX_ATTEMPTS) {
+                    task.emit(EventAction.BREAKING_LIVELOCK, name, null);
+                    task.completed();
                     break;
                 }
             }
-        });
-
-        task.addThread(thread1);
-        task.addThread(thread2);
-
-        task.startAll();
-    }
-
-    /**
-     * Runs a simulation by setting the current simulation to the provided task and checking if a WebSocket connection is established.
-     * If the connection is established, it starts the simulation immediately.
-     *
-     * @param simulation The Runnable representing the simulation task to be run.
-     */
-    private void runSimulation(Runnable simulation) {
-        synchronized (this) {
-            this.currentSimulation = simulation;
-            System.out.println("Simulation set. Checking WebSocket connection status...");
-
-            if (webSocketHandler.isConnectionEstablished()) {
-                System.out.println("WebSocket connection is ready. Starting simulation immediately.");
-                startSimulation();
-            } else {
-                System.out.println("WebSocket connection not yet established. Waiting...");
-            }
-        }
-    }
-
-    /**
-     * Starts the simulation if a simulation task is set and the WebSocket connection is established.
-     */
-    private void startSimulation() {
-        synchronized (this) {
-            System.out.println("Checking if simulation can be started...");
-            if (currentSimulation != null) {
-                System.out.println("Starting simulation...");
-                currentSimulation.run();
-                currentSimulation = null;
-            } else {
-                System.out.println("No simulation to start.");
-            }
-        }
+        };
     }
 }
@@ -0,0 +1,26 @@
+package cz.cervenka.parallelizationissues.services;
+
+/**
+ * Policy applied by the {@link EventStreamService} when the buffer of a Server-Sent Events reader is full,
+ * i.e. when the reader takes the events slower than the run produces them. The buffer belongs to the reader's
+ * subscription of the run's publisher, so the policy decides about the events arriving while it is full;
+ * the producing actors are never blocked.
+ */
+public enum StreamOverflowPolicy {
+
+    /**
+     * Drops the events arriving while the buffer is full; once the reader catches up, it is told how many it missed.
+     */
+    DROP,
+
+    /**
+     * Collects the events arriving while the buffer is full and sends them together with the next buffered event
+     * as a single frame, so that nothing is lost; a reader falling too far behind is disconnected.
+     */
+    COALESCE,
+
+    /**
+     * Disconnects the reader; a browser reconnects and catches up from the run's history.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,17 @@
+package cz.cervenka.parallelizationissues.util;
+
+/**
+ * The resources an actor of a {@link DiningScenario} locks in each round.
+ */
+public enum AcquisitionPattern {
+
+    /**
+     * Actor i locks resource i and then its neighbour, resource i + 1, like the philosophers around a table.
+     */
+    RING,
+
+    /**
+     * Every round an actor locks a new random subset of the resources, in random order.
+     */
+    RANDOM
+}
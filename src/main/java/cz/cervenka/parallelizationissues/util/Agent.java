@@ -1,30 +1,201 @@
 package cz.cervenka.parallelizationissues.util;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * The Agent class represents an entity that can perform an action and track whether it's acting.
- * The class provides synchronized methods to perform an action (toggle the state) and check if the agent is currently acting.
+ * The class provides thread-safe methods to perform an action (toggle the state) and check if the agent is currently acting.
+ * The state is guarded by a {@link ReentrantLock} rather than the object monitor, so agents polled from
+ * virtual threads park instead of pinning their carrier thread while the lock is contended.
+ * <p>
+ * Another actor waits for the agent to stop acting through {@link #awaitIdle(int, long)}, in the agent's
+ * {@link CoordinationMode}: by spinning, by a randomized exponential backoff, by parking until the agent
+ * unparks it, or on a condition of the agent's lock. While a virtual clock schedules the run, parking and
+ * condition waits poll in virtual time instead, because a blocked actor would hold on to the scheduler's baton.
  */
 public class Agent {
 
+    /**
+     * The first bound of the randomized exponential backoff, doubled with every attempt.
+     */
+    public static final long BACKOFF_BASE_MILLIS = 10;
+
+    private final Lock monitor;
+    private final CoordinationMode mode;
+    private final SimulationClock clock;
+    private final Condition stateChanged;
+    private final Queue<Thread> parkedThreads = new ConcurrentLinkedQueue<>();
     private boolean action;  // Indicates if the agent is currently acting
 
+    /**
+     * Creates an agent guarded by its own lock.
+     */
+    public Agent() {
+        this(new ReentrantLock());
+    }
+
+    /**
+     * Creates an agent guarded by the given lock, e.g. an {@link InstrumentedLock} measuring its contention.
+     * Actors waiting for the agent spin.
+     *
+     * @param monitor The lock guarding the agent's state.
+     */
+    public Agent(Lock monitor) {
+        this(monitor, CoordinationMode.SPIN, new RealTimeClock());
+    }
+
+    /**
+     * Creates an agent guarded by the given lock, waited for in the given mode.
+     *
+     * @param monitor The lock guarding the agent's state.
+     * @param mode    How actors wait for the agent to stop acting.
+     * @param clock   The clock of the run, pacing the waits.
+     */
+    public Agent(Lock monitor, CoordinationMode mode, SimulationClock clock) {
+        this.monitor = monitor;
+        this.mode = mode;
+        this.clock = clock;
+        this.stateChanged = mode == CoordinationMode.CONDITION ? monitor.newCondition() : null;
+    }
+
     /**
      * Toggles the agent's action state.
      * If the agent is not acting, it starts acting; otherwise, it stops acting.
-     * This method is synchronized to ensure thread safety when modifying the action state.
+     * This method holds the agent's lock to ensure thread safety when modifying the action state,
+     * and wakes up the actors waiting for the agent.
      */
-    public synchronized void act() {
-        this.action = !this.action;
+    public void act() {
+        monitor.lock();
+        try {
+            this.action = !this.action;
+            if (stateChanged != null) {
+                stateChanged.signalAll();
+            }
+        } finally {
+            monitor.unlock();
+        }
+        for (Thread thread : parkedThreads) {
+            LockSupport.unpark(thread);
+        }
     }
 
     /**
      * Returns whether the agent is currently not acting.
      * The state is negated from the `action` field to represent the opposite of the current action state.
-     * This method is synchronized to ensure thread safety when reading the action state.
+     * This method holds the agent's lock to ensure thread safety when reading the action state.
      *
      * @return true if the agent is not acting; false otherwise.
      */
-    public synchronized boolean isActing() {
-        return this.action;
+    public boolean isActing() {
+        monitor.lock();
+        try {
+            return this.action;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Returns how actors wait for this agent.
+     *
+     * @return The coordination mode.
+     */
+    public CoordinationMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Waits for the agent to stop acting, in the agent's coordination mode. Spinning, parking and condition waits
+     * return as soon as the agent has stopped acting or the timeout has elapsed; the backoff sleeps a random time
+     * of up to {@code BACKOFF_BASE_MILLIS * 2^attempt}, and at most the timeout, before the caller retries.
+     *
+     * @param attempt       How many times the caller has waited for the agent before, starting at 0.
+     * @param timeoutMillis The longest the caller is willing to wait.
+     * @return True if the agent is not acting when the wait ends.
+     * @throws InterruptedException if the caller is interrupted while waiting.
+     */
+    public boolean awaitIdle(int attempt, long timeoutMillis) throws InterruptedException {
+        switch (mode) {
+            case SPIN -> spin(timeoutMillis);
+            case BACKOFF -> {
+                long bound = Math.min(timeoutMillis, BACKOFF_BASE_MILLIS << Math.min(Math.max(attempt, 0), 20));
+                clock.sleep(bound > 0 ? clock.random().nextLong(bound + 1) : 0);
+            }
+            case PARK, CONDITION -> {
+                if (clock.isScheduling()) {
+                    pollVirtually(timeoutMillis);
+                } else if (mode == CoordinationMode.PARK) {
+                    park(timeoutMillis);
+                } else {
+                    awaitSignal(timeoutMillis);
+                }
+            }
+        }
+        return !isActing();
+    }
+
+    /**
+     * Busy-waits until the agent stops acting or the timeout elapses.
+     */
+    private void spin(long timeoutMillis) {
+        long deadline = clock.millis() + timeoutMillis;
+        while (isActing() && clock.millis() < deadline) {
+            clock.onSpinWait();
+        }
+    }
+
+    /**
+     * Parks the caller until the agent stops acting or the timeout elapses. The caller is registered before
+     * it checks the state, so an unpark by {@link #act()} in between is not lost.
+     */
+    private void park(long timeoutMillis) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        parkedThreads.add(thread);
+        try {
+            while (isActing()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            parkedThreads.remove(thread);
+        }
+    }
+
+    /**
+     * Waits on the condition of the agent's lock until the agent stops acting or the timeout elapses.
+     */
+    private void awaitSignal(long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        monitor.lock();
+        try {
+            while (action && remaining > 0) {
+                remaining = stateChanged.awaitNanos(remaining);
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Polls the agent in virtual time until it stops acting or the timeout elapses.
+     */
+    private void pollVirtually(long timeoutMillis) throws InterruptedException {
+        long deadline = clock.millis() + timeoutMillis;
+        while (isActing() && clock.millis() < deadline) {
+            clock.sleep(Math.min(DeterministicClock.SPIN_QUANTUM_MILLIS, deadline - clock.millis()));
+        }
     }
 }
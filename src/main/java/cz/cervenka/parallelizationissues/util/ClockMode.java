@@ -0,0 +1,17 @@
+package cz.cervenka.parallelizationissues.util;
+
+/**
+ * How the actors of a run are paced.
+ */
+public enum ClockMode {
+
+    /**
+     * Wall-clock time, actors run concurrently; see {@link RealTimeClock}.
+     */
+    REAL_TIME,
+
+    /**
+     * Virtual time with a seeded deterministic scheduler; see {@link DeterministicClock}.
+     */
+    DETERMINISTIC
+}
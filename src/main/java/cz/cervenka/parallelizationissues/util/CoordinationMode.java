@@ -0,0 +1,30 @@
+package cz.cervenka.parallelizationissues.util;
+
+/**
+ * How an actor waits for an {@link Agent} that is acting, see {@link Agent#awaitIdle(int, long)}.
+ * Busy-waiting keeps the waiting actor on its core, the other modes let it go off the CPU.
+ */
+public enum CoordinationMode {
+
+    /**
+     * Polls the agent in a loop with a spin-wait hint; the actor keeps burning its core while it waits.
+     */
+    SPIN,
+
+    /**
+     * Sleeps a random time of up to an exponentially growing bound between two polls,
+     * so two actors backing off from each other soon fall out of step.
+     */
+    BACKOFF,
+
+    /**
+     * Parks the waiting thread with {@link java.util.concurrent.locks.LockSupport#parkNanos(Object, long)};
+     * the acting thread unparks it as soon as the agent changes its state.
+     */
+    PARK,
+
+    /**
+     * Waits on a {@link java.util.concurrent.locks.Condition} of the agent's lock, signalled whenever the agent changes its state.
+     */
+    CONDITION
+}
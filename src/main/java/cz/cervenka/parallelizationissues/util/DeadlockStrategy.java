@@ -0,0 +1,32 @@
+package cz.cervenka.parallelizationissues.util;
+
+/**
+ * How actors that each need several resources lock them, and whether that can end in a deadlock.
+ */
+public enum DeadlockStrategy {
+
+    /**
+     * Every actor locks its resources in the order it needs them and waits for each as long as it takes;
+     * two actors needing the same resources in opposite orders deadlock. This is the problem, not a solution.
+     */
+    NONE,
+
+    /**
+     * Every actor locks its resources in ascending order of their IDs. A global order on the resources rules out
+     * a cycle of actors waiting for each other, at no cost beyond the sort.
+     */
+    RESOURCE_HIERARCHY,
+
+    /**
+     * Every actor locks its resources in the order it needs them, but gives up a resource it cannot get within
+     * a timeout: it releases everything it holds, backs off for a random, exponentially growing time and retries,
+     * and after too many retries it aborts the round. Deadlocks dissolve, at the cost of the wasted work.
+     */
+    TRY_LOCK_BACKOFF,
+
+    /**
+     * A single lock guards all resources, so only one actor works at a time. It cannot deadlock,
+     * and it is the baseline the throughput of the finer strategies is measured against.
+     */
+    COARSE_LOCK
+}
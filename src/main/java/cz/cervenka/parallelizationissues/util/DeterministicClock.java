@@ -0,0 +1,375 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * A virtual clock driving the actors of a run with a deterministic, seeded scheduler.
+ * Exactly one actor runs at a time. The running actor keeps the baton until it reaches a scheduling point:
+ * it sleeps, busy-waits, waits for a lock or ends. The scheduler then picks the next actor among the runnable
+ * ones with a random generator seeded per run; when none is runnable, virtual time jumps to the earliest wake-up.
+ * Sleeping therefore costs no wall-clock time, a run spanning minutes of virtual time completes in milliseconds,
+ * and the same seed always yields the same interleaving and the same event order.
+ * <p>
+ * A busy-waiting actor advances virtual time by {@value #SPIN_QUANTUM_MILLIS} ms per spin, so that the actor
+ * it waits for eventually wakes up. When every actor waits for a lock, nothing can ever change: the clock halts
+ * the run as deadlocked. It also halts runs that reach the virtual time limit, since some scenarios never end.
+ * Once halted or cancelled, the clock stops scheduling and the actors run freely until they notice the interrupt.
+ */
+public class DeterministicClock implements SimulationClock {
+
+    public static final long SPIN_QUANTUM_MILLIS = 1;
+    public static final long DEFAULT_TIME_LIMIT_MILLIS = 600_000;
+
+    private enum State { RUNNABLE, RUNNING, SLEEPING, BLOCKED, DONE }
+
+    private static final class Participant {
+        private final int index;
+        private final Condition turn;
+        private State state = State.RUNNABLE;
+        private long wakeAt;
+
+        private Participant(int index, Condition turn) {
+            this.index = index;
+            this.turn = turn;
+        }
+    }
+
+    private final long seed;
+    private final long timeLimitMillis;
+    private final Random random;
+    private final Random actorRandom;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ThreadLocal<Participant> self = new ThreadLocal<>();
+    private final List<Participant> runnable = new ArrayList<>();
+    private final List<Participant> blocked = new ArrayList<>();
+    private final PriorityQueue<Participant> sleeping = new PriorityQueue<>(
+            Comparator.comparingLong((Participant participant) -> participant.wakeAt)
+                    .thenComparingInt(participant -> participant.index));
+    private Participant[] participants = new Participant[0];
+    private int registered;
+    private Participant current;
+    private Halt halt;
+    private Boolean haltedDeadlocked;
+    private boolean haltNotified;
+    private long switches;
+    private volatile long nowMillis;
+    private volatile boolean scheduling;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a clock with the default virtual time limit.
+     *
+     * @param seed The seed of the scheduler.
+     */
+    public DeterministicClock(long seed) {
+        this(seed, DEFAULT_TIME_LIMIT_MILLIS);
+    }
+
+    /**
+     * Creates a clock.
+     *
+     * @param seed            The seed of the scheduler.
+     * @param timeLimitMillis The virtual time after which the run is halted.
+     */
+    public DeterministicClock(long seed, long timeLimitMillis) {
+        this.seed = seed;
+        this.timeLimitMillis = timeLimitMillis;
+        this.random = new Random(seed);
+        this.actorRandom = new Random(~seed);
+    }
+
+    /**
+     * Returns the seed of the scheduler.
+     *
+     * @return The seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of times the baton has been handed to an actor.
+     *
+     * @return The number of scheduling decisions.
+     */
+    public long getSwitches() {
+        lock.lock();
+        try {
+            return switches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return nowMillis * 1_000_000;
+    }
+
+    @Override
+    public long millis() {
+        return nowMillis;
+    }
+
+    /**
+     * Returns a generator shared by all actors of the run; only the actor holding the baton draws from it,
+     * so the sequence of draws is as deterministic as the schedule.
+     */
+    @Override
+    public RandomGenerator random() {
+        return actorRandom;
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+
+    @Override
+    public boolean isScheduling() {
+        return scheduling;
+    }
+
+    @Override
+    public void start(int actors, Halt halt) {
+        lock.lock();
+        try {
+            this.participants = new Participant[actors];
+            this.halt = halt;
+            this.scheduling = !cancelled && actors > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers the actor and waits until all actors of the run have registered and the actor gets the baton.
+     * Afterwards the actor runs, and when it ends, the baton is passed on.
+     */
+    @Override
+    public void runActor(int index, Runnable actor) {
+        Participant me = null;
+        lock.lock();
+        try {
+            if (scheduling && index < participants.length && participants[index] == null) {
+                me = new Participant(index, lock.newCondition());
+                participants[index] = me;
+                if (++registered == participants.length) {
+                    for (Participant participant : participants) {
+                        runnable.add(participant);
+                    }
+                    grantNext();
+                }
+                awaitTurn(me);
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyHalt();
+        if (me == null) {
+            actor.run();
+            return;
+        }
+        self.set(me);
+        try {
+            actor.run();
+        } finally {
+            self.remove();
+            lock.lock();
+            try {
+                me.state = State.DONE;
+                if (current == me) {
+                    grantNext();
+                }
+            } finally {
+                lock.unlock();
+            }
+            notifyHalt();
+        }
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Participant me = self.get();
+        if (me == null || !scheduling) {
+            Thread.sleep(millis);
+            return;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        lock.lock();
+        try {
+            me.state = State.SLEEPING;
+            me.wakeAt = nowMillis + Math.max(0, millis);
+            sleeping.add(me);
+            grantNext();
+            awaitTurn(me);
+        } finally {
+            lock.unlock();
+        }
+        notifyHalt();
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public void onSpinWait() {
+        if (self.get() == null || !scheduling) {
+            Thread.onSpinWait();
+            return;
+        }
+        try {
+            sleep(SPIN_QUANTUM_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void awaitRelease() throws InterruptedException {
+        Participant me = self.get();
+        if (me == null || !scheduling) {
+            return;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        lock.lock();
+        try {
+            me.state = State.BLOCKED;
+            blocked.add(me);
+            grantNext();
+            awaitTurn(me);
+        } finally {
+            lock.unlock();
+        }
+        notifyHalt();
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public void released() {
+        if (!scheduling) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (Participant participant : blocked) {
+                participant.state = State.RUNNABLE;
+                runnable.add(participant);
+            }
+            blocked.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        lock.lock();
+        try {
+            cancelled = true;
+            stopScheduling();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the baton to the next actor. Must be called while holding the lock, by the actor holding the baton
+     * after it has left the running state.
+     */
+    private void grantNext() {
+        Participant next = choose();
+        current = next;
+        if (next != null) {
+            switches++;
+            next.state = State.RUNNING;
+            next.turn.signal();
+        }
+    }
+
+    private Participant choose() {
+        if (runnable.isEmpty()) {
+            Participant earliest = sleeping.peek();
+            if (earliest == null) {
+                if (!blocked.isEmpty()) {
+                    halt(true);
+                }
+                return null;
+            }
+            if (earliest.wakeAt > timeLimitMillis) {
+                nowMillis = timeLimitMillis;
+                halt(false);
+                return null;
+            }
+            nowMillis = earliest.wakeAt;
+            while (!sleeping.isEmpty() && sleeping.peek().wakeAt <= nowMillis) {
+                Participant participant = sleeping.poll();
+                participant.state = State.RUNNABLE;
+                runnable.add(participant);
+            }
+        }
+        int last = runnable.size() - 1;
+        int chosen = random.nextInt(runnable.size());
+        Participant next = runnable.get(chosen);
+        runnable.set(chosen, runnable.get(last));
+        runnable.remove(last);
+        return next;
+    }
+
+    private void halt(boolean deadlocked) {
+        if (haltedDeadlocked == null) {
+            haltedDeadlocked = deadlocked;
+        }
+        stopScheduling();
+    }
+
+    private void stopScheduling() {
+        scheduling = false;
+        for (Participant participant : participants) {
+            if (participant != null) {
+                participant.turn.signalAll();
+            }
+        }
+    }
+
+    private void awaitTurn(Participant me) {
+        while (scheduling && current != me) {
+            me.turn.awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Notifies the halt listener outside the lock, once, if the run has been halted.
+     */
+    private void notifyHalt() {
+        Boolean deadlocked;
+        Halt listener;
+        lock.lock();
+        try {
+            if (haltedDeadlocked == null || haltNotified || cancelled) {
+                return;
+            }
+            haltNotified = true;
+            deadlocked = haltedDeadlocked;
+            listener = halt;
+        } finally {
+            lock.unlock();
+        }
+        if (listener != null) {
+            listener.halted(deadlocked);
+        }
+    }
+}
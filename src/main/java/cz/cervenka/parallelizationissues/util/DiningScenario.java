@@ -0,0 +1,394 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.random.RandomGenerator;
+
+/**
+ * A generalization of the dining philosophers: N actors repeatedly lock a few of M shared resources,
+ * pausing between two acquisitions, and complete a critical section once they hold all of them.
+ * Without an order on the resources the actors eventually block each other in a cycle; the
+ * {@link DeadlockStrategy} of the run decides how the actors avoid that: with a resource hierarchy (always lock
+ * the resource with the lower index first) no cycle can form, with timed lock attempts an actor that waits too long
+ * releases its resources and backs off, and with a coarse lock only one actor works at a time.
+ * <p>
+ * Besides the actors, the scenario adds a monitor actor that publishes the number of completed critical sections
+ * and their rate every {@value #REPORT_INTERVAL_MILLIS} ms, together with the retries and aborted rounds of timed lock attempts. When all actors are waiting for a lock and no critical section has
+ * completed since the previous report, the monitor reports the deadlock together with the time it took to form,
+ * measured from the start of the run to the moment the last actor blocked.
+ * <p>
+ * The scenario is meant to scale to thousands of actors (in the virtual-thread execution mode): per-step events
+ * and per-resource contention statistics are only produced for up to {@value #VERBOSE_MAX_ACTORS} actors,
+ * larger runs report aggregated progress and share one set of contention statistics for all resources.
+ */
+public class DiningScenario {
+
+    public static final int MAX_ACTORS = 10_000;
+    public static final int MAX_RESOURCES = 10_000;
+    public static final int MAX_LOCKS_PER_ACTOR = 8;
+    public static final int VERBOSE_MAX_ACTORS = 8;
+    public static final long REPORT_INTERVAL_MILLIS = 1000;
+    public static final int MAX_RETRIES = 5;
+
+    private final int actors;
+    private final int resources;
+    private final AcquisitionPattern pattern;
+    private final int locksPerActor;
+    private final long holdMillis;
+
+    /**
+     * Creates a scenario.
+     *
+     * @param actors        The number of actors.
+     * @param resources     The number of shared resources.
+     * @param pattern       Which resources an actor locks in each round.
+     * @param locksPerActor The number of resources an actor locks in each round; the ring pattern always locks two.
+     * @param holdMillis    The pause between two acquisitions of an actor, while it holds the resources locked so far.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     */
+    public DiningScenario(int actors, int resources, AcquisitionPattern pattern, int locksPerActor, long holdMillis) {
+        if (actors < 2 || actors > MAX_ACTORS) {
+            throw new IllegalArgumentException("The number of actors must be between 2 and " + MAX_ACTORS + ".");
+        }
+        if (resources < 2 || resources > MAX_RESOURCES) {
+            throw new IllegalArgumentException("The number of resources must be between 2 and " + MAX_RESOURCES + ".");
+        }
+        int locks = pattern == AcquisitionPattern.RING ? 2 : locksPerActor;
+        if (locks < 2 || locks > Math.min(resources, MAX_LOCKS_PER_ACTOR)) {
+            throw new IllegalArgumentException("The number of locks per actor must be between 2 and "
+                    + Math.min(resources, MAX_LOCKS_PER_ACTOR) + ".");
+        }
+        if (holdMillis < 0) {
+            throw new IllegalArgumentException("The hold time must not be negative.");
+        }
+        this.actors = actors;
+        this.resources = resources;
+        this.pattern = pattern;
+        this.locksPerActor = locks;
+        this.holdMillis = holdMillis;
+    }
+
+    /**
+     * Returns the number of actors.
+     *
+     * @return The number of actors.
+     */
+    public int getActors() {
+        return actors;
+    }
+
+    /**
+     * Returns the number of shared resources.
+     *
+     * @return The number of resources.
+     */
+    public int getResources() {
+        return resources;
+    }
+
+    /**
+     * Returns which resources an actor locks in each round.
+     *
+     * @return The acquisition pattern.
+     */
+    public AcquisitionPattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns the number of resources an actor locks in each round.
+     *
+     * @return The number of locks per round.
+     */
+    public int getLocksPerActor() {
+        return locksPerActor;
+    }
+
+    /**
+     * Returns the pause between two acquisitions of an actor.
+     *
+     * @return The hold time in milliseconds.
+     */
+    public long getHoldMillis() {
+        return holdMillis;
+    }
+
+    /**
+     * Returns the number of threads a run of the scenario occupies: one per actor and one for the progress monitor.
+     *
+     * @return The number of threads.
+     */
+    public int getThreads() {
+        return actors + 1;
+    }
+
+    /**
+     * Returns whether the actors of the scenario report their individual steps.
+     *
+     * @return True for small scenarios.
+     */
+    public boolean isVerbose() {
+        return actors <= VERBOSE_MAX_ACTORS;
+    }
+
+    /**
+     * Describes the scenario for the start event of a run.
+     *
+     * @return A short description of the parameters.
+     */
+    public String describe() {
+        return actors + " actors, " + resources + " resources, " + pattern.name().toLowerCase()
+                + (pattern == AcquisitionPattern.RANDOM ? " subsets of " + locksPerActor : "") + ", "
+                + holdMillis + " ms hold";
+    }
+
+    /**
+     * Returns how long an actor attempting timed locks waits for a resource before it backs off:
+     * as long as an actor needs for a whole round, so that actors making progress are not given up on.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public long getTryLockTimeoutMillis() {
+        return Math.max(1, holdMillis * locksPerActor);
+    }
+
+    /**
+     * Adds the actors and the progress monitor of the scenario to a task. The caller starts the task.
+     *
+     * @param task           The task of the run.
+     * @param globalOrdering Whether the actors lock their resources in ascending order.
+     */
+    public void install(SimulationTask task, boolean globalOrdering) {
+        install(task, globalOrdering ? DeadlockStrategy.RESOURCE_HIERARCHY : DeadlockStrategy.NONE);
+    }
+
+    /**
+     * Adds the actors and the progress monitor of the scenario to a task. The caller starts the task.
+     *
+     * @param task     The task of the run.
+     * @param strategy How the actors lock their resources.
+     */
+    public void install(SimulationTask task, DeadlockStrategy strategy) {
+        boolean verbose = isVerbose();
+        Lock coarse = strategy == DeadlockStrategy.COARSE_LOCK ? task.newLock("Coarse lock") : null;
+        Lock[] locks = new Lock[resources];
+        for (int i = 0; i < resources; i++) {
+            // The coarse lock is reentrant, so an actor takes it once per resource like the fine-grained locks.
+            locks[i] = coarse != null ? coarse : task.newLock(verbose ? resourceName(i) : "Resources");
+        }
+        Progress progress = new Progress(actors, task.getClock());
+        for (int i = 0; i < actors; i++) {
+            int actor = i;
+            task.addActor(() -> runActor(task, actor, locks, strategy, verbose, progress));
+        }
+        task.addMonitor(() -> monitor(task, progress, strategy));
+    }
+
+    private void runActor(SimulationTask task, int actor, Lock[] locks, DeadlockStrategy strategy, boolean verbose,
+                          Progress progress) {
+        String name = "Thread " + (actor + 1);
+        int[] order = new int[locksPerActor];
+        int attempts = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (attempts == 0) {
+                choose(actor, order, task.getClock().random());
+                if (strategy == DeadlockStrategy.RESOURCE_HIERARCHY) {
+                    Arrays.sort(order);
+                }
+            }
+            int held = 0;
+            boolean backingOff = false;
+            try {
+                while (held < order.length) {
+                    Lock lock = locks[order[held]];
+                    if (!lock.tryLock()) {
+                        if (verbose) {
+                            task.emit(EventAction.WAITING, name, resourceName(order[held]));
+                        }
+                        progress.startWaiting(actor);
+                        try {
+                            if (strategy == DeadlockStrategy.TRY_LOCK_BACKOFF) {
+                                backingOff = !lock.tryLock(getTryLockTimeoutMillis(), TimeUnit.MILLISECONDS);
+                            } else {
+                                lock.lockInterruptibly();
+                            }
+                        } finally {
+                            progress.stopWaiting(actor);
+                        }
+                        if (backingOff) {
+                            break;
+                        }
+                    }
+                    held++;
+                    if (verbose) {
+                        task.emit(EventAction.LOCKED, name, resourceName(order[held - 1]));
+                    }
+                    if (held < order.length && holdMillis > 0) {
+                        task.sleep(holdMillis);
+                    }
+                }
+                if (!backingOff) {
+                    task.completed();
+                    attempts = 0;
+                }
+            } catch (InterruptedException e) {
+                if (verbose) {
+                    task.emit(EventAction.INTERRUPTED, name, null);
+                }
+                Thread.currentThread().interrupt();
+            } finally {
+                for (int i = held - 1; i >= 0; i--) {
+                    locks[order[i]].unlock();
+                }
+            }
+            if (backingOff) {
+                attempts = backOff(task, name, resourceName(order[held]), attempts + 1, verbose, progress);
+            } else if (holdMillis == 0) {
+                // Without any pause, a round is only a scheduling point when the actor spins.
+                task.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Backs off after a timed lock attempt failed: sleeps a random time of up to the hold time times 2^attempts,
+     * or aborts the round once the actor has retried it {@value #MAX_RETRIES} times.
+     *
+     * @return The number of failed attempts of the round, 0 if it has been aborted.
+     */
+    private int backOff(SimulationTask task, String name, String resource, int attempts, boolean verbose, Progress progress) {
+        progress.retries.increment();
+        if (verbose) {
+            task.emit(EventAction.BACKING_OFF, name, resource);
+        }
+        int failed = attempts;
+        if (failed > MAX_RETRIES) {
+            progress.aborts.increment();
+            if (verbose) {
+                task.emit(EventAction.ABORTED, name, null, String.valueOf(failed));
+            }
+            failed = 0;
+        }
+        long bound = Math.max(1, holdMillis) << Math.min(attempts, 6);
+        try {
+            task.sleep(task.getClock().random().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return failed;
+    }
+
+    /**
+     * Fills the resources the actor locks in this round, in the order the actor would take them.
+     */
+    private void choose(int actor, int[] order, RandomGenerator random) {
+        if (pattern == AcquisitionPattern.RING) {
+            order[0] = actor % resources;
+            order[1] = (actor + 1) % resources;
+            return;
+        }
+        for (int i = 0; i < order.length; i++) {
+            int candidate;
+            boolean taken;
+            do {
+                candidate = random.nextInt(resources);
+                taken = false;
+                for (int j = 0; j < i; j++) {
+                    taken |= order[j] == candidate;
+                }
+            } while (taken);
+            order[i] = candidate;
+        }
+    }
+
+    private void monitor(SimulationTask task, Progress progress, DeadlockStrategy strategy) {
+        SimulationClock clock = task.getClock();
+        long start = clock.nanoTime();
+        long previousTime = start;
+        long previousCompleted = 0;
+        boolean deadlocked = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                task.sleep(REPORT_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long now = clock.nanoTime();
+            long completed = task.getCompletions();
+            int waiting = progress.waiting.get();
+            boolean stalled = completed == previousCompleted;
+            if (!stalled) {
+                deadlocked = false;
+            }
+            if (!deadlocked) {
+                long rate = (completed - previousCompleted) * TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - previousTime);
+                task.emit(EventAction.THROUGHPUT, null, null, completed + " critical sections completed, "
+                        + rate + "/s, " + waiting + " of " + actors + " actors waiting"
+                        + (strategy == DeadlockStrategy.TRY_LOCK_BACKOFF
+                        ? ", " + progress.retries.sum() + " retries, " + progress.aborts.sum() + " aborted rounds" : ""));
+            }
+            // Timed lock attempts give up, so actors all waiting at once are not deadlocked.
+            if (!deadlocked && stalled && waiting == actors && strategy != DeadlockStrategy.TRY_LOCK_BACKOFF) {
+                deadlocked = true;
+                long formedAfter = TimeUnit.NANOSECONDS.toMillis(progress.lastBlockedAt() - start);
+                task.emit(EventAction.DEADLOCKED, null, null, "the last actor blocked after " + formedAfter + " ms and "
+                        + completed + " completed critical sections");
+                if (clock.isVirtual()) {
+                    // Nobody can recover a deadlock in virtual time; ending lets the clock halt the run.
+                    return;
+                }
+            }
+            previousTime = now;
+            previousCompleted = completed;
+        }
+    }
+
+    private static String resourceName(int resource) {
+        return "Resource " + (resource + 1);
+    }
+
+    /**
+     * Progress of the actors, shared with the monitor.
+     */
+    private static final class Progress {
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder aborts = new LongAdder();
+        private final AtomicLongArray waitingSince;
+        private final SimulationClock clock;
+
+        private Progress(int actors, SimulationClock clock) {
+            this.waitingSince = new AtomicLongArray(actors);
+            this.clock = clock;
+        }
+
+        private void startWaiting(int actor) {
+            waitingSince.set(actor, Math.max(1, clock.nanoTime()));
+            waiting.incrementAndGet();
+        }
+
+        private void stopWaiting(int actor) {
+            waiting.decrementAndGet();
+            waitingSince.set(actor, 0);
+        }
+
+        /**
+         * Returns the time the most recently blocked actor started waiting.
+         */
+        private long lastBlockedAt() {
+            long last = Long.MIN_VALUE;
+            for (int i = 0; i < waitingSince.length(); i++) {
+                long since = waitingSince.get(i);
+                if (since != 0) {
+                    last = Math.max(last, since);
+                }
+            }
+            return last == Long.MIN_VALUE ? clock.nanoTime() : last;
+        }
+    }
+}
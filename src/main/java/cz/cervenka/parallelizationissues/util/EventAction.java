@@ -0,0 +1,84 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The kinds of steps a simulation reports. Every action has a small numeric code used on the wire
+ * and a text template the client uses to render the event; the placeholders {@code {actor}},
+ * {@code {resource}} and {@code {detail}} are replaced by the values of the event.
+ */
+public enum EventAction {
+    STARTED(0, "{detail} simulation started..."),
+    LOCKED(1, "{actor}: Locked {resource}."),
+    WAITING(2, "{actor}: Waiting to lock {resource}..."),
+    INTERRUPTED(3, "{actor} interrupted."),
+    ADJUSTING(4, "{actor}: Adjusting..."),
+    BREAKING_LIVELOCK(5, "{actor}: Breaking livelock."),
+    RESERVED(6, "{actor}: Reserved {resource}."),
+    WAITING_TO_BOOK(7, "{actor}: Waiting for a chance to book..."),
+    STOPPED(8, "Simulation stopped."),
+    DEADLOCK_DETECTED(9, "Deadlock detected: {actor} waits for {resource} held by {detail}."),
+    DEADLOCK_RECOVERED(10, "Deadlock recovery: {detail}."),
+    CONTENTION(11, "Contention on {resource}: {detail}."),
+    THROUGHPUT(12, "Progress: {detail}."),
+    DEADLOCKED(13, "All actors are blocked, the run is deadlocked: {detail}."),
+    TIME_LIMIT(14, "The virtual time limit was reached after {detail}, the run was halted."),
+    REJECTED(15, "Too many simulations are running right now, the run could not be started."),
+    CPU_USAGE(16, "CPU usage: {detail}."),
+    RESERVATION_SHARE(17, "{actor}: {detail}."),
+    FAIRNESS(18, "Fairness: {detail}."),
+    BACKING_OFF(19, "{actor}: Could not lock {resource} in time, releasing its resources and backing off..."),
+    ABORTED(20, "{actor}: Gave up its round after {detail} attempts.");
+
+    private static final EventAction[] BY_CODE = values();
+
+    private final int code;
+    private final String template;
+
+    EventAction(int code, String template) {
+        this.code = code;
+        this.template = template;
+    }
+
+    /**
+     * Returns the wire code of the action.
+     *
+     * @return The numeric code.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the text template of the action.
+     *
+     * @return The template with {@code {actor}}, {@code {resource}} and {@code {detail}} placeholders.
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Looks up an action by its wire code.
+     *
+     * @param code The numeric code.
+     * @return The action with the given code.
+     * @throws IllegalArgumentException if no action has the given code.
+     */
+    public static EventAction fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("Unknown event action code: " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * Returns the templates of all actions indexed by their code, as handed over to the client pages.
+     *
+     * @return The templates ordered by code.
+     */
+    public static List<String> templates() {
+        return Arrays.stream(BY_CODE).map(EventAction::getTemplate).toList();
+    }
+}
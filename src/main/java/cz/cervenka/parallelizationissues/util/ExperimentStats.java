@@ -0,0 +1,251 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregated outcome of a batch of independent runs of one scenario: how many runs deadlocked and when,
+ * how long the runs took to make their first progress, how evenly the lock acquisitions were spread over
+ * the actors (including Jain's fairness index of every run), the throughput of finished units of work and the lock wait and hold time percentiles.
+ * <p>
+ * The statistics are not thread-safe. Every worker records its runs into its own instance and the partial
+ * statistics are combined with {@link #merge(ExperimentStats)}, so no state is shared while the runs execute.
+ * All times are taken from the clocks of the runs, i.e. they are virtual times for deterministic runs.
+ */
+public class ExperimentStats {
+
+    private long runs;
+    private long failedRuns;
+    private long deadlockedRuns;
+    private long timeLimitedRuns;
+    private long runsWithoutProgress;
+    private final LatencyHistogram timeToFirstProgress = new LatencyHistogram();
+    private final LatencyHistogram timeToDeadlock = new LatencyHistogram();
+    private long actors;
+    private long actorsWithoutAcquisition;
+    private long acquisitions;
+    private long minAcquisitionsPerActor = Long.MAX_VALUE;
+    private long maxAcquisitionsPerActor;
+    private double jainIndexSum;
+    private long runsWithActors;
+    private long completions;
+    private long runMillis;
+    private double minThroughput = Double.MAX_VALUE;
+    private double maxThroughput;
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram holdTimes = new LatencyHistogram();
+
+    /**
+     * Records a finished run.
+     *
+     * @param task         The task of the run; it must have finished.
+     * @param deadlockedAt The time the run was reported as deadlocked in milliseconds, or -1 if it did not deadlock.
+     * @param timeLimited  Whether the run was halted because it reached its time limit.
+     */
+    public void recordRun(SimulationTask task, long deadlockedAt, boolean timeLimited) {
+        runs++;
+        if (deadlockedAt >= 0) {
+            deadlockedRuns++;
+            timeToDeadlock.record(TimeUnit.MILLISECONDS.toNanos(deadlockedAt));
+        }
+        if (timeLimited) {
+            timeLimitedRuns++;
+        }
+        long firstCompletionAt = task.getFirstCompletionAt();
+        if (firstCompletionAt >= 0) {
+            timeToFirstProgress.record(TimeUnit.MILLISECONDS.toNanos(firstCompletionAt));
+        } else {
+            runsWithoutProgress++;
+        }
+        long[] perActor = task.getActorAcquisitions();
+        if (perActor.length > 0) {
+            jainIndexSum += jainIndex(perActor);
+            runsWithActors++;
+        }
+        for (long actorAcquisitions : perActor) {
+            actors++;
+            acquisitions += actorAcquisitions;
+            minAcquisitionsPerActor = Math.min(minAcquisitionsPerActor, actorAcquisitions);
+            maxAcquisitionsPerActor = Math.max(maxAcquisitionsPerActor, actorAcquisitions);
+            if (actorAcquisitions == 0) {
+                actorsWithoutAcquisition++;
+            }
+        }
+        long millis = Math.max(1, task.getClock().millis());
+        double throughput = task.getCompletions() * 1000.0 / millis;
+        completions += task.getCompletions();
+        runMillis += millis;
+        minThroughput = Math.min(minThroughput, throughput);
+        maxThroughput = Math.max(maxThroughput, throughput);
+        for (LockStats stats : task.getLockStats().values()) {
+            waitTimes.add(stats.getWaitTimes());
+            holdTimes.add(stats.getHoldTimes());
+        }
+    }
+
+    /**
+     * Records a run that could not be executed or did not end in time.
+     */
+    public void recordFailure() {
+        failedRuns++;
+    }
+
+    /**
+     * Adds the statistics of another batch of runs to this one.
+     *
+     * @param other The partial statistics.
+     * @return This instance.
+     */
+    public ExperimentStats merge(ExperimentStats other) {
+        runs += other.runs;
+        failedRuns += other.failedRuns;
+        deadlockedRuns += other.deadlockedRuns;
+        timeLimitedRuns += other.timeLimitedRuns;
+        runsWithoutProgress += other.runsWithoutProgress;
+        timeToFirstProgress.add(other.timeToFirstProgress);
+        timeToDeadlock.add(other.timeToDeadlock);
+        actors += other.actors;
+        actorsWithoutAcquisition += other.actorsWithoutAcquisition;
+        acquisitions += other.acquisitions;
+        minAcquisitionsPerActor = Math.min(minAcquisitionsPerActor, other.minAcquisitionsPerActor);
+        maxAcquisitionsPerActor = Math.max(maxAcquisitionsPerActor, other.maxAcquisitionsPerActor);
+        jainIndexSum += other.jainIndexSum;
+        runsWithActors += other.runsWithActors;
+        completions += other.completions;
+        runMillis += other.runMillis;
+        minThroughput = Math.min(minThroughput, other.minThroughput);
+        maxThroughput = Math.max(maxThroughput, other.maxThroughput);
+        waitTimes.add(other.waitTimes);
+        holdTimes.add(other.holdTimes);
+        return this;
+    }
+
+    /**
+     * Returns the number of runs that finished.
+     *
+     * @return The number of recorded runs, without the failed ones.
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * Returns the number of runs that could not be executed or did not end in time.
+     *
+     * @return The number of failed runs.
+     */
+    public long getFailedRuns() {
+        return failedRuns;
+    }
+
+    /**
+     * Returns the number of runs that deadlocked.
+     *
+     * @return The number of deadlocked runs.
+     */
+    public long getDeadlockedRuns() {
+        return deadlockedRuns;
+    }
+
+    /**
+     * Returns the share of the finished runs that deadlocked.
+     *
+     * @return The probability between 0 and 1, or 0 if no run finished.
+     */
+    public double getDeadlockProbability() {
+        return runs == 0 ? 0 : (double) deadlockedRuns / runs;
+    }
+
+    /**
+     * Returns the number of runs that never finished a unit of work.
+     *
+     * @return The number of runs without progress.
+     */
+    public long getRunsWithoutProgress() {
+        return runsWithoutProgress;
+    }
+
+    /**
+     * Returns the number of finished units of work of all runs.
+     *
+     * @return The number of completions.
+     */
+    public long getCompletions() {
+        return completions;
+    }
+
+    /**
+     * Summarizes the statistics.
+     *
+     * @return The summary, in a stable order.
+     */
+    public Map<String, Object> toSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("runs", runs);
+        summary.put("failedRuns", failedRuns);
+        summary.put("deadlockedRuns", deadlockedRuns);
+        summary.put("deadlockProbability", round(getDeadlockProbability(), 4));
+        summary.put("timeLimitedRuns", timeLimitedRuns);
+        summary.put("timeToDeadlock", millisSummary(timeToDeadlock));
+        summary.put("runsWithoutProgress", runsWithoutProgress);
+        summary.put("timeToFirstProgress", millisSummary(timeToFirstProgress));
+
+        Map<String, Object> perActor = new LinkedHashMap<>();
+        perActor.put("actors", actors);
+        perActor.put("mean", round(actors == 0 ? 0 : (double) acquisitions / actors, 2));
+        perActor.put("min", actors == 0 ? 0 : minAcquisitionsPerActor);
+        perActor.put("max", maxAcquisitionsPerActor);
+        perActor.put("actorsWithoutAcquisition", actorsWithoutAcquisition);
+        perActor.put("meanJainIndex", round(runsWithActors == 0 ? 1 : jainIndexSum / runsWithActors, 4));
+        summary.put("acquisitionsPerActor", perActor);
+
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        throughput.put("completions", completions);
+        throughput.put("meanPerSecond", round(runMillis == 0 ? 0 : completions * 1000.0 / runMillis, 2));
+        throughput.put("minPerSecond", round(runs == 0 ? 0 : minThroughput, 2));
+        throughput.put("maxPerSecond", round(maxThroughput, 2));
+        summary.put("throughput", throughput);
+
+        summary.put("lockWait", millisSummary(waitTimes));
+        summary.put("lockHold", millisSummary(holdTimes));
+        return summary;
+    }
+
+    /**
+     * Computes Jain's fairness index {@code (sum x)^2 / (n * sum x^2)} of the shares of n actors. It is 1 when all
+     * actors got the same share and 1/n when a single actor got everything; k of n actors sharing evenly
+     * while the others starve yield k/n.
+     *
+     * @param shares The share of every actor, e.g. its lock acquisitions.
+     * @return The index between 1/n and 1, or 1 if no actor got anything.
+     */
+    public static double jainIndex(long[] shares) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (long share : shares) {
+            sum += share;
+            sumOfSquares += (double) share * share;
+        }
+        return sumOfSquares == 0 ? 1 : sum * sum / (shares.length * sumOfSquares);
+    }
+
+    /**
+     * Summarizes a histogram in milliseconds, the resolution of the virtual clock.
+     */
+    private static Map<String, Object> millisSummary(LatencyHistogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getCount());
+        summary.put("meanMillis", round(histogram.getMean() / 1e6, 1));
+        summary.put("p50Millis", round(histogram.getPercentile(50) / 1e6, 1));
+        summary.put("p90Millis", round(histogram.getPercentile(90) / 1e6, 1));
+        summary.put("p99Millis", round(histogram.getPercentile(99) / 1e6, 1));
+        summary.put("maxMillis", round(histogram.getMax() / 1e6, 1));
+        return summary;
+    }
+
+    private static double round(double value, int decimals) {
+        double scale = Math.pow(10, decimals);
+        return Math.round(value * scale) / scale;
+    }
+}
@@ -0,0 +1,238 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ReentrantLock} guarding a simulated resource that records its contention into {@link LockStats}:
+ * the time every acquisition waited, whether another actor held the lock at that moment, and how long the
+ * lock was held. Only the outermost acquisition of a reentrant hold is measured.
+ * The time an owner spends in {@link Condition#await()} is counted as hold time.
+ * <p>
+ * Times are taken from the {@link SimulationClock} of the run. While a virtual clock schedules the actors,
+ * a contended acquisition does not block on the lock but hands the baton back to the scheduler until the lock
+ * is released, so the scheduler alone decides who gets the lock next; a fair lock then grants it to its waiters
+ * in the order they started waiting. In real time, a fair lock is granted to its queued threads in order too:
+ * an actor releasing it and acquiring it again queues up behind them.
+ */
+public class InstrumentedLock implements Lock {
+
+    private final ReentrantLock delegate;
+    private final LockStats stats;
+    private final SimulationClock clock;
+    private final boolean fair;
+    private final Runnable onAcquired;
+    private final Deque<Thread> virtualWaiters = new ConcurrentLinkedDeque<>();
+    private long acquiredAt;
+
+    /**
+     * Creates an instrumented lock measured in real time.
+     *
+     * @param stats The statistics of the guarded resource.
+     * @param fair  Whether the lock grants access in the order of the requests.
+     */
+    public InstrumentedLock(LockStats stats, boolean fair) {
+        this(stats, fair, new RealTimeClock());
+    }
+
+    /**
+     * Creates an instrumented lock.
+     *
+     * @param stats The statistics of the guarded resource.
+     * @param fair  Whether the lock grants access in the order of the requests.
+     * @param clock The clock of the run.
+     */
+    public InstrumentedLock(LockStats stats, boolean fair, SimulationClock clock) {
+        this(stats, fair, clock, () -> {
+        });
+    }
+
+    /**
+     * Creates an instrumented lock notifying every outermost acquisition.
+     *
+     * @param stats      The statistics of the guarded resource.
+     * @param fair       Whether the lock grants access in the order of the requests.
+     * @param clock      The clock of the run.
+     * @param onAcquired Called by the new owner right after it acquired the lock.
+     */
+    public InstrumentedLock(LockStats stats, boolean fair, SimulationClock clock, Runnable onAcquired) {
+        this.delegate = new ReentrantLock(fair);
+        this.stats = stats;
+        this.clock = clock;
+        this.fair = fair;
+        this.onAcquired = onAcquired;
+    }
+
+    /**
+     * Returns the statistics of the guarded resource.
+     *
+     * @return The lock statistics.
+     */
+    public LockStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns whether the given thread is queued waiting for this lock, i.e. blocked in a real-time acquisition.
+     * Used to name the resource a deadlocked thread waits for, since the JVM only reports the lock's internal
+     * synchronizer.
+     *
+     * @param thread The thread.
+     * @return True if the thread is waiting for this lock.
+     */
+    public boolean isAwaitedBy(Thread thread) {
+        return delegate.hasQueuedThread(thread);
+    }
+
+    @Override
+    public void lock() {
+        if (tryAcquire()) {
+            acquired(0, false);
+            return;
+        }
+        long start = clock.nanoTime();
+        boolean interrupted = false;
+        while (clock.isScheduling()) {
+            try {
+                if (awaitVirtually()) {
+                    acquired(clock.nanoTime() - start, true);
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        delegate.lock();
+        acquired(clock.nanoTime() - start, true);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (tryAcquire()) {
+            acquired(0, false);
+            return;
+        }
+        long start = clock.nanoTime();
+        if (clock.isScheduling() && awaitVirtually()) {
+            acquired(clock.nanoTime() - start, true);
+            return;
+        }
+        delegate.lockInterruptibly();
+        acquired(clock.nanoTime() - start, true);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (tryAcquire()) {
+            acquired(0, false);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (tryAcquire()) {
+            acquired(0, false);
+            return true;
+        }
+        long start = clock.nanoTime();
+        long deadline = start + unit.toNanos(time);
+        while (clock.isScheduling()) {
+            if (clock.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            clock.sleep(DeterministicClock.SPIN_QUANTUM_MILLIS);
+            if (tryAcquire()) {
+                acquired(clock.nanoTime() - start, true);
+                return true;
+            }
+        }
+        if (delegate.tryLock(Math.max(0, deadline - clock.nanoTime()), TimeUnit.NANOSECONDS)) {
+            acquired(clock.nanoTime() - start, true);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        boolean outermost = delegate.isHeldByCurrentThread() && delegate.getHoldCount() == 1;
+        if (outermost) {
+            stats.recordRelease(clock.nanoTime() - acquiredAt);
+        }
+        delegate.unlock();
+        if (outermost) {
+            clock.released();
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return delegate.newCondition();
+    }
+
+    /**
+     * Tries to take the lock without waiting. A fair lock is not taken while other actors wait for it:
+     * under a virtual clock unless the caller is the longest waiting one, in real time at all, because
+     * {@link ReentrantLock#tryLock()} would barge ahead of the queued threads even on a fair lock.
+     */
+    private boolean tryAcquire() {
+        if (fair && !delegate.isHeldByCurrentThread()) {
+            if (clock.isScheduling()) {
+                Thread first = virtualWaiters.peekFirst();
+                if (first != null && first != Thread.currentThread()) {
+                    return false;
+                }
+            } else if (delegate.hasQueuedThreads()) {
+                return false;
+            }
+        }
+        return delegate.tryLock();
+    }
+
+    /**
+     * Waits for the lock under the virtual clock, retrying every time a lock of the run has been released.
+     *
+     * @return True if the lock has been acquired, false if the clock stopped scheduling meanwhile.
+     * @throws InterruptedException if the actor has been interrupted while waiting.
+     */
+    private boolean awaitVirtually() throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        if (fair && !virtualWaiters.contains(thread)) {
+            virtualWaiters.addLast(thread);
+        }
+        try {
+            while (clock.isScheduling()) {
+                clock.awaitRelease();
+                if (tryAcquire()) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            virtualWaiters.remove(thread);
+        }
+    }
+
+    /**
+     * Records an acquisition. Must be called by the owner right after acquiring the lock.
+     */
+    private void acquired(long waitNanos, boolean contended) {
+        if (delegate.getHoldCount() == 1) {
+            stats.recordAcquisition(waitNanos, contended);
+            acquiredAt = clock.nanoTime();
+            onAcquired.run();
+        }
+    }
+}
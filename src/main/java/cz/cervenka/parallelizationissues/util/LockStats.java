@@ -0,0 +1,122 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention statistics of one simulated resource: how often it was acquired, how often the acquiring
+ * actor had to wait for it, and histograms of the wait and hold times.
+ */
+public class LockStats {
+
+    private final String resource;
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram holdTimes = new LatencyHistogram();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+
+    /**
+     * Creates empty statistics for a resource.
+     *
+     * @param resource The name of the resource.
+     */
+    public LockStats(String resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * Returns the name of the resource.
+     *
+     * @return The resource name.
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * Records an acquisition of the resource.
+     *
+     * @param waitNanos The time the actor waited for the resource.
+     * @param contended Whether the resource was held by another actor at the time of the request.
+     */
+    public void recordAcquisition(long waitNanos, boolean contended) {
+        acquisitions.increment();
+        if (contended) {
+            this.contended.increment();
+        }
+        waitTimes.record(waitNanos);
+    }
+
+    /**
+     * Records the release of the resource.
+     *
+     * @param holdNanos The time the actor held the resource.
+     */
+    public void recordRelease(long holdNanos) {
+        holdTimes.record(holdNanos);
+    }
+
+    /**
+     * Returns the number of acquisitions.
+     *
+     * @return The number of acquisitions.
+     */
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions that had to wait for another actor.
+     *
+     * @return The number of contended acquisitions.
+     */
+    public long getContended() {
+        return contended.sum();
+    }
+
+    /**
+     * Returns the histogram of the times actors waited for the resource.
+     *
+     * @return The wait time histogram.
+     */
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * Returns the histogram of the times actors held the resource.
+     *
+     * @return The hold time histogram.
+     */
+    public LatencyHistogram getHoldTimes() {
+        return holdTimes;
+    }
+
+    /**
+     * Summarizes the statistics with wait and hold time percentiles.
+     *
+     * @return The summary, in a stable order.
+     */
+    public Map<String, Object> toSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("acquisitions", getAcquisitions());
+        summary.put("contended", getContended());
+        summary.put("wait", waitTimes.toSummary());
+        summary.put("hold", holdTimes.toSummary());
+        return summary;
+    }
+
+    /**
+     * Describes the statistics in one line, as published on the run's event stream.
+     *
+     * @return The human-readable summary.
+     */
+    public String describe() {
+        return String.format(Locale.ROOT, "%d acquisitions, %d contended, wait p50/p99 %.1f/%.1f ms, hold p50/p99 %.1f/%.1f ms",
+                getAcquisitions(), getContended(),
+                waitTimes.getPercentile(50) / 1e6, waitTimes.getPercentile(99) / 1e6,
+                holdTimes.getPercentile(50) / 1e6, holdTimes.getPercentile(99) / 1e6);
+    }
+}
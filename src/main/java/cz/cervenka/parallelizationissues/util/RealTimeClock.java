@@ -0,0 +1,35 @@
+package cz.cervenka.parallelizationissues.util;
+
+/**
+ * The wall clock: actors sleep for real and run concurrently, scheduled by the JVM.
+ * This is the clock of the runs watched in the UI.
+ */
+public class RealTimeClock implements SimulationClock {
+
+    private final long startNanos = System.nanoTime();
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long millis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    @Override
+    public void onSpinWait() {
+        Thread.onSpinWait();
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return false;
+    }
+}
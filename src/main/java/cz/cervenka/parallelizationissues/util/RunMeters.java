@@ -0,0 +1,85 @@
+package cz.cervenka.parallelizationissues.util;
+
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The meters of the simulation runs executed by one {@link SimulationExecutor}: the live actor threads, the started
+ * actors, the completed units of work, the published events and the CPU time of the finished actors.
+ * The executor registers them on its own registry, which Spring Boot binds to the application's registry like
+ * the meters of the other components; a {@link SimulationTask} records its run on the meters of its executor.
+ */
+public class RunMeters {
+
+    /**
+     * The meters of tasks run without an executor, registered on no registry.
+     */
+    static final RunMeters NONE = new RunMeters(new CompositeMeterRegistry());
+
+    private final AtomicInteger liveActors = new AtomicInteger();
+    private final Counter startedActors;
+    private final Counter completedWork;
+    private final Counter actorCpuTime;
+    private final Counter[] publishedEvents = new Counter[EventAction.values().length];
+
+    /**
+     * Registers the meters of the runs.
+     *
+     * @param registry The registry the meters are registered on.
+     */
+    public RunMeters(MeterRegistry registry) {
+        Gauge.builder("simulation.actors.live", liveActors, AtomicInteger::get)
+                .description("Threads currently running an actor of a simulation run")
+                .register(registry);
+        startedActors = Counter.builder("simulation.actors.started")
+                .description("Actors started by the simulation runs")
+                .register(registry);
+        completedWork = Counter.builder("simulation.completions")
+                .description("Units of work finished by the actors of the simulation runs")
+                .register(registry);
+        actorCpuTime = Counter.builder("simulation.actors.cpu")
+                .description("CPU time consumed by the finished actors, measurable on platform threads only")
+                .baseUnit("seconds")
+                .register(registry);
+        for (EventAction action : EventAction.values()) {
+            publishedEvents[action.ordinal()] = Counter.builder("simulation.events")
+                    .description("Events published by the simulation runs")
+                    .tag("action", action.name())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Returns the number of threads currently running an actor.
+     *
+     * @return The number of live actors.
+     */
+    public int getLiveActors() {
+        return liveActors.get();
+    }
+
+    void actorStarted() {
+        liveActors.incrementAndGet();
+        startedActors.increment();
+    }
+
+    void actorFinished(long cpuNanos) {
+        if (cpuNanos >= 0) {
+            actorCpuTime.increment(cpuNanos / 1e9);
+        }
+        liveActors.decrementAndGet();
+    }
+
+    void completed() {
+        completedWork.increment();
+    }
+
+    void published(EventAction action) {
+        publishedEvents[action.ordinal()].increment();
+    }
+}
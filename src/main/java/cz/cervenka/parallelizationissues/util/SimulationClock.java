@@ -0,0 +1,124 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * The time source and pacing of the actors of a simulation run.
+ * The scenarios never call {@link Thread#sleep(long)} or read the system time directly, they go through the clock
+ * of their {@link SimulationTask}, so a run can either progress in real time for the UI ({@link RealTimeClock})
+ * or in virtual time under a deterministic scheduler ({@link DeterministicClock}).
+ * <p>
+ * The scheduling hooks ({@link #start(int, Halt)}, {@link #runActor(int, Runnable)}, {@link #awaitRelease()},
+ * {@link #released()}, {@link #cancel()}) are called by the task and its locks; the real-time clock ignores them.
+ */
+public interface SimulationClock {
+
+    /**
+     * Receives the reason a clock halted the run on its own.
+     */
+    @FunctionalInterface
+    interface Halt {
+
+        /**
+         * Called when the clock cannot or must not advance the run any further.
+         *
+         * @param deadlocked True if all actors are waiting for locks, false if the time limit of the run was reached.
+         */
+        void halted(boolean deadlocked);
+    }
+
+    /**
+     * Returns the current time of the run, as a monotonic value in nanoseconds.
+     *
+     * @return The time in nanoseconds; only differences between two values are meaningful.
+     */
+    long nanoTime();
+
+    /**
+     * Returns the time elapsed since the clock was created.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    long millis();
+
+    /**
+     * Pauses the calling actor.
+     *
+     * @param millis The pause in milliseconds.
+     * @throws InterruptedException if the actor is interrupted while pausing.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Signals that the calling actor is busy-waiting for another actor, e.g. polling a state in a loop.
+     */
+    void onSpinWait();
+
+    /**
+     * Returns the source of the random choices of the calling actor, e.g. which resources it locks next.
+     * A deterministic clock returns a generator derived from its seed, so the choices are reproducible too.
+     *
+     * @return The random generator, to be used by the calling actor only.
+     */
+    default RandomGenerator random() {
+        return ThreadLocalRandom.current();
+    }
+
+    /**
+     * Returns whether the clock runs in virtual time under a deterministic scheduler.
+     *
+     * @return True for a virtual clock.
+     */
+    boolean isVirtual();
+
+    /**
+     * Returns whether the clock still schedules the actors. A virtual clock stops scheduling once it is cancelled
+     * or halted, from then on the actors run freely and the locks fall back to blocking.
+     *
+     * @return True while the clock schedules the actors.
+     */
+    default boolean isScheduling() {
+        return false;
+    }
+
+    /**
+     * Announces the number of actors of the run before they are started.
+     *
+     * @param actors The number of actors.
+     * @param halt   Notified when the clock halts the run.
+     */
+    default void start(int actors, Halt halt) {
+    }
+
+    /**
+     * Runs an actor under the control of the clock.
+     *
+     * @param index The index of the actor within its run.
+     * @param actor The actor logic.
+     */
+    default void runActor(int index, Runnable actor) {
+        actor.run();
+    }
+
+    /**
+     * Called by an actor that could not acquire a lock; returns once a lock has been released
+     * and the actor may try again.
+     *
+     * @throws InterruptedException if the actor is interrupted while waiting.
+     */
+    default void awaitRelease() throws InterruptedException {
+    }
+
+    /**
+     * Called when an actor has released a lock.
+     */
+    default void released() {
+    }
+
+    /**
+     * Stops scheduling, e.g. when the run is stopped, and releases all waiting actors.
+     */
+    default void cancel() {
+    }
+}
@@ -0,0 +1,72 @@
+package cz.cervenka.parallelizationissues.util;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * A single step of a simulation run.
+ * Events are emitted by the simulation actors through {@link SimulationTask#emit(EventAction, String, String)}
+ * and sent to the clients in a compact form; the text shown to the user is rendered on the client
+ * from the template of the action.
+ *
+ * @param runId     The ID of the run the event belongs to.
+ * @param sequence  The sequence number of the event within its run, starting at 1.
+ * @param timestamp The monotonic time of the event in milliseconds since the run was created.
+ * @param action    What happened.
+ * @param actor     The actor that caused the event, or null.
+ * @param resource  The resource the action concerns, or null.
+ * @param detail    Additional information, or null.
+ */
+public record SimulationEvent(String runId, long sequence, long timestamp, EventAction action,
+                              String actor, String resource, String detail) {
+
+    /**
+     * Encodes the event as a compact JSON array {@code [sequence, timestamp, actionCode, actor, resource, detail]}.
+     * The run ID is not encoded, because an event is only ever sent to the subscribers of its own run,
+     * and a trailing null detail is omitted.
+     *
+     * @return The JSON encoding of the event.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(48);
+        json.append('[').append(sequence).append(',').append(timestamp).append(',').append(action.getCode());
+        appendString(json, actor);
+        appendString(json, resource);
+        if (detail != null) {
+            appendString(json, detail);
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Renders the event as text using the template of its action, the same way the client does.
+     *
+     * @return The human-readable description of the event.
+     */
+    public String toText() {
+        return action.getTemplate()
+                .replace("{actor}", String.valueOf(actor))
+                .replace("{resource}", String.valueOf(resource))
+                .replace("{detail}", String.valueOf(detail));
+    }
+
+    /**
+     * Returns the sequence number and the rendered text of the event, as used in the event log.
+     *
+     * @return The event description.
+     */
+    @Override
+    public String toString() {
+        return "#" + sequence + " +" + timestamp + "ms " + toText();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append(',');
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        JsonStringEncoder.getInstance().quoteAsString(value, json);
+        json.append('"');
+    }
+}
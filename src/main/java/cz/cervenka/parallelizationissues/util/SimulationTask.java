@@ -1,14 +1,313 @@
 package cz.cervenka.parallelizationissues.util;
 
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * The SimulationTask class manages a collection of threads.
  * It allows adding threads to a list, starting all threads simultaneously, and interrupting all threads.
+ * A task represents one simulation run and carries the run ID used to route its messages
+ * to the WebSocket sessions watching that run. Actors added with {@link #addActor(Runnable)}
+ * run on the shared {@link SimulationExecutor} instead of threads created per run.
+ * The actors report their steps as {@link SimulationEvent}s through {@link #emit(EventAction, String, String)}
+ * and guard the simulated resources with locks created by {@link #newLock(String, boolean)}, which record the contention of the run.
+ * They pause through {@link #sleep(long)} and {@link #onSpinWait()} of the run's {@link SimulationClock}, so the same
+ * scenario can run in real time or in virtual time under a deterministic scheduler.
+ * Every finished unit of work (e.g. a critical section that needed all of its resources) is reported through
+ * {@link #completed()}, and the task counts the lock acquisitions of each actor, so the outcome of a run
+ * can be evaluated without watching its events.
+ * A task owns all threads of its run like a structured scope: {@link #shutdown(long)} interrupts them and waits
+ * a bounded time for them to end, and {@link #getLiveThreads()} tells which of them outlived their run.
+ * The live actor threads, started actors, completions, published events and actor CPU time of the run are recorded
+ * on the {@link RunMeters} of its executor.
  */
 public class SimulationTask {
-    private final List<Thread> threads = new ArrayList<>();
+
+    private static final Logger log = LoggerFactory.getLogger(SimulationTask.class);
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final List<Runnable> actors = new ArrayList<>();
+    private final Set<Thread> actorThreads = ConcurrentHashMap.newKeySet();
+    private final String runId;
+    private final String endpoint;
+    private final SimulationExecutor executor;
+    private final RunMeters meters;
+    private final long createdAt = System.currentTimeMillis();
+    private final SimulationClock clock;
+    private final AtomicLong eventSequence = new AtomicLong();
+    private volatile Consumer<SimulationEvent> eventSink;
+    private final Map<String, LockStats> lockStats = new ConcurrentHashMap<>();
+    private final Queue<InstrumentedLock> locks = new ConcurrentLinkedQueue<>();
+    private final BitSet monitors = new BitSet();
+    private final ThreadLocal<Integer> actorIndex = new ThreadLocal<>();
+    private volatile AtomicLongArray actorAcquisitions;
+    private final LongAdder completions = new LongAdder();
+    private final AtomicLong firstCompletionAt = new AtomicLong(-1);
+    private final Map<Thread, Long> actorCpuAtStart = new ConcurrentHashMap<>();
+    private final LongAdder finishedActorsCpuNanos = new LongAdder();
+    private volatile boolean cpuTimeMeasured;
+    private volatile boolean deadlockReported;
+    private volatile boolean started;
+    private volatile boolean cancelled;
+    private int runningActors;
+    private int finishedActors;
+
+    /**
+     * Creates a task that is not bound to any particular run.
+     */
+    public SimulationTask() {
+        this(null, null, null);
+    }
+
+    /**
+     * Creates a task for a simulation run.
+     *
+     * @param runId    The unique ID of the run.
+     * @param endpoint The WebSocket endpoint the run is watched on.
+     * @param executor The executor running the actors of the task, or null to run them on new threads.
+     */
+    public SimulationTask(String runId, String endpoint, SimulationExecutor executor) {
+        this(runId, endpoint, executor, new RealTimeClock());
+    }
+
+    /**
+     * Creates a task for a simulation run paced by the given clock.
+     *
+     * @param runId    The unique ID of the run.
+     * @param endpoint The WebSocket endpoint the run is watched on.
+     * @param executor The executor running the actors of the task, or null to run them on new threads.
+     * @param clock    The clock pacing the actors of the run.
+     */
+    public SimulationTask(String runId, String endpoint, SimulationExecutor executor, SimulationClock clock) {
+        this.runId = runId;
+        this.endpoint = endpoint;
+        this.executor = executor;
+        this.meters = executor != null ? executor.getRunMeters() : RunMeters.NONE;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the ID of the run this task belongs to.
+     *
+     * @return The run ID, or null if the task is not bound to a run.
+     */
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * Returns the WebSocket endpoint the run is watched on.
+     *
+     * @return The endpoint path, or null if the task is not bound to a run.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the time the task was created.
+     *
+     * @return The creation time in milliseconds since the epoch.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns the clock pacing the actors of the run.
+     *
+     * @return The clock.
+     */
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Pauses the calling actor according to the clock of the run.
+     *
+     * @param millis The pause in milliseconds.
+     * @throws InterruptedException if the actor is interrupted while pausing.
+     */
+    public void sleep(long millis) throws InterruptedException {
+        clock.sleep(millis);
+    }
+
+    /**
+     * Signals that the calling actor is busy-waiting for another actor of the run.
+     */
+    public void onSpinWait() {
+        clock.onSpinWait();
+    }
+
+    /**
+     * Reports that the calling actor finished a unit of work, e.g. a critical section that needed all of its resources.
+     */
+    public void completed() {
+        completions.increment();
+        meters.completed();
+        firstCompletionAt.compareAndSet(-1, clock.millis());
+    }
+
+    /**
+     * Returns the number of units of work finished by the actors of the run.
+     *
+     * @return The number of completions.
+     */
+    public long getCompletions() {
+        return completions.sum();
+    }
+
+    /**
+     * Returns the time the first unit of work of the run was finished.
+     *
+     * @return The time of the run's clock in milliseconds, or -1 if the run has not made any progress yet.
+     */
+    public long getFirstCompletionAt() {
+        return firstCompletionAt.get();
+    }
+
+    /**
+     * Sets the receiver of the events emitted by the actors of this task.
+     *
+     * @param eventSink The event receiver, or null to discard events.
+     */
+    public void setEventSink(Consumer<SimulationEvent> eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    /**
+     * Emits an event of this run.
+     *
+     * @param action   What happened.
+     * @param actor    The actor that caused the event, or null.
+     * @param resource The resource the action concerns, or null.
+     */
+    public void emit(EventAction action, String actor, String resource) {
+        emit(action, actor, resource, null);
+    }
+
+    /**
+     * Emits an event of this run. The event gets the next sequence number of the run and the time of the run's clock.
+     *
+     * @param action   What happened.
+     * @param actor    The actor that caused the event, or null.
+     * @param resource The resource the action concerns, or null.
+     * @param detail   Additional information, or null.
+     */
+    public void emit(EventAction action, String actor, String resource, String detail) {
+        if (action == EventAction.DEADLOCKED) {
+            deadlockReported = true;
+        }
+        Consumer<SimulationEvent> sink = eventSink;
+        if (sink == null) {
+            return;
+        }
+        meters.published(action);
+        sink.accept(new SimulationEvent(runId, eventSequence.incrementAndGet(), clock.millis(), action, actor, resource, detail));
+    }
+
+    /**
+     * Creates a non-fair lock guarding a simulated resource of this run.
+     *
+     * @param resource The name of the resource.
+     * @return The instrumented lock.
+     */
+    public InstrumentedLock newLock(String resource) {
+        return newLock(resource, false);
+    }
+
+    /**
+     * Creates a lock guarding a simulated resource of this run. Locks created for the same resource
+     * share its contention statistics.
+     *
+     * @param resource The name of the resource.
+     * @param fair     Whether the lock grants access in the order of the requests.
+     * @return The instrumented lock.
+     */
+    public InstrumentedLock newLock(String resource, boolean fair) {
+        InstrumentedLock lock = new InstrumentedLock(lockStats.computeIfAbsent(resource, LockStats::new), fair, clock,
+                this::countAcquisition);
+        locks.add(lock);
+        return lock;
+    }
+
+    /**
+     * Returns the resource an actor thread is blocked waiting for.
+     *
+     * @param thread The actor thread.
+     * @return The name of the resource, or null if the thread waits for none of the locks of this run.
+     */
+    public String getAwaitedResource(Thread thread) {
+        for (InstrumentedLock lock : locks) {
+            if (lock.isAwaitedBy(thread)) {
+                return lock.getStats().getResource();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the contention statistics of the resources of this run.
+     *
+     * @return A snapshot mapping resource names to their statistics, sorted by name.
+     */
+    public Map<String, LockStats> getLockStats() {
+        return new TreeMap<>(lockStats);
+    }
+
+    /**
+     * Returns the number of lock acquisitions of every actor, leaving out the monitors.
+     *
+     * @return The acquisitions in the order the actors were added, empty if the task has not been started.
+     */
+    public long[] getActorAcquisitions() {
+        AtomicLongArray counts = actorAcquisitions;
+        if (counts == null) {
+            return new long[0];
+        }
+        long[] result = new long[actors.size() - monitors.cardinality()];
+        int next = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            if (!monitors.get(i)) {
+                result[next++] = counts.get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts an outermost lock acquisition of the calling actor.
+     */
+    private void countAcquisition() {
+        Integer index = actorIndex.get();
+        AtomicLongArray counts = actorAcquisitions;
+        if (index != null && counts != null) {
+            counts.incrementAndGet(index);
+        }
+    }
 
     /**
      * Adds a thread to the list of threads managed by the simulation task.
@@ -19,18 +318,263 @@ public class SimulationTask {
         threads.add(thread);
     }
 
+    /**
+     * Adds an actor to the simulation. All actors of a task are admitted to the executor together.
+     * The actor runs under the control of the run's clock.
+     *
+     * @param actor The actor logic to be executed.
+     */
+    public void addActor(Runnable actor) {
+        int index = actors.size();
+        actors.add(() -> {
+            actorIndex.set(index);
+            try {
+                clock.runActor(index, actor);
+            } finally {
+                actorIndex.remove();
+            }
+        });
+    }
+
+    /**
+     * Adds an actor that observes the run, e.g. reports its progress, instead of competing for its resources.
+     * It runs like any other actor but is left out of the per-actor statistics.
+     *
+     * @param monitor The monitor logic to be executed.
+     */
+    public void addMonitor(Runnable monitor) {
+        monitors.set(actors.size());
+        addActor(monitor);
+    }
+
+    /**
+     * Returns the actors of the simulation.
+     *
+     * @return An unmodifiable view of the actors.
+     */
+    public List<Runnable> getActors() {
+        return Collections.unmodifiableList(actors);
+    }
+
     /**
      * Starts all threads in the list. Each thread is started one by one.
+     * The actors are handed over to the executor, which either starts them, queues the run or rejects it.
+     * Without an executor, every actor gets its own new thread.
+     *
+     * @throws RejectedExecutionException if the executor cannot admit the run.
      */
     public void startAll() {
+        started = true;
         for (Thread thread : threads) {
             thread.start();  // Starts the thread
         }
+        if (actors.isEmpty()) {
+            return;
+        }
+        actorAcquisitions = new AtomicLongArray(actors.size());
+        clock.start(actors.size(), this::halted);
+        if (executor == null) {
+            for (int i = 0; i < actors.size(); i++) {
+                Runnable actor = actors.get(i);
+                new Thread(() -> runActor(Thread.currentThread().getName(), actor), "sim-actor-" + (i + 1)).start();
+            }
+            return;
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            cancelled = true;
+            clock.cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Ends a run halted by its clock: reports a deadlock unless an actor already did, or the time limit,
+     * and interrupts the actors.
+     *
+     * @param deadlocked True if all actors were waiting for locks, false if the time limit was reached.
+     */
+    private void halted(boolean deadlocked) {
+        if (deadlocked && !deadlockReported) {
+            emit(EventAction.DEADLOCKED, null, null, "at " + clock.millis() + " ms of virtual time");
+        } else if (!deadlocked) {
+            emit(EventAction.TIME_LIMIT, null, null, clock.millis() + " ms");
+        }
+        log.debug("Run {} halted by its clock at {} ms, deadlocked: {}.", runId, clock.millis(), deadlocked);
+        interruptAll();
+    }
+
+    /**
+     * Runs one actor of the task on the calling thread.
+     * While the actor runs, the thread is named after the actor and can be interrupted through {@link #interruptAll()}.
+     * The interrupt status is cleared afterwards, so a pooled thread does not carry it over to another run.
+     *
+     * @param actorName The thread name used while the actor runs.
+     * @param actor     The actor logic.
+     */
+    public void runActor(String actorName, Runnable actor) {
+        Thread thread = Thread.currentThread();
+        String originalName = thread.getName();
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            thread.setName(actorName);
+            actorThreads.add(thread);
+            runningActors++;
+        }
+        meters.actorStarted();
+        long cpuAtStart = currentThreadCpuTime();
+        if (cpuAtStart >= 0) {
+            actorCpuAtStart.put(thread, cpuAtStart);
+            cpuTimeMeasured = true;
+        }
+        try {
+            actor.run();
+        } catch (RuntimeException e) {
+            log.error("Actor {} failed.", actorName, e);
+        } finally {
+            long cpuAtEnd = currentThreadCpuTime();
+            long cpuNanos = cpuAtStart >= 0 && cpuAtEnd >= 0 ? cpuAtEnd - cpuAtStart : -1;
+            if (cpuNanos >= 0) {
+                finishedActorsCpuNanos.add(cpuNanos);
+            }
+            meters.actorFinished(cpuNanos);
+            synchronized (this) {
+                actorCpuAtStart.remove(thread);
+                actorThreads.remove(thread);
+                runningActors--;
+                finishedActors++;
+                Thread.interrupted();
+                notifyAll();
+            }
+            thread.setName(originalName);
+        }
+    }
+
+    /**
+     * Returns the CPU time consumed by the actors of this task so far, including the actors still running.
+     * CPU time is measured through the {@link ThreadMXBean}, which does not measure virtual threads;
+     * actors running on virtual threads are not counted.
+     *
+     * @return The CPU time in nanoseconds, or -1 if the CPU time of no actor could be measured.
+     */
+    public long getCpuTimeNanos() {
+        if (!cpuTimeMeasured) {
+            return -1;
+        }
+        long total = finishedActorsCpuNanos.sum();
+        for (Map.Entry<Thread, Long> entry : actorCpuAtStart.entrySet()) {
+            long now = threadBean.getThreadCpuTime(entry.getKey().threadId());
+            if (now >= 0) {
+                total += now - entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    private static long currentThreadCpuTime() {
+        return threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled()
+                ? threadBean.getCurrentThreadCpuTime()
+                : -1;
+    }
+
+    /**
+     * Returns the threads currently executing the actors of this task.
+     *
+     * @return A snapshot of the actor threads.
+     */
+    public Set<Thread> getActorThreads() {
+        return Set.copyOf(actorThreads);
+    }
+
+    /**
+     * Interrupts a single actor thread if it is still executing an actor of this task.
+     *
+     * @param threadId The ID of the actor thread.
+     * @return True if the thread was interrupted.
+     */
+    public synchronized boolean interruptActor(long threadId) {
+        for (Thread thread : actorThreads) {
+            if (thread.threadId() == threadId) {
+                thread.interrupt();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the threads of this task that are still alive: the actor threads executing an actor of this task
+     * and the started threads added with {@link #addThread(Thread)}.
+     *
+     * @return A snapshot of the live threads.
+     */
+    public synchronized List<Thread> getLiveThreads() {
+        List<Thread> live = new ArrayList<>(actorThreads);
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                live.add(thread);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Checks whether all threads of the task have terminated, either because the task has been started
+     * and all of its actors have run to completion or because the task has been interrupted and none of its
+     * actors is running any more. A task interrupted before it was started is finished right away.
+     *
+     * @return True if no thread of the task is running.
+     */
+    public synchronized boolean isFinished() {
+        if (threads.stream().anyMatch(Thread::isAlive)) {
+            return false;
+        }
+        if (cancelled) {
+            return runningActors == 0;
+        }
+        return started && (actors.isEmpty() || finishedActors == actors.size());
+    }
+
+    /**
+     * Waits until all threads of the task have ended, see {@link #isFinished()}.
+     *
+     * @param timeoutMillis The maximum time to wait in milliseconds.
+     * @return True if the simulation has run to completion, false if the time elapsed first.
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public synchronized boolean awaitFinished(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!isFinished()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the task like a structured scope: interrupts all of its threads and waits up to the given time
+     * for them to end. The actors acquire their locks interruptibly, so only an actor ignoring the interrupt
+     * can outlive the timeout; such threads are returned by {@link #getLiveThreads()}.
+     *
+     * @param timeoutMillis The maximum time to wait for the threads in milliseconds.
+     * @return True if all threads of the task have ended, false if some are still running.
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        interruptAll();
+        return awaitFinished(timeoutMillis);
     }
 
     /**
      * Interrupts all threads that are alive.
      * If a thread is still running, it will be interrupted.
+     * A run still waiting in the admission queue is removed from it and will never start.
      */
     public void interruptAll() {
         threads.forEach(thread -> {
@@ -38,5 +582,14 @@ public class SimulationTask {
                 thread.interrupt();
             }
         });
+        clock.cancel();
+        synchronized (this) {
+            cancelled = true;
+            actorThreads.forEach(Thread::interrupt);
+            notifyAll();
+        }
+        if (executor != null) {
+            executor.cancel(this);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,507 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A generalization of the reservation system of the starvation simulation: any number of high-priority and
+ * low-priority users repeatedly reserve one shared slot. A high-priority user holds the slot for
+ * {@value #HIGH_PRIORITY_HOLD_MILLIS} ms, a low-priority one for {@value #LOW_PRIORITY_HOLD_MILLIS} ms, and both
+ * compete for it again right after releasing it, so without a fair policy the users that just released the slot
+ * keep barging in ahead of the waiting ones. The {@link StarvationStrategy} decides who gets the slot next.
+ * <p>
+ * Besides the users, the scenario adds a monitor actor that publishes every {@value #REPORT_INTERVAL_MILLIS} ms how
+ * many reservations the users made and how long they waited for them, together with Jain's fairness index of the
+ * reservations, see {@link ExperimentStats#jainIndex(long[])}. Runs of up to {@value #VERBOSE_MAX_ACTORS} users
+ * report every reservation and every user; larger runs are summarized per priority class.
+ */
+public class StarvationScenario {
+
+    public static final int MAX_ACTORS_PER_CLASS = 1000;
+    public static final int VERBOSE_MAX_ACTORS = 8;
+    public static final long REPORT_INTERVAL_MILLIS = 1000;
+    public static final long HIGH_PRIORITY_HOLD_MILLIS = 500;
+    public static final long LOW_PRIORITY_HOLD_MILLIS = 1000;
+    public static final long AGING_MILLIS = 250;
+    public static final int HIGH_PRIORITY_TOKENS = 2;
+    public static final int LOW_PRIORITY_TOKENS = 1;
+
+    private static final int HIGH_PRIORITY = 10;
+    private static final int LOW_PRIORITY = 1;
+
+    private final int highPriorityActors;
+    private final int lowPriorityActors;
+    private final StarvationStrategy strategy;
+
+    /**
+     * Creates a scenario.
+     *
+     * @param highPriorityActors The number of high-priority users.
+     * @param lowPriorityActors  The number of low-priority users.
+     * @param strategy           How the users are granted the slot.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     */
+    public StarvationScenario(int highPriorityActors, int lowPriorityActors, StarvationStrategy strategy) {
+        if (highPriorityActors < 1 || highPriorityActors > MAX_ACTORS_PER_CLASS) {
+            throw new IllegalArgumentException("The number of high-priority users must be between 1 and " + MAX_ACTORS_PER_CLASS + ".");
+        }
+        if (lowPriorityActors < 1 || lowPriorityActors > MAX_ACTORS_PER_CLASS) {
+            throw new IllegalArgumentException("The number of low-priority users must be between 1 and " + MAX_ACTORS_PER_CLASS + ".");
+        }
+        this.highPriorityActors = highPriorityActors;
+        this.lowPriorityActors = lowPriorityActors;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Returns the number of high-priority users.
+     *
+     * @return The number of high-priority users.
+     */
+    public int getHighPriorityActors() {
+        return highPriorityActors;
+    }
+
+    /**
+     * Returns the number of low-priority users.
+     *
+     * @return The number of low-priority users.
+     */
+    public int getLowPriorityActors() {
+        return lowPriorityActors;
+    }
+
+    /**
+     * Returns how the users are granted the slot.
+     *
+     * @return The strategy.
+     */
+    public StarvationStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Returns the number of threads a run of the scenario occupies: one per user, one for the fairness monitor
+     * and, with token buckets, one refilling the buckets.
+     *
+     * @return The number of threads.
+     */
+    public int getThreads() {
+        return highPriorityActors + lowPriorityActors + (strategy == StarvationStrategy.TOKEN_BUCKET ? 2 : 1);
+    }
+
+    /**
+     * Returns whether the users of the scenario report their individual reservations.
+     *
+     * @return True for small scenarios.
+     */
+    public boolean isVerbose() {
+        return highPriorityActors + lowPriorityActors <= VERBOSE_MAX_ACTORS;
+    }
+
+    /**
+     * Returns the refill period of the token bucket strategy: the time the slot is held if every user spends all
+     * of its tokens, {@value #HIGH_PRIORITY_TOKENS} per high-priority and {@value #LOW_PRIORITY_TOKENS} per
+     * low-priority user. The buckets never promise more reservations than the slot can serve, so every user
+     * gets its tokens' worth of reservations in every period.
+     *
+     * @return The refill period in milliseconds.
+     */
+    public long getTokenRefillMillis() {
+        return highPriorityActors * HIGH_PRIORITY_TOKENS * HIGH_PRIORITY_HOLD_MILLIS
+                + lowPriorityActors * LOW_PRIORITY_TOKENS * LOW_PRIORITY_HOLD_MILLIS;
+    }
+
+    /**
+     * Describes the scenario for the start event of a run.
+     *
+     * @return A short description of the parameters.
+     */
+    public String describe() {
+        return highPriorityActors + " high-priority and " + lowPriorityActors + " low-priority "
+                + (lowPriorityActors == 1 ? "user" : "users") + ", " + strategy.name().toLowerCase().replace('_', ' ');
+    }
+
+    /**
+     * Adds the users and the monitors of the scenario to a task. The caller starts the task.
+     *
+     * @param task The task of the run.
+     */
+    public void install(SimulationTask task) {
+        int actors = highPriorityActors + lowPriorityActors;
+        boolean verbose = isVerbose();
+        SimulationClock clock = task.getClock();
+        Lock reservation = task.newLock("Reservation", strategy == StarvationStrategy.FAIR_LOCK);
+        Gate gate = switch (strategy) {
+            case FAIR_LOCK -> Gate.OPEN;
+            case PRIORITY_AGING -> new HandoffGate(clock, true);
+            case TICKET -> new HandoffGate(clock, false);
+            case TOKEN_BUCKET -> new TokenBuckets(clock, tokenCapacities());
+        };
+        Shares shares = new Shares(actors, verbose);
+        for (int i = 0; i < actors; i++) {
+            int actor = i;
+            task.addActor(() -> runActor(task, actor, reservation, gate, shares, verbose));
+        }
+        if (gate instanceof TokenBuckets buckets) {
+            task.addMonitor(() -> refill(task, buckets));
+        }
+        task.addMonitor(() -> monitor(task, shares, verbose));
+    }
+
+    private int[] tokenCapacities() {
+        int[] capacities = new int[highPriorityActors + lowPriorityActors];
+        for (int i = 0; i < capacities.length; i++) {
+            capacities[i] = i < highPriorityActors ? HIGH_PRIORITY_TOKENS : LOW_PRIORITY_TOKENS;
+        }
+        return capacities;
+    }
+
+    private void runActor(SimulationTask task, int actor, Lock reservation, Gate gate, Shares shares, boolean verbose) {
+        boolean highPriority = actor < highPriorityActors;
+        String name = actorName(actor);
+        SimulationClock clock = task.getClock();
+        while (!Thread.currentThread().isInterrupted()) {
+            long requestedAt = clock.nanoTime();
+            try {
+                gate.enter(actor, highPriority);
+            } catch (InterruptedException e) {
+                interrupted(task, name, verbose);
+                return;
+            }
+            try {
+                // The gate decides who is next; the lock then records the reservation like any other acquisition.
+                reservation.lockInterruptibly();
+                try {
+                    shares.record(actor, highPriority, clock.nanoTime() - requestedAt);
+                    if (verbose) {
+                        task.emit(EventAction.RESERVED, name, "a slot");
+                    }
+                    task.completed();
+                    task.sleep(highPriority ? HIGH_PRIORITY_HOLD_MILLIS : LOW_PRIORITY_HOLD_MILLIS);
+                } finally {
+                    reservation.unlock();
+                }
+            } catch (InterruptedException e) {
+                interrupted(task, name, verbose);
+            } finally {
+                gate.leave(actor, highPriority);
+            }
+        }
+    }
+
+    private static void interrupted(SimulationTask task, String name, boolean verbose) {
+        if (verbose) {
+            task.emit(EventAction.INTERRUPTED, name, null);
+        }
+        Thread.currentThread().interrupt();
+    }
+
+    private void refill(SimulationTask task, TokenBuckets buckets) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                task.sleep(getTokenRefillMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            buckets.refill();
+        }
+    }
+
+    private void monitor(SimulationTask task, Shares shares, boolean verbose) {
+        int actors = highPriorityActors + lowPriorityActors;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                task.sleep(REPORT_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long[] reservations = shares.reservations();
+            if (verbose) {
+                for (int i = 0; i < actors; i++) {
+                    task.emit(EventAction.RESERVATION_SHARE, actorName(i), null,
+                            reservations[i] + " reservations, " + describeWaits(shares.actorWaits[i]));
+                }
+            } else {
+                task.emit(EventAction.RESERVATION_SHARE, "High-priority users", null,
+                        describeClass(reservations, 0, highPriorityActors, shares.highPriorityWaits));
+                task.emit(EventAction.RESERVATION_SHARE, "Low-priority users", null,
+                        describeClass(reservations, highPriorityActors, actors, shares.lowPriorityWaits));
+            }
+            long total = 0;
+            long lowPriority = 0;
+            for (int i = 0; i < actors; i++) {
+                total += reservations[i];
+                lowPriority += i >= highPriorityActors ? reservations[i] : 0;
+            }
+            task.emit(EventAction.FAIRNESS, null, null, String.format(Locale.ROOT,
+                    "Jain's index %.3f over %d users, %d%% of %d reservations made by low-priority users",
+                    ExperimentStats.jainIndex(reservations), actors, total == 0 ? 0 : lowPriority * 100 / total, total));
+        }
+    }
+
+    private static String describeClass(long[] reservations, int from, int to, LatencyHistogram waits) {
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = from; i < to; i++) {
+            total += reservations[i];
+            min = Math.min(min, reservations[i]);
+            max = Math.max(max, reservations[i]);
+        }
+        return total + " reservations by " + (to - from) + " users (" + min + " to " + max + " each), " + describeWaits(waits);
+    }
+
+    private static String describeWaits(LatencyHistogram waits) {
+        return String.format(Locale.ROOT, "wait p50/p99 %.1f/%.1f ms",
+                waits.getPercentile(50) / 1e6, waits.getPercentile(99) / 1e6);
+    }
+
+    private String actorName(int actor) {
+        if (actor < highPriorityActors) {
+            return highPriorityActors == 1 ? "High-priority user" : "High-priority user " + (actor + 1);
+        }
+        return lowPriorityActors == 1 ? "Low-priority user" : "Low-priority user " + (actor - highPriorityActors + 1);
+    }
+
+    /**
+     * Decides which user may compete for the slot; every user enters the gate before it locks the slot
+     * and leaves it after releasing the slot, also when it has been interrupted meanwhile.
+     */
+    private interface Gate {
+
+        /**
+         * A gate letting everybody through, leaving the order to the lock.
+         */
+        Gate OPEN = new Gate() {
+            @Override
+            public void enter(int actor, boolean highPriority) {
+            }
+
+            @Override
+            public void leave(int actor, boolean highPriority) {
+            }
+        };
+
+        void enter(int actor, boolean highPriority) throws InterruptedException;
+
+        void leave(int actor, boolean highPriority);
+    }
+
+    /**
+     * Admits one user at a time and, when that user leaves, hands the slot over directly to the next waiting user:
+     * the longest waiting one, or with aging the one with the highest priority, where a waiting user gains a level
+     * of priority every {@value #AGING_MILLIS} ms. While a virtual clock schedules the actors, a waiting user hands
+     * the baton back to the scheduler until the slot changes hands, like a contended {@link InstrumentedLock}.
+     */
+    private static final class HandoffGate implements Gate {
+
+        private final SimulationClock clock;
+        private final boolean aging;
+        private final ReentrantLock monitor = new ReentrantLock();
+        private final Condition handedOver = monitor.newCondition();
+        private final List<Waiter> waiters = new ArrayList<>();
+        private boolean taken;
+
+        private HandoffGate(SimulationClock clock, boolean aging) {
+            this.clock = clock;
+            this.aging = aging;
+        }
+
+        @Override
+        public void enter(int actor, boolean highPriority) throws InterruptedException {
+            Waiter me;
+            monitor.lock();
+            try {
+                if (!taken && waiters.isEmpty()) {
+                    taken = true;
+                    return;
+                }
+                me = new Waiter(highPriority ? HIGH_PRIORITY : LOW_PRIORITY, clock.millis());
+                waiters.add(me);
+            } finally {
+                monitor.unlock();
+            }
+            try {
+                while (!me.granted) {
+                    if (clock.isScheduling()) {
+                        clock.awaitRelease();
+                        continue;
+                    }
+                    monitor.lock();
+                    try {
+                        while (!me.granted) {
+                            handedOver.await();
+                        }
+                    } finally {
+                        monitor.unlock();
+                    }
+                }
+            } catch (InterruptedException e) {
+                withdraw(me);
+                throw e;
+            }
+        }
+
+        @Override
+        public void leave(int actor, boolean highPriority) {
+            monitor.lock();
+            try {
+                handOver();
+            } finally {
+                monitor.unlock();
+            }
+            clock.released();
+        }
+
+        /**
+         * Gives up waiting; if the slot has been handed over to the waiter meanwhile, it is passed on.
+         */
+        private void withdraw(Waiter waiter) {
+            monitor.lock();
+            try {
+                if (waiter.granted) {
+                    handOver();
+                } else {
+                    waiters.remove(waiter);
+                }
+            } finally {
+                monitor.unlock();
+            }
+            clock.released();
+        }
+
+        /**
+         * Hands the slot over to the next waiter, or frees it if nobody waits. Must be called holding the monitor.
+         */
+        private void handOver() {
+            if (waiters.isEmpty()) {
+                taken = false;
+                return;
+            }
+            Waiter next = waiters.getFirst();
+            if (aging) {
+                long now = clock.millis();
+                for (Waiter waiter : waiters) {
+                    // The waiters are in the order of their requests, so of equal priorities the longest waiting one wins.
+                    if (waiter.priorityAt(now) > next.priorityAt(now)) {
+                        next = waiter;
+                    }
+                }
+            }
+            waiters.remove(next);
+            next.granted = true;
+            handedOver.signalAll();
+        }
+    }
+
+    /**
+     * A user waiting at a {@link HandoffGate}; its place in the queue of waiters is its ticket.
+     */
+    private static final class Waiter {
+        private final int priority;
+        private final long since;
+        private volatile boolean granted;
+
+        private Waiter(int priority, long since) {
+            this.priority = priority;
+            this.since = since;
+        }
+
+        private long priorityAt(long now) {
+            return priority + (now - since) / AGING_MILLIS;
+        }
+    }
+
+    /**
+     * A bucket of tokens per user, topped up to its capacity at the start of every refill period. A user takes
+     * a token of its own bucket before it competes for the slot, so it makes at most as many reservations per period
+     * as its bucket holds, however often it wins the lock.
+     */
+    private static final class TokenBuckets implements Gate {
+
+        private final SimulationClock clock;
+        private final Semaphore[] buckets;
+        private final int[] capacities;
+
+        private TokenBuckets(SimulationClock clock, int[] capacities) {
+            this.clock = clock;
+            this.capacities = capacities;
+            this.buckets = new Semaphore[capacities.length];
+            for (int i = 0; i < capacities.length; i++) {
+                buckets[i] = new Semaphore(capacities[i]);
+            }
+        }
+
+        @Override
+        public void enter(int actor, boolean highPriority) throws InterruptedException {
+            Semaphore bucket = buckets[actor];
+            while (clock.isScheduling()) {
+                if (bucket.tryAcquire()) {
+                    return;
+                }
+                clock.awaitRelease();
+            }
+            bucket.acquire();
+        }
+
+        @Override
+        public void leave(int actor, boolean highPriority) {
+        }
+
+        /**
+         * Tops all buckets up; only the refilling monitor adds tokens, so a bucket never exceeds its capacity.
+         */
+        private void refill() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i].release(Math.max(0, capacities[i] - buckets[i].availablePermits()));
+            }
+            clock.released();
+        }
+    }
+
+    /**
+     * The reservations of every user and the times they waited for them, shared with the monitor.
+     * The wait times are kept per user only for verbose runs, larger runs keep them per priority class.
+     */
+    private static final class Shares {
+        private final AtomicLongArray reservations;
+        private final LatencyHistogram[] actorWaits;
+        private final LatencyHistogram highPriorityWaits = new LatencyHistogram();
+        private final LatencyHistogram lowPriorityWaits = new LatencyHistogram();
+
+        private Shares(int actors, boolean verbose) {
+            this.reservations = new AtomicLongArray(actors);
+            this.actorWaits = verbose ? new LatencyHistogram[actors] : null;
+            if (verbose) {
+                for (int i = 0; i < actors; i++) {
+                    actorWaits[i] = new LatencyHistogram();
+                }
+            }
+        }
+
+        private void record(int actor, boolean highPriority, long waitNanos) {
+            reservations.incrementAndGet(actor);
+            if (actorWaits != null) {
+                actorWaits[actor].record(waitNanos);
+            }
+            (highPriority ? highPriorityWaits : lowPriorityWaits).record(waitNanos);
+        }
+
+        private long[] reservations() {
+            long[] snapshot = new long[reservations.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = reservations.get(i);
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package cz.cervenka.parallelizationissues.util;
+
+/**
+ * How the actors of a {@link StarvationScenario} are granted the shared reservation,
+ * so that the low-priority actors are not starved by the high-priority ones.
+ */
+public enum StarvationStrategy {
+
+    /**
+     * A fair lock grants the reservation to the actors in the order they requested it.
+     */
+    FAIR_LOCK,
+
+    /**
+     * The releasing actor hands the reservation to the waiting actor with the highest priority, where the
+     * priority of a waiting actor grows with the time it has waited, so every actor eventually gets its turn.
+     */
+    PRIORITY_AGING,
+
+    /**
+     * Every request draws a ticket and the reservation is handed to the tickets strictly in the order they were drawn.
+     */
+    TICKET,
+
+    /**
+     * Every user draws a token from its own bucket, refilled at a fixed rate with more tokens for the high-priority
+     * users, before it competes for the reservation, so no user can take more than its share however often it wins.
+     */
+    TOKEN_BUCKET
+}
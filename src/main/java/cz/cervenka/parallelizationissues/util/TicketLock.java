@@ -0,0 +1,131 @@
+package cz.cervenka.parallelizationissues.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A FIFO spin lock: every thread draws a ticket and waits until its number is served.
+ * Access is granted strictly in the order of the requests, so no thread can starve, but waiting threads
+ * busy-spin instead of parking. After a short spin they yield the processor, which keeps the lock usable
+ * when there are more waiting threads than cores, at the cost of the hand-over latency.
+ * <p>
+ * The lock is not reentrant, does not support conditions and must only be released by the thread holding it.
+ * A thread interrupted in {@link #lockInterruptibly()} abandons its ticket: the ticket is skipped when it comes up,
+ * so the threads queued behind it are still served in order.
+ */
+public class TicketLock implements Lock {
+
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private final AtomicLong nextTicket = new AtomicLong();
+    private final AtomicLong nowServing = new AtomicLong();
+    private final Set<Long> abandonedTickets = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void lock() {
+        long ticket = nextTicket.getAndIncrement();
+        int spins = 0;
+        while (nowServing.get() != ticket) {
+            spins = spin(spins);
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long ticket = nextTicket.getAndIncrement();
+        int spins = 0;
+        while (nowServing.get() != ticket) {
+            if (Thread.interrupted()) {
+                abandon(ticket);
+                throw new InterruptedException();
+            }
+            spins = spin(spins);
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        long serving = nowServing.get();
+        return nextTicket.compareAndSet(serving, serving + 1);
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        while (!tryLock()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        long serving = nowServing.get();
+        if (serving == nextTicket.get()) {
+            throw new IllegalMonitorStateException("The lock is not held.");
+        }
+        serve(serving + 1);
+    }
+
+    /**
+     * Returns the number of threads waiting for their ticket to be served.
+     *
+     * @return The number of waiting threads.
+     */
+    public int getQueueLength() {
+        return (int) Math.max(0, nextTicket.get() - nowServing.get() - 1 - abandonedTickets.size());
+    }
+
+    /**
+     * Conditions are not supported by a ticket lock.
+     *
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("TicketLock does not support conditions.");
+    }
+
+    /**
+     * Serves the given ticket, skipping the tickets abandoned by interrupted threads.
+     */
+    private void serve(long ticket) {
+        nowServing.set(ticket);
+        while (!abandonedTickets.isEmpty() && abandonedTickets.remove(ticket)) {
+            nowServing.set(++ticket);
+        }
+    }
+
+    /**
+     * Gives up a ticket that has not been served. If it is served meanwhile, the lock was handed to the abandoning
+     * thread; whichever of that thread and {@link #serve(long)} removes the ticket first passes the lock on.
+     */
+    private void abandon(long ticket) {
+        abandonedTickets.add(ticket);
+        if (nowServing.get() == ticket && abandonedTickets.remove(ticket)) {
+            serve(ticket + 1);
+        }
+    }
+
+    private static int spin(int spins) {
+        if (++spins < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        return spins;
+    }
+}
@@ -1,7 +1,12 @@
 package cz.cervenka.parallelizationissues;
 
 import cz.cervenka.parallelizationissues.util.Agent;
+import cz.cervenka.parallelizationissues.util.CoordinationMode;
+import cz.cervenka.parallelizationissues.util.RealTimeClock;
 import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.locks.ReentrantLock;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class AgentTest {
@@ -30,4 +35,41 @@ class AgentTest {
         assertFalse(agent.isActing());
     }
 
+    @Test
+    void testAwaitIdleReturnsWhenAgentStopsActing() throws Exception {
+        for (CoordinationMode mode : new CoordinationMode[]{CoordinationMode.SPIN, CoordinationMode.PARK, CoordinationMode.CONDITION}) {
+            assertReturnsWhenAgentStopsActing(mode);
+        }
+    }
+
+    @Test
+    void testAwaitIdleTimesOutWhileAgentActs() throws Exception {
+        for (CoordinationMode mode : CoordinationMode.values()) {
+            Agent agent = new Agent(new ReentrantLock(), mode, new RealTimeClock());
+            agent.act();
+
+            long start = System.nanoTime();
+            assertFalse(agent.awaitIdle(0, 30), mode.name());
+            assertTrue(System.nanoTime() - start < 2_000_000_000L, mode.name());
+        }
+    }
+
+    private static void assertReturnsWhenAgentStopsActing(CoordinationMode mode) throws Exception {
+        Agent agent = new Agent(new ReentrantLock(), mode, new RealTimeClock());
+        agent.act();
+        Thread actor = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            agent.act();
+        });
+        actor.start();
+
+        long start = System.nanoTime();
+        assertTrue(agent.awaitIdle(0, 5_000), mode.name());
+        assertTrue(System.nanoTime() - start < 4_000_000_000L, "the wait should end when the agent stops acting");
+        actor.join();
+    }
 }
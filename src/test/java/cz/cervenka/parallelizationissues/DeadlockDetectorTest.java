@@ -0,0 +1,149 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.services.DeadlockDetector;
+import cz.cervenka.parallelizationissues.services.DeadlockRecovery;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import cz.cervenka.parallelizationissues.services.SimulationService;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadlockDetectorTest {
+
+    private SimulationWebSocketHandler handler;
+    private SimulationExecutor executor;
+    private RunRegistry registry;
+    private SimulationService service;
+
+    @BeforeEach
+    void setUp() {
+        handler = new SimulationWebSocketHandler(SimulationWebSocketHandler.Settings.UNBATCHED);
+        executor = new SimulationExecutor(4, 1);
+        registry = new RunRegistry(handler, executor, null,
+                new RunRegistry.Settings(4, 30000, DeterministicClock.DEFAULT_TIME_LIMIT_MILLIS, 0, 0));
+        service = new SimulationService(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.destroy();
+        executor.destroy();
+        handler.destroy();
+    }
+
+    @Test
+    void testDetectsCycleAndInterruptsVictim() throws Exception {
+        DeadlockDetector detector = new DeadlockDetector(registry, 0, DeadlockRecovery.INTERRUPT_VICTIM);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+        List<SimulationEvent> events = recordEvents(task);
+
+        service.runSimulateDeadlock(task);
+        assertTrue(waitFor(() -> detector.sample() == 1), "deadlock was not detected");
+
+        List<SimulationEvent> cycle = events.stream().filter(e -> e.action() == EventAction.DEADLOCK_DETECTED).toList();
+        assertEquals(2, cycle.size());
+        assertEquals(cycle.get(0).detail(), cycle.get(1).actor());
+        assertEquals(cycle.get(1).detail(), cycle.get(0).actor());
+        assertEquals(Set.of("Resource A", "Resource B"), Set.of(cycle.get(0).resource(), cycle.get(1).resource()));
+        assertTrue(events.stream().anyMatch(e -> e.action() == EventAction.DEADLOCK_RECOVERED));
+
+        assertTrue(waitFor(task::isFinished), "recovery did not release the actors");
+        assertEquals(1, events.stream().filter(e -> e.action() == EventAction.INTERRUPTED).count());
+        assertEquals(0, detector.sample());
+        assertEquals(1L, detector.getReport().get("detectedDeadlocks"));
+    }
+
+    @Test
+    void testReportOnlyLeavesRunDeadlocked() throws Exception {
+        DeadlockDetector detector = new DeadlockDetector(registry, 0, DeadlockRecovery.NONE);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+
+        service.runSimulateDeadlock(task);
+        assertTrue(waitFor(() -> detector.sample() == 1), "deadlock was not detected");
+        assertEquals(0, detector.sample());
+        assertFalse(task.isFinished());
+
+        registry.stop(task.getRunId());
+        assertTrue(waitFor(task::isFinished), "stopping the run did not release the actors");
+    }
+
+    @Test
+    void testLaterDeadlockOfSameRunIsReportedAgain() throws Exception {
+        DeadlockDetector detector = new DeadlockDetector(registry, 0, DeadlockRecovery.INTERRUPT_VICTIM);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+        List<SimulationEvent> events = recordEvents(task);
+        CountDownLatch firstRecovered = new CountDownLatch(1);
+        addDeadlockingPair(task, new CountDownLatch(0));
+        addDeadlockingPair(task, firstRecovered);
+        task.startAll();
+
+        assertTrue(waitFor(() -> detector.sample() == 1), "first deadlock was not detected");
+        assertEquals(0, detector.sample());
+        firstRecovered.countDown();
+
+        assertTrue(waitFor(() -> detector.sample() == 1), "second deadlock of the run was not detected");
+        assertTrue(waitFor(task::isFinished), "recovery did not release the actors");
+        assertEquals(2, events.stream().filter(e -> e.action() == EventAction.DEADLOCK_RECOVERED).count());
+        assertEquals(2L, detector.getReport().get("detectedDeadlocks"));
+    }
+
+    /**
+     * Adds two actors that lock two resources in opposite order once the start signal is given.
+     */
+    private static void addDeadlockingPair(SimulationTask task, CountDownLatch start) {
+        ReentrantLock first = new ReentrantLock();
+        ReentrantLock second = new ReentrantLock();
+        CyclicBarrier bothLocked = new CyclicBarrier(2);
+        task.addActor(() -> lockBoth(start, first, second, bothLocked));
+        task.addActor(() -> lockBoth(start, second, first, bothLocked));
+    }
+
+    private static void lockBoth(CountDownLatch start, ReentrantLock outer, ReentrantLock inner, CyclicBarrier bothLocked) {
+        try {
+            start.await();
+            outer.lockInterruptibly();
+            try {
+                bothLocked.await();
+                inner.lockInterruptibly();
+                inner.unlock();
+            } finally {
+                outer.unlock();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<SimulationEvent> recordEvents(SimulationTask task) {
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        task.setEventSink(events::add);
+        return events;
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
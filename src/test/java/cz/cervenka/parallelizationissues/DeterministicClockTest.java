@@ -0,0 +1,129 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.SimulationService;
+import cz.cervenka.parallelizationissues.services.SolutionService;
+import cz.cervenka.parallelizationissues.util.AcquisitionPattern;
+import cz.cervenka.parallelizationissues.util.DeadlockStrategy;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DeterministicClockTest {
+
+    @Test
+    void testDeadlockIsReachedInVirtualTime() throws Exception {
+        long start = System.nanoTime();
+        SimulationService service = new SimulationService(mock(RunRegistry.class));
+        List<SimulationEvent> events = run(new DeterministicClock(1), service::runSimulateDeadlock);
+
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "the run did not complete in compressed time");
+        SimulationEvent deadlock = events.stream().filter(e -> e.action() == EventAction.DEADLOCKED).findFirst().orElseThrow();
+        assertEquals(1000, deadlock.timestamp());
+        assertEquals(2, events.stream().filter(e -> e.action() == EventAction.WAITING).count());
+        assertEquals(2, events.stream().filter(e -> e.action() == EventAction.INTERRUPTED).count());
+    }
+
+    @Test
+    void testSameSeedGivesSameEventOrder() throws Exception {
+        SimulationService service = new SimulationService(mock(RunRegistry.class));
+        List<String> first = describe(run(new DeterministicClock(42, 20_000), service::runSimulateLivelock));
+        List<String> second = describe(run(new DeterministicClock(42, 20_000), service::runSimulateLivelock));
+
+        assertEquals(first, second);
+        assertTrue(first.size() > 10);
+        assertTrue(first.get(first.size() - 1).startsWith("#" + first.size() + " +20000ms The virtual time limit"));
+    }
+
+    @Test
+    void testScaledScenarioIsReproducible() throws Exception {
+        DiningScenario scenario = new DiningScenario(20, 10, AcquisitionPattern.RANDOM, 3, 5);
+        List<String> first = describe(run(new DeterministicClock(7, 5_000), task -> {
+            scenario.install(task, true);
+            task.startAll();
+        }));
+        List<String> second = describe(run(new DeterministicClock(7, 5_000), task -> {
+            scenario.install(task, true);
+            task.startAll();
+        }));
+
+        assertEquals(first, second);
+        assertEquals(6, first.size());
+    }
+
+    @Test
+    void testFairLockIsFairUnderVirtualClock() throws Exception {
+        SolutionService service = new SolutionService(mock(RunRegistry.class));
+        List<SimulationEvent> events = untilHalted(run(new DeterministicClock(3, 20_000), service::runSolveStarvation));
+
+        long low = events.stream().filter(e -> "Low-priority user".equals(e.actor()) && e.action() == EventAction.RESERVED).count();
+        long high = events.stream().filter(e -> "High-priority user".equals(e.actor()) && e.action() == EventAction.RESERVED).count();
+        assertTrue(low >= 10, "low-priority user starved: " + low);
+        assertTrue(Math.abs(high - low) <= 1, "reservations alternate: " + high + " vs " + low);
+    }
+
+    @Test
+    void testTimedLockAttemptsResolveClassicDeadlock() throws Exception {
+        SolutionService service = new SolutionService(mock(RunRegistry.class));
+        List<SimulationEvent> events = run(new DeterministicClock(9, 60_000),
+                task -> service.runSolveDeadlock(task, DeadlockStrategy.TRY_LOCK_BACKOFF));
+
+        assertTrue(events.stream().anyMatch(e -> e.action() == EventAction.BACKING_OFF));
+        assertEquals(2, events.stream().filter(e -> e.action() == EventAction.LOCKED
+                && ("Thread 1".equals(e.actor()) && "Resource B".equals(e.resource())
+                || "Thread 2".equals(e.actor()) && "Resource A".equals(e.resource()))).count());
+        assertTrue(events.stream().noneMatch(e -> e.action() == EventAction.DEADLOCKED));
+        long backOffs = events.stream().filter(e -> e.action() == EventAction.BACKING_OFF).count();
+        List<String> reports = events.stream().filter(e -> e.action() == EventAction.THROUGHPUT)
+                .map(SimulationEvent::detail).toList();
+        assertFalse(reports.isEmpty());
+        assertTrue(reports.getLast().startsWith("2 critical sections completed, "), reports.getLast());
+        assertTrue(reports.getLast().contains(", " + backOffs + " retries, "), reports.getLast());
+    }
+
+    private static List<SimulationEvent> run(DeterministicClock clock, Consumer<SimulationTask> scenario) throws Exception {
+        SimulationTask task = new SimulationTask("run", "/ws/test", null, clock);
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        task.setEventSink(events::add);
+        scenario.accept(task);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!task.isFinished()) {
+            assertTrue(System.currentTimeMillis() < deadline, "the run did not finish");
+            Thread.sleep(10);
+        }
+        return events;
+    }
+
+    /**
+     * Describes the events up to the one reporting that the clock halted the run.
+     */
+    private static List<String> describe(List<SimulationEvent> events) {
+        return untilHalted(events).stream().map(SimulationEvent::toString).toList();
+    }
+
+    /**
+     * Returns the events up to the one reporting that the clock halted the run; afterwards the actors
+     * run freely until they notice the interrupt, so the later events depend on the real scheduling.
+     */
+    private static List<SimulationEvent> untilHalted(List<SimulationEvent> events) {
+        List<SimulationEvent> halted = new ArrayList<>();
+        for (SimulationEvent event : events) {
+            halted.add(event);
+            if (event.action() == EventAction.TIME_LIMIT || event.action() == EventAction.DEADLOCKED) {
+                break;
+            }
+        }
+        return halted;
+    }
+}
@@ -0,0 +1,113 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.util.AcquisitionPattern;
+import cz.cervenka.parallelizationissues.util.DeadlockStrategy;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiningScenarioTest {
+
+    @Test
+    void testRingWithoutOrderingDeadlocks() throws Exception {
+        SimulationTask task = new SimulationTask();
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        task.setEventSink(events::add);
+
+        new DiningScenario(5, 5, AcquisitionPattern.RING, 2, 50).install(task, false);
+        task.startAll();
+        try {
+            assertTrue(waitFor(() -> events.stream().anyMatch(e -> e.action() == EventAction.DEADLOCKED), 5000),
+                    "deadlock was not reported");
+        } finally {
+            task.interruptAll();
+        }
+        assertTrue(waitFor(task::isFinished, 2000), "actors were not released by the interrupt");
+        assertEquals(1, events.stream().filter(e -> e.action() == EventAction.DEADLOCKED).count());
+    }
+
+    @Test
+    void testGlobalOrderingKeepsManyActorsProgressing() throws Exception {
+        SimulationTask task = new SimulationTask();
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        task.setEventSink(events::add);
+
+        new DiningScenario(200, 50, AcquisitionPattern.RANDOM, 3, 1).install(task, true);
+        task.startAll();
+        try {
+            assertTrue(waitFor(() -> events.stream().filter(e -> e.action() == EventAction.THROUGHPUT).count() >= 2, 5000),
+                    "no progress was reported");
+        } finally {
+            task.interruptAll();
+        }
+        assertTrue(waitFor(task::isFinished, 2000), "actors did not stop");
+
+        assertTrue(events.stream().noneMatch(e -> e.action() == EventAction.DEADLOCKED));
+        assertTrue(events.stream().noneMatch(e -> e.action() == EventAction.LOCKED), "large runs must not report single steps");
+        assertFalse(events.stream().filter(e -> e.action() == EventAction.THROUGHPUT)
+                .allMatch(e -> e.detail().startsWith("0 critical sections")));
+        assertEquals(1, task.getLockStats().size());
+    }
+
+    @Test
+    void testTimedLockAttemptsBackOffInsteadOfDeadlocking() throws Exception {
+        SimulationTask task = new SimulationTask("run", "/ws/test", null, new DeterministicClock(3, 20_000));
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        task.setEventSink(events::add);
+
+        new DiningScenario(5, 5, AcquisitionPattern.RING, 2, 50).install(task, DeadlockStrategy.TRY_LOCK_BACKOFF);
+        task.startAll();
+        assertTrue(task.awaitFinished(10_000), "the run did not finish");
+
+        assertTrue(events.stream().noneMatch(e -> e.action() == EventAction.DEADLOCKED));
+        assertTrue(events.stream().anyMatch(e -> e.action() == EventAction.BACKING_OFF));
+        SimulationEvent last = events.stream().filter(e -> e.action() == EventAction.THROUGHPUT).reduce((a, b) -> b).orElseThrow();
+        assertTrue(last.detail().contains(" retries, "), last.detail());
+        assertTrue(task.getCompletions() > 50, "completions: " + task.getCompletions());
+    }
+
+    @Test
+    void testCoarseLockSerializesTheActors() throws Exception {
+        SimulationTask task = new SimulationTask("run", "/ws/test", null, new DeterministicClock(3, 10_000));
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        task.setEventSink(events::add);
+
+        new DiningScenario(5, 5, AcquisitionPattern.RING, 2, 50).install(task, DeadlockStrategy.COARSE_LOCK);
+        task.startAll();
+        assertTrue(task.awaitFinished(10_000), "the run did not finish");
+
+        assertTrue(events.stream().noneMatch(e -> e.action() == EventAction.DEADLOCKED));
+        assertEquals(List.of("Coarse lock"), List.copyOf(task.getLockStats().keySet()));
+        // One critical section holds the coarse lock for 50 ms, so at most 20 complete per second.
+        assertTrue(task.getCompletions() <= 10_000 / 50 + 1, "completions: " + task.getCompletions());
+    }
+
+    @Test
+    void testRejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new DiningScenario(1, 5, AcquisitionPattern.RING, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> new DiningScenario(5, 1, AcquisitionPattern.RING, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> new DiningScenario(5, 3, AcquisitionPattern.RANDOM, 4, 0));
+        assertThrows(IllegalArgumentException.class, () -> new DiningScenario(5, 5, AcquisitionPattern.RING, 2, -1));
+        assertEquals(2, new DiningScenario(5, 5, AcquisitionPattern.RING, 7, 0).getLocksPerActor());
+    }
+
+    private static boolean waitFor(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+}
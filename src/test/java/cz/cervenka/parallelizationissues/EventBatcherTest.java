@@ -0,0 +1,68 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.EventBatcher;
+import cz.cervenka.parallelizationissues.config.Frame;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventBatcherTest {
+
+    @Test
+    void testFramesOfARunAreDeliveredInOrder() throws Exception {
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        CountDownLatch firstDelivering = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        EventBatcher batcher = new EventBatcher(60_000, 1, (endpoint, runId, frame) -> {
+            if (frame.text().equals("[1]")) {
+                firstDelivering.countDown();
+                try {
+                    releaseFirst.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            delivered.add(frame.text());
+        });
+        try {
+            Thread first = new Thread(() -> batcher.addEncoded("/ws/test", "run", "1", 1));
+            first.start();
+            assertTrue(firstDelivering.await(1, TimeUnit.SECONDS));
+
+            // The batch of the first event has been removed, so the second event fills a new batch of the run.
+            Thread second = new Thread(() -> batcher.addEncoded("/ws/test", "run", "2", 2));
+            second.start();
+            second.join(200);
+            releaseFirst.countDown();
+            first.join(1000);
+            second.join(1000);
+
+            assertEquals(List.of("[1]", "[2]"), delivered);
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    void testWindowCollectsMessagesIntoOneFrame() throws Exception {
+        List<Frame> delivered = new CopyOnWriteArrayList<>();
+        EventBatcher batcher = new EventBatcher(50, 10, (endpoint, runId, frame) -> delivered.add(frame));
+        try {
+            batcher.add("/ws/test", "run", "a");
+            batcher.addEncoded("/ws/test", "run", "[1]", 7);
+            batcher.flush("/ws/test", "run");
+
+            assertEquals(1, delivered.size());
+            assertEquals("[\"a\",[1]]", delivered.get(0).text());
+            assertEquals(7, delivered.get(0).lastSequence());
+            assertEquals(0, batcher.getOpenBatches());
+        } finally {
+            batcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.EventHistory;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventHistoryTest {
+
+    @Test
+    void testEventsAfterSequenceAreReturned() {
+        EventHistory history = new EventHistory("run", 4096);
+        List<SimulationEvent> events = List.of(
+                new SimulationEvent("run", 1, 0, EventAction.STARTED, null, null, "Deadlock"),
+                new SimulationEvent("run", 2, 3, EventAction.LOCKED, "Thread 1", "Resource A", null),
+                new SimulationEvent("run", 3, 1_000, EventAction.WAITING, "Vlákno 2", "Zdroj Č", null));
+        events.forEach(history::append);
+
+        assertEquals(events, history.since(0));
+        assertEquals(events.subList(2, 3), history.since(2));
+        assertTrue(history.since(3).isEmpty());
+        assertEquals(3, history.size());
+        assertEquals(0, history.missedSince(0));
+    }
+
+    @Test
+    void testOldestEventsAreOverwrittenWhenFull() {
+        EventHistory history = new EventHistory("run", 256);
+        List<SimulationEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            SimulationEvent event = new SimulationEvent("run", i, i * 10L, EventAction.ADJUSTING, "Thread " + (i % 2 + 1), null, null);
+            events.add(event);
+            history.append(event);
+        }
+
+        List<SimulationEvent> kept = history.since(0);
+        assertEquals(history.size(), kept.size());
+        assertTrue(kept.size() > 1 && kept.size() < 100);
+        assertEquals(events.subList(100 - kept.size(), 100), kept);
+        assertEquals(100 - kept.size(), history.getEvicted());
+        assertEquals(100 - kept.size(), history.missedSince(0));
+        assertEquals(0, history.missedSince(99));
+    }
+
+    @Test
+    void testEventLargerThanHistoryIsNotKept() {
+        EventHistory history = new EventHistory("run", 64);
+        history.append(new SimulationEvent("run", 1, 0, EventAction.DEADLOCKED, null, null, "x".repeat(100)));
+        history.append(new SimulationEvent("run", 2, 0, EventAction.STOPPED, null, null, null));
+
+        assertEquals(List.of(new SimulationEvent("run", 2, 0, EventAction.STOPPED, null, null, null)), history.since(0));
+        assertEquals(1, history.missedSince(0));
+    }
+}
@@ -0,0 +1,180 @@
+package cz.cervenka.parallelizationissues;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.controllers.EventStreamController;
+import cz.cervenka.parallelizationissues.services.EventStreamService;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import cz.cervenka.parallelizationissues.services.StreamOverflowPolicy;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+class EventStreamServiceTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private SimulationWebSocketHandler handler;
+    private SimulationExecutor executor;
+    private RunRegistry registry;
+    private EventStreamService service;
+
+    @BeforeEach
+    void setUp() {
+        handler = new SimulationWebSocketHandler(SimulationWebSocketHandler.Settings.UNBATCHED);
+        executor = new SimulationExecutor(4, 1);
+        registry = new RunRegistry(handler, executor, null,
+                new RunRegistry.Settings(2, 30000, DeterministicClock.DEFAULT_TIME_LIMIT_MILLIS, 0, 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+        registry.destroy();
+        executor.destroy();
+        handler.destroy();
+    }
+
+    @Test
+    void testReaderIsSentHistoryThenLiveEvents() throws Exception {
+        MockMvc mvc = mvc(16, StreamOverflowPolicy.DROP);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+        task.emit(EventAction.LOCKED, "Thread 1", "Resource A");
+
+        MvcResult result = mvc.perform(get("/api/runs/" + task.getRunId() + "/events")).andReturn();
+        assertTrue(result.getRequest().isAsyncStarted());
+        assertEquals(1, service.getReaderCount(task.getRunId()));
+
+        task.emit(EventAction.WAITING, "Thread 1", "Resource B");
+        List<Long> sequences = await(result.getResponse(), received -> received.contains(2L));
+        assertEquals(1L, sequences.get(0));
+        assertTrue(result.getResponse().getContentAsString().contains("id:2"));
+
+        assertTrue(registry.stop(task.getRunId()));
+        assertEquals(0, service.getReaderCount(task.getRunId()));
+    }
+
+    @Test
+    void testUnknownRunHasNoStream() throws Exception {
+        MockMvc mvc = mvc(16, StreamOverflowPolicy.DROP);
+
+        assertEquals(204, mvc.perform(get("/api/runs/missing/events")).andReturn().getResponse().getStatus());
+    }
+
+    @Test
+    void testReconnectingReaderResumesAfterLastEventId() throws Exception {
+        MockMvc mvc = mvc(16, StreamOverflowPolicy.DROP);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+        for (int i = 0; i < 5; i++) {
+            task.emit(EventAction.LOCKED, "Thread 1", "Resource A");
+        }
+
+        MvcResult result = mvc.perform(get("/api/runs/" + task.getRunId() + "/events")
+                .header("Last-Event-ID", "3")).andReturn();
+
+        assertEquals(List.of(4L, 5L), await(result.getResponse(), received -> received.size() == 2));
+    }
+
+    @Test
+    void testCoalescedEventsArriveInOrder() throws Exception {
+        MockMvc mvc = mvc(64, StreamOverflowPolicy.COALESCE);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+        MvcResult result = mvc.perform(get("/api/runs/" + task.getRunId() + "/events")).andReturn();
+
+        for (int i = 0; i < 200; i++) {
+            task.emit(EventAction.LOCKED, "Thread 1", "Resource A");
+        }
+
+        List<Long> sequences = await(result.getResponse(), received -> received.size() == 200);
+        for (int i = 0; i < sequences.size(); i++) {
+            assertEquals(i + 1, sequences.get(i));
+        }
+    }
+
+    @Test
+    void testDroppedEventsAreReported() throws Exception {
+        MockMvc mvc = mvc(4, StreamOverflowPolicy.DROP);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+        MvcResult result = mvc.perform(get("/api/runs/" + task.getRunId() + "/events")).andReturn();
+
+        for (int i = 0; i < 1000; i++) {
+            task.emit(EventAction.LOCKED, "Thread 1", "Resource A");
+        }
+        Thread.sleep(200);
+        task.emit(EventAction.STARTED, "", "", "last");
+
+        List<Long> sequences = await(result.getResponse(), received -> received.contains(1001L));
+        for (int i = 1; i < sequences.size(); i++) {
+            assertTrue(sequences.get(i - 1) < sequences.get(i));
+        }
+        assertEquals(1001, sequences.size() + droppedNotices(result.getResponse()));
+    }
+
+    private MockMvc mvc(int bufferSize, StreamOverflowPolicy policy) {
+        service = new EventStreamService(registry, handler, bufferSize, policy);
+        return MockMvcBuilders.standaloneSetup(new EventStreamController(service)).build();
+    }
+
+    /**
+     * Waits until the events received by a reader satisfy the condition and returns their sequence numbers.
+     */
+    private static List<Long> await(MockHttpServletResponse response, Predicate<List<Long>> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 3000;
+        List<Long> sequences = sequences(response);
+        while (!condition.test(sequences) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            sequences = sequences(response);
+        }
+        assertTrue(condition.test(sequences), "received " + sequences);
+        return sequences;
+    }
+
+    private static List<Long> sequences(MockHttpServletResponse response) throws Exception {
+        List<Long> sequences = new ArrayList<>();
+        for (JsonNode item : items(response)) {
+            if (item.isArray()) {
+                sequences.add(item.get(0).asLong());
+            }
+        }
+        return sequences;
+    }
+
+    private static long droppedNotices(MockHttpServletResponse response) throws Exception {
+        long dropped = 0;
+        for (JsonNode item : items(response)) {
+            if (item.isTextual()) {
+                dropped += Long.parseLong(item.asText().split(" ")[0]);
+            }
+        }
+        return dropped;
+    }
+
+    private static List<JsonNode> items(MockHttpServletResponse response) throws Exception {
+        List<JsonNode> items = new ArrayList<>();
+        String content = response.getContentAsString();
+        // Only complete messages, the last one may still be being written.
+        for (String line : content.substring(0, content.lastIndexOf("\n\n") + 1).split("\n")) {
+            if (line.startsWith("data:")) {
+                JsonNode frame = JSON.readTree(line.substring("data:".length()));
+                (frame.has("resumed") ? frame.get("resumed") : frame).forEach(items::add);
+            }
+        }
+        return items;
+    }
+}
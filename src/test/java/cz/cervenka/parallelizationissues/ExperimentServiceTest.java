@@ -0,0 +1,85 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.services.ExperimentScenario;
+import cz.cervenka.parallelizationissues.services.ExperimentService;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.ScenarioVariant;
+import cz.cervenka.parallelizationissues.services.SimulationService;
+import cz.cervenka.parallelizationissues.services.SolutionService;
+import cz.cervenka.parallelizationissues.util.AcquisitionPattern;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.ExperimentStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ExperimentServiceTest {
+
+    private final ExperimentService service = new ExperimentService(new SimulationService(mock(RunRegistry.class)),
+            new SolutionService(mock(RunRegistry.class)), 4, 100, 60_000, 10_000, 10_000);
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    void testDeadlockProblemAlwaysDeadlocks() {
+        ExperimentStats stats = service.run(ExperimentScenario.DEADLOCK, ScenarioVariant.PROBLEM, null, 8, 10_000, 1);
+
+        assertEquals(8, stats.getRuns());
+        assertEquals(0, stats.getFailedRuns());
+        assertEquals(1.0, stats.getDeadlockProbability());
+        assertEquals(8, stats.getRunsWithoutProgress());
+    }
+
+    @Test
+    void testDeadlockSolutionMakesProgress() {
+        ExperimentStats stats = service.run(ExperimentScenario.DEADLOCK, ScenarioVariant.SOLUTION, null, 8, 10_000, 1);
+
+        assertEquals(8, stats.getRuns());
+        assertEquals(0.0, stats.getDeadlockProbability());
+        assertEquals(0, stats.getRunsWithoutProgress());
+        assertEquals(16, stats.getCompletions());
+    }
+
+    @Test
+    void testStarvedActorIsReported() {
+        Map<String, Object> summary = service.run(ExperimentScenario.STARVATION, ScenarioVariant.PROBLEM, null, 4, 10_000, 1)
+                .toSummary();
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> perActor = (Map<String, Object>) summary.get("acquisitionsPerActor");
+        assertEquals(8L, perActor.get("actors"));
+        assertEquals(4L, perActor.get("actorsWithoutAcquisition"));
+        assertEquals(4L, summary.get("timeLimitedRuns"));
+    }
+
+    @Test
+    void testSameSeedGivesSameStatistics() {
+        DiningScenario dining = new DiningScenario(12, 6, AcquisitionPattern.RANDOM, 3, 5);
+        Map<String, Object> first = service.run(ExperimentScenario.DINING_DEADLOCK, ScenarioVariant.PROBLEM, dining, 6, 5_000, 9)
+                .toSummary();
+        Map<String, Object> second = service.run(ExperimentScenario.DINING_DEADLOCK, ScenarioVariant.PROBLEM, dining, 6, 5_000, 9)
+                .toSummary();
+
+        assertEquals(first, second);
+        assertEquals(6L, first.get("runs"));
+    }
+
+    @Test
+    void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.run(ExperimentScenario.DEADLOCK, ScenarioVariant.PROBLEM, null, 0, 10_000, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.run(ExperimentScenario.DEADLOCK, ScenarioVariant.PROBLEM, null, 101, 10_000, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.run(ExperimentScenario.DEADLOCK, ScenarioVariant.PROBLEM, null, 1, 60_001, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.run(ExperimentScenario.DINING_DEADLOCK, ScenarioVariant.PROBLEM, null, 1, 10_000, 1));
+    }
+}
@@ -0,0 +1,119 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.util.InstrumentedLock;
+import cz.cervenka.parallelizationissues.util.LatencyHistogram;
+import cz.cervenka.parallelizationissues.util.LockStats;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentedLockTest {
+
+    @Test
+    void testUncontendedAndReentrantAcquisitions() {
+        LockStats stats = new LockStats("Resource A");
+        InstrumentedLock lock = new InstrumentedLock(stats, false);
+
+        lock.lock();
+        lock.lock();
+        lock.unlock();
+        lock.unlock();
+
+        assertEquals(1, stats.getAcquisitions());
+        assertEquals(0, stats.getContended());
+        assertEquals(1, stats.getHoldTimes().getCount());
+        assertEquals(0, stats.getWaitTimes().getMax());
+    }
+
+    @Test
+    void testDescriptionDoesNotDependOnDefaultLocale() {
+        LockStats stats = new LockStats("Resource A");
+        stats.recordAcquisition(1_500_000, true);
+        stats.recordRelease(2_500_000);
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            assertEquals("1 acquisitions, 1 contended, wait p50/p99 1.5/1.5 ms, hold p50/p99 2.5/2.5 ms", stats.describe());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void testContendedAcquisitionRecordsWaitAndHoldTime() throws Exception {
+        SimulationTask task = new SimulationTask();
+        InstrumentedLock lock = task.newLock("Resource A");
+        CountDownLatch held = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            lock.lock();
+            try {
+                held.countDown();
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        owner.start();
+        assertTrue(held.await(1, TimeUnit.SECONDS));
+
+        lock.lock();
+        lock.unlock();
+        owner.join();
+
+        LockStats stats = task.getLockStats().get("Resource A");
+        assertEquals(2, stats.getAcquisitions());
+        assertEquals(1, stats.getContended());
+        assertTrue(stats.getWaitTimes().getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(stats.getHoldTimes().getMax() >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void testFairLockIsGrantedToQueuedWaiterBeforeReleasingThread() throws Exception {
+        InstrumentedLock lock = new InstrumentedLock(new LockStats("Resource A"), true);
+        for (int round = 0; round < 20; round++) {
+            List<String> owners = new CopyOnWriteArrayList<>();
+            lock.lock();
+            Thread waiter = new Thread(() -> {
+                lock.lock();
+                owners.add("waiter");
+                lock.unlock();
+            });
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                Thread.onSpinWait();
+            }
+
+            lock.unlock();
+            lock.lock();
+            owners.add("releaser");
+            lock.unlock();
+            waiter.join(1000);
+
+            assertEquals(List.of("waiter", "releaser"), owners);
+        }
+    }
+
+    @Test
+    void testHistogramPercentilesAreAccurate() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(5_000_000, histogram.getPercentile(50), 5_000_000 * 0.04);
+        assertEquals(9_900_000, histogram.getPercentile(99), 9_900_000 * 0.04);
+        assertEquals(10_000_000, histogram.getPercentile(100));
+        assertEquals(5_000_500, histogram.getMean(), 1);
+        assertEquals(0, new LatencyHistogram().getPercentile(99));
+    }
+}
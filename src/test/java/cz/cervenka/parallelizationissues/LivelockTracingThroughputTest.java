@@ -0,0 +1,113 @@
+package cz.cervenka.parallelizationissues;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+import cz.cervenka.parallelizationissues.config.RingBufferAppender;
+import cz.cervenka.parallelizationissues.util.Agent;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures the throughput of the livelock scenario (without its sleeps) with and without per-step tracing.
+ * Console tracing is simulated by a {@link PrintStream} writing to a null stream, so the measurement shows the
+ * cost of the shared {@code PrintStream} lock and of formatting rather than the speed of the terminal.
+ * The results are printed; only progress is asserted, as absolute numbers depend on the machine.
+ * Being a measurement rather than a unit test, it only runs with {@code mvn -Pbenchmark test}.
+ */
+@Tag("benchmark")
+class LivelockTracingThroughputTest {
+
+    private static final long MEASUREMENT_MILLIS = 300;
+    private static final int PAIRS = 2;
+
+    @Test
+    void testThroughputWithAndWithoutTracing() throws Exception {
+        measure(message -> {
+        }); // warm-up
+        long untraced = measure(message -> {
+        });
+
+        PrintStream console = new PrintStream(OutputStream.nullOutputStream(), false);
+        long consoleTraced = measure(console::println);
+
+        LoggerContext context = new LoggerContext();
+        context.setMDCAdapter(new LogbackMDCAdapter());
+        AppenderBase<ILoggingEvent> sink = new AppenderBase<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                console.println(event.getFormattedMessage());
+            }
+        };
+        sink.setContext(context);
+        sink.start();
+        RingBufferAppender ring = new RingBufferAppender();
+        ring.setContext(context);
+        ring.setName("throughput");
+        ring.addAppender(sink);
+        ring.start();
+        Logger logger = context.getLogger("livelock");
+        logger.setAdditive(false);
+        logger.addAppender(ring);
+        logger.setLevel(Level.DEBUG);
+        long ringTraced = measure(message -> logger.debug("{}", message));
+        logger.setLevel(Level.INFO);
+        long levelDisabled = measure(message -> logger.debug("{}", message));
+        context.stop();
+
+        System.out.printf("Livelock steps per second: untraced=%d, console=%d, ring buffer=%d (dropped %d), DEBUG disabled=%d%n",
+                perSecond(untraced), perSecond(consoleTraced), perSecond(ringTraced), ring.getDroppedCount(),
+                perSecond(levelDisabled));
+        assertTrue(untraced > 0);
+        assertTrue(consoleTraced > 0);
+        assertTrue(ringTraced > 0);
+        assertTrue(levelDisabled > 0);
+    }
+
+    private static long measure(Consumer<String> trace) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder steps = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int pair = 0; pair < PAIRS; pair++) {
+            Agent agent1 = new Agent();
+            Agent agent2 = new Agent();
+            threads.add(new Thread(() -> adjust(agent1, agent2, "Thread 1: Adjusting...", trace, running, steps)));
+            threads.add(new Thread(() -> adjust(agent2, agent1, "Thread 2: Adjusting...", trace, running, steps)));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(MEASUREMENT_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return steps.sum();
+    }
+
+    private static void adjust(Agent self, Agent other, String message, Consumer<String> trace,
+                               AtomicBoolean running, LongAdder steps) {
+        while (running.get()) {
+            if (!other.isActing()) {
+                self.act();
+                trace.accept(message);
+                steps.increment();
+            }
+        }
+    }
+
+    private static long perSecond(long steps) {
+        return steps * 1000 / MEASUREMENT_MILLIS;
+    }
+}
@@ -0,0 +1,130 @@
+package cz.cervenka.parallelizationissues;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+import cz.cervenka.parallelizationissues.config.RingBufferAppender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferAppenderTest {
+
+    private final LoggerContext context = new LoggerContext();
+    private final List<String> written = new CopyOnWriteArrayList<>();
+    private final List<String> threadNames = new CopyOnWriteArrayList<>();
+    private RingBufferAppender ring;
+    private Logger logger;
+
+    @BeforeEach
+    void setUp() {
+        context.setMDCAdapter(new LogbackMDCAdapter());
+        AppenderBase<ILoggingEvent> target = new AppenderBase<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                written.add(event.getFormattedMessage());
+                threadNames.add(event.getThreadName());
+            }
+        };
+        target.setContext(context);
+        target.start();
+
+        ring = new RingBufferAppender();
+        ring.setContext(context);
+        ring.setName("test");
+        ring.setBufferSize(16);
+        ring.addAppender(target);
+        ring.start();
+
+        logger = context.getLogger("ring");
+        logger.setAdditive(false);
+        logger.setLevel(Level.DEBUG);
+        logger.addAppender(ring);
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.stop();
+    }
+
+    @Test
+    void testEventsAreWrittenInOrderOnConsumerThread() {
+        for (int i = 0; i < 10; i++) {
+            logger.debug("step {}", i);
+        }
+        ring.stop();
+
+        assertEquals(10, written.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("step " + i, written.get(i));
+            assertEquals(Thread.currentThread().getName(), threadNames.get(i));
+        }
+        assertEquals(0, ring.getDroppedCount());
+    }
+
+    @Test
+    void testConcurrentProducersLoseNothingWhileBufferHasRoom() throws Exception {
+        int producers = 4;
+        int perProducer = 2000;
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    logger.debug("event");
+                    if (i % 8 == 0) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ring.stop();
+
+        assertEquals(producers * perProducer, written.size() + ring.getDroppedCount());
+    }
+
+    @Test
+    void testFullBufferDropsInsteadOfBlocking() {
+        ring.stop();
+        RingBufferAppender stalled = new RingBufferAppender();
+        stalled.setContext(context);
+        stalled.setName("stalled");
+        stalled.setBufferSize(4);
+        CountDownLatch release = new CountDownLatch(1);
+        AppenderBase<ILoggingEvent> slow = new AppenderBase<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        slow.setContext(context);
+        slow.start();
+        stalled.addAppender(slow);
+        stalled.start();
+        logger.detachAndStopAllAppenders();
+        logger.addAppender(stalled);
+
+        for (int i = 0; i < 20; i++) {
+            logger.debug("flood {}", i);
+        }
+        assertTrue(stalled.getDroppedCount() > 0);
+
+        release.countDown();
+        stalled.stop();
+    }
+}
@@ -0,0 +1,168 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.config.SlowConsumerPolicy;
+import cz.cervenka.parallelizationissues.services.ReplayService;
+import cz.cervenka.parallelizationissues.services.RunJournal;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RunJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRecordedEventsAreReadBack() {
+        RunJournal journal = new RunJournal(true, directory, 1 << 16, 1 << 20);
+        String runId = UUID.randomUUID().toString();
+        journal.recordRun(runId, "/ws/problems/deadlock");
+        List<SimulationEvent> events = List.of(
+                new SimulationEvent(runId, 1, 0, EventAction.STARTED, null, null, "Deadlock"),
+                new SimulationEvent(runId, 2, 3, EventAction.LOCKED, "Thread 1", "Resource A", null),
+                new SimulationEvent(runId, 3, 1_000_000, EventAction.WAITING, "Vlákno 2", "Zdroj Č", null));
+        events.forEach(journal::append);
+        journal.append(new SimulationEvent(UUID.randomUUID().toString(), 1, 0, EventAction.STARTED, null, null, "Other"));
+
+        assertEquals(events, journal.read(runId));
+        assertEquals(new RunJournal.Recording(runId, "/ws/problems/deadlock",
+                journal.getRecording(runId).createdAt(), 3), journal.getRecording(runId));
+        assertEquals(1, journal.getRecordings().size());
+    }
+
+    @Test
+    void testConcurrentAppendsAreAllRecorded() throws Exception {
+        RunJournal journal = new RunJournal(true, directory, 4096, 1 << 20);
+        String runId = UUID.randomUUID().toString();
+        journal.recordRun(runId, "/ws/problems/deadlock");
+        int threads = 8;
+        int perThread = 500;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String actor = "Thread " + t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    journal.append(new SimulationEvent(runId, i, i, EventAction.LOCKED, actor, "Resource " + i, null));
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        List<SimulationEvent> recorded = journal.read(runId);
+        assertEquals(threads * perThread, recorded.size());
+        assertEquals(threads * perThread, journal.getRecording(runId).events());
+        for (int t = 0; t < threads; t++) {
+            String actor = "Thread " + t;
+            assertEquals(LongStream.range(0, perThread).boxed().toList(), recorded.stream()
+                    .filter(event -> actor.equals(event.actor())).map(SimulationEvent::sequence).toList());
+        }
+    }
+
+    @Test
+    void testRecordingsAreRecoveredAfterRestart() {
+        RunJournal journal = new RunJournal(true, directory, 1 << 16, 1 << 20);
+        String runId = UUID.randomUUID().toString();
+        journal.recordRun(runId, "/ws/solutions/livelock");
+        for (int i = 1; i <= 100; i++) {
+            journal.append(new SimulationEvent(runId, i, i * 10L, EventAction.ADJUSTING, "Thread " + (i % 2 + 1), null, null));
+        }
+        List<SimulationEvent> recorded = journal.read(runId);
+        journal.destroy();
+
+        RunJournal reopened = new RunJournal(true, directory, 1 << 16, 1 << 20);
+        assertEquals(recorded, reopened.read(runId));
+        assertEquals(100, reopened.getRecording(runId).events());
+
+        reopened.append(new SimulationEvent(runId, 101, 1010, EventAction.STOPPED, null, null, null));
+        assertEquals(101, reopened.read(runId).size());
+    }
+
+    @Test
+    void testSegmentsRollOverAndOldestAreDeleted() throws IOException {
+        RunJournal journal = new RunJournal(true, directory, 4096, 3 * 4096);
+        String first = UUID.randomUUID().toString();
+        journal.recordRun(first, "/ws/problems/livelock");
+        for (int i = 1; i <= 50; i++) {
+            journal.append(new SimulationEvent(first, i, i, EventAction.ADJUSTING, "Thread 1", null, null));
+        }
+        String last = UUID.randomUUID().toString();
+        journal.recordRun(last, "/ws/problems/livelock");
+        for (int i = 1; i <= 2000; i++) {
+            journal.append(new SimulationEvent(last, i, i, EventAction.ADJUSTING, "Thread 1", null, null));
+        }
+
+        assertNull(journal.getRecording(first));
+        assertTrue(journal.read(first).isEmpty());
+        assertNull(journal.getRecording(last), "the recording started in a deleted segment");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.count());
+        }
+
+        String current = UUID.randomUUID().toString();
+        journal.recordRun(current, "/ws/problems/livelock");
+        journal.append(new SimulationEvent(current, 1, 0, EventAction.STARTED, null, null, "Livelock"));
+        assertEquals(1, journal.read(current).size());
+    }
+
+    @Test
+    void testReplayStreamsRecordedEventsToItsSubscriber() throws Exception {
+        RunJournal journal = new RunJournal(true, directory, 1 << 16, 1 << 20);
+        String runId = UUID.randomUUID().toString();
+        journal.recordRun(runId, "/ws/problems/deadlock");
+        journal.append(new SimulationEvent(runId, 1, 0, EventAction.STARTED, null, null, "Deadlock"));
+        journal.append(new SimulationEvent(runId, 2, 0, EventAction.LOCKED, "Thread 1", "Resource A", null));
+        journal.append(new SimulationEvent(runId, 3, 1000, EventAction.WAITING, "Thread 1", "Resource B", null));
+
+        SimulationWebSocketHandler handler = new SimulationWebSocketHandler(new SimulationWebSocketHandler.Settings(
+                16, SlowConsumerPolicy.DROP_OLDEST, 1000, 1, 0, 1, SimulationWebSocketHandler.DEFAULT_HISTORY_BYTES));
+        ReplayService replays = new ReplayService(journal, handler, 10, 5000);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> replays.open(runId, "/ws/problems/livelock", 1));
+            assertThrows(IllegalArgumentException.class, () -> replays.open(runId, "/ws/problems/deadlock", 0));
+
+            String replayId = replays.open(runId, "/ws/problems/deadlock", 10);
+            WebSocketSession session = mock(WebSocketSession.class);
+            when(session.getUri()).thenReturn(URI.create("ws://localhost/ws/problems/deadlock?run=" + replayId));
+            when(session.isOpen()).thenReturn(true);
+            handler.afterConnectionEstablished(session);
+
+            verify(session, timeout(2000)).sendMessage(new TextMessage("[[1,0,0,null,null,\"Deadlock\"]]"));
+            verify(session, timeout(2000)).sendMessage(new TextMessage("[[3,1000,2,\"Thread 1\",\"Resource B\"]]"));
+            verify(session, timeout(2000)).close(CloseStatus.NORMAL);
+            assertEquals(0, replays.getReplayCount());
+        } finally {
+            replays.destroy();
+            handler.destroy();
+        }
+    }
+}
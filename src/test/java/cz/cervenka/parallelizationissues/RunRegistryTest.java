@@ -0,0 +1,269 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RunRegistryTest {
+
+    private SimulationWebSocketHandler handler;
+    private SimulationExecutor executor;
+    private RunRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        handler = new SimulationWebSocketHandler(SimulationWebSocketHandler.Settings.UNBATCHED);
+        executor = new SimulationExecutor(4, 1);
+        registry = new RunRegistry(handler, executor, null,
+                new RunRegistry.Settings(2, 30000, DeterministicClock.DEFAULT_TIME_LIMIT_MILLIS, 0, 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.destroy();
+        executor.destroy();
+        handler.destroy();
+    }
+
+    @Test
+    void testRunsHaveDistinctIds() {
+        SimulationTask first = registry.open("/ws/problems/deadlock");
+        SimulationTask second = registry.open("/ws/problems/deadlock");
+
+        assertNotEquals(first.getRunId(), second.getRunId());
+        assertSame(first, registry.get(first.getRunId()));
+        assertEquals("/ws/problems/deadlock", second.getEndpoint());
+    }
+
+    @Test
+    void testConcurrentRunCap() {
+        registry.open("/ws/problems/deadlock");
+        SimulationTask second = registry.open("/ws/problems/livelock");
+
+        assertThrows(RejectedExecutionException.class, () -> registry.open("/ws/problems/starvation"));
+
+        assertTrue(registry.stop(second.getRunId()));
+        assertNotNull(registry.open("/ws/problems/starvation"));
+    }
+
+    @Test
+    void testStopOnlyAffectsOwnRun() throws Exception {
+        SimulationTask first = registry.open("/ws/problems/deadlock");
+        SimulationTask second = registry.open("/ws/problems/deadlock");
+        Thread firstThread = new Thread(() -> sleepUntilInterrupted());
+        Thread secondThread = new Thread(() -> sleepUntilInterrupted());
+        first.addThread(firstThread);
+        second.addThread(secondThread);
+        first.startAll();
+        second.startAll();
+
+        assertTrue(registry.stop(first.getRunId()));
+        firstThread.join(1000);
+
+        assertFalse(firstThread.isAlive());
+        assertTrue(secondThread.isAlive());
+        assertNull(registry.get(first.getRunId()));
+        assertFalse(registry.stop(first.getRunId()));
+        secondThread.interrupt();
+    }
+
+    @Test
+    void testSimulationStartsOnceWatchedOffTheConnectionThread() throws Exception {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        registry.bindTo(meters);
+        SimulationTask task = registry.open("/ws/problems/deadlock");
+        CompletableFuture<String> started = new CompletableFuture<>();
+        registry.startWhenWatched(task, () -> started.complete(Thread.currentThread().getName()));
+
+        Thread.sleep(100);
+        assertFalse(started.isDone());
+        assertEquals(1, registry.getPendingRuns());
+
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getUri()).thenReturn(URI.create("ws://localhost/ws/problems/deadlock?run=" + task.getRunId()));
+        when(session.isOpen()).thenReturn(true);
+        handler.afterConnectionEstablished(session);
+
+        assertEquals("sim-starter", started.get(1, TimeUnit.SECONDS));
+        assertEquals(0, registry.getPendingRuns());
+        assertEquals(1, meters.get("simulation.runs.started").tag("endpoint", "/ws/problems/deadlock").counter().count());
+    }
+
+    @Test
+    void testStoppedRunIsNoLongerPending() {
+        SimulationTask task = registry.open("/ws/problems/livelock");
+        registry.startWhenWatched(task, () -> fail("A stopped run must not start."));
+
+        assertTrue(registry.stop(task.getRunId()));
+        assertEquals(0, registry.getPendingRuns());
+    }
+
+    @Test
+    void testSameScenarioJoinsSharedRun() throws Exception {
+        RunRegistry sharing = new RunRegistry(handler, executor, null, new RunRegistry.Settings(2, 30000, 600000, 0, 10000));
+        try {
+            AtomicInteger opened = new AtomicInteger();
+            String scenario = RunRegistry.scenario("/ws/problems/deadlock", null, "CLASSIC");
+            SimulationTask first = sharing.openShared(scenario, () -> open(sharing, opened, "/ws/problems/deadlock"));
+            SimulationTask second = sharing.openShared(scenario, () -> open(sharing, opened, "/ws/problems/deadlock"));
+            SimulationTask other = sharing.openShared(RunRegistry.scenario("/ws/problems/livelock"),
+                    () -> open(sharing, opened, "/ws/problems/livelock"));
+
+            assertSame(first, second);
+            assertNotSame(first, other);
+            assertEquals(2, opened.get());
+            assertEquals(2, sharing.getSpectatorCount(first.getRunId()));
+            assertEquals(3, sharing.getSpectatorCount());
+        } finally {
+            sharing.destroy();
+        }
+    }
+
+    @Test
+    void testSharedRunStopsWhenLastSpectatorLeaves() throws Exception {
+        RunRegistry sharing = new RunRegistry(handler, executor, null, new RunRegistry.Settings(2, 30000, 600000, 0, 10000));
+        try {
+            String scenario = RunRegistry.scenario("/ws/problems/livelock");
+            SimulationTask task = sharing.openShared(scenario, () -> sharing.open("/ws/problems/livelock"));
+            sharing.openShared(scenario, () -> fail("The second spectator must join the run."));
+            WebSocketSession first = mockSession("/ws/problems/livelock?run=" + task.getRunId());
+            WebSocketSession second = mockSession("/ws/problems/livelock?run=" + task.getRunId());
+            handler.afterConnectionEstablished(first);
+            handler.afterConnectionEstablished(second);
+
+            assertTrue(sharing.leave(task.getRunId()));
+            assertSame(task, sharing.get(task.getRunId()));
+            handler.afterConnectionClosed(first, CloseStatus.NORMAL);
+
+            assertTrue(sharing.leave(task.getRunId()));
+            assertNull(sharing.get(task.getRunId()));
+            assertTrue(sharing.getSharedRuns().isEmpty());
+            assertNotSame(task, sharing.openShared(scenario, () -> sharing.open("/ws/problems/livelock")));
+        } finally {
+            sharing.destroy();
+        }
+    }
+
+    @Test
+    void testSpectatorJoiningBeforeConnectingKeepsRunAlive() throws Exception {
+        RunRegistry sharing = new RunRegistry(handler, executor, null, new RunRegistry.Settings(2, 30000, 600000, 0, 10000));
+        try {
+            String scenario = RunRegistry.scenario("/ws/problems/deadlock");
+            SimulationTask task = sharing.openShared(scenario, () -> sharing.open("/ws/problems/deadlock"));
+            WebSocketSession first = mockSession("/ws/problems/deadlock?run=" + task.getRunId());
+            handler.afterConnectionEstablished(first);
+            sharing.openShared(scenario, () -> fail("The second spectator must join the run."));
+
+            assertTrue(sharing.leave(task.getRunId()));
+            handler.afterConnectionClosed(first, CloseStatus.NORMAL);
+            assertSame(task, sharing.get(task.getRunId()));
+
+            WebSocketSession second = mockSession("/ws/problems/deadlock?run=" + task.getRunId());
+            handler.afterConnectionEstablished(second);
+            assertSame(task, sharing.get(task.getRunId()));
+            assertEquals(1, sharing.getSpectatorCount(task.getRunId()));
+
+            assertTrue(sharing.leave(task.getRunId()));
+            assertNull(sharing.get(task.getRunId()));
+        } finally {
+            sharing.destroy();
+        }
+    }
+
+    @Test
+    void testSpectatorNeverJoinsRunStoppedByLastLeave() throws Exception {
+        RunRegistry sharing = new RunRegistry(handler, executor, null, new RunRegistry.Settings(4, 30000, 600000, 0, 10000));
+        try {
+            String scenario = RunRegistry.scenario("/ws/problems/livelock");
+            for (int i = 0; i < 1000; i++) {
+                SimulationTask task = sharing.openShared(scenario, () -> sharing.open("/ws/problems/livelock"));
+                CyclicBarrier start = new CyclicBarrier(2);
+                CompletableFuture<Boolean> left = CompletableFuture.supplyAsync(() -> {
+                    await(start);
+                    return sharing.leave(task.getRunId());
+                });
+                await(start);
+                SimulationTask joined = sharing.openShared(scenario, () -> sharing.open("/ws/problems/livelock"));
+
+                assertTrue(left.get(1, TimeUnit.SECONDS));
+                assertSame(joined, sharing.get(joined.getRunId()), "joined a stopped run in round " + i);
+                sharing.stop(joined.getRunId());
+            }
+        } finally {
+            sharing.destroy();
+        }
+    }
+
+    @Test
+    void testSharedRunIsJoinableOnlyWithinWindow() throws Exception {
+        RunRegistry sharing = new RunRegistry(handler, executor, null, new RunRegistry.Settings(2, 30000, 600000, 0, 50));
+        try {
+            String scenario = RunRegistry.scenario("/ws/problems/starvation");
+            SimulationTask first = sharing.openShared(scenario, () -> sharing.open("/ws/problems/starvation"));
+            Thread.sleep(100);
+            SimulationTask second = sharing.openShared(scenario, () -> sharing.open("/ws/problems/starvation"));
+
+            assertNotSame(first, second);
+            assertEquals(1, sharing.getSpectatorCount(first.getRunId()));
+            assertEquals(1, sharing.getSpectatorCount(second.getRunId()));
+        } finally {
+            sharing.destroy();
+        }
+    }
+
+    @Test
+    void testRunsAreNotSharedWithoutWindow() {
+        String scenario = RunRegistry.scenario("/ws/problems/deadlock");
+
+        assertNotSame(registry.openShared(scenario, () -> registry.open("/ws/problems/deadlock")),
+                registry.openShared(scenario, () -> registry.open("/ws/problems/deadlock")));
+        assertTrue(registry.getSharedRuns().isEmpty());
+    }
+
+    private static SimulationTask open(RunRegistry registry, AtomicInteger opened, String endpoint) {
+        opened.incrementAndGet();
+        return registry.open(endpoint);
+    }
+
+    private static WebSocketSession mockSession(String path) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getUri()).thenReturn(URI.create("ws://localhost" + path));
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleepUntilInterrupted() {
+        try {
+            Thread.sleep(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.services.RunRegistry;
+import cz.cervenka.parallelizationissues.services.RunWatchdog;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import cz.cervenka.parallelizationissues.services.SimulationService;
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunWatchdogTest {
+
+    private SimulationWebSocketHandler handler;
+    private SimulationExecutor executor;
+    private RunRegistry registry;
+    private RunWatchdog watchdog;
+
+    @BeforeEach
+    void setUp() {
+        handler = new SimulationWebSocketHandler(SimulationWebSocketHandler.Settings.UNBATCHED);
+        executor = new SimulationExecutor(32, 4);
+        registry = new RunRegistry(handler, executor, null,
+                new RunRegistry.Settings(20, 30000, DeterministicClock.DEFAULT_TIME_LIMIT_MILLIS, 0, 0));
+        watchdog = new RunWatchdog(registry, 200, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchdog.destroy();
+        registry.destroy();
+        executor.destroy();
+        handler.destroy();
+    }
+
+    @Test
+    void testStoppedDeadlockRunsLeaveNoThreads() throws Exception {
+        SimulationService service = new SimulationService(registry);
+        List<SimulationTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            SimulationTask task = registry.open("/ws/problems/deadlock");
+            service.runSimulateDeadlock(task);
+            tasks.add(task);
+        }
+        awaitDeadlocked(tasks.get(0));
+        for (SimulationTask task : tasks) {
+            assertTrue(registry.stop(task.getRunId()));
+        }
+
+        for (SimulationTask task : tasks) {
+            assertTrue(task.awaitFinished(1000), "run " + task.getRunId() + " leaked " + task.getLiveThreads());
+        }
+        assertEquals(0, executor.getActiveThreads());
+        assertEquals(0, watchdog.check());
+        assertEquals(0L, watchdog.getReport().get("orphanedRunsTotal"));
+    }
+
+    @Test
+    void testThreadsIgnoringInterruptsAreReported() throws Exception {
+        AtomicBoolean released = new AtomicBoolean();
+        SimulationTask task = registry.open("/ws/problems/livelock");
+        task.addActor(() -> {
+            while (!released.get()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        });
+        task.startAll();
+        long started = System.currentTimeMillis() + 2000;
+        while (task.getLiveThreads().isEmpty() && System.currentTimeMillis() < started) {
+            Thread.sleep(10);
+        }
+        assertTrue(registry.stop(task.getRunId()));
+        assertFalse(task.shutdown(100));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (watchdog.getOrphanedThreads() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, watchdog.getOrphanedThreads());
+        assertEquals(1L, watchdog.getReport().get("orphanedRunsTotal"));
+
+        released.set(true);
+        assertTrue(task.awaitFinished(1000));
+        assertEquals(0, watchdog.check());
+        assertTrue(((List<?>) watchdog.getReport().get("orphans")).isEmpty());
+    }
+
+    @Test
+    void testTaskInterruptedBeforeStartIsFinished() {
+        SimulationTask task = new SimulationTask("run", "/ws/test", executor);
+        task.addActor(() -> { });
+        assertFalse(task.isFinished());
+
+        task.interruptAll();
+
+        assertTrue(task.isFinished());
+    }
+
+    private static void awaitDeadlocked(SimulationTask task) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (System.currentTimeMillis() < deadline) {
+            List<Thread> threads = task.getLiveThreads();
+            if (threads.size() == 2 && threads.stream().allMatch(thread -> thread.getState() == Thread.State.WAITING)) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail("the run did not deadlock");
+    }
+}
@@ -0,0 +1,152 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.SessionOutbox;
+import cz.cervenka.parallelizationissues.config.SlowConsumerPolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SessionOutboxTest {
+
+    private final Queue<Runnable> pendingWrites = new ArrayDeque<>();
+    private WebSocketSession session;
+
+    @BeforeEach
+    void setUp() {
+        session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+    }
+
+    private void runWriter() {
+        Runnable next;
+        while ((next = pendingWrites.poll()) != null) {
+            next.run();
+        }
+    }
+
+    @Test
+    void testOfferDoesNotSendOnCallingThread() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 4, SlowConsumerPolicy.DROP_OLDEST, 1000, pendingWrites::add);
+
+        assertTrue(outbox.offer("first"));
+        verify(session, never()).sendMessage(any());
+
+        runWriter();
+        verify(session, times(1)).sendMessage(new TextMessage("first"));
+        assertEquals(0, outbox.getQueuedCount());
+    }
+
+    @Test
+    void testDropOldest() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 2, SlowConsumerPolicy.DROP_OLDEST, 1000, pendingWrites::add);
+
+        outbox.offer("a");
+        outbox.offer("b");
+        outbox.offer("c");
+        assertEquals(1, outbox.getDroppedCount());
+
+        runWriter();
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).sendMessage(new TextMessage("b"));
+        inOrder.verify(session).sendMessage(new TextMessage("c"));
+        verify(session, never()).sendMessage(new TextMessage("a"));
+    }
+
+    @Test
+    void testCoalesceNeverMergesPlainFrames() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 2, SlowConsumerPolicy.COALESCE, 1000, pendingWrites::add);
+
+        outbox.offer("a");
+        outbox.offer("b");
+        outbox.offer("c");
+        assertEquals(1, outbox.getDroppedCount());
+
+        runWriter();
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).sendMessage(new TextMessage("b"));
+        inOrder.verify(session).sendMessage(new TextMessage("c"));
+        verify(session, times(2)).sendMessage(any());
+    }
+
+    @Test
+    void testCoalesceKeepsResumeFrameApart() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 3, SlowConsumerPolicy.COALESCE, 1000, pendingWrites::add);
+
+        outbox.offer("{\"resumed\":[[1]],\"missed\":0}");
+        outbox.offer("[[2]]");
+        outbox.offer("[[3]]");
+        outbox.offer("[[4]]");
+        assertEquals(0, outbox.getDroppedCount());
+
+        runWriter();
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).sendMessage(new TextMessage("{\"resumed\":[[1]],\"missed\":0}"));
+        inOrder.verify(session).sendMessage(new TextMessage("[[2],[3]]"));
+        inOrder.verify(session).sendMessage(new TextMessage("[[4]]"));
+    }
+
+    @Test
+    void testCoalescedFramesAreBounded() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 2, SlowConsumerPolicy.COALESCE, 1000, pendingWrites::add);
+        String large = "[\"" + "x".repeat(SessionOutbox.MAX_COALESCED_LENGTH / 2) + "\"]";
+
+        for (int i = 0; i < 10; i++) {
+            outbox.offer(large);
+        }
+
+        assertEquals(2, outbox.getQueuedCount());
+        assertTrue(outbox.getDroppedCount() > 0);
+        runWriter();
+        verify(session, times(2)).sendMessage(argThat(message ->
+                ((TextMessage) message).getPayload().length() <= SessionOutbox.MAX_COALESCED_LENGTH));
+    }
+
+    @Test
+    void testCoalesceMergesBatchedFrames() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 2, SlowConsumerPolicy.COALESCE, 1000, pendingWrites::add);
+
+        outbox.offer("[\"a\",\"b\"]");
+        outbox.offer("[\"c\"]");
+        outbox.offer("[\"d\"]");
+
+        runWriter();
+        verify(session).sendMessage(new TextMessage("[\"a\",\"b\",\"c\"]"));
+        verify(session).sendMessage(new TextMessage("[\"d\"]"));
+    }
+
+    @Test
+    void testDisconnect() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 1, SlowConsumerPolicy.DISCONNECT, 1000, pendingWrites::add);
+
+        assertTrue(outbox.offer("a"));
+        assertFalse(outbox.offer("b"));
+        assertTrue(outbox.isClosed());
+
+        runWriter();
+        verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+        verify(session, never()).sendMessage(any());
+    }
+
+    @Test
+    void testNormalCloseSendsQueuedMessagesFirst() throws Exception {
+        SessionOutbox outbox = new SessionOutbox(session, 4, SlowConsumerPolicy.DROP_OLDEST, 1000, pendingWrites::add);
+
+        outbox.offer("last words");
+        outbox.close(CloseStatus.NORMAL);
+        assertFalse(outbox.offer("too late"));
+
+        runWriter();
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).sendMessage(new TextMessage("last words"));
+        inOrder.verify(session).close(CloseStatus.NORMAL);
+    }
+}
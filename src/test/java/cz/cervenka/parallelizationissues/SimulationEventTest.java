@@ -0,0 +1,34 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimulationEventTest {
+
+    @Test
+    void testCompactEncoding() {
+        SimulationEvent event = new SimulationEvent("run", 7, 1050, EventAction.LOCKED, "Thread 1", "Resource A", null);
+
+        assertEquals("[7,1050,1,\"Thread 1\",\"Resource A\"]", event.toJson());
+        assertEquals("Thread 1: Locked Resource A.", event.toText());
+    }
+
+    @Test
+    void testEncodingEscapesStrings() {
+        SimulationEvent event = new SimulationEvent("run", 1, 0, EventAction.STARTED, null, null, "Say \"hi\"");
+
+        assertEquals("[1,0,0,null,null,\"Say \\\"hi\\\"\"]", event.toJson());
+        assertEquals("Say \"hi\" simulation started...", event.toText());
+    }
+
+    @Test
+    void testActionCodesMatchTemplateIndexes() {
+        for (EventAction action : EventAction.values()) {
+            assertSame(action, EventAction.fromCode(action.getCode()));
+            assertEquals(action.getTemplate(), EventAction.templates().get(action.getCode()));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.services.ExecutionMode;
+import cz.cervenka.parallelizationissues.services.SimulationExecutor;
+import cz.cervenka.parallelizationissues.util.AcquisitionPattern;
+import cz.cervenka.parallelizationissues.util.DiningScenario;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimulationExecutorTest {
+
+    private SimulationExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = new SimulationExecutor(2, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.destroy();
+    }
+
+    @Test
+    void testAdmissionQueueAndRejection() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(2);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        SimulationTask first = blockingTask("first", 2, firstStarted);
+        SimulationTask second = blockingTask("second", 1, secondStarted);
+        SimulationTask third = blockingTask("third", 1, new CountDownLatch(1));
+
+        first.startAll();
+        assertTrue(firstStarted.await(1, TimeUnit.SECONDS));
+        second.startAll();
+        assertThrows(RejectedExecutionException.class, third::startAll);
+
+        assertEquals(2, executor.getActiveThreads());
+        assertEquals(1, executor.getActiveRuns());
+        assertEquals(1, executor.getQueuedRuns());
+        assertEquals(1, executor.getRejectedRuns());
+        assertTrue(third.isFinished());
+
+        first.interruptAll();
+        assertTrue(secondStarted.await(1, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueuedRuns());
+        second.interruptAll();
+    }
+
+    @Test
+    void testRunLargerThanExecutorIsRejected() {
+        SimulationTask task = blockingTask("huge", 3, new CountDownLatch(3));
+
+        assertThrows(RejectedExecutionException.class, task::startAll);
+        assertEquals(0, executor.getActiveThreads());
+    }
+
+    @Test
+    void testCapacityCheckRefusesScenariosThatNeverFit() {
+        executor.checkCapacity(2);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> executor.checkCapacity(new DiningScenario(2, 2, AcquisitionPattern.RING, 2, 0).getThreads()));
+
+        assertTrue(e.getMessage().contains("at most 2"), e.getMessage());
+        assertEquals(0, executor.getRejectedRuns());
+    }
+
+    @Test
+    void testRunsAreRecordedOnBoundRegistry() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        executor.bindTo(registry);
+        SimulationTask task = new SimulationTask("metered", "/ws/test", executor);
+        task.setEventSink(event -> {
+        });
+        task.addActor(() -> {
+            task.emit(EventAction.STARTED, null, null);
+            task.completed();
+        });
+
+        task.startAll();
+
+        assertTrue(task.awaitFinished(1000));
+        assertEquals(1, registry.get("simulation.actors.started").counter().count());
+        assertEquals(1, registry.get("simulation.completions").counter().count());
+        assertEquals(1, registry.get("simulation.events").tag("action", "STARTED").counter().count());
+        assertEquals(0, registry.get("simulation.actors.live").gauge().value());
+    }
+
+    @Test
+    void testCancelledQueuedRunNeverStarts() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(2);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        SimulationTask first = blockingTask("first", 2, firstStarted);
+        SimulationTask second = blockingTask("second", 1, secondStarted);
+
+        first.startAll();
+        assertTrue(firstStarted.await(1, TimeUnit.SECONDS));
+        second.startAll();
+        second.interruptAll();
+        first.interruptAll();
+
+        assertFalse(secondStarted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, executor.getQueuedRuns());
+    }
+
+    private SimulationTask blockingTask(String runId, int actors, CountDownLatch started) {
+        SimulationTask task = new SimulationTask(runId, "/ws/problems/deadlock", executor);
+        for (int i = 0; i < actors; i++) {
+            task.addActor(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        return task;
+    }
+
+    @Test
+    void testVirtualModeRunsActorsOnVirtualThreads() throws Exception {
+        SimulationExecutor virtualExecutor = new SimulationExecutor(ExecutionMode.VIRTUAL, 2, 1000, 1);
+        try {
+            AtomicBoolean virtual = new AtomicBoolean();
+            CountDownLatch done = new CountDownLatch(1);
+            SimulationTask task = new SimulationTask("virtual", "/ws/test", virtualExecutor);
+            task.addActor(() -> {
+                virtual.set(Thread.currentThread().isVirtual());
+                done.countDown();
+            });
+
+            task.startAll();
+
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+            assertTrue(virtual.get());
+            assertEquals(1000, virtualExecutor.getMaxThreads());
+        } finally {
+            virtualExecutor.destroy();
+        }
+    }
+}
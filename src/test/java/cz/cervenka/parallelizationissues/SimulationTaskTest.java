@@ -1,9 +1,15 @@
 package cz.cervenka.parallelizationissues;
 
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
 import cz.cervenka.parallelizationissues.util.SimulationTask;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class SimulationTaskTest {
@@ -18,4 +24,21 @@ class SimulationTaskTest {
 
         verify(thread, times(1)).start();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testEmittedEventsAreSequencedPerRun() {
+        SimulationTask task = new SimulationTask("run-1", "/ws/problems/deadlock", null);
+        List<SimulationEvent> events = new ArrayList<>();
+        task.setEventSink(events::add);
+
+        task.emit(EventAction.LOCKED, "Thread 1", "Resource A");
+        task.emit(EventAction.WAITING, "Thread 1", "Resource B");
+
+        assertEquals(2, events.size());
+        assertEquals(1, events.get(0).sequence());
+        assertEquals(2, events.get(1).sequence());
+        assertEquals("run-1", events.get(1).runId());
+        assertTrue(events.get(1).timestamp() >= events.get(0).timestamp());
+        assertEquals("Thread 1: Waiting to lock Resource B...", events.get(1).toText());
+    }
+}
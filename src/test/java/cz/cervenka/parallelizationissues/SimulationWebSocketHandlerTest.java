@@ -1,13 +1,27 @@
 package cz.cervenka.parallelizationissues;
 
 import cz.cervenka.parallelizationissues.config.SimulationWebSocketHandler;
+import cz.cervenka.parallelizationissues.config.SlowConsumerPolicy;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.CloseStatus;
 
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -18,7 +32,7 @@ class SimulationWebSocketHandlerTest {
 
     @BeforeEach
     void setUp() {
-        handler = new SimulationWebSocketHandler();
+        handler = new SimulationWebSocketHandler(SimulationWebSocketHandler.Settings.UNBATCHED);
         session = mock(WebSocketSession.class);
     }
 
@@ -38,4 +52,198 @@ class SimulationWebSocketHandlerTest {
 
         verify(session, times(1)).getId();
     }
+
+    @Test
+    void testBroadcastOnlyReachesEndpointSubscribers() throws Exception {
+        WebSocketSession deadlockSession = mockSession("/ws/problems/deadlock");
+        WebSocketSession livelockSession = mockSession("/ws/problems/livelock");
+        handler.afterConnectionEstablished(deadlockSession);
+        handler.afterConnectionEstablished(livelockSession);
+
+        handler.broadcast("/ws/problems/deadlock", "Thread 1: Locked Resource A.");
+
+        verify(deadlockSession, timeout(1000)).sendMessage(new TextMessage("Thread 1: Locked Resource A."));
+        verify(livelockSession, never()).sendMessage(any());
+        verify(livelockSession, times(1)).getUri();
+    }
+
+    @Test
+    void testSubscriberCounts() throws Exception {
+        WebSocketSession first = mockSession("/ws/problems/deadlock");
+        WebSocketSession second = mockSession("/ws/problems/deadlock");
+        handler.afterConnectionEstablished(first);
+        handler.afterConnectionEstablished(second);
+
+        assertEquals(Map.of("/ws/problems/deadlock", 2), handler.getSubscriberCounts());
+
+        handler.afterConnectionClosed(first, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(second, CloseStatus.NORMAL);
+
+        assertTrue(handler.getSubscriberCounts().isEmpty());
+        assertFalse(handler.isConnectionEstablished());
+    }
+
+    @Test
+    void testRunBroadcastOnlyReachesRunSubscribers() throws Exception {
+        WebSocketSession mine = mockSession("/ws/problems/deadlock?run=first");
+        WebSocketSession theirs = mockSession("/ws/problems/deadlock?run=second");
+        handler.afterConnectionEstablished(mine);
+        handler.afterConnectionEstablished(theirs);
+
+        handler.broadcast("/ws/problems/deadlock", "first", "Thread 1: Locked Resource A.");
+
+        verify(mine, timeout(1000)).sendMessage(new TextMessage("Thread 1: Locked Resource A."));
+        verify(theirs, never()).sendMessage(any());
+        assertEquals(1, handler.getSessionRegistry().getRunSubscriberCount("first"));
+    }
+
+    @Test
+    void testLastSubscriberLeavingAbandonsRun() throws Exception {
+        List<String> abandoned = new ArrayList<>();
+        handler.setOnRunAbandonedCallback(abandoned::add);
+        WebSocketSession first = mockSession("/ws/problems/deadlock?run=shared");
+        WebSocketSession second = mockSession("/ws/problems/deadlock?run=shared");
+        handler.afterConnectionEstablished(first);
+        handler.afterConnectionEstablished(second);
+
+        handler.afterConnectionClosed(first, CloseStatus.NORMAL);
+        assertTrue(abandoned.isEmpty());
+
+        handler.afterConnectionClosed(second, CloseStatus.NORMAL);
+        assertEquals(List.of("shared"), abandoned);
+    }
+
+    @Test
+    void testSessionSubscribesToFurtherRuns() throws Exception {
+        List<String> abandoned = new ArrayList<>();
+        handler.setOnRunAbandonedCallback(abandoned::add);
+        WebSocketSession watcher = mockSession("/ws/problems/deadlock?run=first");
+        handler.afterConnectionEstablished(watcher);
+
+        handler.handleTextMessage(watcher, new TextMessage("SUBSCRIBE run/second"));
+        assertEquals(1, handler.getRunSubscriberCount("second"));
+        handler.broadcast("/ws/problems/livelock", "second", "Thread 1: Adjusting...");
+        verify(watcher, timeout(1000)).sendMessage(new TextMessage("Thread 1: Adjusting..."));
+
+        handler.handleTextMessage(watcher, new TextMessage("UNSUBSCRIBE run/second"));
+        assertEquals(0, handler.getRunSubscriberCount("second"));
+        assertEquals(List.of("second"), abandoned);
+        assertEquals(1, handler.getRunSubscriberCount("first"));
+    }
+
+    @Test
+    void testStalledSessionDoesNotStarveOtherSessions() throws Exception {
+        SimulationWebSocketHandler stalling = new SimulationWebSocketHandler(new SimulationWebSocketHandler.Settings(
+                16, SlowConsumerPolicy.DROP_OLDEST, 200, 1, 0, 1, SimulationWebSocketHandler.DEFAULT_HISTORY_BYTES));
+        try {
+            CountDownLatch sending = new CountDownLatch(1);
+            CountDownLatch closedByServer = new CountDownLatch(1);
+            WebSocketSession stalled = mockSession("/ws/problems/deadlock?run=stalled");
+            doAnswer(invocation -> {
+                sending.countDown();
+                // Closing the session aborts the blocked write, as the container does.
+                closedByServer.await();
+                throw new IOException("Session closed");
+            }).when(stalled).sendMessage(any());
+            doAnswer(invocation -> {
+                closedByServer.countDown();
+                return null;
+            }).when(stalled).close(any());
+            WebSocketSession healthy = mockSession("/ws/problems/deadlock?run=healthy");
+            stalling.afterConnectionEstablished(stalled);
+            stalling.afterConnectionEstablished(healthy);
+
+            stalling.broadcast("/ws/problems/deadlock", "stalled", "Thread 1: Locked Resource A.");
+            assertTrue(sending.await(1, TimeUnit.SECONDS));
+            stalling.broadcast("/ws/problems/deadlock", "healthy", "Thread 2: Locked Resource B.");
+
+            verify(healthy, timeout(2000)).sendMessage(new TextMessage("Thread 2: Locked Resource B."));
+            verify(stalled).close(CloseStatus.SESSION_NOT_RELIABLE);
+        } finally {
+            stalling.destroy();
+        }
+    }
+
+    @Test
+    void testBatchingSendsOneFramePerWindow() throws Exception {
+        SimulationWebSocketHandler batching = new SimulationWebSocketHandler(new SimulationWebSocketHandler.Settings(
+                16, SlowConsumerPolicy.DROP_OLDEST, 1000, 1, 50, 3, SimulationWebSocketHandler.DEFAULT_HISTORY_BYTES));
+        try {
+            WebSocketSession watcher = mockSession("/ws/problems/livelock?run=batched");
+            batching.afterConnectionEstablished(watcher);
+
+            batching.broadcast("/ws/problems/livelock", "batched", "Thread 1: Adjusting...");
+            batching.broadcast("/ws/problems/livelock", "batched", "Thread 2: Adjusting...");
+            verify(watcher, timeout(1000)).sendMessage(
+                    new TextMessage("[\"Thread 1: Adjusting...\",\"Thread 2: Adjusting...\"]"));
+
+            batching.broadcast("/ws/problems/livelock", "batched", "a");
+            batching.broadcast("/ws/problems/livelock", "batched", "b");
+            batching.broadcast("/ws/problems/livelock", "batched", "c");
+            verify(watcher, timeout(1000)).sendMessage(new TextMessage("[\"a\",\"b\",\"c\"]"));
+
+            batching.broadcast("/ws/problems/livelock", "batched", "Simulation stopped.");
+            batching.closeRunSessions("batched");
+            verify(watcher, timeout(1000)).sendMessage(new TextMessage("[\"Simulation stopped.\"]"));
+            verify(watcher, times(3)).sendMessage(any());
+        } finally {
+            batching.destroy();
+        }
+    }
+
+    @Test
+    void testReconnectingSessionIsSentMissedEvents() throws Exception {
+        handler.openHistory("resumed");
+        WebSocketSession first = mockSession("/ws/problems/deadlock?run=resumed");
+        handler.afterConnectionEstablished(first);
+        handler.publish("/ws/problems/deadlock", new SimulationEvent("resumed", 1, 0, EventAction.STARTED, null, null, "Deadlock"));
+        verify(first, timeout(1000)).sendMessage(new TextMessage("[[1,0,0,null,null,\"Deadlock\"]]"));
+        handler.afterConnectionClosed(first, CloseStatus.GOING_AWAY);
+
+        handler.publish("/ws/problems/deadlock", new SimulationEvent("resumed", 2, 5, EventAction.LOCKED, "Thread 1", "Resource A", null));
+        handler.publish("/ws/problems/deadlock", new SimulationEvent("resumed", 3, 7, EventAction.LOCKED, "Thread 2", "Resource B", null));
+        WebSocketSession second = mockSession("/ws/problems/deadlock?run=resumed&since=1");
+        handler.afterConnectionEstablished(second);
+        handler.publish("/ws/problems/deadlock", new SimulationEvent("resumed", 4, 9, EventAction.WAITING, "Thread 1", "Resource B", null));
+
+        InOrder order = inOrder(second);
+        order.verify(second, timeout(1000)).sendMessage(new TextMessage(
+                "{\"resumed\":[[2,5,1,\"Thread 1\",\"Resource A\"],[3,7,1,\"Thread 2\",\"Resource B\"]],\"missed\":0}"));
+        order.verify(second, timeout(1000)).sendMessage(new TextMessage("[[4,9,2,\"Thread 1\",\"Resource B\"]]"));
+
+        handler.closeHistory("resumed");
+        WebSocketSession third = mockSession("/ws/problems/deadlock?run=resumed");
+        handler.afterConnectionEstablished(third);
+        verify(third, after(100).never()).sendMessage(any());
+    }
+
+    @Test
+    void testMetricsAreBoundToRegistry() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        handler.bindTo(registry);
+        WebSocketSession healthy = mockSession("/ws/problems/deadlock");
+        WebSocketSession broken = mockSession("/ws/problems/deadlock");
+        doThrow(new IOException("Broken pipe")).when(broken).sendMessage(any());
+        handler.afterConnectionEstablished(healthy);
+        handler.afterConnectionEstablished(broken);
+
+        assertEquals(2, registry.get("simulation.websocket.sessions").tag("endpoint", "/ws/problems/deadlock").gauge().value());
+
+        handler.broadcast("/ws/problems/deadlock", "Thread 1: Locked Resource A.");
+        verify(broken, timeout(1000)).close(CloseStatus.SERVER_ERROR);
+        verify(healthy, timeout(1000)).sendMessage(new TextMessage("Thread 1: Locked Resource A."));
+        handler.afterConnectionClosed(broken, CloseStatus.SERVER_ERROR);
+
+        assertEquals(1, registry.get("simulation.websocket.broadcast").timer().count());
+        assertEquals(1, registry.get("simulation.websocket.send.failures").counter().count());
+        assertEquals(1, registry.get("simulation.websocket.sessions.closed").tag("status", "SERVER_ERROR").counter().count());
+        assertEquals(1, registry.get("simulation.websocket.sessions").tag("endpoint", "/ws/problems/deadlock").gauge().value());
+    }
+
+    private static WebSocketSession mockSession(String path) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getUri()).thenReturn(URI.create("ws://localhost" + path));
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
 }
@@ -0,0 +1,86 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.util.DeterministicClock;
+import cz.cervenka.parallelizationissues.util.EventAction;
+import cz.cervenka.parallelizationissues.util.ExperimentStats;
+import cz.cervenka.parallelizationissues.util.SimulationEvent;
+import cz.cervenka.parallelizationissues.util.SimulationTask;
+import cz.cervenka.parallelizationissues.util.StarvationScenario;
+import cz.cervenka.parallelizationissues.util.StarvationStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StarvationScenarioTest {
+
+    @Test
+    void testEveryStrategyServesLowPriorityUsers() throws Exception {
+        for (StarvationStrategy strategy : StarvationStrategy.values()) {
+            StarvationScenario scenario = new StarvationScenario(3, 2, strategy);
+            SimulationTask task = run(scenario, 11);
+
+            long[] reservations = task.getActorAcquisitions();
+            assertEquals(5, reservations.length);
+            for (int i = 0; i < reservations.length; i++) {
+                assertTrue(reservations[i] >= 3, strategy + ": user " + (i + 1) + " starved with " + reservations[i]);
+            }
+            assertTrue(ExperimentStats.jainIndex(reservations) > 0.7, strategy + ": " + ExperimentStats.jainIndex(reservations));
+        }
+    }
+
+    @Test
+    void testFairnessIsReported() throws Exception {
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        SimulationTask task = new SimulationTask("run", "/ws/test", null, new DeterministicClock(5, 10_000));
+        task.setEventSink(events::add);
+        new StarvationScenario(2, 1, StarvationStrategy.PRIORITY_AGING).install(task);
+        task.startAll();
+        awaitFinished(task);
+
+        assertTrue(events.stream().anyMatch(e -> e.action() == EventAction.RESERVED && "Low-priority user".equals(e.actor())));
+        assertTrue(events.stream().anyMatch(e -> e.action() == EventAction.RESERVATION_SHARE && "High-priority user 2".equals(e.actor())));
+        assertTrue(events.stream().anyMatch(e -> e.action() == EventAction.FAIRNESS && e.detail().startsWith("Jain's index")));
+    }
+
+    @Test
+    void testLargeRunsAreSummarizedPerClass() throws Exception {
+        List<SimulationEvent> events = new CopyOnWriteArrayList<>();
+        SimulationTask task = new SimulationTask("run", "/ws/test", null, new DeterministicClock(5, 5_000));
+        task.setEventSink(events::add);
+        new StarvationScenario(20, 20, StarvationStrategy.TICKET).install(task);
+        task.startAll();
+        awaitFinished(task);
+
+        assertTrue(events.stream().noneMatch(e -> e.action() == EventAction.RESERVED), "large runs must not report single steps");
+        assertTrue(events.stream().anyMatch(e -> e.action() == EventAction.RESERVATION_SHARE && "Low-priority users".equals(e.actor())));
+    }
+
+    @Test
+    void testJainIndex() {
+        assertEquals(1.0, ExperimentStats.jainIndex(new long[]{5, 5, 5, 5}), 1e-9);
+        assertEquals(0.25, ExperimentStats.jainIndex(new long[]{8, 0, 0, 0}), 1e-9);
+        assertEquals(0.5, ExperimentStats.jainIndex(new long[]{3, 3, 0, 0}), 1e-9);
+        assertEquals(1.0, ExperimentStats.jainIndex(new long[]{0, 0}), 1e-9);
+    }
+
+    @Test
+    void testRejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new StarvationScenario(0, 1, StarvationStrategy.TICKET));
+        assertThrows(IllegalArgumentException.class, () -> new StarvationScenario(1, StarvationScenario.MAX_ACTORS_PER_CLASS + 1, StarvationStrategy.TICKET));
+    }
+
+    private static SimulationTask run(StarvationScenario scenario, long seed) throws Exception {
+        SimulationTask task = new SimulationTask("run", "/ws/test", null, new DeterministicClock(seed, 30_000));
+        scenario.install(task);
+        task.startAll();
+        awaitFinished(task);
+        return task;
+    }
+
+    private static void awaitFinished(SimulationTask task) throws Exception {
+        assertTrue(task.awaitFinished(10_000), "the run did not finish");
+    }
+}
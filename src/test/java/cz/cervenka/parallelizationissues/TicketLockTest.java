@@ -0,0 +1,166 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.util.TicketLock;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TicketLockTest {
+
+    @Test
+    void testMutualExclusion() throws Exception {
+        TicketLock lock = new TicketLock();
+        long[] counter = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    lock.lock();
+                    try {
+                        counter[0]++;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, counter[0]);
+        assertEquals(0, lock.getQueueLength());
+    }
+
+    @Test
+    void testTryLockFailsWhileHeld() throws Exception {
+        TicketLock lock = new TicketLock();
+        assertTrue(lock.tryLock());
+
+        boolean[] acquired = new boolean[2];
+        Thread other = new Thread(() -> {
+            acquired[0] = lock.tryLock();
+            try {
+                acquired[1] = lock.tryLock(50, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        other.start();
+        other.join();
+        lock.unlock();
+
+        assertFalse(acquired[0]);
+        assertFalse(acquired[1]);
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+
+    @Test
+    void testInterruptedWaiterAbandonsItsTicket() throws Exception {
+        TicketLock lock = new TicketLock();
+        lock.lock();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                lock.lockInterruptibly();
+                lock.unlock();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiter.start();
+        assertTrue(waitFor(() -> lock.getQueueLength() == 1));
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread next = new Thread(() -> {
+            lock.lock();
+            acquired.set(true);
+            lock.unlock();
+        });
+        next.start();
+        assertTrue(waitFor(() -> lock.getQueueLength() == 2));
+
+        waiter.interrupt();
+        waiter.join(1000);
+        assertTrue(interrupted.get());
+        assertEquals(1, lock.getQueueLength());
+        lock.unlock();
+        next.join(1000);
+
+        assertTrue(acquired.get());
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+
+    @Test
+    void testInterruptsNeverStallTheQueue() throws Exception {
+        TicketLock lock = new TicketLock();
+        long[] counter = new long[1];
+        AtomicLong acquisitions = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 5_000; j++) {
+                    try {
+                        lock.lockInterruptibly();
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                    try {
+                        counter[0]++;
+                        acquisitions.incrementAndGet();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread interrupter = new Thread(() -> {
+            while (threads.stream().anyMatch(Thread::isAlive)) {
+                threads.get(ThreadLocalRandom.current().nextInt(threads.size())).interrupt();
+                Thread.yield();
+            }
+        });
+        interrupter.start();
+        for (Thread thread : threads) {
+            thread.join(10_000);
+            assertFalse(thread.isAlive(), "the queue stalled");
+        }
+        interrupter.join();
+
+        assertEquals(acquisitions.get(), counter[0]);
+        assertEquals(0, lock.getQueueLength());
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+
+    @Test
+    void testUnlockWithoutHoldingFails() {
+        TicketLock lock = new TicketLock();
+
+        assertThrows(IllegalMonitorStateException.class, lock::unlock);
+        assertThrows(UnsupportedOperationException.class, lock::newCondition);
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
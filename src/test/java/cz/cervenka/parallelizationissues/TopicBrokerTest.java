@@ -0,0 +1,112 @@
+package cz.cervenka.parallelizationissues;
+
+import cz.cervenka.parallelizationissues.config.Frame;
+import cz.cervenka.parallelizationissues.config.TopicBroker;
+import cz.cervenka.parallelizationissues.config.TopicSubscriber;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopicBrokerTest {
+
+    private final TopicBroker broker = new TopicBroker();
+
+    @Test
+    void testFrameIsSharedBySubscribers() {
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        RecordingSubscriber other = new RecordingSubscriber();
+        broker.subscribe(TopicBroker.runTopic("run1"), first);
+        broker.subscribe(TopicBroker.runTopic("run1"), second);
+        broker.subscribe(TopicBroker.runTopic("run2"), other);
+
+        Frame frame = new Frame("[[1,0,0,null,null]]", 1, new long[]{1});
+        assertEquals(2, broker.publish(TopicBroker.runTopic("run1"), frame));
+
+        assertSame(frame, first.frames.get(0));
+        assertSame(frame, second.frames.get(0));
+        assertSame(first.frames.get(0).message(), second.frames.get(0).message());
+        assertTrue(other.frames.isEmpty());
+        assertEquals(2, broker.getDeliveredFrames());
+    }
+
+    @Test
+    void testSubscriptionsAreLimited() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        for (int i = 0; i < TopicBroker.MAX_SUBSCRIPTIONS; i++) {
+            assertTrue(broker.subscribe(TopicBroker.runTopic("run" + i), subscriber));
+        }
+
+        assertFalse(broker.subscribe(TopicBroker.runTopic("one-too-many"), subscriber));
+        assertTrue(broker.subscribe(TopicBroker.runTopic("run0"), subscriber));
+        assertEquals(TopicBroker.MAX_SUBSCRIPTIONS, broker.unsubscribeAll(subscriber).size());
+        assertEquals(0, broker.getTopicCount());
+    }
+
+    @Test
+    void testTopicIsRemovedWithItsLastSubscriber() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        String topic = TopicBroker.endpointTopic("/ws/problems/deadlock");
+        broker.subscribe(topic, subscriber);
+        assertEquals("endpoint/ws/problems/deadlock", topic);
+        assertEquals(1, broker.getSubscriberCount(topic));
+
+        assertTrue(broker.unsubscribe(topic, subscriber));
+        assertFalse(broker.unsubscribe(topic, subscriber));
+        assertEquals(0, broker.getTopicCount());
+        assertEquals(0, broker.publish(topic, Frame.of("lost")));
+        assertTrue(subscriber.frames.isEmpty());
+    }
+
+    @Test
+    void testClosingTopicTellsSubscribers() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        broker.subscribe(TopicBroker.runTopic("run1"), subscriber);
+        broker.subscribe(TopicBroker.runTopic("run2"), subscriber);
+
+        assertEquals(1, broker.close(TopicBroker.runTopic("run1")));
+
+        assertEquals(List.of("run/run1"), subscriber.closed);
+        assertEquals(List.of("run/run2"), broker.unsubscribeAll(subscriber));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testStatisticsListTopics() {
+        broker.subscribe(TopicBroker.runTopic("run1"), new RecordingSubscriber());
+        broker.subscribe(TopicBroker.runTopic("run1"), new RecordingSubscriber());
+        broker.publish(TopicBroker.runTopic("run1"), Frame.of("a"));
+        broker.publish(TopicBroker.runTopic("run1"), Frame.of("b"));
+
+        Map<String, Object> statistics = broker.getStatistics();
+        assertEquals(1, statistics.get("topics"));
+        assertEquals(2, statistics.get("subscriptions"));
+        assertEquals(2L, statistics.get("publishedFrames"));
+        assertEquals(4L, statistics.get("deliveredFrames"));
+        Map<String, Object> topic = ((Map<String, Map<String, Object>>) statistics.get("byTopic")).get("run/run1");
+        assertEquals(2, topic.get("subscribers"));
+        assertEquals(2L, topic.get("frames"));
+        assertTrue(TopicBroker.isValid("run/run1"));
+        assertFalse(TopicBroker.isValid("run/"));
+        assertFalse(TopicBroker.isValid("sessions"));
+    }
+
+    private static final class RecordingSubscriber implements TopicSubscriber {
+        private final List<Frame> frames = new ArrayList<>();
+        private final List<String> closed = new ArrayList<>();
+
+        @Override
+        public void deliver(Frame frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void closed(String topic) {
+            closed.add(topic);
+        }
+    }
+}